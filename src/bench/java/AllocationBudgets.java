@@ -0,0 +1,136 @@
+import com.sun.management.ThreadMXBean;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Checks that hot paths stay within a budget of bytes allocated per operation, measured with the thread
+ * allocation counter on a fixed generated ledger. Each path is warmed up first, so the figures reflect compiled
+ * code after escape analysis. Exits with status 1 if any path is over budget, which fails the test phase of every
+ * build, {@code mvn test}, unless it is skipped with {@code -Dallocation.budgets.skip}.
+ */
+public class AllocationBudgets {
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int ROWS = 100_000;
+    private static final int LOOKUPS = 100_000;
+    private static final int WARMUP_INVOCATIONS = 30;
+    private static final int MEASURED_INVOCATIONS = 10;
+    private static final String[] TIME_RANGES = {"Daily", "Weekly", "Monthly", "Total"};
+    private static final double GRAPH_BUDGET_PER_DAY = 4096;
+
+    private static final PrintStream OUT = System.out;
+    private static int failures;
+
+    /**
+     * A unit of work whose allocations are measured.
+     */
+    private interface Invocation {
+        /**
+         * Runs the work once.
+         *
+         * @return A value derived from the work, which keeps the JIT from removing it.
+         */
+        Object invoke();
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String file : new String[]{"expenses.seq", "incomes.seq", "categories.seq", "expenses.bloom", "incomes.bloom"}) {
+            Files.deleteIfExists(Path.of(file));
+        }
+        Properties settings = new Properties();
+        settings.setProperty("seed", "1");
+        settings.setProperty("expenses", Integer.toString(ROWS));
+        LedgerGenerator.fromProperties(settings).generate(Path.of(""));
+
+        CategoryManager categoryManager = new CategoryManager();
+        ExpenseManager expenseManager = new ExpenseManager(categoryManager);
+        IncomeManager incomeManager = new IncomeManager(categoryManager);
+        GraphUI graphUI = new GraphUI(categoryManager, expenseManager, incomeManager);
+        List<Expense> expenses = expenseManager.getExpenses();
+        List<Income> incomes = incomeManager.getIncomes();
+
+        Random random = new Random(1);
+        int[] expenseIds = new int[LOOKUPS];
+        int[] categoryIds = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            expenseIds[i] = 1 + random.nextInt(ROWS);
+            categoryIds[i] = 1 + random.nextInt(categoryManager.getCategoryCount() + 1);
+        }
+
+        OUT.printf("%-32s %14s %14s  %s%n", "Path", "Bytes/op", "Budget", "Result");
+        check("ExpenseManager.getExpenseById", 0.1, LOOKUPS, () -> {
+            long sum = 0;
+            for (int id : expenseIds) {
+                sum += expenseManager.getExpenseById(id).getId();
+            }
+            return sum;
+        });
+        check("CategoryManager.getCategoryName", 0.1, LOOKUPS, () -> {
+            long length = 0;
+            for (int id : categoryIds) {
+                length += categoryManager.getCategoryName(id).length();
+            }
+            return length;
+        });
+        check("Transaction.toString", 1024, 1000, () -> {
+            long length = 0;
+            for (int i = 0; i < 1000; i++) {
+                length += expenses.get(i).toString().length();
+            }
+            return length;
+        });
+        // The graph is printed, so it is sent to a discarding stream while it is measured. Its cost is charged
+        // per day shown, since how many days the shorter ranges cover depends on today's date.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (String timeRange : TIME_RANGES) {
+                int days = Math.max(1, GraphUI.aggregate(expenses, incomes, timeRange, false, 0).size());
+                check("GraphUI.generateGraph(" + timeRange.toLowerCase() + ")", GRAPH_BUDGET_PER_DAY, days, () -> {
+                    graphUI.generateGraph(expenses, incomes, null, null, timeRange, false, 0);
+                    return graphUI;
+                });
+            }
+        } finally {
+            System.setOut(OUT);
+        }
+
+        if (failures > 0) {
+            CONSOLETEXT.printError(failures + " path(s) exceeded their allocation budget.");
+            System.exit(1);
+        }
+        CONSOLETEXT.printSuccess("All paths are within their allocation budgets.");
+    }
+
+    /**
+     * Measures the bytes one operation of a path allocates and compares them with its budget.
+     *
+     * @param name       The name of the path.
+     * @param budget     The most bytes one operation may allocate.
+     * @param operations The number of operations one invocation performs.
+     * @param invocation The work to measure.
+     */
+    private static void check(String name, double budget, long operations, Invocation invocation) {
+        Object sink = null;
+        for (int i = 0; i < WARMUP_INVOCATIONS; i++) {
+            sink = invocation.invoke();
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_INVOCATIONS; i++) {
+            sink = invocation.invoke();
+        }
+        allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+        double perOperation = (double) allocated / (MEASURED_INVOCATIONS * operations);
+        boolean withinBudget = perOperation <= budget;
+        if (!withinBudget) {
+            failures++;
+        }
+        OUT.printf("%-32s %14.1f %14.1f  %s%n", name, perOperation, budget, withinBudget ? "OK" : "OVER BUDGET");
+        Bench.sink = sink;
+    }
+}
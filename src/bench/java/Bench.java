@@ -0,0 +1,113 @@
+import com.sun.management.ThreadMXBean;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * A small benchmark harness that times a piece of work and reports its throughput, allocation rate and garbage
+ * collection activity. Each benchmark is warmed up for {@code bench.warmup} milliseconds and then measured for
+ * {@code bench.time} milliseconds, always running at least a few invocations.
+ */
+public class Bench {
+    private static final long WARMUP_MILLIS = Long.getLong("bench.warmup", 1000);
+    private static final long MEASURE_MILLIS = Long.getLong("bench.time", 3000);
+    private static final int MIN_INVOCATIONS = 3;
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Captured up front so that results still reach the console while a benchmark discards its own output
+    private static final PrintStream OUT = System.out;
+
+    /**
+     * Results are written here so that the JIT cannot remove the work that produced them.
+     */
+    public static volatile Object sink;
+
+    /**
+     * A unit of work to benchmark.
+     */
+    public interface Invocation {
+        /**
+         * Runs the work once.
+         *
+         * @return A value derived from the work, which is kept alive to defeat dead-code elimination.
+         */
+        Object invoke() throws Exception;
+    }
+
+    /**
+     * Prints the header of the results table.
+     */
+    public static void printHeader() {
+        OUT.printf("%-28s %11s %16s %14s %14s %6s %9s%n", "Benchmark", "Rows", "Ops/s", "Bytes/op", "Alloc MB/s", "GCs", "GC ms");
+    }
+
+    /**
+     * Warms up and measures a unit of work, then prints one row of results.
+     *
+     * @param name The name of the benchmark.
+     * @param rows The number of ledger rows the benchmark runs against.
+     * @param operations The number of operations one invocation performs.
+     * @param invocation The work to measure.
+     */
+    public static void run(String name, long rows, long operations, Invocation invocation) throws Exception {
+        loop(invocation, WARMUP_MILLIS);
+        System.gc();
+
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long invocations = loop(invocation, MEASURE_MILLIS);
+        long elapsed = System.nanoTime() - start;
+        allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+
+        double seconds = elapsed / 1e9;
+        long totalOperations = invocations * operations;
+        OUT.printf("%-28s %11d %16.1f %14.1f %14.1f %6d %9d%n", name, rows, totalOperations / seconds,
+                (double) allocated / totalOperations, allocated / seconds / (1024 * 1024),
+                gcCount() - gcCount, gcMillis() - gcMillis);
+    }
+
+    /**
+     * Invokes the work repeatedly until the given time has passed.
+     *
+     * @param invocation The work to run.
+     * @param millis The minimum time to run for.
+     * @return The number of invocations made.
+     */
+    private static long loop(Invocation invocation, long millis) throws Exception {
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        long invocations = 0;
+        while (invocations < MIN_INVOCATIONS || System.nanoTime() < deadline) {
+            sink = invocation.invoke();
+            invocations++;
+        }
+        return invocations;
+    }
+
+    /**
+     * Gets the total number of collections across all garbage collectors.
+     *
+     * @return The collection count.
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Gets the total time spent in all garbage collectors.
+     *
+     * @return The collection time in milliseconds.
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
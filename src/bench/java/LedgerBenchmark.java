@@ -0,0 +1,111 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Benchmarks the ledger load and save paths, ID and category lookups, and graph generation at several ledger
+ * sizes. The ledger files are written to, and read from, the working directory, which the {@code bench} profile
+ * sets to {@code target/bench}. Run with
+ * {@code mvn -Pbench compile exec:exec -Dbench.class=LedgerBenchmark -Dbench.args="10000 1000000 10000000"},
+ * giving the JVM enough heap for the largest size through {@code -Dbench.jvmArgs=-Xmx6g}.
+ */
+public class LedgerBenchmark {
+    private static final int CATEGORIES = 50;
+    private static final int LOOKUPS = 1_000_000;
+    private static final String[] TIME_RANGES = {"Daily", "Weekly", "Monthly", "Total"};
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[]{10_000, 1_000_000, 10_000_000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        Bench.printHeader();
+        for (int rows : sizes) {
+            run(rows);
+        }
+    }
+
+    /**
+     * Runs every benchmark against a freshly written ledger of the given size.
+     *
+     * @param rows The number of expense rows.
+     */
+    private static void run(int rows) throws Exception {
+        writeLedger(rows);
+        CategoryManager categoryManager = new CategoryManager();
+        Bench.run("expenses.load", rows, rows, () -> new ExpenseManager(categoryManager));
+
+        ExpenseManager expenseManager = new ExpenseManager(categoryManager);
+        IncomeManager incomeManager = new IncomeManager(categoryManager);
+        Bench.run("expenses.save", rows, rows, () -> {
+            expenseManager.saveExpenses();
+            return expenseManager;
+        });
+
+        Random random = new Random(rows);
+        int[] expenseIds = new int[LOOKUPS];
+        int[] categoryIds = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            expenseIds[i] = 1 + random.nextInt(rows);
+            categoryIds[i] = 1 + random.nextInt(CATEGORIES + 1);
+        }
+        Bench.run("expenses.getExpenseById", rows, LOOKUPS, () -> {
+            long sum = 0;
+            for (int id : expenseIds) {
+                sum += expenseManager.getExpenseById(id).getId();
+            }
+            return sum;
+        });
+        Bench.run("categories.isValidCategory", rows, LOOKUPS, () -> {
+            int valid = 0;
+            for (int id : categoryIds) {
+                valid += categoryManager.isValidCategory(id) ? 1 : 0;
+            }
+            return valid;
+        });
+        Bench.run("categories.getCategoryName", rows, LOOKUPS, () -> {
+            long length = 0;
+            for (int id : categoryIds) {
+                length += categoryManager.getCategoryName(id).length();
+            }
+            return length;
+        });
+
+        // The graph is printed, so it is sent to a discarding stream for the duration of the benchmark
+        GraphUI graphUI = new GraphUI(categoryManager, expenseManager, incomeManager);
+        PrintStream console = System.out;
+        for (String timeRange : TIME_RANGES) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                Bench.run("graph." + timeRange.toLowerCase(), rows, rows, () -> {
+                    graphUI.generateGraph(expenseManager.getExpenses(), incomeManager.getIncomes(),
+                            expenseManager.getArchive(), incomeManager.getArchive(), timeRange, false, 0);
+                    return graphUI;
+                });
+            } finally {
+                System.setOut(console);
+            }
+        }
+    }
+
+    /**
+     * Generates a ledger with the given number of expense rows, a tenth as many income rows, and dates spread
+     * over the last three years.
+     *
+     * @param rows The number of expense rows.
+     */
+    private static void writeLedger(int rows) throws IOException {
+        for (String file : new String[]{"expenses.seq", "incomes.seq", "categories.seq", "expenses.bloom", "incomes.bloom"}) {
+            Files.deleteIfExists(Path.of(file));
+        }
+        Properties settings = new Properties();
+        settings.setProperty("seed", Integer.toString(rows));
+        settings.setProperty("expenses", Integer.toString(rows));
+        settings.setProperty("categories", Integer.toString(CATEGORIES));
+        LedgerGenerator.fromProperties(settings).generate(Path.of(""));
+    }
+}
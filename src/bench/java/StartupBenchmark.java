@@ -0,0 +1,97 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Measures the time from launching the console application to the first home menu being printed.
+ * Each run starts a fresh JVM in a scratch directory holding a generated ledger, so the figures include JVM
+ * start-up and class loading. Run with {@code mvn -Pbench compile exec:exec -Dbench.class=StartupBenchmark -Dbench.args="<rows> <runs>"}, adding
+ * the {@code appcds} profile and the {@code package} phase to measure against the class-data-sharing archive.
+ */
+public class StartupBenchmark {
+    private static final long BUDGET_MILLIS = 200;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Path directory = Files.createTempDirectory("startup-bench");
+        writeLedger(directory, rows);
+
+        // The appcds profile points these at the packaged jar and its archive, as CDS only archives jar classes
+        String archive = System.getProperty("startup.archive");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (archive != null) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("startup.classpath", System.getProperty("java.class.path")));
+        command.add("Main");
+
+        long[] millis = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            millis[i] = timeToFirstMenu(command, directory);
+        }
+        Arrays.sort(millis);
+        long median = millis[runs / 2];
+        System.out.printf("Rows: %d, runs: %d, class-data sharing: %s%n", rows, runs, archive != null ? "on" : "off");
+        System.out.printf("Time to first menu: min %d ms, median %d ms, max %d ms%n", millis[0], median, millis[runs - 1]);
+        if (median > BUDGET_MILLIS) {
+            CONSOLETEXT.printWarning("Median start-up exceeds the " + BUDGET_MILLIS + " ms budget.");
+        } else {
+            CONSOLETEXT.printSuccess("Median start-up is within the " + BUDGET_MILLIS + " ms budget.");
+        }
+    }
+
+    /**
+     * Launches the application once and waits for the home menu to be printed.
+     *
+     * @param command The command line that starts the application.
+     * @param directory The working directory holding the ledger files.
+     * @return The elapsed time in milliseconds.
+     */
+    private static long timeToFirstMenu(List<String> command, Path directory) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).start();
+        long elapsed = -1;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains("Home Menu")) {
+                    elapsed = (System.nanoTime() - start) / 1_000_000;
+                    break;
+                }
+            }
+            // Choose "Exit" so the run also covers a clean shutdown
+            process.getOutputStream().write("6\n".getBytes(StandardCharsets.UTF_8));
+            process.getOutputStream().close();
+            while (reader.readLine() != null) {
+                // Drain the remaining output
+            }
+        }
+        process.waitFor();
+        if (elapsed < 0) {
+            throw new IllegalStateException("The application exited before showing the home menu.");
+        }
+        return elapsed;
+    }
+
+    /**
+     * Generates a ledger with the given number of expense rows.
+     *
+     * @param directory The directory to write to.
+     * @param rows The number of expense rows.
+     */
+    private static void writeLedger(Path directory, int rows) throws IOException {
+        Properties settings = new Properties();
+        settings.setProperty("expenses", Integer.toString(rows));
+        LedgerGenerator.fromProperties(settings).generate(directory);
+    }
+}
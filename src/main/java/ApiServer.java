@@ -0,0 +1,871 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Serves the categories, incomes and expenses as a local HTTP/JSON API, and operational metrics in the
+ * Prometheus text format at /metrics.
+ * Every request is handled on its own virtual thread.
+ */
+public class ApiServer {
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10_000;
+
+    private final CategoryManager categoryManager;
+    private final ExpenseManager expenseManager;
+    private final IncomeManager incomeManager;
+    private final CategoryTotals<Expense> expenseTotals;
+    private final CategoryTotals<Income> incomeTotals;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LedgerWatcher watcher;
+    private final AutosaveScheduler autosave = new AutosaveScheduler();
+    private final EditHistory history = new EditHistory();
+
+    /**
+     * Adapts the expense and income managers to a common set of operations.
+     */
+    private interface Ledger {
+        void forEachBetween(LocalDate from, LocalDate to, Consumer<? super Transaction> action);
+
+        Transaction byId(int id);
+
+        DescriptionDictionary.Entry lookupDescription(String description);
+
+        Transaction add(String description, double amount, int categoryId, LocalDate date, String currency);
+
+        Transaction addUnlessDuplicate(String description, double amount, int categoryId, LocalDate date, String currency);
+
+        Transaction update(int id, String description, double amount, int categoryId, LocalDate date, String currency);
+
+        boolean remove(int id);
+
+        int recategorize(TransactionFilter filter, int categoryId);
+
+        int scale(TransactionFilter filter, double factor);
+
+        int removeAll(TransactionFilter filter);
+    }
+
+    /**
+     * Constructs an ApiServer bound to the loopback interface on the given port.
+     *
+     * @param port The TCP port to listen on.
+     * @throws IOException If the server socket cannot be bound.
+     */
+    public ApiServer(int port) throws IOException {
+        categoryManager = new CategoryManager();
+        expenseManager = new ExpenseManager(categoryManager);
+        incomeManager = new IncomeManager(categoryManager);
+        categoryManager.registerMetrics();
+        expenseManager.registerMetrics();
+        incomeManager.registerMetrics();
+        // Requests only change the ledgers in memory; the autosave thread writes them shortly after
+        categoryManager.setAutosave(autosave.register("categories", categoryManager::saveCategories));
+        expenseManager.setAutosave(autosave.register("expenses", expenseManager::saveExpenses));
+        incomeManager.setAutosave(autosave.register("incomes", incomeManager::saveIncomes));
+        categoryManager.setHistory(history);
+        expenseManager.setHistory(history);
+        incomeManager.setHistory(history);
+        watcher = new LedgerWatcher(Path.of("").toAbsolutePath());
+        expenseManager.watch(watcher);
+        incomeManager.watch(watcher);
+        watcher.watch(FxRates.FX_FILE, FxRates::reload);
+        expenseTotals = new CategoryTotals<>(expenseManager::getExpenses, categoryManager::getTree,
+                () -> FxRates.shared().toReportingCurrency());
+        incomeTotals = new CategoryTotals<>(incomeManager::getIncomes, categoryManager::getTree,
+                () -> FxRates.shared().toReportingCurrency());
+        expenseManager.getEvents().subscribe(expenseTotals);
+        incomeManager.getEvents().subscribe(incomeTotals);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.setExecutor(executor);
+        Ledger expenses = expenseLedger();
+        Ledger incomes = incomeLedger();
+        server.createContext("/categories", exchange -> handle(exchange, this::handleCategories));
+        server.createContext("/expenses", exchange -> handle(exchange, e -> handleTransactions(e, "/expenses", expenses)));
+        server.createContext("/incomes", exchange -> handle(exchange, e -> handleTransactions(e, "/incomes", incomes)));
+        server.createContext("/expenses/bulk", exchange -> handle(exchange, e -> handleBulk(e, expenses)));
+        server.createContext("/incomes/bulk", exchange -> handle(exchange, e -> handleBulk(e, incomes)));
+        server.createContext("/graph", exchange -> handle(exchange, this::handleGraph));
+        server.createContext("/undo", exchange -> handle(exchange, e -> handleHistory(e, true)));
+        server.createContext("/redo", exchange -> handle(exchange, e -> handleHistory(e, false)));
+        server.createContext("/export", exchange -> handle(exchange, this::handleExport));
+        server.createContext("/totals", exchange -> handle(exchange, this::handleTotals));
+        server.createContext("/metrics", exchange -> handle(exchange, this::handleMetrics));
+    }
+
+    /**
+     * Starts serving requests and saves all data when the JVM shuts down.
+     */
+    public void start() {
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+        CONSOLETEXT.printSuccess("Expense Tracker API listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+    }
+
+    /**
+     * Stops serving requests and saves whatever the autosave thread has not written yet.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        watcher.close();
+        autosave.close();
+    }
+
+    /**
+     * Handles a single HTTP exchange.
+     */
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Runs a handler, turning invalid input into a 400 response and closing the exchange.
+     * If the handler fails after the response headers went out, the exchange is left open and the exception
+     * propagates, so that the server drops the connection and the client sees the response cut short instead of
+     * an error appended to a partial body.
+     *
+     * @param exchange The HTTP exchange.
+     * @param handler  The handler for the requested path.
+     */
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            handler.handle(exchange);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            if (exchange.getResponseCode() != -1) {
+                throw e;
+            }
+            sendError(exchange, 400, e.getMessage());
+        }
+        exchange.close();
+    }
+
+    /**
+     * Handles requests to /categories and /categories/{id}.
+     *
+     * @param exchange The HTTP exchange.
+     */
+    private void handleCategories(HttpExchange exchange) throws IOException {
+        Integer id = pathId(exchange, "/categories");
+        String method = exchange.getRequestMethod();
+        if (id == null) {
+            switch (method) {
+                case "GET" -> {
+                    StringBuilder json = new StringBuilder("[");
+                    synchronized (categoryManager) {
+                        for (Category category : categoryManager.getCategories()) {
+                            Json.appendCategory(json.length() > 1 ? json.append(',') : json, category);
+                        }
+                    }
+                    send(exchange, 200, json.append(']'));
+                }
+                case "POST" -> {
+                    Map<String, String> body = readBody(exchange);
+                    Category category = categoryManager.addCategory(body.get("name"),
+                            body.containsKey("parentId") ? parseInt(body.get("parentId")) : 0);
+                    send(exchange, 201, Json.appendCategory(new StringBuilder(), category));
+                }
+                default -> sendError(exchange, 405, "Method not allowed.");
+            }
+            return;
+        }
+        switch (method) {
+            case "GET" -> {
+                Category category = categoryManager.getCategoryById(id);
+                if (category == null) {
+                    sendError(exchange, 404, "Category not found.");
+                } else {
+                    send(exchange, 200, Json.appendCategory(new StringBuilder(), category));
+                }
+            }
+            case "PUT" -> {
+                Map<String, String> body = readBody(exchange);
+                Category category = categoryManager.getCategoryById(id);
+                if (category != null) {
+                    // A missing name or parent keeps its existing value
+                    category = categoryManager.updateCategory(id, body.getOrDefault("name", category.getName()),
+                            body.containsKey("parentId") ? parseInt(body.get("parentId")) : category.getParentId());
+                }
+                if (category == null) {
+                    sendError(exchange, 404, "Category not found.");
+                } else {
+                    send(exchange, 200, Json.appendCategory(new StringBuilder(), category));
+                }
+            }
+            case "DELETE" -> {
+                String conflict = null;
+                boolean removed = false;
+                // Holding every lock, in the order BatchRunner takes them, keeps a transaction or a subcategory from
+                // being added to the category between the checks and the removal
+                synchronized (categoryManager) {
+                    synchronized (expenseManager) {
+                        synchronized (incomeManager) {
+                            if (expenseManager.usesCategory(id) || incomeManager.usesCategory(id)) {
+                                conflict = "Category is being used by expenses or incomes. It cannot be deleted.";
+                            } else if (categoryManager.hasSubcategories(id)) {
+                                conflict = "Category has subcategories. It cannot be deleted.";
+                            } else {
+                                removed = categoryManager.removeCategory(id);
+                            }
+                        }
+                    }
+                }
+                if (conflict != null) {
+                    sendError(exchange, 409, conflict);
+                } else if (removed) {
+                    send(exchange, 204, null);
+                } else {
+                    sendError(exchange, 404, "Category not found.");
+                }
+            }
+            default -> sendError(exchange, 405, "Method not allowed.");
+        }
+    }
+
+    /**
+     * Handles requests to a transaction collection and its items.
+     * A GET of the collection returns one page of the transactions matching the optional from, to and description
+     * parameters, oldest first: at most limit transactions (1000 by default) after skipping offset of them. The
+     * number of matching transactions is sent in the X-Total-Count header.
+     * A POST that duplicates an existing transaction is refused unless it sets allowDuplicate to true.
+     *
+     * @param exchange The HTTP exchange.
+     * @param prefix   The path of the collection.
+     * @param ledger   The ledger holding the transactions.
+     */
+    private void handleTransactions(HttpExchange exchange, String prefix, Ledger ledger) throws IOException {
+        Integer id = pathId(exchange, prefix);
+        String method = exchange.getRequestMethod();
+        if (id == null) {
+            switch (method) {
+                case "GET" -> {
+                    Map<String, String> query = query(exchange);
+                    LocalDate from = query.containsKey("from") ? LocalDate.parse(query.get("from")) : null;
+                    LocalDate to = query.containsKey("to") ? LocalDate.parse(query.get("to")) : null;
+                    int offset = query.containsKey("offset") ? Integer.parseInt(query.get("offset")) : 0;
+                    int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : DEFAULT_PAGE_SIZE;
+                    if (offset < 0) {
+                        throw new IllegalArgumentException("Invalid offset. Please use a number of 0 or more.");
+                    }
+                    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                        throw new IllegalArgumentException("Invalid limit. Please use a number from 1 to " + MAX_PAGE_SIZE + ".");
+                    }
+                    // Loaded rows match by code; archived rows, which have none, by the string
+                    String description = query.get("description");
+                    DescriptionDictionary.Entry wanted = ledger.lookupDescription(description);
+                    StringBuilder json = new StringBuilder("[");
+                    long end = (long) offset + limit;
+                    long[] matched = new long[1];
+                    // Only the requested page is built, however many transactions match
+                    ledger.forEachBetween(from, to, transaction -> {
+                        if (description == null || wanted.matches(transaction.getDescriptionEntry())) {
+                            long index = matched[0]++;
+                            if (index >= offset && index < end) {
+                                Json.appendTransaction(json.length() > 1 ? json.append(',') : json, transaction);
+                            }
+                        }
+                    });
+                    exchange.getResponseHeaders().set("X-Total-Count", Long.toString(matched[0]));
+                    send(exchange, 200, json.append(']'));
+                }
+                case "POST" -> {
+                    Map<String, String> body = readBody(exchange);
+                    String description = body.get("description");
+                    double amount = parseAmount(body.get("amount"));
+                    int categoryId = parseInt(body.get("categoryId"));
+                    LocalDate date = parseDate(body.get("createdDate"));
+                    Transaction transaction = Boolean.parseBoolean(body.get("allowDuplicate"))
+                            ? ledger.add(description, amount, categoryId, date, body.get("currency"))
+                            : ledger.addUnlessDuplicate(description, amount, categoryId, date, body.get("currency"));
+                    if (transaction == null) {
+                        sendError(exchange, 409, "A transaction with the same date, amount, currency and description already exists.");
+                        return;
+                    }
+                    send(exchange, 201, Json.appendTransaction(new StringBuilder(), transaction));
+                }
+                default -> sendError(exchange, 405, "Method not allowed.");
+            }
+            return;
+        }
+        switch (method) {
+            case "GET" -> {
+                Transaction transaction = ledger.byId(id);
+                if (transaction == null) {
+                    sendError(exchange, 404, "Transaction not found.");
+                } else {
+                    send(exchange, 200, Json.appendTransaction(new StringBuilder(), transaction));
+                }
+            }
+            case "PUT" -> {
+                Map<String, String> body = readBody(exchange);
+                Transaction transaction = ledger.byId(id);
+                if (transaction != null) {
+                    // Missing fields keep their existing values, like the console prompts do
+                    transaction = ledger.update(id,
+                            body.getOrDefault("description", transaction.getDescription()),
+                            body.containsKey("amount") ? parseAmount(body.get("amount")) : transaction.getAmount(),
+                            body.containsKey("categoryId") ? parseInt(body.get("categoryId")) : transaction.getCategoryId(),
+                            body.containsKey("createdDate") ? parseDate(body.get("createdDate")) : transaction.getCreatedDate(),
+                            body.get("currency"));
+                }
+                if (transaction == null) {
+                    sendError(exchange, 404, "Transaction not found.");
+                } else {
+                    send(exchange, 200, Json.appendTransaction(new StringBuilder(), transaction));
+                }
+            }
+            case "DELETE" -> {
+                if (ledger.remove(id)) {
+                    send(exchange, 204, null);
+                } else {
+                    sendError(exchange, 404, "Transaction not found.");
+                }
+            }
+            default -> sendError(exchange, 405, "Method not allowed.");
+        }
+    }
+
+    /**
+     * Handles requests to /expenses/bulk and /incomes/bulk, changing or deleting every matching transaction at
+     * once; the autosave scheduler hears about all of them together. The body selects the transactions with the
+     * optional description (a regular expression), from, to and categoryId (which includes its subcategories)
+     * members, and names the action: recategorize (with newCategoryId), scale (with factor) or delete.
+     *
+     * @param exchange The HTTP exchange.
+     * @param ledger   The ledger holding the transactions.
+     */
+    private void handleBulk(HttpExchange exchange, Ledger ledger) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Method not allowed.");
+            return;
+        }
+        Map<String, String> body = readBody(exchange);
+        CategoryTree.Subtree categories = null;
+        if (body.containsKey("categoryId")) {
+            int categoryId = parseInt(body.get("categoryId"));
+            if (!categoryManager.isValidCategory(categoryId)) {
+                sendError(exchange, 404, "Category not found.");
+                return;
+            }
+            categories = categoryManager.getTree().subtree(categoryId);
+        }
+        TransactionFilter filter = new TransactionFilter(body.get("description"),
+                body.containsKey("from") ? parseDate(body.get("from")) : null,
+                body.containsKey("to") ? parseDate(body.get("to")) : null, categories);
+        String action = body.getOrDefault("action", "");
+        int count = switch (action) {
+            case "recategorize" -> ledger.recategorize(filter, parseInt(body.get("newCategoryId")));
+            case "scale" -> {
+                if (!body.containsKey("factor")) {
+                    throw new IllegalArgumentException("Missing factor.");
+                }
+                yield ledger.scale(filter, Double.parseDouble(body.get("factor")));
+            }
+            case "delete" -> ledger.removeAll(filter);
+            default -> throw new IllegalArgumentException("Invalid action. Please use recategorize, scale or delete.");
+        };
+        send(exchange, 200, new StringBuilder("{\"count\":").append(count).append('}'));
+    }
+
+    /**
+     * Handles requests to /graph, returning the daily totals a graph would show.
+     * Supported query parameters are range (daily, weekly, monthly or total), categoryId, which includes the
+     * category's subcategories, and currency, the reporting currency the amounts are converted into.
+     *
+     * @param exchange The HTTP exchange.
+     */
+    private void handleGraph(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed.");
+            return;
+        }
+        Map<String, String> query = query(exchange);
+        String timeRange = query.getOrDefault("range", "total");
+        if (!GraphUI.isValidTimeRange(timeRange)) {
+            sendError(exchange, 400, "Invalid range. Please use daily, weekly, monthly or total.");
+            return;
+        }
+        boolean filterByCategory = query.containsKey("categoryId");
+        int categoryId = filterByCategory ? parseInt(query.get("categoryId")) : 0;
+        if (filterByCategory && !categoryManager.isValidCategory(categoryId)) {
+            sendError(exchange, 404, "Category not found.");
+            return;
+        }
+        FxRates.Conversion conversion = query.containsKey("currency")
+                ? FxRates.shared().conversionTo(query.get("currency").toUpperCase())
+                : FxRates.shared().toReportingCurrency();
+        // Snapshots pin a consistent version without copying or blocking concurrent writers
+        List<DailyTotal> totals = GraphUI.aggregate(expenseManager.getExpenses(), incomeManager.getIncomes(),
+                expenseManager.getArchive(), incomeManager.getArchive(), timeRange, filterByCategory, categoryId,
+                categoryManager.getTree(), conversion);
+        StringBuilder json = new StringBuilder("[");
+        for (DailyTotal total : totals) {
+            (json.length() > 1 ? json.append(',') : json)
+                    .append("{\"date\":\"").append(total.getDate())
+                    .append("\",\"expense\":").append(total.getExpense())
+                    .append(",\"income\":").append(total.getIncome()).append('}');
+        }
+        send(exchange, 200, json.append(']'));
+    }
+
+    /**
+     * Handles requests to /undo and /redo, which undo the latest edit or redo the latest undone one, whether it
+     * was made to the categories, the incomes or the expenses. A bulk operation is undone as a whole.
+     *
+     * @param exchange The HTTP exchange.
+     * @param undo     True to undo, false to redo.
+     */
+    private void handleHistory(HttpExchange exchange, boolean undo) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Method not allowed.");
+            return;
+        }
+        if (!(undo ? history.undo() : history.redo())) {
+            sendError(exchange, 409, undo ? "Nothing to undo." : "Nothing to redo.");
+            return;
+        }
+        send(exchange, 204, null);
+    }
+
+    /**
+     * Handles requests to /export, streaming a report as CSV or JSON without building it in memory.
+     * Supported query parameters are report (expenses, incomes or graph), format (csv or json), and the range,
+     * categoryId and currency parameters of /graph; the currency only applies to the graph report.
+     *
+     * @param exchange The HTTP exchange.
+     */
+    private void handleExport(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed.");
+            return;
+        }
+        Map<String, String> query = query(exchange);
+        // Everything is checked before the headers go out, as a failure after that can only cut the body short
+        String report = query.getOrDefault("report", "expenses");
+        if (!report.equals("expenses") && !report.equals("incomes") && !report.equals("graph")) {
+            sendError(exchange, 400, "Unknown report: " + report + ". Please use expenses, incomes or graph.");
+            return;
+        }
+        ReportExporter.Format format = ReportExporter.Format.parse(query.getOrDefault("format", "csv"));
+        String timeRange = query.getOrDefault("range", "total");
+        if (!GraphUI.isValidTimeRange(timeRange)) {
+            sendError(exchange, 400, "Invalid range. Please use daily, weekly, monthly or total.");
+            return;
+        }
+        boolean filterByCategory = query.containsKey("categoryId");
+        int categoryId = filterByCategory ? parseInt(query.get("categoryId")) : 0;
+        if (filterByCategory && !categoryManager.isValidCategory(categoryId)) {
+            sendError(exchange, 404, "Category not found.");
+            return;
+        }
+        CategoryTree tree = categoryManager.getTree();
+        CategoryTree.Subtree categories = filterByCategory ? tree.subtree(categoryId) : null;
+        // The graph totals are computed before the headers go out, so that a bad currency is still a 400
+        List<DailyTotal> totals = !report.equals("graph") ? null
+                : GraphUI.aggregate(expenseManager.getExpenses(), incomeManager.getIncomes(), expenseManager.getArchive(),
+                incomeManager.getArchive(), timeRange, filterByCategory, categoryId, tree,
+                query.containsKey("currency") ? FxRates.shared().conversionTo(query.get("currency").toUpperCase())
+                        : FxRates.shared().toReportingCurrency());
+        exchange.getResponseHeaders().set("Content-Type",
+                format == ReportExporter.Format.CSV ? "text/csv; charset=utf-8" : "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Content-Disposition",
+                "attachment; filename=\"" + report + "." + format.name().toLowerCase() + "\"");
+        // A length of 0 streams the body in chunks, as its size is not known up front
+        exchange.sendResponseHeaders(200, 0);
+        // Only closed once the report is complete: closing ends the chunked body, which would make a report cut
+        // short by a failure look whole, so on failure the exception propagates and the connection is dropped
+        WritableByteChannel channel = Channels.newChannel(exchange.getResponseBody());
+        switch (report) {
+            case "expenses" -> ReportExporter.exportTransactions(channel, format, expenseManager.getExpenses(),
+                    expenseManager.getArchive(), timeRange, categories);
+            case "incomes" -> ReportExporter.exportTransactions(channel, format, incomeManager.getIncomes(),
+                    incomeManager.getArchive(), timeRange, categories);
+            default -> ReportExporter.exportTotals(channel, format, totals);
+        }
+        channel.close();
+    }
+
+    /**
+     * Handles requests to /totals, returning the total amount and count of expenses and incomes per category,
+     * and per category including its subcategories.
+     * The totals are maintained incrementally from the ledgers' change events, plus the archive summaries.
+     * With {@code by=description}, the totals are grouped by description instead. Amounts are converted into the
+     * reporting currency, which the response names.
+     *
+     * @param exchange The HTTP exchange.
+     */
+    private void handleTotals(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed.");
+            return;
+        }
+        String by = query(exchange).getOrDefault("by", "category");
+        FxRates.Conversion conversion = FxRates.shared().toReportingCurrency();
+        if (by.equals("description")) {
+            StringBuilder json = new StringBuilder("{\"currency\":");
+            Json.appendString(json, conversion.getCurrency()).append(",\"expenses\":");
+            appendDescriptionTotals(json, expenseManager.getTotalsByDescription(conversion));
+            json.append(",\"incomes\":");
+            appendDescriptionTotals(json, incomeManager.getTotalsByDescription(conversion));
+            send(exchange, 200, json.append('}'));
+            return;
+        }
+        if (!by.equals("category")) {
+            sendError(exchange, 400, "Unknown grouping: " + by + ".");
+            return;
+        }
+        CategoryTree tree = categoryManager.getTree();
+        StringBuilder json = new StringBuilder("{\"currency\":");
+        Json.appendString(json, conversion.getCurrency()).append(",\"expenses\":");
+        appendTotals(json, expenseTotals, expenseManager.getArchive(), tree, conversion);
+        json.append(",\"incomes\":");
+        appendTotals(json, incomeTotals, incomeManager.getArchive(), tree, conversion);
+        send(exchange, 200, json.append('}'));
+    }
+
+    /**
+     * Handles requests to /metrics, returning every metric in the Prometheus text format.
+     *
+     * @param exchange The HTTP exchange.
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed.");
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        Metrics.writePrometheus(text);
+        send(exchange, 200, text, "text/plain; version=0.0.4; charset=utf-8");
+    }
+
+    /**
+     * Appends the totals of a ledger per category and per subtree of categories as a JSON array.
+     *
+     * @param json       The builder to append to.
+     * @param live       The totals of the transactions in memory, in the reporting currency.
+     * @param archive    The archived transactions.
+     * @param tree       The category tree.
+     * @param conversion The conversion into the reporting currency.
+     */
+    private static void appendTotals(StringBuilder json, CategoryTotals<?> live, TransactionArchive<?> archive,
+                                     CategoryTree tree, FxRates.Conversion conversion) {
+        Map<Integer, double[]> totals = live.getTotals();
+        Map<Integer, double[]> subtrees = live.getSubtreeTotals();
+        Map<Integer, double[]> archived = new HashMap<>();
+        archive.addCategoryTotals(archived, conversion);
+        archived.forEach((categoryId, entry) -> {
+            double[] total = totals.computeIfAbsent(categoryId, id -> new double[2]);
+            total[0] += entry[0];
+            total[1] += entry[1];
+        });
+        tree.rollUp(archived).forEach((categoryId, entry) -> {
+            double[] subtree = subtrees.computeIfAbsent(categoryId, id -> new double[2]);
+            subtree[0] += entry[0];
+            subtree[1] += entry[1];
+        });
+        Set<Integer> categoryIds = new TreeSet<>(totals.keySet());
+        categoryIds.addAll(subtrees.keySet());
+        json.append('[');
+        boolean first = true;
+        for (int categoryId : categoryIds) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            double[] entry = totals.getOrDefault(categoryId, new double[2]);
+            double[] subtree = subtrees.getOrDefault(categoryId, entry);
+            json.append("{\"categoryId\":").append(categoryId)
+                    .append(",\"total\":").append(entry[0])
+                    .append(",\"count\":").append((long) entry[1])
+                    .append(",\"subtreeTotal\":").append(subtree[0])
+                    .append(",\"subtreeCount\":").append((long) subtree[1]).append('}');
+        }
+        json.append(']');
+    }
+
+    /**
+     * Appends per-description totals as a JSON array.
+     *
+     * @param json   The builder to append to.
+     * @param totals The totals by description.
+     */
+    private static void appendDescriptionTotals(StringBuilder json, Map<String, double[]> totals) {
+        json.append('[');
+        boolean first = true;
+        for (Map.Entry<String, double[]> entry : totals.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            Json.appendString(json.append("{\"description\":"), entry.getKey())
+                    .append(",\"total\":").append(entry.getValue()[0])
+                    .append(",\"count\":").append((long) entry.getValue()[1]).append('}');
+        }
+        json.append(']');
+    }
+
+    /**
+     * Creates the ledger adapter for expenses.
+     *
+     * @return The expense ledger.
+     */
+    private Ledger expenseLedger() {
+        return new Ledger() {
+            public void forEachBetween(LocalDate from, LocalDate to, Consumer<? super Transaction> action) {
+                expenseManager.getArchive().forEach(from, to, null, action);
+                expenseManager.getExpenses().forEachBetween(from, to, action);
+            }
+
+            public Transaction byId(int id) {
+                return expenseManager.getExpenseById(id);
+            }
+
+            public DescriptionDictionary.Entry lookupDescription(String description) {
+                return expenseManager.lookupDescription(description);
+            }
+
+            public Transaction add(String description, double amount, int categoryId, LocalDate date, String currency) {
+                return expenseManager.addExpense(description, amount, categoryId, date, currency);
+            }
+
+            public Transaction addUnlessDuplicate(String description, double amount, int categoryId, LocalDate date, String currency) {
+                return expenseManager.addExpenseUnlessDuplicate(description, amount, categoryId, date, currency);
+            }
+
+            public Transaction update(int id, String description, double amount, int categoryId, LocalDate date, String currency) {
+                return expenseManager.updateExpense(id, description, amount, categoryId, date, currency);
+            }
+
+            public boolean remove(int id) {
+                return expenseManager.removeExpense(id);
+            }
+
+            public int recategorize(TransactionFilter filter, int categoryId) {
+                return expenseManager.recategorizeExpenses(filter, categoryId);
+            }
+
+            public int scale(TransactionFilter filter, double factor) {
+                return expenseManager.scaleExpenses(filter, factor);
+            }
+
+            public int removeAll(TransactionFilter filter) {
+                return expenseManager.removeExpenses(filter);
+            }
+        };
+    }
+
+    /**
+     * Creates the ledger adapter for incomes.
+     *
+     * @return The income ledger.
+     */
+    private Ledger incomeLedger() {
+        return new Ledger() {
+            public void forEachBetween(LocalDate from, LocalDate to, Consumer<? super Transaction> action) {
+                incomeManager.getArchive().forEach(from, to, null, action);
+                incomeManager.getIncomes().forEachBetween(from, to, action);
+            }
+
+            public Transaction byId(int id) {
+                return incomeManager.getIncomeById(id);
+            }
+
+            public DescriptionDictionary.Entry lookupDescription(String description) {
+                return incomeManager.lookupDescription(description);
+            }
+
+            public Transaction add(String description, double amount, int categoryId, LocalDate date, String currency) {
+                return incomeManager.addIncome(description, amount, categoryId, date, currency);
+            }
+
+            public Transaction addUnlessDuplicate(String description, double amount, int categoryId, LocalDate date, String currency) {
+                return incomeManager.addIncomeUnlessDuplicate(description, amount, categoryId, date, currency);
+            }
+
+            public Transaction update(int id, String description, double amount, int categoryId, LocalDate date, String currency) {
+                return incomeManager.updateIncome(id, description, amount, categoryId, date, currency);
+            }
+
+            public boolean remove(int id) {
+                return incomeManager.removeIncome(id);
+            }
+
+            public int recategorize(TransactionFilter filter, int categoryId) {
+                return incomeManager.recategorizeIncomes(filter, categoryId);
+            }
+
+            public int scale(TransactionFilter filter, double factor) {
+                return incomeManager.scaleIncomes(filter, factor);
+            }
+
+            public int removeAll(TransactionFilter filter) {
+                return incomeManager.removeIncomes(filter);
+            }
+        };
+    }
+
+    /**
+     * Extracts the numeric ID that follows the collection path, if any.
+     *
+     * @param exchange The HTTP exchange.
+     * @param prefix   The path of the collection.
+     * @return The ID, or null if the request targets the collection itself.
+     */
+    private static Integer pathId(HttpExchange exchange, String prefix) {
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals(prefix) || path.equals(prefix + "/")) {
+            return null;
+        }
+        String rest = path.startsWith(prefix + "/") ? path.substring(prefix.length() + 1) : path;
+        try {
+            return Integer.parseInt(rest);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid ID: " + rest);
+        }
+    }
+
+    /**
+     * Parses the query string of the request.
+     *
+     * @param exchange The HTTP exchange.
+     * @return The query parameters.
+     */
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Reads the request body as a flat JSON object.
+     *
+     * @param exchange The HTTP exchange.
+     * @return The members of the JSON object.
+     */
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is too large.");
+            }
+            return Json.parseObject(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Parses a required amount value.
+     *
+     * @param value The textual value.
+     * @return The amount.
+     * @throws IllegalArgumentException If the amount is missing, not positive, not finite or too large.
+     */
+    private static double parseAmount(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing amount.");
+        }
+        double amount = Double.parseDouble(value);
+        if (!Transaction.isValidAmount(amount)) {
+            throw new IllegalArgumentException("Invalid amount. Please use a positive number no larger than "
+                    + (long) Transaction.MAX_AMOUNT + ".");
+        }
+        return amount;
+    }
+
+    /**
+     * Parses a required integer value.
+     *
+     * @param value The textual value.
+     * @return The integer.
+     */
+    private static int parseInt(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing category ID.");
+        }
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * Parses a required ISO-8601 date value.
+     *
+     * @param value The textual value.
+     * @return The date.
+     */
+    private static LocalDate parseDate(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing created date.");
+        }
+        return LocalDate.parse(value);
+    }
+
+    /**
+     * Sends an error response.
+     *
+     * @param exchange The HTTP exchange.
+     * @param status   The HTTP status code.
+     * @param message  The error message.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.appendString(json, message == null ? "Bad request." : message).append('}');
+        send(exchange, status, json);
+    }
+
+    /**
+     * Sends a JSON response.
+     *
+     * @param exchange The HTTP exchange.
+     * @param status   The HTTP status code.
+     * @param json     The response body, or null for an empty body.
+     */
+    private static void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        send(exchange, status, json, "application/json; charset=utf-8");
+    }
+
+    /**
+     * Sends a response with the given content type.
+     *
+     * @param exchange    The HTTP exchange.
+     * @param status      The HTTP status code.
+     * @param content     The response body, or null for an empty body.
+     * @param contentType The media type of the body.
+     */
+    private static void send(HttpExchange exchange, int status, CharSequence content, String contentType) throws IOException {
+        if (content == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] body = content.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
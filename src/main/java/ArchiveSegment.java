@@ -0,0 +1,472 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * An immutable, compressed file of old transactions, sorted by date.
+ * <p>
+ * Only the header stays in memory: the date and ID range of the segment and, per category, the number and total
+ * amount of its transactions. Queries use it to skip the segment or answer from the summary alone, and decompress
+ * the rows only when they need them. Rows are encoded with varints: the date as the number of days since the
+ * previous row, the ID as the zigzag difference to the previous ID, the description as an index into the
+ * segment's dictionary, and the amount in cents (with a fallback to the raw double for amounts that are not a
+ * whole number of cents). Segments holding more than one currency also store each row's currency as an index
+ * into their list of currency codes; segments written before currencies existed hold the base currency only.
+ * The category totals add up the amounts as recorded, so they only hold for a single currency; the codes of the
+ * currencies a segment holds are read on first use, without decompressing the rows.
+ * <p>
+ * The file ends with the sorted duplicate-detection fingerprints of its rows, so that an incoming transaction can
+ * be checked against the archive without decompressing it. They are read the first time they are needed and kept
+ * while memory allows; for segments written before they were stored, or stored without the currency, they are
+ * computed from the rows instead.
+ *
+ * @param <T> The type of transaction.
+ */
+public class ArchiveSegment<T extends Transaction> {
+    private static final int MAGIC = 0x45584152;
+    private static final int VERSION = 4;
+
+    private final Path file;
+    private final TransactionFactory<T> factory;
+    private final int version;
+    private final int rows;
+    private final LocalDate minDate;
+    private final LocalDate maxDate;
+    private final int maxId;
+    private final Map<Integer, double[]> categoryTotals;
+    // Read on first use and dropped again when memory runs low
+    private volatile SoftReference<long[]> fingerprints;
+    // Read on first use
+    private volatile List<String> currencies;
+
+    /**
+     * Constructs an ArchiveSegment from its header.
+     *
+     * @param file           The segment file.
+     * @param factory        Creates transactions from the decompressed rows.
+     * @param version        The version of the segment format.
+     * @param rows           The number of transactions in the segment.
+     * @param minDate        The date of the oldest transaction.
+     * @param maxDate        The date of the newest transaction.
+     * @param maxId          The highest transaction ID.
+     * @param categoryTotals The total amount and number of transactions per category ID, in that order.
+     */
+    private ArchiveSegment(Path file, TransactionFactory<T> factory, int version, int rows, LocalDate minDate,
+                           LocalDate maxDate, int maxId, Map<Integer, double[]> categoryTotals) {
+        this.file = file;
+        this.factory = factory;
+        this.version = version;
+        this.rows = rows;
+        this.minDate = minDate;
+        this.maxDate = maxDate;
+        this.maxId = maxId;
+        this.categoryTotals = categoryTotals;
+    }
+
+    /**
+     * Writes transactions to a new segment file. The file appears atomically, complete or not at all.
+     *
+     * @param file         The segment file to create.
+     * @param transactions The transactions to archive; must not be empty.
+     * @param factory      Creates transactions when the segment is read.
+     * @param <T>          The type of transaction.
+     * @return The segment.
+     * @throws IOException If the file cannot be written.
+     */
+    public static <T extends Transaction> ArchiveSegment<T> write(Path file, List<T> transactions,
+                                                                  TransactionFactory<T> factory) throws IOException {
+        List<T> sorted = new ArrayList<>(transactions);
+        sorted.sort(Comparator.comparing(Transaction::getCreatedDate).thenComparingInt(Transaction::getId));
+        LocalDate minDate = sorted.get(0).getCreatedDate();
+        LocalDate maxDate = sorted.get(sorted.size() - 1).getCreatedDate();
+
+        Map<Integer, double[]> categoryTotals = new TreeMap<>();
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> words = new ArrayList<>();
+        List<String> currencies = new ArrayList<>();
+        for (T transaction : sorted) {
+            if (!currencies.contains(transaction.getCurrency())) {
+                currencies.add(transaction.getCurrency());
+            }
+        }
+        long[] fingerprints = new long[sorted.size()];
+        ByteArrayOutputStream body = new ByteArrayOutputStream(sorted.size() * 8);
+        long previousDay = minDate.toEpochDay();
+        int previousId = 0;
+        int maxId = Integer.MIN_VALUE;
+        for (int row = 0; row < sorted.size(); row++) {
+            T transaction = sorted.get(row);
+            fingerprints[row] = DuplicateIndex.fingerprint(transaction);
+            double[] entry = categoryTotals.computeIfAbsent(transaction.getCategoryId(), id -> new double[2]);
+            entry[0] += transaction.getAmount();
+            entry[1]++;
+            maxId = Math.max(maxId, transaction.getId());
+
+            long day = transaction.getCreatedDate().toEpochDay();
+            writeVarint(body, day - previousDay);
+            previousDay = day;
+            long idDelta = (long) transaction.getId() - previousId;
+            writeVarint(body, (idDelta << 1) ^ (idDelta >> 63));
+            previousId = transaction.getId();
+            Integer word = dictionary.get(transaction.getDescription());
+            if (word == null) {
+                word = words.size();
+                dictionary.put(transaction.getDescription(), word);
+                words.add(transaction.getDescription());
+            }
+            writeVarint(body, word);
+            writeVarint(body, transaction.getCategoryId() & 0xFFFFFFFFL);
+            if (currencies.size() > 1) {
+                writeVarint(body, currencies.indexOf(transaction.getCurrency()));
+            }
+            double amount = transaction.getAmount();
+            long cents = Math.round(amount * 100);
+            if (cents >= 0 && cents / 100.0 == amount) {
+                writeVarint(body, cents << 1);
+            } else {
+                writeVarint(body, 1);
+                byte[] raw = new byte[Double.BYTES];
+                ByteBuffer.wrap(raw).putDouble(amount);
+                body.write(raw, 0, raw.length);
+            }
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            out.writeLong(minDate.toEpochDay());
+            out.writeLong(maxDate.toEpochDay());
+            out.writeInt(maxId);
+            out.writeInt(categoryTotals.size());
+            for (Map.Entry<Integer, double[]> entry : categoryTotals.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeDouble(entry.getValue()[0]);
+                out.writeInt((int) entry.getValue()[1]);
+            }
+            out.writeInt(words.size());
+            for (String word : words) {
+                out.writeUTF(word);
+            }
+            out.writeInt(currencies.size());
+            for (String currency : currencies) {
+                out.writeUTF(currency);
+            }
+            out.writeInt(body.size());
+            body.writeTo(out);
+            Arrays.sort(fingerprints);
+            for (long fingerprint : fingerprints) {
+                out.writeLong(fingerprint);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ArchiveSegment<T> segment = new ArchiveSegment<>(file, factory, VERSION, sorted.size(), minDate, maxDate, maxId, categoryTotals);
+        segment.fingerprints = new SoftReference<>(fingerprints);
+        segment.currencies = List.copyOf(currencies);
+        return segment;
+    }
+
+    /**
+     * Opens a segment file, reading only its header.
+     *
+     * @param file    The segment file.
+     * @param factory Creates transactions from the decompressed rows.
+     * @param <T>     The type of transaction.
+     * @return The segment.
+     * @throws IOException If the file cannot be read or is not a segment.
+     */
+    public static <T extends Transaction> ArchiveSegment<T> open(Path file, TransactionFactory<T> factory) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return readHeader(in, file, factory);
+        }
+    }
+
+    /**
+     * Reads the header of a segment.
+     *
+     * @param in      The stream positioned at the start of the segment.
+     * @param file    The segment file.
+     * @param factory Creates transactions from the decompressed rows.
+     * @param <T>     The type of transaction.
+     * @return The segment.
+     * @throws IOException If the stream cannot be read or is not a segment.
+     */
+    private static <T extends Transaction> ArchiveSegment<T> readHeader(DataInputStream in, Path file,
+                                                                       TransactionFactory<T> factory) throws IOException {
+        int version = in.readInt() == MAGIC ? in.readInt() : -1;
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Not an archive segment: " + file);
+        }
+        int rows = in.readInt();
+        LocalDate minDate = LocalDate.ofEpochDay(in.readLong());
+        LocalDate maxDate = LocalDate.ofEpochDay(in.readLong());
+        int maxId = in.readInt();
+        int categories = in.readInt();
+        Map<Integer, double[]> categoryTotals = new TreeMap<>();
+        for (int i = 0; i < categories; i++) {
+            int categoryId = in.readInt();
+            double amount = in.readDouble();
+            categoryTotals.put(categoryId, new double[]{amount, in.readInt()});
+        }
+        return new ArchiveSegment<>(file, factory, version, rows, minDate, maxDate, maxId, categoryTotals);
+    }
+
+    /**
+     * Decompresses the segment and passes its transactions, oldest first, to an action.
+     *
+     * @param action The action to perform for each transaction.
+     * @throws IOException If the file cannot be read.
+     */
+    public void forEach(Consumer<? super T> action) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            readHeader(in, file, factory);
+            // Rows read back share one entry per word, but add nothing to the dictionary of a loaded ledger
+            DescriptionDictionary.Entry[] words = new DescriptionDictionary.Entry[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = DescriptionDictionary.Entry.of(in.readUTF());
+            }
+            String[] currencies = {Currencies.BASE};
+            if (version >= 2) {
+                currencies = new String[in.readInt()];
+                for (int i = 0; i < currencies.length; i++) {
+                    currencies[i] = Currencies.codeOf(Currencies.indexOf(in.readUTF()));
+                }
+            }
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+
+            int[] position = {0};
+            long day = minDate.toEpochDay();
+            int id = 0;
+            for (int row = 0; row < rows; row++) {
+                day += readVarint(body, position);
+                long zigzag = readVarint(body, position);
+                id += (int) ((zigzag >>> 1) ^ -(zigzag & 1));
+                DescriptionDictionary.Entry description = words[(int) readVarint(body, position)];
+                int categoryId = (int) readVarint(body, position);
+                String currency = currencies.length > 1 ? currencies[(int) readVarint(body, position)] : currencies[0];
+                long amountBits = readVarint(body, position);
+                double amount;
+                if ((amountBits & 1) == 0) {
+                    amount = (amountBits >>> 1) / 100.0;
+                } else {
+                    amount = ByteBuffer.wrap(body, position[0], Double.BYTES).getDouble();
+                    position[0] += Double.BYTES;
+                }
+                action.accept(factory.create(id, description, amount, categoryId, LocalDate.ofEpochDay(day), currency));
+            }
+        }
+    }
+
+    /**
+     * Gets the codes of the currencies the amounts of the segment are in, reading them the first time.
+     *
+     * @return A read-only list of currency codes, in the order the segment stores them.
+     * @throws IOException If the file cannot be read.
+     */
+    public List<String> getCurrencies() throws IOException {
+        List<String> codes = currencies;
+        if (codes == null) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                readHeader(in, file, factory);
+                int words = in.readInt();
+                for (int i = 0; i < words; i++) {
+                    in.readUTF();
+                }
+                if (version >= 2) {
+                    String[] read = new String[in.readInt()];
+                    for (int i = 0; i < read.length; i++) {
+                        read[i] = in.readUTF();
+                    }
+                    codes = List.of(read);
+                } else {
+                    codes = List.of(Currencies.BASE);
+                }
+            }
+            currencies = codes;
+        }
+        return codes;
+    }
+
+    /**
+     * Checks whether the segment holds a transaction with the given duplicate-detection fingerprint.
+     * The full 64-bit fingerprints are compared, so a false match is vanishingly unlikely.
+     *
+     * @param fingerprint The fingerprint, as computed by {@link DuplicateIndex#fingerprint}.
+     * @return True if a transaction of the segment has the fingerprint.
+     * @throws IOException If the file cannot be read.
+     */
+    public boolean containsFingerprint(long fingerprint) throws IOException {
+        SoftReference<long[]> reference = fingerprints;
+        long[] sorted = reference == null ? null : reference.get();
+        if (sorted == null) {
+            sorted = readFingerprints();
+            fingerprints = new SoftReference<>(sorted);
+        }
+        return Arrays.binarySearch(sorted, fingerprint) >= 0;
+    }
+
+    /**
+     * Reads the sorted fingerprints stored at the end of the file, or computes them from the rows of a segment
+     * written before they were stored or before they included the currency.
+     *
+     * @return The sorted fingerprints.
+     * @throws IOException If the file cannot be read.
+     */
+    private long[] readFingerprints() throws IOException {
+        long[] sorted = new long[rows];
+        if (version >= 4) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(rows * Long.BYTES);
+                long start = channel.size() - buffer.capacity();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        throw new EOFException("Truncated archive segment: " + file);
+                    }
+                }
+                buffer.flip().asLongBuffer().get(sorted);
+            }
+            return sorted;
+        }
+        int[] row = {0};
+        forEach(transaction -> sorted[row[0]++] = DuplicateIndex.fingerprint(transaction));
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Checks whether the segment may hold transactions within a date range.
+     *
+     * @param from The first date of the range (inclusive), or null for no lower bound.
+     * @param to   The last date of the range (inclusive), or null for no upper bound.
+     * @return True if the range overlaps the dates of the segment.
+     */
+    public boolean overlaps(LocalDate from, LocalDate to) {
+        return (from == null || !maxDate.isBefore(from)) && (to == null || !minDate.isAfter(to));
+    }
+
+    /**
+     * Checks whether the segment holds transactions of a category.
+     *
+     * @param categoryId The ID of the category.
+     * @return True if at least one transaction belongs to the category.
+     */
+    public boolean containsCategory(int categoryId) {
+        return categoryTotals.containsKey(categoryId);
+    }
+
+    /**
+     * Gets the total amount and number of transactions per category, without decompressing the segment.
+     *
+     * @return A read-only map from category ID to its total amount and number of transactions, in that order.
+     */
+    public Map<Integer, double[]> getCategoryTotals() {
+        return Collections.unmodifiableMap(categoryTotals);
+    }
+
+    /**
+     * Gets the segment file.
+     *
+     * @return The path of the file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the number of transactions in the segment.
+     *
+     * @return The number of transactions.
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Gets the date of the oldest transaction in the segment.
+     *
+     * @return The oldest date.
+     */
+    public LocalDate getMinDate() {
+        return minDate;
+    }
+
+    /**
+     * Gets the date of the newest transaction in the segment.
+     *
+     * @return The newest date.
+     */
+    public LocalDate getMaxDate() {
+        return maxDate;
+    }
+
+    /**
+     * Gets the highest transaction ID in the segment.
+     *
+     * @return The highest ID.
+     */
+    public int getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * Writes an unsigned varint: seven bits per byte, least significant first, with the high bit marking that
+     * more bytes follow.
+     *
+     * @param out   The stream to write to.
+     * @param value The value, treated as unsigned.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param bytes    The encoded bytes.
+     * @param position The position to read at, advanced past the varint.
+     * @return The value.
+     */
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return file.getFileName() + " " + minDate + ".." + maxDate + " (" + rows + " rows)";
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Saves ledgers in the background shortly after they change, so that edits neither wait for the disk nor are lost
+ * in a crash.
+ * <p>
+ * Changes to a ledger are coalesced: it is saved once no change has arrived for the debounce interval, or right
+ * away once the number of unsaved rows reaches the threshold. All saves run one at a time on a single virtual
+ * thread, and a ledger is only locked while a save takes its snapshot, so edits go on while the files are written.
+ * The interval (in milliseconds) and the threshold are set with the {@code expensetracker.autosave.debounce} and
+ * {@code expensetracker.autosave.threshold} system properties. Closing the scheduler saves every ledger that
+ * still has unsaved changes before returning.
+ */
+public class AutosaveScheduler implements AutoCloseable {
+    private final long debounceNanos;
+    private final int threshold;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("autosave").factory());
+    private final List<Target> targets = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs an AutosaveScheduler configured from the system properties.
+     */
+    public AutosaveScheduler() {
+        this(Long.getLong("expensetracker.autosave.debounce", 2000), Integer.getInteger("expensetracker.autosave.threshold", 500));
+    }
+
+    /**
+     * Constructs an AutosaveScheduler.
+     *
+     * @param debounceMillis How long a ledger has to stay unchanged before it is saved, in milliseconds.
+     * @param threshold      The number of unsaved rows that triggers a save without waiting.
+     */
+    public AutosaveScheduler(long debounceMillis, int threshold) {
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Registers a ledger to save in the background.
+     *
+     * @param name The name of the ledger, used in metrics and error messages.
+     * @param save Saves the ledger; called on the autosave thread.
+     * @return The handle through which the ledger reports its changes.
+     */
+    public Target register(String name, Runnable save) {
+        Target target = new Target(name, save);
+        targets.add(target);
+        return target;
+    }
+
+    /**
+     * Stops scheduling saves and saves every ledger that has unsaved changes, waiting until they are on disk.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Target target : targets) {
+            target.flush(false);
+        }
+    }
+
+    /**
+     * A ledger saved by the scheduler.
+     */
+    public final class Target {
+        private final String name;
+        private final Runnable save;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean flushQueued = new AtomicBoolean();
+        private final LongAdder flushes;
+        private volatile long lastChange;
+        private boolean scheduled;
+
+        /**
+         * Constructs a Target.
+         *
+         * @param name The name of the ledger.
+         * @param save Saves the ledger.
+         */
+        private Target(String name, Runnable save) {
+            this.name = name;
+            this.save = save;
+            this.flushes = Metrics.counter("autosave_flushes_total", "ledger=\"" + name + "\"", "Number of background saves.");
+        }
+
+        /**
+         * Records that rows of the ledger changed. Never blocks on the disk.
+         *
+         * @param rows The number of rows added, changed or removed.
+         */
+        public void changed(int rows) {
+            lastChange = System.nanoTime();
+            if (pending.addAndGet(rows) >= threshold) {
+                submit();
+            } else {
+                schedule(debounceNanos);
+            }
+        }
+
+        /**
+         * Asks for the ledger to be saved as soon as possible, without waiting for it.
+         */
+        public void flushSoon() {
+            if (pending.get() > 0) {
+                submit();
+            }
+        }
+
+        /**
+         * Schedules a debounce check, unless one is already scheduled.
+         *
+         * @param delayNanos The delay before the check.
+         */
+        private synchronized void schedule(long delayNanos) {
+            if (!scheduled) {
+                try {
+                    executor.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+                    scheduled = true;
+                } catch (RejectedExecutionException closing) {
+                    // The final flush on close saves the ledger
+                }
+            }
+        }
+
+        /**
+         * Queues a save, unless one is already queued or the scheduler is closing and will save anyway.
+         */
+        private void submit() {
+            if (flushQueued.compareAndSet(false, true)) {
+                try {
+                    executor.execute(() -> flush(true));
+                } catch (RejectedExecutionException closing) {
+                    flushQueued.set(false);
+                }
+            }
+        }
+
+        /**
+         * Saves the ledger if it has been quiet for the debounce interval, or checks again when it will have been.
+         */
+        private void check() {
+            synchronized (this) {
+                scheduled = false;
+            }
+            long quiet = System.nanoTime() - lastChange;
+            if (quiet < debounceNanos) {
+                schedule(debounceNanos - quiet);
+            } else {
+                flush(true);
+            }
+        }
+
+        /**
+         * Saves the ledger if it has unsaved changes.
+         *
+         * @param background True if called on the autosave thread, where failures are only reported.
+         */
+        private void flush(boolean background) {
+            flushQueued.set(false);
+            int rows = pending.getAndSet(0);
+            if (rows == 0) {
+                return;
+            }
+            try {
+                save.run();
+                flushes.increment();
+            } catch (RuntimeException e) {
+                // Keep the rows pending so that the next change or the final flush tries again
+                pending.addAndGet(rows);
+                CONSOLETEXT.printError("Error autosaving " + name + (background ? ", will retry" : ""));
+            }
+        }
+    }
+}
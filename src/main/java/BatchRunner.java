@@ -0,0 +1,413 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Runs scripted commands without any interactive prompts, for example {@code java Main batch < commands.txt}.
+ * <p>
+ * Each line holds one command and its comma-separated arguments, in the same field order as the save files:
+ * <pre>
+ * add-category,name[,parentId]
+ * edit-category,id,name[,parentId]
+ * delete-category,id
+ * add-expense,description,amount,categoryId,yyyy-MM-dd[,currency]
+ * edit-expense,id,description,amount,categoryId,yyyy-MM-dd[,currency]
+ * delete-expense,id
+ * recategorize-expenses,pattern,from,to,categoryId,newCategoryId
+ * scale-expenses,pattern,from,to,categoryId,factor
+ * delete-expenses,pattern,from,to,categoryId
+ * add-income,description,amount,categoryId,yyyy-MM-dd[,currency]
+ * edit-income,id,description,amount,categoryId,yyyy-MM-dd[,currency]
+ * delete-income,id
+ * recategorize-incomes,pattern,from,to,categoryId,newCategoryId
+ * scale-incomes,pattern,from,to,categoryId,factor
+ * delete-incomes,pattern,from,to,categoryId
+ * report,daily|weekly|monthly|total[,categoryId]
+ * export,expenses|incomes|graph,csv|json,file,daily|weekly|monthly|total[,categoryId]
+ * undo
+ * redo
+ * </pre>
+ * The currency is a three-letter code such as EUR; without it, an added amount is in the base currency.
+ * Empty fields of an edit keep the existing value. The bulk commands change every transaction whose description
+ * matches the pattern (a regular expression), dated from..to, in the category or one of its subcategories; empty
+ * fields there match anything. An export writes the transactions, or the daily totals of the graph, that a report
+ * with the same range and category would show. Undo reverts the latest command that changed anything, a bulk
+ * command as a whole, and redo applies it again. Blank lines and lines starting with '#' are ignored.
+ * Commands are applied in batches and all files are saved once, after the last command.
+ */
+public class BatchRunner {
+    private static final int BATCH_SIZE = 4096;
+
+    private final BufferedReader reader;
+    private final CategoryManager categoryManager;
+    private final ExpenseManager expenseManager;
+    private final IncomeManager incomeManager;
+    private final GraphUI graphUI;
+    private final EditHistory history = new EditHistory();
+    private long lineNumber;
+    private long applied;
+    private long failed;
+
+    /**
+     * Constructs a BatchRunner that reads commands from the given stream.
+     *
+     * @param in The stream to read commands from.
+     */
+    public BatchRunner(InputStream in) {
+        reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        categoryManager = new CategoryManager();
+        expenseManager = new ExpenseManager(categoryManager);
+        incomeManager = new IncomeManager(categoryManager);
+        graphUI = new GraphUI(categoryManager, expenseManager, incomeManager);
+        categoryManager.setHistory(history);
+        expenseManager.setHistory(history);
+        incomeManager.setHistory(history);
+    }
+
+    /**
+     * Reads and applies all commands, then saves categories, incomes and expenses once.
+     *
+     * @return True if every command was applied, otherwise false.
+     */
+    public boolean run() {
+        long start = System.nanoTime();
+        String[] batch = new String[BATCH_SIZE];
+        try {
+            int size;
+            while ((size = readBatch(batch)) > 0) {
+                applyBatch(batch, size);
+            }
+        } catch (IOException e) {
+            CONSOLETEXT.printError("Error reading batch commands.");
+            return false;
+        }
+
+        categoryManager.saveCategories();
+        expenseManager.saveExpenses();
+        incomeManager.saveIncomes();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String summary = String.format("Applied %d commands (%d failed) in %.3f s (%.0f ops/s).",
+                applied, failed, seconds, applied / Math.max(seconds, 1e-9));
+        if (failed == 0) {
+            CONSOLETEXT.printSuccess(summary);
+        } else {
+            CONSOLETEXT.printWarning(summary);
+        }
+        return failed == 0;
+    }
+
+    /**
+     * Reads up to one batch of command lines.
+     *
+     * @param batch The array to fill with lines.
+     * @return The number of lines read; zero at the end of the input.
+     */
+    private int readBatch(String[] batch) throws IOException {
+        int size = 0;
+        String line;
+        while (size < batch.length && (line = reader.readLine()) != null) {
+            batch[size++] = line;
+        }
+        return size;
+    }
+
+    /**
+     * Applies a batch of commands, holding the manager locks once and publishing their changes as bulk batches.
+     *
+     * @param batch The command lines.
+     * @param size  The number of lines in the batch.
+     */
+    private void applyBatch(String[] batch, int size) {
+        expenseManager.getEvents().beginBulk();
+        incomeManager.getEvents().beginBulk();
+        try {
+            applyCommands(batch, size);
+        } finally {
+            expenseManager.getEvents().endBulk();
+            incomeManager.getEvents().endBulk();
+        }
+    }
+
+    /**
+     * Applies a batch of commands while holding the manager locks.
+     *
+     * @param batch The command lines.
+     * @param size  The number of lines in the batch.
+     */
+    private void applyCommands(String[] batch, int size) {
+        synchronized (categoryManager) {
+            synchronized (expenseManager) {
+                synchronized (incomeManager) {
+                    for (int i = 0; i < size; i++) {
+                        lineNumber++;
+                        String line = batch[i].strip();
+                        batch[i] = null;
+                        if (line.isEmpty() || line.startsWith("#")) {
+                            continue;
+                        }
+                        try {
+                            apply(line.split(",", -1));
+                            applied++;
+                        } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+                            failed++;
+                            CONSOLETEXT.printError("Line " + lineNumber + ": " + describe(e) + " (" + line + ")");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a single command.
+     *
+     * @param parts The command name followed by its arguments.
+     * @throws IllegalArgumentException If the command or one of its arguments is invalid.
+     */
+    private void apply(String[] parts) {
+        switch (parts[0]) {
+            case "add-category" -> {
+                expectArguments(parts, parts.length == 3 ? 2 : 1);
+                categoryManager.addCategory(parts[1], parts.length == 3 && !parts[2].isEmpty() ? parseInt(parts[2]) : 0);
+            }
+            case "edit-category" -> {
+                expectArguments(parts, parts.length == 4 ? 3 : 2);
+                Category category = categoryManager.getCategoryById(parseInt(parts[1]));
+                if (category == null) {
+                    throw new IllegalArgumentException("Category not found.");
+                }
+                categoryManager.updateCategory(category.getId(), parts[2],
+                        parts.length == 4 && !parts[3].isEmpty() ? parseInt(parts[3]) : category.getParentId());
+            }
+            case "delete-category" -> {
+                expectArguments(parts, 1);
+                int id = parseInt(parts[1]);
+                if (expenseManager.usesCategory(id) || incomeManager.usesCategory(id)) {
+                    throw new IllegalArgumentException("Category is being used by expenses or incomes. It cannot be deleted.");
+                }
+                if (categoryManager.hasSubcategories(id)) {
+                    throw new IllegalArgumentException("Category has subcategories. It cannot be deleted.");
+                }
+                if (!categoryManager.removeCategory(id)) {
+                    throw new IllegalArgumentException("Category not found.");
+                }
+            }
+            case "add-expense" -> {
+                expectArguments(parts, parts.length == 6 ? 5 : 4);
+                expenseManager.addExpense(parts[1], parseAmount(parts[2]), parseInt(parts[3]), LocalDate.parse(parts[4]), parseCurrency(parts, 5));
+            }
+            case "edit-expense" -> {
+                expectArguments(parts, parts.length == 7 ? 6 : 5);
+                Expense expense = expenseManager.getExpenseById(parseInt(parts[1]));
+                if (expense == null) {
+                    throw new IllegalArgumentException("Expense not found.");
+                }
+                expenseManager.updateExpense(expense.getId(),
+                        parts[2].isEmpty() ? expense.getDescription() : parts[2],
+                        parts[3].isEmpty() ? expense.getAmount() : parseAmount(parts[3]),
+                        parts[4].isEmpty() ? expense.getCategoryId() : parseInt(parts[4]),
+                        parts[5].isEmpty() ? expense.getCreatedDate() : LocalDate.parse(parts[5]), parseCurrency(parts, 6));
+            }
+            case "delete-expense" -> {
+                expectArguments(parts, 1);
+                if (!expenseManager.removeExpense(parseInt(parts[1]))) {
+                    throw new IllegalArgumentException("Expense not found.");
+                }
+            }
+            case "recategorize-expenses" -> {
+                expectArguments(parts, 5);
+                expenseManager.recategorizeExpenses(parseFilter(parts), parseInt(parts[5]));
+            }
+            case "scale-expenses" -> {
+                expectArguments(parts, 5);
+                expenseManager.scaleExpenses(parseFilter(parts), parseAmount(parts[5]));
+            }
+            case "delete-expenses" -> {
+                expectArguments(parts, 4);
+                expenseManager.removeExpenses(parseFilter(parts));
+            }
+            case "add-income" -> {
+                expectArguments(parts, parts.length == 6 ? 5 : 4);
+                incomeManager.addIncome(parts[1], parseAmount(parts[2]), parseInt(parts[3]), LocalDate.parse(parts[4]), parseCurrency(parts, 5));
+            }
+            case "edit-income" -> {
+                expectArguments(parts, parts.length == 7 ? 6 : 5);
+                Income income = incomeManager.getIncomeById(parseInt(parts[1]));
+                if (income == null) {
+                    throw new IllegalArgumentException("Income not found.");
+                }
+                incomeManager.updateIncome(income.getId(),
+                        parts[2].isEmpty() ? income.getDescription() : parts[2],
+                        parts[3].isEmpty() ? income.getAmount() : parseAmount(parts[3]),
+                        parts[4].isEmpty() ? income.getCategoryId() : parseInt(parts[4]),
+                        parts[5].isEmpty() ? income.getCreatedDate() : LocalDate.parse(parts[5]), parseCurrency(parts, 6));
+            }
+            case "delete-income" -> {
+                expectArguments(parts, 1);
+                if (!incomeManager.removeIncome(parseInt(parts[1]))) {
+                    throw new IllegalArgumentException("Income not found.");
+                }
+            }
+            case "recategorize-incomes" -> {
+                expectArguments(parts, 5);
+                incomeManager.recategorizeIncomes(parseFilter(parts), parseInt(parts[5]));
+            }
+            case "scale-incomes" -> {
+                expectArguments(parts, 5);
+                incomeManager.scaleIncomes(parseFilter(parts), parseAmount(parts[5]));
+            }
+            case "delete-incomes" -> {
+                expectArguments(parts, 4);
+                incomeManager.removeIncomes(parseFilter(parts));
+            }
+            case "report" -> {
+                if (parts.length < 2 || parts.length > 3 || !GraphUI.isValidTimeRange(parts[1])) {
+                    throw new IllegalArgumentException("Usage: report,daily|weekly|monthly|total[,categoryId]");
+                }
+                boolean filterByCategory = parts.length == 3;
+                int categoryId = filterByCategory ? parseInt(parts[2]) : 0;
+                if (filterByCategory && !categoryManager.isValidCategory(categoryId)) {
+                    throw new IllegalArgumentException("Category not found.");
+                }
+                graphUI.generateGraph(expenseManager.getExpenses(), incomeManager.getIncomes(), expenseManager.getArchive(),
+                        incomeManager.getArchive(), parts[1], filterByCategory, categoryId);
+            }
+            case "export" -> {
+                if (parts.length < 5 || parts.length > 6 || !GraphUI.isValidTimeRange(parts[4])) {
+                    throw new IllegalArgumentException("Usage: export,expenses|incomes|graph,csv|json,file,daily|weekly|monthly|total[,categoryId]");
+                }
+                export(parts[1], ReportExporter.Format.parse(parts[2]), Path.of(parts[3]), parts[4],
+                        parts.length == 6 ? parseInt(parts[5]) : 0, parts.length == 6);
+            }
+            case "undo" -> {
+                expectArguments(parts, 0);
+                if (!history.undo()) {
+                    throw new IllegalArgumentException("Nothing to undo.");
+                }
+            }
+            case "redo" -> {
+                expectArguments(parts, 0);
+                if (!history.redo()) {
+                    throw new IllegalArgumentException("Nothing to redo.");
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown command: " + parts[0]);
+        }
+    }
+
+    /**
+     * Exports a report to a file.
+     *
+     * @param report           The report: expenses, incomes or graph.
+     * @param format           The file format.
+     * @param file             The file to write.
+     * @param timeRange        The time range (daily, weekly, monthly or total).
+     * @param categoryId       The category ID if filtering by category.
+     * @param filterByCategory True if filtering by category, false otherwise.
+     */
+    private void export(String report, ReportExporter.Format format, Path file, String timeRange, int categoryId, boolean filterByCategory) {
+        if (filterByCategory && !categoryManager.isValidCategory(categoryId)) {
+            throw new IllegalArgumentException("Category not found.");
+        }
+        CategoryTree.Subtree categories = filterByCategory ? categoryManager.getTree().subtree(categoryId) : null;
+        try {
+            long rows = switch (report) {
+                case "expenses" -> ReportExporter.exportTransactions(file, format, expenseManager.getExpenses(),
+                        expenseManager.getArchive(), timeRange, categories);
+                case "incomes" -> ReportExporter.exportTransactions(file, format, incomeManager.getIncomes(),
+                        incomeManager.getArchive(), timeRange, categories);
+                case "graph" -> ReportExporter.exportTotals(file, format, GraphUI.aggregate(expenseManager.getExpenses(),
+                        incomeManager.getIncomes(), expenseManager.getArchive(), incomeManager.getArchive(), timeRange,
+                        filterByCategory, categoryId, categoryManager.getTree(), FxRates.shared().toReportingCurrency()));
+                default -> throw new IllegalArgumentException("Unknown report: " + report + ". Please use expenses, incomes or graph.");
+            };
+            CONSOLETEXT.printSuccess("Exported " + rows + " rows to " + file + ".");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Error exporting report to " + file + ".");
+        }
+    }
+
+    /**
+     * Checks that a command has exactly the expected number of arguments.
+     *
+     * @param parts    The command name followed by its arguments.
+     * @param expected The expected number of arguments.
+     */
+    private static void expectArguments(String[] parts, int expected) {
+        if (parts.length - 1 != expected) {
+            throw new IllegalArgumentException(parts[0] + " expects " + expected + " arguments but got " + (parts.length - 1) + ".");
+        }
+    }
+
+    /**
+     * Parses the pattern, from, to and categoryId arguments of a bulk command into a filter.
+     *
+     * @param parts The command name followed by its arguments.
+     * @return The filter.
+     */
+    private TransactionFilter parseFilter(String[] parts) {
+        CategoryTree.Subtree categories = null;
+        if (!parts[4].isEmpty()) {
+            int categoryId = parseInt(parts[4]);
+            if (!categoryManager.isValidCategory(categoryId)) {
+                throw new IllegalArgumentException("Category not found.");
+            }
+            categories = categoryManager.getTree().subtree(categoryId);
+        }
+        return new TransactionFilter(parts[1], parts[2].isEmpty() ? null : LocalDate.parse(parts[2]),
+                parts[3].isEmpty() ? null : LocalDate.parse(parts[3]), categories);
+    }
+
+    /**
+     * Parses an integer argument.
+     *
+     * @param value The textual value.
+     * @return The integer.
+     */
+    private static int parseInt(String value) {
+        return Integer.parseInt(value.strip());
+    }
+
+    /**
+     * Parses an amount argument.
+     *
+     * @param value The textual value.
+     * @return The amount.
+     */
+    private static double parseAmount(String value) {
+        return Double.parseDouble(value.strip());
+    }
+
+    /**
+     * Parses an optional trailing currency argument.
+     *
+     * @param parts The command name followed by its arguments.
+     * @param index The index of the currency argument.
+     * @return The currency code, or null if the argument is missing or empty.
+     */
+    private static String parseCurrency(String[] parts, int index) {
+        return parts.length > index && !parts[index].isBlank() ? parts[index].strip() : null;
+    }
+
+    /**
+     * Describes why a command failed.
+     *
+     * @param e The exception raised by the command.
+     * @return A message suitable for the console.
+     */
+    private static String describe(RuntimeException e) {
+        if (e instanceof NumberFormatException) {
+            return "Invalid number.";
+        }
+        if (e instanceof DateTimeParseException) {
+            return "Invalid date. Please enter the date in the format YYYY-MM-DD.";
+        }
+        return e.getMessage();
+    }
+}
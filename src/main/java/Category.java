@@ -1,19 +1,32 @@
 /**
- * Represents a category with an ID and a name.
+ * Represents a category with an ID, a name and optionally a parent category.
  */
 public class Category {
     private int id;
     private String name;
+    private int parentId;
 
     /**
-     * Constructs a new Category with the given ID and name.
+     * Constructs a new top-level Category with the given ID and name.
      *
      * @param id   The ID of the category.
      * @param name The name of the category.
      */
     public Category(int id, String name) {
+        this(id, name, 0);
+    }
+
+    /**
+     * Constructs a new Category with the given ID, name and parent.
+     *
+     * @param id       The ID of the category.
+     * @param name     The name of the category.
+     * @param parentId The ID of the parent category, or 0 for a top-level category.
+     */
+    public Category(int id, String name, int parentId) {
         this.id = id;
         this.name = name;
+        this.parentId = parentId;
     }
 
     /**
@@ -52,6 +65,24 @@ public class Category {
         this.name = name;
     }
 
+    /**
+     * Gets the ID of the parent category.
+     *
+     * @return The ID of the parent category, or 0 for a top-level category.
+     */
+    public int getParentId() {
+        return parentId;
+    }
+
+    /**
+     * Sets the ID of the parent category.
+     *
+     * @param parentId The ID of the parent category, or 0 for a top-level category.
+     */
+    public void setParentId(int parentId) {
+        this.parentId = parentId;
+    }
+
     /**
      * Returns a string representation of the Category object.
      *
@@ -59,6 +90,16 @@ public class Category {
      */
     @Override
     public String toString() {
-        return String.format("|    %-5s |   %-46s |", id, name);
+        return toString(0);
+    }
+
+    /**
+     * Returns a string representation of the Category object, with the name indented to its depth in the tree.
+     *
+     * @param depth The number of ancestors of the category.
+     * @return A formatted string containing the ID and name of the category.
+     */
+    public String toString(int depth) {
+        return String.format("|    %-5s |   %-46s |", id, "  ".repeat(depth) + name);
     }
 }
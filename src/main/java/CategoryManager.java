@@ -1,22 +1,54 @@
 import java.io.*;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
 
 /**
  * Manages categories including creating, editing, deleting, and viewing categories.
+ * Categories can be nested under a parent category, such as Groceries and Restaurants under Food.
  */
 public class CategoryManager {
     private final Scanner scanner;
+    // Changed under the lock; copy-on-write so that the ledgers can check a category ID while holding their own locks
     private final List<Category> categories;
-    private static final String CATEGORY_FILE = "categories.txt";
+    private final IdSequence ids;
+    // Built on first use after every change
+    private CategoryTree tree;
+    private volatile AutosaveScheduler.Target autosave;
+    private volatile EditHistory.Target history;
+    private volatile IntPredicate usageCheck;
+    static final String CATEGORY_FILE = "categories.txt";
+    private static final LatencyHistogram ADD_LATENCY = Metrics.operation("categories", "add");
+    private static final LatencyHistogram EDIT_LATENCY = Metrics.operation("categories", "edit");
+    private static final LatencyHistogram DELETE_LATENCY = Metrics.operation("categories", "delete");
+    private static final LatencyHistogram LOOKUP_LATENCY = Metrics.operation("categories", "lookup");
+    private static final LongAdder LOOKUPS = Metrics.lookups("categories");
+    private static final LatencyHistogram SAVE_LATENCY = Metrics.operation("categories", "save");
+    private static final String CATEGORY_SEQUENCE_FILE = "categories.seq";
 
     /**
      * Constructs a CategoryManager object.
      */
     public CategoryManager() {
-        scanner = new Scanner(System.in);
-        categories = loadCategories();
+        this(new Scanner(System.in));
+    }
+
+    /**
+     * Constructs a CategoryManager object that reads user input from the given scanner.
+     *
+     * @param scanner The scanner shared with the rest of the console UI.
+     */
+    public CategoryManager(Scanner scanner) {
+        this.scanner = scanner;
+        categories = new CopyOnWriteArrayList<>(loadCategories());
+        ids = IdSequence.open(Path.of(CATEGORY_SEQUENCE_FILE), Path.of(CATEGORY_FILE));
+        for (Category category : categories) {
+            ids.advancePast(category.getId());
+        }
     }
 
     /**
@@ -44,7 +76,7 @@ public class CategoryManager {
                     viewCategories();
                     break;
                 case 5:
-                    saveCategories();
+                    requestSave();
                     backToMainMenu = true;
                     break;
                 default:
@@ -54,6 +86,123 @@ public class CategoryManager {
         }
     }
 
+    /**
+     * Reports the number of categories through the metrics registry.
+     */
+    public void registerMetrics() {
+        Metrics.gauge("ledger_rows", "ledger=\"categories\"", "Number of rows in each ledger.", this::getCategoryCount);
+    }
+
+    /**
+     * Saves the categories in the background from now on, through the given autosave target.
+     *
+     * @param autosave The target registered for the categories.
+     */
+    public void setAutosave(AutosaveScheduler.Target autosave) {
+        this.autosave = autosave;
+    }
+
+    /**
+     * Sets how the console checks whether a category is still used before deleting it, typically by asking the
+     * loaded expense and income managers, so that unsaved transactions count too.
+     *
+     * @param usageCheck Tests whether any transaction uses the category with the given ID.
+     */
+    public void setUsageCheck(IntPredicate usageCheck) {
+        this.usageCheck = usageCheck;
+    }
+
+    /**
+     * Records the edits made to the categories from now on in an undo and redo history.
+     *
+     * @param history The history shared with the ledgers.
+     */
+    public void setHistory(EditHistory history) {
+        this.history = history.register(this, this::applyEdit);
+    }
+
+    /**
+     * Records an edit of a category in the undo history, if there is one.
+     *
+     * @param before A copy of the category before the edit, or null if it was added.
+     * @param after  The category after the edit, or null if it was removed.
+     */
+    private void record(Category before, Category after) {
+        EditHistory.Target target = history;
+        if (target != null) {
+            target.record(before, after);
+        }
+    }
+
+    /**
+     * Undoes or redoes an edit from the undo history.
+     * A category is only removed again if it has no subcategories.
+     *
+     * @param delta The recorded edit.
+     * @param undo  True to restore the values before the edit, false to restore those after it.
+     * @return True if the edit applied, false if the category has changed in a way that no longer allows it.
+     */
+    private synchronized boolean applyEdit(EditHistory.Delta delta, boolean undo) {
+        int id = delta.getId();
+        Category current = findCategory(id);
+        if (!delta.exists(!undo)) {
+            if (current == null || hasSubcategories(id)) {
+                return false;
+            }
+            categories.remove(current);
+        } else if (delta.getType() == TransactionEvent.Type.UPDATED && current != null) {
+            if (delta.has(EditHistory.NAME)) {
+                current.setName(delta.getName(!undo));
+            }
+            if (delta.has(EditHistory.PARENT)) {
+                current.setParentId(delta.getParentId(!undo));
+            }
+        } else if (delta.getType() != TransactionEvent.Type.UPDATED && current == null) {
+            // Back at its place in ID order, so that it is listed and saved where it was
+            int index = 0;
+            while (index < categories.size() && categories.get(index).getId() < id) {
+                index++;
+            }
+            categories.add(index, new Category(id, delta.getName(!undo), delta.getParentId(!undo)));
+        } else {
+            return false;
+        }
+        tree = null;
+        changed();
+        return true;
+    }
+
+    /**
+     * Reports a changed category to the autosave scheduler, if the categories are saved in the background.
+     */
+    private void changed() {
+        AutosaveScheduler.Target target = autosave;
+        if (target != null) {
+            target.changed(1);
+        }
+    }
+
+    /**
+     * Saves the categories: in the background if autosave is on, otherwise right away.
+     */
+    private void requestSave() {
+        AutosaveScheduler.Target target = autosave;
+        if (target != null) {
+            target.flushSoon();
+        } else {
+            saveCategories();
+        }
+    }
+
+    /**
+     * Gets the number of categories.
+     *
+     * @return The number of categories.
+     */
+    public synchronized int getCategoryCount() {
+        return categories.size();
+    }
+
     /**
      * Displays the category management menu.
      */
@@ -72,10 +221,148 @@ public class CategoryManager {
     private void createCategory() {
         System.out.print("Enter category name: ");
         String categoryName = scanner.nextLine();
-        int nextId = categories.isEmpty() ? 1 : categories.getLast().getId() + 1;
-        Category category = new Category(nextId, categoryName);
+        int parentId = readParentId("Enter parent category ID (press enter for none): ", 0);
+        try {
+            addCategory(categoryName, parentId);
+            CONSOLETEXT.printSuccess("Category created successfully.");
+        } catch (IllegalArgumentException e) {
+            CONSOLETEXT.printError(e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a new top-level category without prompting the user.
+     *
+     * @param name The name of the category.
+     * @return The added category.
+     * @throws IllegalArgumentException If the name is invalid.
+     */
+    public Category addCategory(String name) {
+        return addCategory(name, 0);
+    }
+
+    /**
+     * Adds a new category without prompting the user.
+     *
+     * @param name     The name of the category.
+     * @param parentId The ID of the parent category, or 0 for a top-level category.
+     * @return The added category.
+     * @throws IllegalArgumentException If the name or the parent is invalid.
+     */
+    public synchronized Category addCategory(String name, int parentId) {
+        long start = System.nanoTime();
+        validateName(name);
+        validateParent(0, parentId);
+        int nextId = ids.next();
+        Category category = new Category(nextId, name, parentId);
         categories.add(category);
-        CONSOLETEXT.printSuccess("Category created successfully.");
+        tree = null;
+        changed();
+        record(null, category);
+        ADD_LATENCY.recordSince(start);
+        return category;
+    }
+
+    /**
+     * Renames an existing category without prompting the user.
+     *
+     * @param id   The ID of the category.
+     * @param name The new name of the category.
+     * @return The renamed category, or null if not found.
+     * @throws IllegalArgumentException If the name is invalid.
+     */
+    public synchronized Category renameCategory(int id, String name) {
+        long start = System.nanoTime();
+        Category category = getCategoryById(id);
+        if (category != null) {
+            validateName(name);
+            Category before = new Category(id, category.getName(), category.getParentId());
+            category.setName(name);
+            changed();
+            record(before, category);
+            EDIT_LATENCY.recordSince(start);
+        }
+        return category;
+    }
+
+    /**
+     * Renames an existing category and moves it under another parent without prompting the user.
+     * Moving a category moves its whole subtree with it.
+     *
+     * @param id       The ID of the category.
+     * @param name     The new name of the category.
+     * @param parentId The ID of the new parent category, or 0 for a top-level category.
+     * @return The updated category, or null if not found.
+     * @throws IllegalArgumentException If the name or the parent is invalid.
+     */
+    public synchronized Category updateCategory(int id, String name, int parentId) {
+        long start = System.nanoTime();
+        Category category = getCategoryById(id);
+        if (category != null) {
+            validateName(name);
+            validateParent(id, parentId);
+            Category before = new Category(id, category.getName(), category.getParentId());
+            category.setName(name);
+            category.setParentId(parentId);
+            tree = null;
+            changed();
+            record(before, category);
+            EDIT_LATENCY.recordSince(start);
+        }
+        return category;
+    }
+
+    /**
+     * Validates the parent of a category.
+     *
+     * @param id       The ID of the category, or 0 for a new category.
+     * @param parentId The ID of the parent category, or 0 for a top-level category.
+     * @throws IllegalArgumentException If the parent does not exist or is the category itself or one of its
+     *                                  descendants.
+     */
+    private void validateParent(int id, int parentId) {
+        if (parentId == 0) {
+            return;
+        }
+        if (!isValidCategory(parentId)) {
+            throw new IllegalArgumentException("Invalid parent category ID. Please select a valid category ID.");
+        }
+        if (id != 0 && getTree().isWithin(parentId, id)) {
+            throw new IllegalArgumentException("A category cannot be moved under itself or one of its subcategories.");
+        }
+    }
+
+    /**
+     * Validates a category name.
+     *
+     * @param name The name of the category.
+     * @throws IllegalArgumentException If the name is empty or contains a comma.
+     */
+    private void validateName(String name) {
+        if (name == null || name.isEmpty() || name.contains(",")) {
+            throw new IllegalArgumentException("Invalid category name. Please provide a name without commas.");
+        }
+    }
+
+    /**
+     * Removes a category without prompting the user.
+     * Callers are responsible for checking that no income or expense still uses it and that it has no
+     * subcategories.
+     *
+     * @param id The ID of the category.
+     * @return True if the category was removed, false if not found.
+     */
+    public synchronized boolean removeCategory(int id) {
+        long start = System.nanoTime();
+        Category category = getCategoryById(id);
+        boolean removed = category != null && categories.remove(category);
+        if (removed) {
+            tree = null;
+            changed();
+            record(category, null);
+            DELETE_LATENCY.recordSince(start);
+        }
+        return removed;
     }
 
     /**
@@ -89,8 +376,13 @@ public class CategoryManager {
         if (category != null) {
             System.out.print("Enter new category name: ");
             String newName = scanner.nextLine();
-            category.setName(newName);
-            CONSOLETEXT.printSuccess("Category updated successfully.");
+            int newParentId = readParentId("Enter new parent category ID (press enter to keep existing, 0 for none): ", category.getParentId());
+            try {
+                updateCategory(categoryId, newName, newParentId);
+                CONSOLETEXT.printSuccess("Category updated successfully.");
+            } catch (IllegalArgumentException e) {
+                CONSOLETEXT.printError(e.getMessage());
+            }
         } else {
             CONSOLETEXT.printWarning("Category not found.");
         }
@@ -107,32 +399,15 @@ public class CategoryManager {
         Category category = getCategoryById(categoryId);
 
         if (category != null) {
-            boolean usedByExpenses = false;
-            boolean usedByIncomes = false;
-
-            ExpenseManager expenseManager = new ExpenseManager(this);
-            IncomeManager incomeManager = new IncomeManager(this);
-
-            // Check if the category is used by expenses
-            for (Expense expense : expenseManager.getExpenses()) {
-                if (expense.getCategoryId() == categoryId) {
-                    usedByExpenses = true;
-                    break;
-                }
-            }
-
-            // Check if the category is used by incomes
-            for (Income income : incomeManager.getIncomes()) {
-                if (income.getCategoryId() == categoryId) {
-                    usedByIncomes = true;
-                    break;
-                }
-            }
-
-            if (usedByExpenses || usedByIncomes) {
+            IntPredicate usageCheck = this.usageCheck;
+            if (usageCheck == null) {
+                CONSOLETEXT.printWarning("The ledgers are not loaded yet. The category cannot be deleted.");
+            } else if (usageCheck.test(categoryId)) {
                 CONSOLETEXT.printWarning("Category is being used by expenses or incomes. It cannot be deleted.");
+            } else if (hasSubcategories(categoryId)) {
+                CONSOLETEXT.printWarning("Category has subcategories. It cannot be deleted.");
             } else {
-                categories.remove(category);
+                removeCategory(categoryId);
                 CONSOLETEXT.printSuccess("Category deleted successfully.");
             }
         } else {
@@ -141,17 +416,44 @@ public class CategoryManager {
     }
 
     /**
-     * Displays all categories.
+     * Reads a parent category ID from user input.
+     *
+     * @param prompt       The prompt message.
+     * @param defaultValue The default value.
+     * @return The entered category ID, or 0 for none.
      */
-    public void viewCategories() {
+    private int readParentId(String prompt, int defaultValue) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+            if (input.isEmpty()) {
+                return defaultValue;
+            }
+            try {
+                int parentId = Integer.parseInt(input);
+                if (parentId == 0 || isValidCategory(parentId)) {
+                    return parentId;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            CONSOLETEXT.printError("Invalid parent category ID. Please select a valid category ID from the table above.");
+        }
+    }
+
+    /**
+     * Displays all categories, each subcategory indented under its parent.
+     */
+    public synchronized void viewCategories() {
         if (categories.isEmpty()) {
             CONSOLETEXT.printWarning("No Categories to display.");
         } else {
             System.out.println("*-------------------------------------------------------------*");
             System.out.println("|    Id    |    Name                                          |");
             System.out.println("*-------------------------------------------------------------*");
-            for (Category category : categories) {
-                System.out.println(category);
+            CategoryTree tree = getTree();
+            for (int position = 0; position < tree.size(); position++) {
+                int id = tree.getCategoryAt(position);
+                System.out.println(findCategory(id).toString(tree.getDepth(id)));
             }
             System.out.println("*-------------------------------------------------------------*");
         }
@@ -163,7 +465,24 @@ public class CategoryManager {
      * @param id The ID of the category.
      * @return The category object, or null if not found.
      */
-    private Category getCategoryById(int id) {
+    public synchronized Category getCategoryById(int id) {
+        LOOKUPS.increment();
+        if (!LatencyHistogram.shouldSample()) {
+            return findCategory(id);
+        }
+        long start = System.nanoTime();
+        Category category = findCategory(id);
+        LOOKUP_LATENCY.recordSince(start);
+        return category;
+    }
+
+    /**
+     * Finds a category by its ID.
+     *
+     * @param id The ID of the category.
+     * @return The category object, or null if not found.
+     */
+    private Category findCategory(int id) {
         for (Category category : categories) {
             if (category.getId() == id) {
                 return category;
@@ -175,14 +494,23 @@ public class CategoryManager {
     /**
      * Saves categories to a file.
      */
-    private void saveCategories() {
+    synchronized void saveCategories() {
+        long start = System.nanoTime();
+        LedgerSaveEvent event = new LedgerSaveEvent();
+        event.begin();
         try (PrintWriter writer = new PrintWriter(new FileWriter(CATEGORY_FILE))) {
             for (Category category : categories) {
-                writer.println(category.getId() + "," + category.getName());
+                // Top-level categories keep the original two-field format
+                writer.println(category.getId() + "," + category.getName()
+                        + (category.getParentId() == 0 ? "" : "," + category.getParentId()));
             }
         } catch (IOException e) {
             CONSOLETEXT.printError("Error saving categories to file.");
+            return;
         }
+        event.finish(CATEGORY_FILE, categories.size());
+        ids.checkpoint();
+        SAVE_LATENCY.recordSince(start);
     }
 
     /**
@@ -191,15 +519,18 @@ public class CategoryManager {
      * @return The list of loaded categories.
      */
     private List<Category> loadCategories() {
+        LedgerLoadEvent event = new LedgerLoadEvent();
+        event.begin();
         List<Category> categories = new ArrayList<>();
         try (BufferedReader reader = new BufferedReader(new FileReader(CATEGORY_FILE))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split(",");
-                if (parts.length == 2) {
+                if (parts.length == 2 || parts.length == 3) {
                     int id = Integer.parseInt(parts[0]);
                     String name = parts[1];
-                    Category category = new Category(id, name);
+                    int parentId = parts.length == 3 ? Integer.parseInt(parts[2]) : 0;
+                    Category category = new Category(id, name, parentId);
                     categories.add(category);
                 }
             }
@@ -209,6 +540,7 @@ public class CategoryManager {
         catch (IOException e) {
             CONSOLETEXT.printError("Error loading categories from file.");
         }
+        event.finish(CATEGORY_FILE, categories.size());
         return categories;
     }
 
@@ -221,8 +553,37 @@ public class CategoryManager {
         return categories;
     }
 
+    /**
+     * Gets the index of the category hierarchy, building it if the categories changed since it was last built.
+     *
+     * @return The category tree.
+     */
+    public synchronized CategoryTree getTree() {
+        if (tree == null) {
+            tree = CategoryTree.build(categories);
+        }
+        return tree;
+    }
+
+    /**
+     * Checks whether a category has subcategories.
+     *
+     * @param categoryId The ID of the category.
+     * @return True if any category has it as its parent.
+     */
+    public synchronized boolean hasSubcategories(int categoryId) {
+        for (Category category : categories) {
+            if (category.getParentId() == categoryId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Checks if a category ID is valid.
+     * Does not lock the categories, so that a ledger can check a category while it holds its own lock; a caller
+     * that has to keep the category from being removed meanwhile holds the ledger's lock, which removal takes too.
      *
      * @param categoryId The ID of the category.
      * @return True if the category ID is valid, otherwise false.
@@ -242,7 +603,7 @@ public class CategoryManager {
      * @param categoryId The ID of the category.
      * @return The name of the category, or "Unknown" if not found.
      */
-    public String getCategoryName(int categoryId) {
+    public synchronized String getCategoryName(int categoryId) {
         for (Category category : categories) {
             if (category.getId() == categoryId) {
                 return category.getName();
@@ -0,0 +1,232 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the total amount and number of transactions per category, updated incrementally from ledger changes.
+ * <p>
+ * Amounts are converted into the reporting currency at the rate of each transaction's day, through the same
+ * conversion table as the graphs. When the table is replaced, because the rates were reloaded or a currency
+ * appeared, the view rebuilds the next time it is used, so that every amount is converted again.
+ * <p>
+ * The totals of every subtree of the category tree are kept as well, in two Fenwick trees over the categories'
+ * positions in the tree. A change updates O(log n) entries and a subtree total is the difference of two prefix
+ * sums. When the category tree itself changes, the Fenwick trees are rebuilt from the per-category totals the
+ * next time a subtree total is asked for.
+ *
+ * @param <T> The type of transaction.
+ */
+public class CategoryTotals<T extends Transaction> extends LedgerView<T> {
+    private final Map<Integer, double[]> totals = new HashMap<>();
+    private final Supplier<CategoryTree> categories;
+    private final Supplier<FxRates.Conversion> conversions;
+    // The table the totals are converted with, taken when the view was last rebuilt
+    private FxRates.Conversion conversion;
+    // The tree the Fenwick trees are laid out for, or null if they need rebuilding
+    private CategoryTree indexed;
+    private double[] subtreeAmounts;
+    private double[] subtreeCounts;
+
+    /**
+     * Constructs a CategoryTotals view over a ledger. Subscribe it to the ledger's bus to keep it up to date.
+     *
+     * @param source      Supplies snapshots of the ledger for (re)building the view.
+     * @param categories  Supplies the current category tree.
+     * @param conversions Supplies the current conversion into the reporting currency.
+     */
+    public CategoryTotals(Supplier<TransactionSnapshot<T>> source, Supplier<CategoryTree> categories,
+                          Supplier<FxRates.Conversion> conversions) {
+        super(source);
+        this.categories = categories;
+        this.conversions = conversions;
+    }
+
+
+    /**
+     * Gets the total amount of the transactions in a category.
+     *
+     * @param categoryId The ID of the category.
+     * @return The total amount, or 0 if the category has no transactions.
+     */
+    public synchronized double getTotal(int categoryId) {
+        update();
+        double[] entry = totals.get(categoryId);
+        return entry == null ? 0.0 : entry[0];
+    }
+
+    /**
+     * Gets the number of transactions in a category.
+     *
+     * @param categoryId The ID of the category.
+     * @return The number of transactions.
+     */
+    public synchronized long getCount(int categoryId) {
+        update();
+        double[] entry = totals.get(categoryId);
+        return entry == null ? 0 : (long) entry[1];
+    }
+
+    /**
+     * Gets a copy of all totals.
+     *
+     * @return A map from category ID to its total amount and number of transactions, in that order.
+     */
+    public synchronized Map<Integer, double[]> getTotals() {
+        update();
+        Map<Integer, double[]> copy = new HashMap<>();
+        totals.forEach((categoryId, entry) -> copy.put(categoryId, entry.clone()));
+        return copy;
+    }
+
+    /**
+     * Gets the total amount of the transactions in a category and all its subcategories.
+     *
+     * @param categoryId The ID of the category.
+     * @return The total amount, or 0 if the subtree has no transactions.
+     */
+    public synchronized double getSubtreeTotal(int categoryId) {
+        CategoryTree tree = rollups();
+        int first = tree.getPosition(categoryId);
+        return first < 0 ? 0.0 : prefixSum(subtreeAmounts, tree.getEnd(categoryId)) - prefixSum(subtreeAmounts, first);
+    }
+
+    /**
+     * Gets the number of transactions in a category and all its subcategories.
+     *
+     * @param categoryId The ID of the category.
+     * @return The number of transactions.
+     */
+    public synchronized long getSubtreeCount(int categoryId) {
+        CategoryTree tree = rollups();
+        int first = tree.getPosition(categoryId);
+        return first < 0 ? 0 : Math.round(prefixSum(subtreeCounts, tree.getEnd(categoryId)) - prefixSum(subtreeCounts, first));
+    }
+
+    /**
+     * Gets the totals of every subtree that holds any transactions.
+     *
+     * @return A map from category ID to the total amount and number of transactions of the category and all its
+     * subcategories, in that order.
+     */
+    public synchronized Map<Integer, double[]> getSubtreeTotals() {
+        CategoryTree tree = rollups();
+        Map<Integer, double[]> copy = new HashMap<>();
+        for (int position = 0; position < tree.size(); position++) {
+            int categoryId = tree.getCategoryAt(position);
+            int end = tree.getEnd(categoryId);
+            double count = prefixSum(subtreeCounts, end) - prefixSum(subtreeCounts, position);
+            if (Math.round(count) > 0) {
+                double amount = prefixSum(subtreeAmounts, end) - prefixSum(subtreeAmounts, position);
+                copy.put(categoryId, new double[]{amount, Math.round(count)});
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Brings the view up to date and rebuilds the subtree totals if the category tree changed since they were built.
+     *
+     * @return The category tree the subtree totals are laid out for.
+     */
+    private CategoryTree rollups() {
+        update();
+        CategoryTree tree = categories.get();
+        if (tree != indexed) {
+            int size = tree.size();
+            subtreeAmounts = new double[size + 1];
+            subtreeCounts = new double[size + 1];
+            for (int position = 0; position < size; position++) {
+                double[] entry = totals.get(tree.getCategoryAt(position));
+                if (entry != null) {
+                    subtreeAmounts[position + 1] = entry[0];
+                    subtreeCounts[position + 1] = entry[1];
+                }
+            }
+            // Linear-time construction: every node passes its sum on to the node that covers it
+            for (int i = 1; i <= size; i++) {
+                int parent = i + (i & -i);
+                if (parent <= size) {
+                    subtreeAmounts[parent] += subtreeAmounts[i];
+                    subtreeCounts[parent] += subtreeCounts[i];
+                }
+            }
+            indexed = tree;
+        }
+        return tree;
+    }
+
+    /**
+     * Brings the view up to date, rebuilding it if the conversion table was replaced since it was built.
+     */
+    private void update() {
+        if (conversions.get() != conversion) {
+            markStale();
+        }
+        refresh();
+    }
+
+    /**
+     * Adds a transaction's converted amount and count to the subtree totals, if they are up to date.
+     *
+     * @param categoryId The category ID of the transaction.
+     * @param amount     The amount in the reporting currency.
+     * @param sign       1 to add the transaction, -1 to take it away.
+     */
+    private void addToSubtrees(int categoryId, double amount, int sign) {
+        if (indexed == null) {
+            return;
+        }
+        int position = indexed.getPosition(categoryId);
+        if (position < 0) {
+            // A category the tree does not know yet; rebuild against the next tree
+            indexed = null;
+            return;
+        }
+        for (int i = position + 1; i < subtreeAmounts.length; i += i & -i) {
+            subtreeAmounts[i] += sign * amount;
+            subtreeCounts[i] += sign;
+        }
+    }
+
+    /**
+     * Sums the first entries of a Fenwick tree.
+     *
+     * @param tree  The Fenwick tree.
+     * @param count The number of leading positions to sum.
+     * @return The sum.
+     */
+    private static double prefixSum(double[] tree, int count) {
+        double sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    @Override
+    protected void reset() {
+        totals.clear();
+        indexed = null;
+        conversion = conversions.get();
+    }
+
+    @Override
+    protected void apply(TransactionEvent.Type type, T before, T after) {
+        if (before != null) {
+            double amount = conversion.convert(before);
+            double[] entry = totals.get(before.getCategoryId());
+            entry[0] -= amount;
+            if (--entry[1] == 0) {
+                totals.remove(before.getCategoryId());
+            }
+            addToSubtrees(before.getCategoryId(), amount, -1);
+        }
+        if (after != null) {
+            double amount = conversion.convert(after);
+            double[] entry = totals.computeIfAbsent(after.getCategoryId(), id -> new double[2]);
+            entry[0] += amount;
+            entry[1]++;
+            addToSubtrees(after.getCategoryId(), amount, 1);
+        }
+    }
+}
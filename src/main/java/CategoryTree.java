@@ -0,0 +1,315 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only index of the category hierarchy, built from an Euler tour of the tree.
+ * <p>
+ * Every category gets a position in a depth-first walk of the tree, and its descendants take the positions right
+ * after it. A subtree is therefore a range of positions, and checking whether a category lies within another one's
+ * subtree is two array reads and a range check instead of a walk up the parents. Categories whose parent is
+ * missing, or that are part of a cycle, are treated as top-level categories. The tree is rebuilt whenever the
+ * categories change, so a tree never changes once built.
+ */
+public final class CategoryTree {
+    // Indexed by category ID; -1 for IDs that are not categories
+    private final int[] positions;
+    private final int[] ends;
+    private final int[] depths;
+    // Indexed by position
+    private final int[] order;
+    private final int[] parentPositions;
+
+    /**
+     * Constructs a CategoryTree.
+     *
+     * @param positions       The position of each category ID, or -1.
+     * @param ends            The position after the last descendant of each category ID.
+     * @param depths          The depth of each category ID, 0 for top-level categories.
+     * @param order           The category ID at each position.
+     * @param parentPositions The position of the parent at each position, or -1 for top-level categories.
+     */
+    private CategoryTree(int[] positions, int[] ends, int[] depths, int[] order, int[] parentPositions) {
+        this.positions = positions;
+        this.ends = ends;
+        this.depths = depths;
+        this.order = order;
+        this.parentPositions = parentPositions;
+    }
+
+    /**
+     * Builds the tree of a list of categories. Siblings keep the order of the list.
+     *
+     * @param categories The categories.
+     * @return The tree.
+     */
+    public static CategoryTree build(List<Category> categories) {
+        int maxId = 0;
+        for (Category category : categories) {
+            maxId = Math.max(maxId, category.getId());
+        }
+        int[] parents = new int[maxId + 1];
+        boolean[] known = new boolean[maxId + 1];
+        for (Category category : categories) {
+            known[category.getId()] = true;
+        }
+        // Children as linked lists: the first child of each ID and the next sibling of each ID
+        int[] firstChild = new int[maxId + 1];
+        int[] nextSibling = new int[maxId + 1];
+        int[] lastChild = new int[maxId + 1];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        for (Category category : categories) {
+            int id = category.getId();
+            int parent = category.getParentId();
+            parents[id] = parent > 0 && parent <= maxId && known[parent] && parent != id ? parent : 0;
+        }
+        breakCycles(parents);
+        int[] roots = new int[categories.size()];
+        int rootCount = 0;
+        for (Category category : categories) {
+            int id = category.getId();
+            int parent = parents[id];
+            if (parent == 0) {
+                roots[rootCount++] = id;
+            } else if (firstChild[parent] == -1) {
+                firstChild[parent] = id;
+                lastChild[parent] = id;
+            } else {
+                nextSibling[lastChild[parent]] = id;
+                lastChild[parent] = id;
+            }
+        }
+
+        int[] positions = new int[maxId + 1];
+        int[] ends = new int[maxId + 1];
+        int[] depths = new int[maxId + 1];
+        Arrays.fill(positions, -1);
+        Arrays.fill(ends, -1);
+        int[] order = new int[categories.size()];
+        int[] parentPositions = new int[categories.size()];
+        int[] stack = new int[categories.size() + 1];
+        int position = 0;
+        for (int r = 0; r < rootCount; r++) {
+            // Iterative walk, so that deep trees cannot overflow the call stack
+            int depth = 0;
+            stack[0] = roots[r];
+            positions[roots[r]] = position;
+            parentPositions[position] = -1;
+            order[position++] = roots[r];
+            while (depth >= 0) {
+                int id = stack[depth];
+                int child = firstChild[id];
+                if (child != -1) {
+                    // Consume the child so that the walk moves on to its sibling when it returns here
+                    firstChild[id] = nextSibling[child];
+                    depths[child] = depth + 1;
+                    positions[child] = position;
+                    parentPositions[position] = positions[id];
+                    order[position++] = child;
+                    stack[++depth] = child;
+                } else {
+                    ends[id] = position;
+                    depth--;
+                }
+            }
+        }
+        return new CategoryTree(positions, ends, depths, Arrays.copyOf(order, position), Arrays.copyOf(parentPositions, position));
+    }
+
+    /**
+     * Detaches the categories that are their own ancestors, so that every category reaches a top-level one.
+     *
+     * @param parents The parent ID of each category ID, 0 for top-level categories; changed in place.
+     */
+    private static void breakCycles(int[] parents) {
+        // 0 = not visited, 1 = on the current path, 2 = known to reach a top-level category
+        byte[] state = new byte[parents.length];
+        for (int start = 1; start < parents.length; start++) {
+            int id = start;
+            while (id != 0 && state[id] == 0) {
+                state[id] = 1;
+                if (state[parents[id]] == 1) {
+                    parents[id] = 0;
+                }
+                id = parents[id];
+            }
+            for (id = start; id != 0 && state[id] == 1; id = parents[id]) {
+                state[id] = 2;
+            }
+        }
+    }
+
+    /**
+     * Gets the position of a category in the walk of the tree.
+     *
+     * @param categoryId The ID of the category.
+     * @return The position, or -1 if there is no such category.
+     */
+    public int getPosition(int categoryId) {
+        return categoryId >= 0 && categoryId < positions.length ? positions[categoryId] : -1;
+    }
+
+    /**
+     * Gets the position after the last descendant of a category.
+     *
+     * @param categoryId The ID of the category.
+     * @return The end of the subtree's range of positions, or -1 if there is no such category.
+     */
+    public int getEnd(int categoryId) {
+        return categoryId >= 0 && categoryId < ends.length ? ends[categoryId] : -1;
+    }
+
+    /**
+     * Gets the depth of a category in the tree.
+     *
+     * @param categoryId The ID of the category.
+     * @return The number of ancestors of the category, 0 for top-level or unknown categories.
+     */
+    public int getDepth(int categoryId) {
+        return categoryId >= 0 && categoryId < depths.length ? depths[categoryId] : 0;
+    }
+
+    /**
+     * Gets the category at a position in the walk of the tree.
+     *
+     * @param position The position.
+     * @return The ID of the category.
+     */
+    public int getCategoryAt(int position) {
+        return order[position];
+    }
+
+    /**
+     * Gets the number of categories in the tree.
+     *
+     * @return The number of categories.
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * Checks whether a category is another category or one of its descendants.
+     *
+     * @param categoryId The ID of the category to check.
+     * @param ancestorId The ID of the ancestor.
+     * @return True if the category lies within the ancestor's subtree.
+     */
+    public boolean isWithin(int categoryId, int ancestorId) {
+        int position = getPosition(categoryId);
+        return position >= 0 && position >= getPosition(ancestorId) && position < getEnd(ancestorId);
+    }
+
+    /**
+     * Gets the subtree of a category, for filtering many transactions by it.
+     *
+     * @param categoryId The ID of the category.
+     * @return The category and its descendants.
+     */
+    public Subtree subtree(int categoryId) {
+        return new Subtree(categoryId, positions, getPosition(categoryId), getEnd(categoryId));
+    }
+
+    /**
+     * Sums per-category totals over every subtree, in a single pass from the last position to the first.
+     *
+     * @param totals A map from category ID to its total amount and number of transactions, in that order.
+     * @return A map from category ID to the total amount and number of transactions of its subtree, for the
+     * categories whose subtree has any.
+     */
+    public Map<Integer, double[]> rollUp(Map<Integer, double[]> totals) {
+        double[][] sums = new double[order.length][];
+        for (int position = order.length - 1; position >= 0; position--) {
+            double[] own = totals.get(order[position]);
+            if (own != null) {
+                sums[position] = add(sums[position], own);
+            }
+            if (sums[position] != null && parentPositions[position] >= 0) {
+                sums[parentPositions[position]] = add(sums[parentPositions[position]], sums[position]);
+            }
+        }
+        Map<Integer, double[]> rollups = new HashMap<>();
+        for (int position = 0; position < order.length; position++) {
+            if (sums[position] != null) {
+                rollups.put(order[position], sums[position]);
+            }
+        }
+        return rollups;
+    }
+
+    /**
+     * Adds a total amount and number of transactions to another.
+     *
+     * @param sum   The sum to add to, or null for none yet.
+     * @param entry The total amount and number of transactions to add.
+     * @return The sum.
+     */
+    private static double[] add(double[] sum, double[] entry) {
+        if (sum == null) {
+            sum = new double[2];
+        }
+        sum[0] += entry[0];
+        sum[1] += entry[1];
+        return sum;
+    }
+
+    /**
+     * A category and its descendants, checked with a range test on their positions.
+     */
+    public static final class Subtree {
+        private final int categoryId;
+        private final int[] positions;
+        private final int first;
+        private final int end;
+
+        /**
+         * Constructs a Subtree.
+         *
+         * @param categoryId The ID of the category at the root of the subtree.
+         * @param positions  The position of each category ID in the tree, or null if the category has no tree.
+         * @param first      The position of the root.
+         * @param end        The position after the last descendant.
+         */
+        private Subtree(int categoryId, int[] positions, int first, int end) {
+            this.categoryId = categoryId;
+            this.positions = positions;
+            this.first = first;
+            this.end = end;
+        }
+
+        /**
+         * Gets the subtree of a category outside any tree, which holds just the category itself.
+         *
+         * @param categoryId The ID of the category.
+         * @return The subtree.
+         */
+        public static Subtree of(int categoryId) {
+            return new Subtree(categoryId, null, 0, 0);
+        }
+
+        /**
+         * Gets the category at the root of the subtree.
+         *
+         * @return The ID of the category.
+         */
+        public int getCategoryId() {
+            return categoryId;
+        }
+
+        /**
+         * Checks whether a category is in the subtree.
+         *
+         * @param id The ID of the category.
+         * @return True if the category is the root or one of its descendants.
+         */
+        public boolean contains(int id) {
+            if (positions == null) {
+                return id == categoryId;
+            }
+            int position = id >= 0 && id < positions.length ? positions[id] : -1;
+            return position >= first && position < end;
+        }
+    }
+}
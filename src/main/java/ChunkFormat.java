@@ -0,0 +1,98 @@
+/**
+ * Decides how a {@link TransactionStore} lays out the transactions of one chunk in memory.
+ * Chunks are opaque to the store, which only creates, copies and edits them through their format.
+ *
+ * @param <T> The type of transaction.
+ */
+public interface ChunkFormat<T extends Transaction> {
+    /**
+     * Creates an empty chunk.
+     *
+     * @param capacity The number of transactions the chunk holds.
+     * @return The chunk.
+     */
+    Object newChunk(int capacity);
+
+    /**
+     * Copies a chunk, so that the copy can be changed while the original stays frozen.
+     *
+     * @param chunk    The chunk to copy.
+     * @param capacity The number of transactions the chunk holds.
+     * @return The copy.
+     */
+    Object copyChunk(Object chunk, int capacity);
+
+    /**
+     * Gets the transaction at a position of a chunk.
+     *
+     * @param chunk The chunk.
+     * @param index The position in the chunk.
+     * @return The transaction.
+     */
+    T get(Object chunk, int index);
+
+    /**
+     * Gets the ID of the transaction at a position of a chunk, without materializing the transaction.
+     *
+     * @param chunk The chunk.
+     * @param index The position in the chunk.
+     * @return The ID of the transaction.
+     */
+    int getId(Object chunk, int index);
+
+    /**
+     * Stores a transaction at a position of a chunk.
+     *
+     * @param chunk       The chunk.
+     * @param index       The position in the chunk.
+     * @param transaction The transaction.
+     */
+    void set(Object chunk, int index, T transaction);
+
+    /**
+     * Removes the transaction at a position of a chunk, moving the later ones down by one.
+     *
+     * @param chunk The chunk.
+     * @param index The position in the chunk.
+     * @param size  The number of transactions in the chunk before the removal.
+     */
+    void delete(Object chunk, int index, int size);
+
+    /**
+     * Gives back a chunk that neither the store nor any snapshot refers to any more, so that its memory can be
+     * reused for a new chunk or copy. By default the chunk is simply left to the garbage collector.
+     *
+     * @param chunk The chunk.
+     */
+    default void release(Object chunk) {
+    }
+
+    /**
+     * Checks whether the transactions are kept outside the Java heap.
+     *
+     * @return True if the chunks live off-heap.
+     */
+    boolean isOffHeap();
+
+    /**
+     * Gets the format selected with the {@code expensetracker.storage} system property: {@code heap} (the
+     * default) keeps transaction objects on the Java heap, {@code offheap} keeps fixed-layout records in native
+     * memory so that heap usage no longer grows with the ledger. Native memory counts against the JVM's direct
+     * memory limit, which defaults to the maximum heap size; raise it with {@code -XX:MaxDirectMemorySize} for
+     * large ledgers.
+     *
+     * @param factory      Creates transactions from the records read off-heap.
+     * @param descriptions The dictionary of the ledger, whose codes the records keep off-heap.
+     * @param <T>          The type of transaction.
+     * @return The chunk format.
+     * @throws IllegalArgumentException If the property names an unknown storage.
+     */
+    static <T extends Transaction> ChunkFormat<T> configured(TransactionFactory<T> factory, DescriptionDictionary descriptions) {
+        String storage = System.getProperty("expensetracker.storage", "heap");
+        return switch (storage) {
+            case "heap" -> new HeapChunkFormat<>();
+            case "offheap" -> new OffHeapChunkFormat<>(factory, descriptions);
+            default -> throw new IllegalArgumentException("Unknown storage: " + storage + " (expected heap or offheap)");
+        };
+    }
+}
@@ -1,25 +1,69 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 class ConsoleUI {
     private final Scanner scanner;
     private final CategoryManager categoryManager;
-    private final ExpenseManager expenseManager;
-    private final IncomeManager incomeManager;
-    private final GraphUI graphUI;
+    private final AutosaveScheduler autosave = new AutosaveScheduler();
+    private final EditHistory history = new EditHistory();
+    private final LedgerWatcher watcher;
+    private CompletableFuture<ExpenseManager> expenseManager;
+    private CompletableFuture<IncomeManager> incomeManager;
+    private GraphUI graphUI;
 
     public ConsoleUI() {
+        // A single scanner is shared so that buffered input is never split between readers
         scanner = new Scanner(System.in);
-        categoryManager = new CategoryManager();
-        expenseManager = new ExpenseManager(categoryManager);
-        incomeManager = new IncomeManager(categoryManager);
-        graphUI = new GraphUI(categoryManager, expenseManager, incomeManager);
+        categoryManager = new CategoryManager(scanner);
+        categoryManager.registerMetrics();
+        categoryManager.setAutosave(autosave.register("categories", categoryManager::saveCategories));
+        categoryManager.setHistory(history);
+        watcher = openWatcher();
+    }
+
+    /**
+     * Starts watching the ledger files for changes saved by other processes.
+     *
+     * @return The watcher, or null if the directory cannot be watched.
+     */
+    private static LedgerWatcher openWatcher() {
+        try {
+            return new LedgerWatcher(Path.of("").toAbsolutePath());
+        } catch (IOException e) {
+            CONSOLETEXT.printWarning("Changes saved by other processes are only picked up when saving.");
+            return null;
+        }
     }
 
     public void start() {
+        try {
+            run();
+        } finally {
+            if (watcher != null) {
+                watcher.close();
+            }
+            // Whatever the autosave thread has not written yet is saved before exiting, even if input ran out
+            autosave.close();
+        }
+        System.out.println("Exiting Expense Tracker. See you again. ");
+        scanner.close();
+    }
+
+    private void run() {
         boolean exit = false;
         while (!exit) {
             displayMainMenu();
+            if (expenseManager == null) {
+                // The ledgers can be large, so they are parsed in the background once the first menu is up
+                loadLedgers();
+            }
             System.out.print("Enter your choice: ");
+            if (!scanner.hasNext()) {
+                break;
+            }
             int choice = scanner.nextInt();
             scanner.nextLine();
             switch (choice) {
@@ -27,23 +71,86 @@ class ConsoleUI {
                     categoryManager.menu();
                     break;
                 case 2:
-                    incomeManager.menu();
+                    incomeManager.join().menu();
                     break;
                 case 3:
-                    expenseManager.menu();
+                    expenseManager.join().menu();
                     break;
                 case 4:
-                    graphUI.menu();
+                    getGraphUI().menu();
                     break;
                 case 5:
                     exit = true;
                     break;
+                case 6:
+                    System.out.println();
+                    Metrics.print();
+                    break;
+                case 7:
+                    if (history.undo()) {
+                        CONSOLETEXT.printSuccess("Last change undone.");
+                    } else {
+                        CONSOLETEXT.printWarning("Nothing to undo.");
+                    }
+                    break;
+                case 8:
+                    if (history.redo()) {
+                        CONSOLETEXT.printSuccess("Last undone change redone.");
+                    } else {
+                        CONSOLETEXT.printWarning("Nothing to redo.");
+                    }
+                    break;
                 default:
                     CONSOLETEXT.printError("Invalid choice. Please try again.");
             }
         }
-        System.out.println("Exiting Expense Tracker. See you again. ");
-        scanner.close();
+    }
+
+    /**
+     * Starts parsing the expense and income ledgers on background threads. Menus that need a ledger wait for it
+     * to finish loading the first time they are opened. Every ledger is saved in the background as it changes,
+     * merges the changes other processes save to it, and records its edits in the shared undo history.
+     */
+    private void loadLedgers() {
+        Executor loader = task -> Thread.ofVirtual().name("ledger-loader").start(task);
+        expenseManager = CompletableFuture.supplyAsync(() -> {
+            ExpenseManager manager = new ExpenseManager(categoryManager, scanner);
+            manager.setAutosave(autosave.register("expenses", manager::saveExpenses));
+            manager.setHistory(history);
+            if (watcher != null) {
+                manager.watch(watcher);
+            }
+            return manager;
+        }, loader);
+        incomeManager = CompletableFuture.supplyAsync(() -> {
+            IncomeManager manager = new IncomeManager(categoryManager, scanner);
+            manager.setAutosave(autosave.register("incomes", manager::saveIncomes));
+            manager.setHistory(history);
+            if (watcher != null) {
+                manager.watch(watcher);
+            }
+            return manager;
+        }, loader);
+        if (watcher != null) {
+            watcher.watch(FxRates.FX_FILE, FxRates::reload);
+        }
+        // Deleting a category waits for the ledgers and asks them, rather than reading the files again
+        categoryManager.setUsageCheck(categoryId -> expenseManager.join().usesCategory(categoryId)
+                || incomeManager.join().usesCategory(categoryId));
+        expenseManager.thenAccept(ExpenseManager::registerMetrics);
+        incomeManager.thenAccept(IncomeManager::registerMetrics);
+    }
+
+    /**
+     * Gets the graph menu, creating it once both ledgers have been loaded.
+     *
+     * @return The graph menu.
+     */
+    private GraphUI getGraphUI() {
+        if (graphUI == null) {
+            graphUI = new GraphUI(categoryManager, expenseManager.join(), incomeManager.join(), scanner);
+        }
+        return graphUI;
     }
 
     private void displayMainMenu() {
@@ -52,6 +159,7 @@ class ConsoleUI {
         System.out.println("|                                                            🏠  Home Menu                                                           |");
         System.out.println("|                                                                                                                                    |");
         System.out.println("|    📂 Category Management (1)  \uD83D\uDCB8 Income Management (2)   💰 Expense Management (3)    📊 Generate Graphs (4)    🚪 Exit (5)      |");
+        System.out.println("|    📈 Metrics (6)  ↩\uFE0F Undo (7)  ↪\uFE0F Redo (8)                                                                                        |");
         System.out.println("*------------------------------------------------------------------------------------------------------------------------------------*");
     }
 
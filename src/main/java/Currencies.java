@@ -0,0 +1,113 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The currencies that amounts are recorded in, each with a small, dense index.
+ * <p>
+ * Index 0 is the base currency: amounts saved without a currency code are in it, and exchange rates are quoted
+ * against it. It is set with the {@code expensetracker.currency} system property and defaults to USD. Indexes stay
+ * valid for the lifetime of the process, so transactions keep the index instead of the code and conversion tables
+ * can be arrays indexed by it.
+ */
+public class Currencies {
+    /**
+     * The code of the base currency.
+     */
+    public static final String BASE = System.getProperty("expensetracker.currency", "USD").toUpperCase();
+    private static final ConcurrentHashMap<String, Integer> INDEXES = new ConcurrentHashMap<>();
+    // Grown by copying, so a reader holding an index always finds its code in the current table
+    private static volatile String[] codes = new String[8];
+    private static int size;
+
+    static {
+        if (!isValid(BASE)) {
+            throw new IllegalArgumentException("Invalid expensetracker.currency: " + BASE);
+        }
+        add(BASE);
+    }
+
+    /**
+     * Prevents instantiation; the currencies are shared by the whole process.
+     */
+    private Currencies() {
+    }
+
+    /**
+     * Checks whether a currency code is well-formed: three upper-case letters, like USD or EUR.
+     *
+     * @param code The currency code.
+     * @return True if the code is well-formed.
+     */
+    public static boolean isValid(String code) {
+        return code != null && code.length() == 3
+                && Character.isUpperCase(code.charAt(0)) && Character.isUpperCase(code.charAt(1)) && Character.isUpperCase(code.charAt(2));
+    }
+
+    /**
+     * Gets the index of a currency, adding the currency if it is new.
+     * Codes handed out by {@link #codeOf(int)} are found by identity, without a map lookup.
+     *
+     * @param code The currency code, or null for the base currency.
+     * @return The index of the currency.
+     * @throws IllegalArgumentException If the code is not well-formed.
+     */
+    public static int indexOf(String code) {
+        if (code == null) {
+            return 0;
+        }
+        String[] table = codes;
+        for (int i = 0; i < table.length && table[i] != null; i++) {
+            if (table[i] == code) {
+                return i;
+            }
+        }
+        Integer index = INDEXES.get(code);
+        if (index != null) {
+            return index;
+        }
+        if (!isValid(code)) {
+            throw new IllegalArgumentException("Invalid currency. Please use a three-letter code such as " + BASE + ".");
+        }
+        return add(code);
+    }
+
+    /**
+     * Adds a new currency.
+     *
+     * @param code The currency code.
+     * @return The index of the currency.
+     */
+    private static synchronized int add(String code) {
+        Integer index = INDEXES.get(code);
+        if (index != null) {
+            return index;
+        }
+        String[] table = codes;
+        if (size == table.length) {
+            table = Arrays.copyOf(table, size * 2);
+        }
+        table[size] = code;
+        codes = table;
+        INDEXES.put(code, size);
+        return size++;
+    }
+
+    /**
+     * Gets the code of a currency.
+     *
+     * @param index The index of the currency.
+     * @return The currency code.
+     */
+    public static String codeOf(int index) {
+        return codes[index];
+    }
+
+    /**
+     * Gets the number of currencies.
+     *
+     * @return The number of currencies; every index is below it.
+     */
+    public static int size() {
+        return INDEXES.size();
+    }
+}
@@ -0,0 +1,64 @@
+import java.time.LocalDate;
+
+/**
+ * Represents the expense and income totals of a single day, as shown in a graph.
+ */
+public class DailyTotal {
+    private final LocalDate date;
+    private double expense;
+    private double income;
+
+    /**
+     * Constructs a DailyTotal object for the given date with zero totals.
+     *
+     * @param date The date of the totals.
+     */
+    public DailyTotal(LocalDate date) {
+        this.date = date;
+    }
+
+    /**
+     * Gets the date of the totals.
+     *
+     * @return The date of the totals.
+     */
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * Gets the total expense amount of the day.
+     *
+     * @return The total expense amount.
+     */
+    public double getExpense() {
+        return expense;
+    }
+
+    /**
+     * Gets the total income amount of the day.
+     *
+     * @return The total income amount.
+     */
+    public double getIncome() {
+        return income;
+    }
+
+    /**
+     * Adds an amount to the expense total of the day.
+     *
+     * @param amount The amount to add.
+     */
+    public void addExpense(double amount) {
+        expense += amount;
+    }
+
+    /**
+     * Adds an amount to the income total of the day.
+     *
+     * @param amount The amount to add.
+     */
+    public void addIncome(double amount) {
+        income += amount;
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The table of distinct descriptions of one ledger.
+ * <p>
+ * Ledgers repeat the same descriptions many times, so every transaction in a ledger refers to one shared
+ * {@link Entry} per distinct description, holding the string and a small integer code. Codes are dense, starting
+ * at 0, and stay valid as long as the ledger is loaded; comparing or grouping the ledger's descriptions can work
+ * on the codes alone. The dictionary belongs to the ledger and is built again each time the ledger is loaded, so
+ * it only holds descriptions the ledger has used since. Transactions outside a ledger, such as rows being
+ * imported or read back from the archive, keep an entry of their own without a code and add nothing here.
+ */
+public class DescriptionDictionary {
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Grown by copying, so a reader holding a code always finds its entry in the current table
+    private volatile Entry[] table = new Entry[1024];
+    private int size;
+
+    /**
+     * Gets the shared entry of a description, adding the description to the dictionary if it is new.
+     *
+     * @param description The description.
+     * @return The entry of the description, or null for a missing description.
+     */
+    public Entry intern(String description) {
+        if (description == null) {
+            return null;
+        }
+        Entry entry = entries.get(description);
+        return entry != null ? entry : add(description);
+    }
+
+    /**
+     * Gets the shared entry of the description of a transaction, reusing the transaction's entry if it is
+     * already one of this dictionary's.
+     *
+     * @param transaction The transaction.
+     * @return The entry of the description, or null if the transaction has none.
+     */
+    public Entry intern(Transaction transaction) {
+        Entry entry = transaction.getDescriptionEntry();
+        if (entry == null || (entry.code >= 0 && entry.code < size() && table[entry.code] == entry)) {
+            return entry;
+        }
+        return intern(entry.text);
+    }
+
+    /**
+     * Adds a new description to the dictionary.
+     *
+     * @param description The description.
+     * @return The entry of the description.
+     */
+    private synchronized Entry add(String description) {
+        Entry entry = entries.get(description);
+        if (entry != null) {
+            return entry;
+        }
+        Entry[] grown = table;
+        if (size == grown.length) {
+            grown = Arrays.copyOf(grown, size * 2);
+        }
+        entry = new Entry(description, size);
+        grown[size++] = entry;
+        table = grown;
+        entries.put(description, entry);
+        return entry;
+    }
+
+    /**
+     * Gets the entry of a description without adding it.
+     * A description the ledger has never used gets an entry of its own, which matches no transaction in the ledger.
+     *
+     * @param description The description.
+     * @return The entry of the description, or null for a missing description.
+     */
+    public Entry lookup(String description) {
+        Entry entry = description == null ? null : entries.get(description);
+        return entry != null ? entry : Entry.of(description);
+    }
+
+    /**
+     * Gets the entry for a code.
+     *
+     * @param code The code of the description.
+     * @return The entry, or null for the code of a missing description.
+     */
+    public Entry get(int code) {
+        return code < 0 ? null : table[code];
+    }
+
+    /**
+     * Gets the number of distinct descriptions.
+     *
+     * @return The number of descriptions; every code is below it.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * A description together with its code in the dictionary of the ledger that shares it.
+     */
+    public static final class Entry {
+        private final String text;
+        private final int code;
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param text The description.
+         * @param code The code of the description, or -1 if it belongs to no dictionary.
+         */
+        private Entry(String text, int code) {
+            this.text = text;
+            this.code = code;
+        }
+
+        /**
+         * Gets an entry of a description that belongs to no dictionary.
+         *
+         * @param description The description.
+         * @return The entry, or null for a missing description.
+         */
+        public static Entry of(String description) {
+            return description == null ? null : new Entry(description, -1);
+        }
+
+        /**
+         * Gets the description.
+         *
+         * @return The description.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Gets the code of the description in its ledger's dictionary.
+         *
+         * @return The code, or -1 if the entry belongs to no dictionary.
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * Checks whether this entry and another one hold the same description, comparing codes when both belong
+         * to the same dictionary.
+         *
+         * @param other The other entry.
+         * @return True if the descriptions are equal.
+         */
+        public boolean matches(Entry other) {
+            if (other == this) {
+                return true;
+            }
+            if (other == null || code >= 0 && other.code >= 0) {
+                return false;
+            }
+            return text.equals(other.text);
+        }
+    }
+}
@@ -0,0 +1,524 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Detects transactions that duplicate an existing one, keyed on date, amount, currency and normalized description.
+ * <p>
+ * A Bloom filter answers most lookups without touching the ledger. Possible hits are confirmed through an exact
+ * index from key fingerprints to transaction IDs, so a lookup costs O(1) whatever the size of the history.
+ * Transactions moved to the archive are checked against the fingerprints stored in its segments.
+ * The Bloom filter is persisted next to the ledger file and rebuilt when it no longer matches the file.
+ * Once persisted, later saves only write back the blocks of the filter that changed.
+ */
+public class DuplicateIndex {
+    private static final int MAGIC = 0x444C4246; // "DLBF"
+    private static final int VERSION = 3;
+    private static final int MIN_BITS = 1 << 16;
+    private static final double BITS_PER_ROW = 9.6; // about 1% false positives
+    private static final int HASHES = 7;
+    private static final int HEADER_BYTES = 4 + 4 + LedgerStamp.BYTES + 4 + 8 + 4;
+    private static final int BLOCK_WORDS = 512;
+    // Marks an exact index slot whose entry was removed; empty slots hold 0, as IDs start at 1
+    private static final int TOMBSTONE = -1;
+    // A hit is a check the Bloom filter answers on its own; a miss needs the exact index
+    private static final LongAdder BLOOM_HITS = Metrics.cache("duplicate_bloom", "hit");
+    private static final LongAdder BLOOM_MISSES = Metrics.cache("duplicate_bloom", "miss");
+
+    private final IntFunction<? extends Transaction> lookup;
+    private final TransactionArchive<?> archive;
+    private long[] bits;
+    private int bitMask;
+    private long bloomEntries;
+    // While the persisted filter matches this one apart from the dirty blocks, saves write only those
+    private boolean persisted;
+    private final BitSet dirtyBlocks = new BitSet();
+    // Counts the resizes, so that a save prepared before one does not mark the new filter as persisted
+    private int generation;
+
+    // Exact index: open-addressing table from fingerprint to transaction ID, built on the first possible hit.
+    // Only the upper half of each fingerprint is kept as a tag; the lower half selects the slot. A removed entry
+    // leaves a tombstone, so that the entries probed past it can still be found.
+    private int[] tags;
+    private int[] ids;
+    private int exactSize;
+    private int tombstones;
+    private boolean exactStale = true;
+
+    /**
+     * Constructs an empty DuplicateIndex.
+     *
+     * @param lookup  Finds a transaction of the ledger by its ID, used to confirm possible hits exactly.
+     * @param archive The archive of the ledger, whose transactions count as existing too.
+     */
+    public DuplicateIndex(IntFunction<? extends Transaction> lookup, TransactionArchive<?> archive) {
+        this.lookup = lookup;
+        this.archive = archive;
+        resize(0);
+    }
+
+    /**
+     * Loads the Bloom filter persisted for a ledger file, or rebuilds it if it is missing or out of date.
+     *
+     * @param bloomFile    The file holding the persisted Bloom filter.
+     * @param ledgerFile   The ledger file the filter describes.
+     * @param transactions The transactions currently in the ledger.
+     */
+    public void load(Path bloomFile, Path ledgerFile, List<? extends Transaction> transactions) {
+        exactStale = true;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bloomFile)))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION
+                    && LedgerStamp.read(in).equals(LedgerStamp.of(ledgerFile)) && in.readInt() == transactions.size()) {
+                long entries = in.readLong();
+                long[] loaded = new long[in.readInt()];
+                for (int i = 0; i < loaded.length; i++) {
+                    loaded[i] = in.readLong();
+                }
+                if (Integer.bitCount(loaded.length) == 1 && loaded.length * 64L >= MIN_BITS) {
+                    bits = loaded;
+                    bitMask = loaded.length * 64 - 1;
+                    bloomEntries = entries;
+                    persisted = true;
+                    dirtyBlocks.clear();
+                    generation++;
+                    ensureCapacity(transactions.size(), transactions);
+                    return;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        rebuild(transactions);
+    }
+
+    /**
+     * Copies what a save of the Bloom filter has to write: the blocks changed since the last save, or the whole
+     * filter if it has not been persisted in its current size. Called while the owner is locked, so that the file
+     * can then be written without holding up changes to the index.
+     *
+     * @return The pending save.
+     */
+    public PendingSave prepareSave() {
+        PendingSave save;
+        if (persisted) {
+            int[] blocks = dirtyBlocks.stream().toArray();
+            long[] words = new long[blocks.length * BLOCK_WORDS];
+            for (int i = 0; i < blocks.length; i++) {
+                System.arraycopy(bits, blocks[i] * BLOCK_WORDS, words, i * BLOCK_WORDS, BLOCK_WORDS);
+            }
+            save = new PendingSave(generation, bloomEntries, bits.length, blocks, words);
+        } else {
+            save = new PendingSave(generation, bloomEntries, bits.length, null, bits.clone());
+        }
+        dirtyBlocks.clear();
+        return save;
+    }
+
+    /**
+     * Records the outcome of a pending save. Called while the owner is locked. If the filter was resized since
+     * the save was prepared, the next save writes it whole anyway.
+     *
+     * @param save    The pending save.
+     * @param written True if the save was written, false if it failed, in which case the next save writes the
+     *                whole filter again.
+     */
+    public void finishSave(PendingSave save, boolean written) {
+        if (save.generation == generation) {
+            persisted = written && (persisted || save.blocks == null);
+        }
+    }
+
+    /**
+     * A save of the Bloom filter copied from the index, to be written to its file without locking the index.
+     */
+    public static final class PendingSave {
+        private final int generation;
+        private final long entries;
+        private final int length;
+        private final int[] blocks;
+        private final long[] words;
+
+        /**
+         * Constructs a PendingSave.
+         *
+         * @param generation The generation of the filter the copy was taken from.
+         * @param entries    The number of keys added to the filter.
+         * @param length     The number of words in the filter.
+         * @param blocks     The numbers of the changed blocks, or null if the whole filter is to be written.
+         * @param words      The words of the changed blocks one after another, or of the whole filter.
+         */
+        private PendingSave(int generation, long entries, int length, int[] blocks, long[] words) {
+            this.generation = generation;
+            this.entries = entries;
+            this.length = length;
+            this.blocks = blocks;
+            this.words = words;
+        }
+
+        /**
+         * Writes the save to the Bloom filter file of a ledger file that has just been written.
+         * Changed blocks are written in place; if the file is missing, the save fails and the next one writes
+         * the whole filter.
+         *
+         * @param bloomFile  The file holding the persisted Bloom filter.
+         * @param ledgerFile The ledger file the filter describes.
+         * @param rows       The number of transactions in the ledger file.
+         * @return True if written.
+         */
+        public boolean write(Path bloomFile, Path ledgerFile, int rows) {
+            if (blocks != null) {
+                try (FileChannel channel = FileChannel.open(bloomFile, StandardOpenOption.WRITE)) {
+                    ByteBuffer header = LedgerStamp.of(ledgerFile).put(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION))
+                            .putInt(rows).putLong(entries).putInt(length);
+                    writeFully(channel, header.flip(), 0);
+                    ByteBuffer block = ByteBuffer.allocate(BLOCK_WORDS * Long.BYTES);
+                    for (int i = 0; i < blocks.length; i++) {
+                        block.clear();
+                        block.asLongBuffer().put(words, i * BLOCK_WORDS, BLOCK_WORDS);
+                        writeFully(channel, block, HEADER_BYTES + (long) blocks[i] * BLOCK_WORDS * Long.BYTES);
+                    }
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(bloomFile), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                LedgerStamp.of(ledgerFile).write(out);
+                out.writeInt(rows);
+                out.writeLong(entries);
+                out.writeInt(length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            } catch (IOException e) {
+                CONSOLETEXT.printError("Error saving duplicate index to file");
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes a buffer at a position of a file, retrying until every byte is written.
+     *
+     * @param channel  The file channel.
+     * @param buffer   The bytes to write.
+     * @param position The position in the file.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Rebuilds the Bloom filter from the given transactions and drops the exact index.
+     *
+     * @param transactions The transactions currently in the ledger.
+     */
+    public void rebuild(List<? extends Transaction> transactions) {
+        resize(transactions.size());
+        for (Transaction transaction : transactions) {
+            addToBloom(fingerprint(transaction));
+        }
+        exactStale = true;
+    }
+
+    /**
+     * Makes sure the Bloom filter keeps its false-positive rate for the given number of rows,
+     * rebuilding it from the given transactions if it is too small.
+     *
+     * @param rows         The number of rows the filter has to hold.
+     * @param transactions The transactions currently in the ledger.
+     */
+    public void ensureCapacity(long rows, List<? extends Transaction> transactions) {
+        if (rows * BITS_PER_ROW > bitMask + 1L) {
+            resize(rows);
+            for (Transaction transaction : transactions) {
+                addToBloom(fingerprint(transaction));
+            }
+        }
+    }
+
+    /**
+     * Records a transaction that was added to the ledger, or the new version of one that was changed.
+     *
+     * @param transaction The added or changed transaction.
+     */
+    public void add(Transaction transaction) {
+        long fingerprint = fingerprint(transaction);
+        addToBloom(fingerprint);
+        if (!exactStale) {
+            putExact(fingerprint, transaction.getId());
+        }
+    }
+
+    /**
+     * Records that a transaction was removed from the ledger, or the old version of one that was changed.
+     * The Bloom filter cannot forget keys, so only the transaction's entry in the exact index is removed.
+     *
+     * @param transaction The removed transaction, or the changed one as it was before the change.
+     */
+    public void remove(Transaction transaction) {
+        if (exactStale) {
+            return;
+        }
+        long fingerprint = fingerprint(transaction);
+        int tag = (int) (fingerprint >>> 32);
+        int id = transaction.getId();
+        int mask = ids.length - 1;
+        for (int slot = (int) fingerprint & mask; ids[slot] != 0; slot = (slot + 1) & mask) {
+            if (ids[slot] == id && tags[slot] == tag) {
+                ids[slot] = TOMBSTONE;
+                exactSize--;
+                tombstones++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the ledger already holds a transaction with the same date, amount, currency and description,
+     * either in memory or in its archive.
+     *
+     * @param description  The description of the incoming transaction.
+     * @param amount       The amount of the incoming transaction.
+     * @param date         The date of the incoming transaction.
+     * @param currency     The currency code of the incoming transaction, or null for the base currency.
+     * @param transactions The transactions currently in the ledger, used if an index has to be rebuilt.
+     * @return True if a matching transaction exists, otherwise false.
+     */
+    public boolean contains(String description, double amount, LocalDate date, String currency, List<? extends Transaction> transactions) {
+        String normalized = normalize(description);
+        long fingerprint = fingerprintNormalized(normalized, amount, date, currency);
+        if (!mightContain(fingerprint)) {
+            BLOOM_HITS.increment();
+            return archive.containsFingerprint(fingerprint, date);
+        }
+        BLOOM_MISSES.increment();
+        if (exactStale) {
+            rebuildExact(transactions);
+        }
+        long cents = Math.round(amount * 100);
+        int currencyIndex = Currencies.indexOf(currency);
+        int tag = (int) (fingerprint >>> 32);
+        int mask = ids.length - 1;
+        for (int slot = (int) fingerprint & mask; ids[slot] != 0; slot = (slot + 1) & mask) {
+            if (tags[slot] == tag && ids[slot] != TOMBSTONE) {
+                Transaction candidate = lookup.apply(ids[slot]);
+                if (candidate != null && candidate.getCreatedDate().equals(date)
+                        && Math.round(candidate.getAmount() * 100) == cents
+                        && candidate.getCurrencyIndex() == currencyIndex
+                        && normalize(candidate.getDescription()).equals(normalized)) {
+                    return true;
+                }
+            }
+        }
+        return archive.containsFingerprint(fingerprint, date);
+    }
+
+    /**
+     * Allocates an empty Bloom filter sized for the given number of rows.
+     *
+     * @param rows The expected number of rows.
+     */
+    private void resize(long rows) {
+        long wanted = Math.max(MIN_BITS, (long) (Math.max(rows, 1) * BITS_PER_ROW * 2));
+        int words = Integer.highestOneBit((int) Math.min(wanted / 64, 1 << 30) - 1) << 1;
+        bits = new long[Math.max(words, MIN_BITS / 64)];
+        bitMask = bits.length * 64 - 1;
+        bloomEntries = 0;
+        persisted = false;
+        dirtyBlocks.clear();
+        generation++;
+    }
+
+    /**
+     * Sets the Bloom filter bits of a fingerprint.
+     *
+     * @param fingerprint The key fingerprint.
+     */
+    private void addToBloom(long fingerprint) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) (fingerprint >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & bitMask;
+            bits[bit >>> 6] |= 1L << bit;
+            // Also tracked while not persisted, as a whole filter being written may not include this change
+            dirtyBlocks.set((bit >>> 6) / BLOCK_WORDS);
+        }
+        bloomEntries++;
+    }
+
+    /**
+     * Tests the Bloom filter bits of a fingerprint.
+     *
+     * @param fingerprint The key fingerprint.
+     * @return False if the key is definitely absent, true if it may be present.
+     */
+    private boolean mightContain(long fingerprint) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) (fingerprint >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & bitMask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the exact fingerprint index from the given transactions.
+     *
+     * @param transactions The transactions currently in the ledger.
+     */
+    private void rebuildExact(List<? extends Transaction> transactions) {
+        int capacity = Integer.highestOneBit(Math.max(16, transactions.size() * 4 / 3 + 1) - 1) << 1;
+        tags = new int[capacity];
+        ids = new int[capacity];
+        exactSize = 0;
+        tombstones = 0;
+        for (Transaction transaction : transactions) {
+            putExact(fingerprint(transaction), transaction.getId());
+        }
+        exactStale = false;
+    }
+
+    /**
+     * Adds a fingerprint and transaction ID to the exact index. When entries and tombstones fill three quarters of
+     * it, it is rehashed, twice as large unless dropping the tombstones frees enough room.
+     *
+     * @param fingerprint The key fingerprint.
+     * @param id          The ID of the transaction.
+     */
+    private void putExact(long fingerprint, int id) {
+        if ((exactSize + tombstones + 1) * 4L > ids.length * 3L) {
+            int[] oldTags = tags;
+            int[] oldIds = ids;
+            int capacity = (exactSize + 1) * 2L > oldIds.length ? oldIds.length * 2 : oldIds.length;
+            tags = new int[capacity];
+            ids = new int[capacity];
+            exactSize = 0;
+            tombstones = 0;
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] > 0) {
+                    // The slot bits of the fingerprint are lost, so re-derive them from the transaction
+                    Transaction transaction = lookup.apply(oldIds[i]);
+                    if (transaction != null) {
+                        putExact(fingerprint(transaction), oldIds[i]);
+                    }
+                }
+            }
+        }
+        int mask = ids.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (ids[slot] > 0) {
+            slot = (slot + 1) & mask;
+        }
+        if (ids[slot] == TOMBSTONE) {
+            tombstones--;
+        }
+        tags[slot] = (int) (fingerprint >>> 32);
+        ids[slot] = id;
+        exactSize++;
+    }
+
+    /**
+     * Computes the 64-bit fingerprint of a transaction's (date, amount, currency, normalized description) key.
+     *
+     * @param transaction The transaction.
+     * @return The fingerprint.
+     */
+    static long fingerprint(Transaction transaction) {
+        return fingerprint(transaction.getDescription(), transaction.getAmount(), transaction.getCreatedDate(), transaction.getCurrency());
+    }
+
+    /**
+     * Computes the 64-bit fingerprint of a (date, amount, currency, normalized description) key.
+     * Descriptions are compared as {@link #normalize} leaves them.
+     *
+     * @param description The description.
+     * @param amount      The amount, compared to the cent.
+     * @param date        The date.
+     * @param currency    The currency code, or null for the base currency.
+     * @return The fingerprint.
+     */
+    static long fingerprint(String description, double amount, LocalDate date, String currency) {
+        return fingerprintNormalized(normalize(description), amount, date, currency);
+    }
+
+    /**
+     * Computes the fingerprint of a key whose description is already normalized.
+     * The currency is hashed by its code rather than its index, as the fingerprints are persisted and indexes
+     * only last as long as the process.
+     *
+     * @param normalized The normalized description.
+     * @param amount     The amount, compared to the cent.
+     * @param date       The date.
+     * @param currency   The currency code, or null for the base currency.
+     * @return The fingerprint.
+     */
+    private static long fingerprintNormalized(String normalized, double amount, LocalDate date, String currency) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            hash = (hash ^ normalized.charAt(i)) * 0x100000001b3L;
+        }
+        String code = currency == null ? Currencies.BASE : currency;
+        hash ^= Math.round(amount * 100) * 0x9E3779B97F4A7C15L;
+        hash ^= date.toEpochDay() * 0xC2B2AE3D27D4EB4FL;
+        hash ^= ((long) code.charAt(0) << 32 | (long) code.charAt(1) << 16 | code.charAt(2)) * 0x165667B19E3779F9L;
+        // MurmurHash3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Normalizes a description for comparison: lower-cased independently of the default locale, without leading
+     * or trailing whitespace, and with every run of whitespace inside it replaced by a single space.
+     *
+     * @param description The description.
+     * @return The normalized description, which is the same instance if it was already normalized.
+     */
+    static String normalize(String description) {
+        String lower = description.toLowerCase(Locale.ROOT);
+        int length = lower.length();
+        boolean clean = length == 0 || (!Character.isWhitespace(lower.charAt(0)) && !Character.isWhitespace(lower.charAt(length - 1)));
+        for (int i = 1; clean && i < length; i++) {
+            char c = lower.charAt(i);
+            clean = !Character.isWhitespace(c) || (c == ' ' && !Character.isWhitespace(lower.charAt(i - 1)));
+        }
+        if (clean) {
+            return lower;
+        }
+        StringBuilder normalized = new StringBuilder(length);
+        boolean pendingSpace = false;
+        for (int i = 0; i < length; i++) {
+            char c = lower.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+}
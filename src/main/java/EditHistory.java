@@ -0,0 +1,692 @@
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The undo and redo history of the edits made to the categories, incomes and expenses.
+ * <p>
+ * Every edit is recorded as a compact delta: the kind of change, the ID of the row and, for each field that changed,
+ * its value before and after. A description is kept as its code in the ledger's dictionary and a date as its epoch day, so an edit
+ * takes a few dozen bytes whatever the size of the ledger, and no list is ever copied. Deltas are packed one after
+ * another into a ring buffer that grows up to the memory budget, set in bytes with the
+ * {@code expensetracker.undo.budget} system property; once it is full, the oldest edits are dropped first.
+ * Undoing or redoing an edit finds its row by ID and writes back only the recorded fields. The changes of a bulk
+ * operation form a group that is undone and redone as a whole. Recording a new edit discards whatever could be
+ * redone.
+ */
+public class EditHistory {
+    /**
+     * The description of a transaction.
+     */
+    public static final int DESCRIPTION = 1;
+    /**
+     * The amount of a transaction.
+     */
+    public static final int AMOUNT = 1 << 1;
+    /**
+     * The category of a transaction.
+     */
+    public static final int CATEGORY = 1 << 2;
+    /**
+     * The creation date of a transaction.
+     */
+    public static final int DATE = 1 << 3;
+    /**
+     * The currency of a transaction.
+     */
+    public static final int CURRENCY = 1 << 4;
+    /**
+     * The name of a category.
+     */
+    public static final int NAME = 1 << 5;
+    /**
+     * The parent of a category.
+     */
+    public static final int PARENT = 1 << 6;
+
+    private static final int TRANSACTION_FIELDS = DESCRIPTION | AMOUNT | CATEGORY | DATE | CURRENCY;
+    private static final int CATEGORY_FIELDS = NAME | PARENT;
+    // Flags byte: the type in the low bits, and whether the entry continues the group of the entry before it
+    private static final int CONTINUED = 0x80;
+    // Leading length, flags, target, fields and ID, plus the trailing length
+    private static final int OVERHEAD = 4 + 1 + 1 + 1 + 4 + 4;
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    private final int budget;
+    // Grown up to the budget as edits are recorded
+    private byte[] ring;
+    private final List<Target> targets = new CopyOnWriteArrayList<>();
+    // Absolute offsets into the ring: entries in [head, cursor) can be undone, entries in [cursor, tail) redone
+    private long head;
+    private long cursor;
+    private long tail;
+    private int groupDepth;
+    private long groupStart = -1;
+    private boolean groupDropped;
+
+    /**
+     * Constructs an EditHistory with the budget of the {@code expensetracker.undo.budget} system property,
+     * 16 MiB by default.
+     */
+    public EditHistory() {
+        this(Integer.getInteger("expensetracker.undo.budget", 16 << 20));
+    }
+
+    /**
+     * Constructs an EditHistory.
+     *
+     * @param budget The number of bytes the recorded edits may take.
+     * @throws IllegalArgumentException If the budget is negative.
+     */
+    public EditHistory(int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Invalid undo budget: " + budget);
+        }
+        this.budget = budget;
+        ring = new byte[Math.min(budget, INITIAL_SIZE)];
+    }
+
+    /**
+     * Registers the categories or a ledger whose edits are recorded.
+     *
+     * @param owner   The object whose lock guards the rows; it is held while an edit is undone or redone.
+     * @param applier Undoes or redoes an edit of the rows.
+     * @return The handle through which the edits are recorded.
+     */
+    public Target register(Object owner, Applier applier) {
+        Target target = new Target(targets.size(), owner, applier);
+        targets.add(target);
+        return target;
+    }
+
+    /**
+     * Undoes the latest edit, or group of edits, that has not been undone.
+     * Edits that no longer apply, for example to a row since removed by another process, are skipped.
+     *
+     * @return True if there was an edit to undo.
+     */
+    public boolean undo() {
+        return step(true);
+    }
+
+    /**
+     * Redoes the latest edit, or group of edits, that was undone.
+     *
+     * @return True if there was an edit to redo.
+     */
+    public boolean redo() {
+        return step(false);
+    }
+
+    /**
+     * Checks whether there is an edit to undo.
+     *
+     * @return True if an edit can be undone.
+     */
+    public synchronized boolean canUndo() {
+        return cursor > head;
+    }
+
+    /**
+     * Checks whether there is an edit to redo.
+     *
+     * @return True if an edit can be redone.
+     */
+    public synchronized boolean canRedo() {
+        return tail > cursor;
+    }
+
+    /**
+     * Gets the number of bytes the recorded edits take.
+     *
+     * @return The number of bytes in use, at most the budget.
+     */
+    public synchronized long size() {
+        return tail - head;
+    }
+
+    /**
+     * Undoes or redoes the next edit or group of edits.
+     * <p>
+     * The owner of the rows is locked first and the history second, the same order in which edits are recorded.
+     * The entries are copied out and the cursor moved under the history's lock; they are then applied while only
+     * the owner is locked, so that the history is never locked while rows change and events are published.
+     *
+     * @param undo True to undo, false to redo.
+     * @return True if there was an edit to undo or redo.
+     */
+    private boolean step(boolean undo) {
+        while (true) {
+            Target target;
+            synchronized (this) {
+                if (undo ? cursor == head : cursor == tail) {
+                    return false;
+                }
+                target = targets.get(ring[index((undo ? cursor - readInt(cursor - 4) : cursor) + 5)]);
+            }
+            synchronized (target.owner) {
+                byte[] entries;
+                synchronized (this) {
+                    if ((undo ? cursor == head : cursor == tail)
+                            || ring[index((undo ? cursor - readInt(cursor - 4) : cursor) + 5)] != target.index) {
+                        // Another thread moved the cursor before the owner was locked
+                        continue;
+                    }
+                    long start = cursor;
+                    long end = cursor;
+                    if (undo) {
+                        do {
+                            start -= readInt(start - 4);
+                        } while ((ring[index(start + 4)] & CONTINUED) != 0 && start > head);
+                    } else {
+                        do {
+                            end += readInt(end);
+                        } while (end < tail && (ring[index(end + 4)] & CONTINUED) != 0);
+                    }
+                    entries = new byte[(int) (end - start)];
+                    for (int i = 0; i < entries.length; i++) {
+                        entries[i] = ring[index(start + i)];
+                    }
+                    cursor = undo ? start : end;
+                }
+                Delta delta = new Delta();
+                if (undo) {
+                    // Newest first, walking back through the trailing lengths
+                    for (int end = entries.length; end > 0; end -= delta.length) {
+                        delta.decode(entries, end - readInt(entries, end - 4));
+                        target.applier.apply(delta, true);
+                    }
+                } else {
+                    for (int start = 0; start < entries.length; start += delta.length) {
+                        delta.decode(entries, start);
+                        target.applier.apply(delta, false);
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Starts a group of edits to be undone and redone as a whole, such as the changes of a bulk operation.
+     * Groups may nest; the outermost one decides.
+     */
+    private synchronized void beginGroup() {
+        if (groupDepth++ == 0) {
+            groupStart = -1;
+            groupDropped = false;
+        }
+    }
+
+    /**
+     * Ends a group of edits.
+     */
+    private synchronized void endGroup() {
+        groupDepth--;
+    }
+
+    /**
+     * Appends an entry, discarding whatever could be redone and evicting the oldest entries to make room.
+     * A group that does not fit into the budget as a whole is dropped, together with everything before it.
+     *
+     * @param target The index of the target.
+     * @param type   The kind of change.
+     * @param id     The ID of the row.
+     * @param fields The fields recorded, as a combination of the field constants.
+     * @param values The encoded values of the fields.
+     * @param size   The number of bytes of values.
+     */
+    private synchronized void append(int target, TransactionEvent.Type type, int id, int fields, byte[] values, int size) {
+        tail = cursor;
+        if (groupDepth > 0 && groupDropped) {
+            return;
+        }
+        int length = OVERHEAD + size;
+        boolean continued = groupDepth > 0 && groupStart >= 0;
+        if (ring.length - (tail - head) < length && ring.length < budget) {
+            grow(tail - head + length);
+        }
+        while (ring.length - (tail - head) < length) {
+            if (head == tail || (groupDepth > 0 && head == groupStart)) {
+                // Not even the current group fits into the budget
+                head = cursor = tail;
+                groupDropped = groupDepth > 0;
+                return;
+            }
+            head += readInt(head);
+            while (head < tail && (ring[index(head + 4)] & CONTINUED) != 0) {
+                head += readInt(head);
+            }
+        }
+        if (groupDepth > 0 && !continued) {
+            groupStart = tail;
+        }
+        long position = tail;
+        writeInt(position, length);
+        ring[index(position + 4)] = (byte) (type.ordinal() | (continued ? CONTINUED : 0));
+        ring[index(position + 5)] = (byte) target;
+        ring[index(position + 6)] = (byte) fields;
+        writeInt(position + 7, id);
+        for (int i = 0; i < size; i++) {
+            ring[index(position + 11 + i)] = values[i];
+        }
+        writeInt(position + length - 4, length);
+        tail = cursor = position + length;
+    }
+
+    /**
+     * Grows the ring, moving the entries to its start.
+     *
+     * @param needed The number of bytes the ring has to hold.
+     */
+    private void grow(long needed) {
+        byte[] grown = new byte[(int) Math.min(budget, Math.max(needed, (long) ring.length * 2))];
+        for (long position = head; position < tail; position++) {
+            grown[(int) (position - head)] = ring[index(position)];
+        }
+        ring = grown;
+        cursor -= head;
+        tail -= head;
+        if (groupStart >= 0) {
+            groupStart -= head;
+        }
+        head = 0;
+    }
+
+    /**
+     * Gets the kind of an edit.
+     *
+     * @param before The row before the edit, or null if it was added.
+     * @param after  The row after the edit, or null if it was removed.
+     * @return The kind of change.
+     */
+    private static TransactionEvent.Type type(Object before, Object after) {
+        return before == null ? TransactionEvent.Type.ADDED
+                : after == null ? TransactionEvent.Type.REMOVED : TransactionEvent.Type.UPDATED;
+    }
+
+    /**
+     * Gets the index in the ring of an absolute offset.
+     *
+     * @param position The absolute offset.
+     * @return The index in the ring.
+     */
+    private int index(long position) {
+        return (int) (position % ring.length);
+    }
+
+    /**
+     * Reads a 32-bit integer from the ring.
+     *
+     * @param position The absolute offset of its first byte.
+     * @return The integer.
+     */
+    private int readInt(long position) {
+        return (ring[index(position)] & 0xFF) << 24 | (ring[index(position + 1)] & 0xFF) << 16
+                | (ring[index(position + 2)] & 0xFF) << 8 | (ring[index(position + 3)] & 0xFF);
+    }
+
+    /**
+     * Writes a 32-bit integer to the ring.
+     *
+     * @param position The absolute offset of its first byte.
+     * @param value    The integer.
+     */
+    private void writeInt(long position, int value) {
+        ring[index(position)] = (byte) (value >>> 24);
+        ring[index(position + 1)] = (byte) (value >>> 16);
+        ring[index(position + 2)] = (byte) (value >>> 8);
+        ring[index(position + 3)] = (byte) value;
+    }
+
+    /**
+     * Reads a 32-bit integer from an array.
+     *
+     * @param bytes  The array.
+     * @param offset The index of its first byte.
+     * @return The integer.
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Undoes or redoes edits of the rows of one target.
+     */
+    public interface Applier {
+        /**
+         * Applies one side of an edit. Called while the owner of the rows is locked.
+         *
+         * @param delta The edit.
+         * @param undo  True to restore the values before the edit, false to restore those after it.
+         * @return True if the edit applied, false if it was skipped because the rows have changed since.
+         */
+        boolean apply(Delta delta, boolean undo);
+    }
+
+    /**
+     * The handle through which the categories or a ledger record their edits.
+     */
+    public final class Target {
+        private final int index;
+        private final Object owner;
+        private final Applier applier;
+        // Reused for encoding; only touched under the owner's lock
+        private byte[] values = new byte[64];
+        private int size;
+
+        /**
+         * Constructs a Target.
+         *
+         * @param index   The index of the target in the history.
+         * @param owner   The object whose lock guards the rows.
+         * @param applier Undoes or redoes an edit of the rows.
+         */
+        private Target(int index, Object owner, Applier applier) {
+            if (index > Byte.MAX_VALUE) {
+                throw new IllegalStateException("Too many targets for one edit history.");
+            }
+            this.index = index;
+            this.owner = owner;
+            this.applier = applier;
+        }
+
+        /**
+         * Records an edit of a transaction. An update records only the fields that changed, and nothing if none did.
+         * Called while the owner is locked.
+         *
+         * @param before The transaction before the edit, or null if it was added.
+         * @param after  The transaction after the edit, or null if it was removed.
+         */
+        public void record(Transaction before, Transaction after) {
+            Transaction any = before != null ? before : after;
+            int fields = TRANSACTION_FIELDS;
+            if (before != null && after != null) {
+                fields = (before.getDescriptionCode() != after.getDescriptionCode() ? DESCRIPTION : 0)
+                        | (before.getAmount() != after.getAmount() ? AMOUNT : 0)
+                        | (before.getCategoryId() != after.getCategoryId() ? CATEGORY : 0)
+                        | (!before.getCreatedDate().equals(after.getCreatedDate()) ? DATE : 0)
+                        | (before.getCurrencyIndex() != after.getCurrencyIndex() ? CURRENCY : 0);
+                if (fields == 0) {
+                    return;
+                }
+            }
+            size = 0;
+            if (before != null) {
+                putValues(before, fields);
+            }
+            if (after != null) {
+                putValues(after, fields);
+            }
+            append(index, type(before, after), any.getId(), fields, values, size);
+        }
+
+        /**
+         * Records an edit of a category. An update records only the fields that changed, and nothing if none did.
+         * Called while the owner is locked.
+         *
+         * @param before A copy of the category before the edit, or null if it was added.
+         * @param after  The category after the edit, or null if it was removed.
+         */
+        public void record(Category before, Category after) {
+            Category any = before != null ? before : after;
+            int fields = CATEGORY_FIELDS;
+            if (before != null && after != null) {
+                fields = (!before.getName().equals(after.getName()) ? NAME : 0)
+                        | (before.getParentId() != after.getParentId() ? PARENT : 0);
+                if (fields == 0) {
+                    return;
+                }
+            }
+            size = 0;
+            if (before != null) {
+                putValues(before, fields);
+            }
+            if (after != null) {
+                putValues(after, fields);
+            }
+            append(index, type(before, after), any.getId(), fields, values, size);
+        }
+
+        /**
+         * Starts a group of edits to be undone and redone as a whole. Every edit of the group must be recorded
+         * through this target.
+         */
+        public void beginGroup() {
+            EditHistory.this.beginGroup();
+        }
+
+        /**
+         * Ends a group of edits.
+         */
+        public void endGroup() {
+            EditHistory.this.endGroup();
+        }
+
+        /**
+         * Appends the recorded fields of one side of a transaction edit to the encoded values.
+         *
+         * @param transaction The transaction on that side.
+         * @param fields      The fields recorded.
+         */
+        private void putValues(Transaction transaction, int fields) {
+            if ((fields & DESCRIPTION) != 0) {
+                putInt(transaction.getDescriptionCode());
+            }
+            if ((fields & AMOUNT) != 0) {
+                long bits = Double.doubleToRawLongBits(transaction.getAmount());
+                putInt((int) (bits >>> 32));
+                putInt((int) bits);
+            }
+            if ((fields & CATEGORY) != 0) {
+                putInt(transaction.getCategoryId());
+            }
+            if ((fields & DATE) != 0) {
+                putInt((int) transaction.getCreatedDate().toEpochDay());
+            }
+            if ((fields & CURRENCY) != 0) {
+                putInt(transaction.getCurrencyIndex());
+            }
+        }
+
+        /**
+         * Appends the recorded fields of one side of a category edit to the encoded values.
+         *
+         * @param category The category on that side.
+         * @param fields   The fields recorded.
+         */
+        private void putValues(Category category, int fields) {
+            if ((fields & NAME) != 0) {
+                byte[] name = category.getName().getBytes(StandardCharsets.UTF_8);
+                putInt(name.length);
+                ensure(name.length);
+                System.arraycopy(name, 0, values, size, name.length);
+                size += name.length;
+            }
+            if ((fields & PARENT) != 0) {
+                putInt(category.getParentId());
+            }
+        }
+
+        /**
+         * Appends a 32-bit integer to the encoded values.
+         *
+         * @param value The integer.
+         */
+        private void putInt(int value) {
+            ensure(4);
+            values[size++] = (byte) (value >>> 24);
+            values[size++] = (byte) (value >>> 16);
+            values[size++] = (byte) (value >>> 8);
+            values[size++] = (byte) value;
+        }
+
+        /**
+         * Grows the encoded values to hold more bytes.
+         *
+         * @param bytes The number of bytes about to be appended.
+         */
+        private void ensure(int bytes) {
+            if (size + bytes > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + bytes));
+            }
+        }
+    }
+
+    /**
+     * One recorded edit, decoded for undoing or redoing it. Values are indexed by side: 0 before the edit and
+     * 1 after it; an added row only has values after, and a removed row only before.
+     */
+    public static final class Delta {
+        private TransactionEvent.Type type;
+        private int id;
+        private int fields;
+        private int length;
+        private final int[] descriptions = new int[2];
+        private final double[] amounts = new double[2];
+        private final int[] categoryIds = new int[2];
+        private final int[] epochDays = new int[2];
+        private final int[] currencies = new int[2];
+        private final String[] names = new String[2];
+        private final int[] parentIds = new int[2];
+
+        /**
+         * Constructs an empty Delta, filled in by decoding entries.
+         */
+        private Delta() {
+        }
+
+        /**
+         * Decodes an entry.
+         *
+         * @param bytes  The entries.
+         * @param offset The index of the entry's first byte.
+         */
+        private void decode(byte[] bytes, int offset) {
+            length = readInt(bytes, offset);
+            type = TransactionEvent.Type.values()[bytes[offset + 4] & ~CONTINUED & 0xFF];
+            fields = bytes[offset + 6];
+            id = readInt(bytes, offset + 7);
+            int position = offset + 11;
+            for (int side = 0; side < 2; side++) {
+                if ((side == 0 && type == TransactionEvent.Type.ADDED) || (side == 1 && type == TransactionEvent.Type.REMOVED)) {
+                    continue;
+                }
+                if ((fields & DESCRIPTION) != 0) {
+                    descriptions[side] = readInt(bytes, position);
+                    position += 4;
+                }
+                if ((fields & AMOUNT) != 0) {
+                    amounts[side] = Double.longBitsToDouble((long) readInt(bytes, position) << 32 | (readInt(bytes, position + 4) & 0xFFFFFFFFL));
+                    position += 8;
+                }
+                if ((fields & CATEGORY) != 0) {
+                    categoryIds[side] = readInt(bytes, position);
+                    position += 4;
+                }
+                if ((fields & DATE) != 0) {
+                    epochDays[side] = readInt(bytes, position);
+                    position += 4;
+                }
+                if ((fields & CURRENCY) != 0) {
+                    currencies[side] = readInt(bytes, position);
+                    position += 4;
+                }
+                if ((fields & NAME) != 0) {
+                    int nameLength = readInt(bytes, position);
+                    names[side] = new String(bytes, position + 4, nameLength, StandardCharsets.UTF_8);
+                    position += 4 + nameLength;
+                }
+                if ((fields & PARENT) != 0) {
+                    parentIds[side] = readInt(bytes, position);
+                    position += 4;
+                }
+            }
+        }
+
+        /**
+         * Gets the kind of change.
+         *
+         * @return The kind of change.
+         */
+        public TransactionEvent.Type getType() {
+            return type;
+        }
+
+        /**
+         * Gets the ID of the row.
+         *
+         * @return The ID.
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Checks whether a field was recorded.
+         *
+         * @param field One of the field constants.
+         * @return True if the delta holds values of the field.
+         */
+        public boolean has(int field) {
+            return (fields & field) != 0;
+        }
+
+        /**
+         * Checks whether the row exists on one side of the edit.
+         *
+         * @param after True for after the edit, false for before it.
+         * @return False if the row was added and this is before, or removed and this is after; otherwise true.
+         */
+        public boolean exists(boolean after) {
+            return type != (after ? TransactionEvent.Type.REMOVED : TransactionEvent.Type.ADDED);
+        }
+
+        /**
+         * Gets a transaction as it was on one side of the edit. Fields the delta did not record are taken from the
+         * current version of the transaction.
+         *
+         * @param after      True for after the edit, false for before it.
+         * @param current    The current version, or null if the row does not exist, in which case every field must
+         *                   have been recorded.
+         * @param dictionary The dictionary of the ledger that recorded the edit.
+         * @param factory    Creates the transaction.
+         * @param <T>        The type of transaction.
+         * @return The transaction.
+         */
+        public <T extends Transaction> T toTransaction(boolean after, T current, DescriptionDictionary dictionary,
+                                                       TransactionFactory<T> factory) {
+            int side = after ? 1 : 0;
+            return factory.create(id,
+                    has(DESCRIPTION) ? dictionary.get(descriptions[side]) : current.getDescriptionEntry(),
+                    has(AMOUNT) ? amounts[side] : current.getAmount(),
+                    has(CATEGORY) ? categoryIds[side] : current.getCategoryId(),
+                    has(DATE) ? LocalDate.ofEpochDay(epochDays[side]) : current.getCreatedDate(),
+                    has(CURRENCY) ? Currencies.codeOf(currencies[side]) : current.getCurrency());
+        }
+
+        /**
+         * Gets the name of a category on one side of the edit.
+         *
+         * @param after True for after the edit, false for before it.
+         * @return The name, or null if it was not recorded.
+         */
+        public String getName(boolean after) {
+            return has(NAME) ? names[after ? 1 : 0] : null;
+        }
+
+        /**
+         * Gets the parent of a category on one side of the edit.
+         *
+         * @param after True for after the edit, false for before it.
+         * @return The ID of the parent category, 0 for a top-level category, or -1 if it was not recorded.
+         */
+        public int getParentId(boolean after) {
+            return has(PARENT) ? parentIds[after ? 1 : 0] : -1;
+        }
+    }
+}
@@ -17,4 +17,34 @@ public class Expense extends Transaction {
     public Expense(int id, String description, double amount, int categoryId, LocalDate createdDate) {
         super(id, description, amount, categoryId, createdDate);
     }
+
+    /**
+     * Constructs an Expense object with the specified parameters.
+     *
+     * @param id           The ID of the expense.
+     * @param description  The description of the expense.
+     * @param amount       The amount of the expense.
+     * @param categoryId   The category ID of the expense.
+     * @param createdDate  The creation date of the expense.
+     * @param currency     The code of the currency of the amount, or null for the base currency.
+     * @throws IllegalArgumentException If the currency code is not well-formed.
+     */
+    public Expense(int id, String description, double amount, int categoryId, LocalDate createdDate, String currency) {
+        super(id, description, amount, categoryId, createdDate, currency);
+    }
+
+    /**
+     * Constructs an Expense object whose description is an entry of a ledger's {@link DescriptionDictionary}.
+     *
+     * @param id           The ID of the expense.
+     * @param description  The entry of the description of the expense.
+     * @param amount       The amount of the expense.
+     * @param categoryId   The category ID of the expense.
+     * @param createdDate  The creation date of the expense.
+     * @param currency     The code of the currency of the amount, or null for the base currency.
+     * @throws IllegalArgumentException If the currency code is not well-formed.
+     */
+    public Expense(int id, DescriptionDictionary.Entry description, double amount, int categoryId, LocalDate createdDate, String currency) {
+        super(id, description, amount, categoryId, createdDate, currency);
+    }
 }
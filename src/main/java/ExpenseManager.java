@@ -1,16 +1,50 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * Manages expense-related operations such as adding, editing, and deleting expenses.
  */
 public class ExpenseManager {
     private final Scanner scanner;
-    private final List<Expense> expenses;
+    private final TransactionStore<Expense> expenses;
+    private final IntMap<Expense> expensesById;
+    private final DuplicateIndex duplicates;
+    private final IdSequence ids;
+    private final TransactionArchive<Expense> archive;
+    private final LedgerShards shards;
+    // Built again on every load, so it only holds descriptions of expenses loaded or entered since
+    private final DescriptionDictionary descriptions = new DescriptionDictionary();
+    // The expenses changed since the last save, each with its version on disk, or null if it is not on disk yet
+    private final Map<Integer, Expense> unsaved = new HashMap<>();
+    // Serializes saves and reloads, which read and write the files without holding this manager's lock
+    private final Object saveLock = new Object();
+    private volatile AutosaveScheduler.Target autosave;
+    private volatile EditHistory.Target history;
+    private final LedgerEventBus<Expense> events = new LedgerEventBus<>();
     private final CategoryManager categoryManager;
+    static final String EXPENSE_DIRECTORY = "expenses";
+    private static final String EXPENSE_BLOOM_FILE = "expenses.bloom";
+    private static final String EXPENSE_SEQUENCE_FILE = "expenses.seq";
+    private static final String EXPENSE_ARCHIVE_DIRECTORY = "expenses.archive";
+    // The single file, and its page table, that the expenses were saved to before they were split into shards
     private static final String EXPENSE_FILE = "expenses.txt";
+    private static final String EXPENSE_PAGES_FILE = "expenses.pages";
+    private static final LatencyHistogram ADD_LATENCY = Metrics.operation("expenses", "add");
+    private static final LatencyHistogram EDIT_LATENCY = Metrics.operation("expenses", "edit");
+    private static final LatencyHistogram DELETE_LATENCY = Metrics.operation("expenses", "delete");
+    private static final LatencyHistogram BULK_LATENCY = Metrics.operation("expenses", "bulk");
+    private static final LatencyHistogram LOOKUP_LATENCY = Metrics.operation("expenses", "lookup");
+    private static final LongAdder LOOKUPS = Metrics.lookups("expenses");
+    private static final LatencyHistogram SAVE_LATENCY = Metrics.operation("expenses", "save");
+    private static final LongAdder RELOADS = Metrics.counter("ledger_reloads_total", "ledger=\"expenses\"",
+            "Number of times changes saved by another process were merged.");
 
     /**
      * Constructs an ExpenseManager object.
@@ -18,9 +52,44 @@ public class ExpenseManager {
      * @param categoryManager The CategoryManager instance to manage categories.
      */
     public ExpenseManager(CategoryManager categoryManager) {
-        scanner = new Scanner(System.in);
+        this(categoryManager, new Scanner(System.in));
+    }
+
+    /**
+     * Constructs an ExpenseManager object that reads user input from the given scanner.
+     *
+     * @param categoryManager The CategoryManager instance to manage categories.
+     * @param scanner         The scanner shared with the rest of the console UI.
+     */
+    public ExpenseManager(CategoryManager categoryManager, Scanner scanner) {
+        this.scanner = scanner;
         this.categoryManager = categoryManager;
-        expenses = loadExpenses();
+        ChunkFormat<Expense> format = ChunkFormat.configured(Expense::new, descriptions);
+        expenses = new TransactionStore<>(format);
+        // Taken before loading, so that a save by another process while loading is merged later
+        shards = new LedgerShards(Path.of(EXPENSE_DIRECTORY), Path.of(EXPENSE_FILE), Path.of(EXPENSE_PAGES_FILE));
+        loadExpenses();
+        TransactionSnapshot<Expense> loaded = expenses.snapshot();
+        // Off-heap, the store's binary search over IDs replaces the index so that the heap does not grow with the ledger
+        expensesById = format.isOffHeap() ? null : new IntMap<>(loaded.size());
+        ids = IdSequence.open(Path.of(EXPENSE_SEQUENCE_FILE), shards.getMaxId());
+        for (Expense expense : loaded) {
+            if (expensesById != null) {
+                expensesById.put(expense.getId(), expense);
+            }
+            ids.advancePast(expense.getId());
+        }
+        archive = openArchive();
+        ids.advancePast(archive.getMaxId());
+        duplicates = new DuplicateIndex(this::findExpense, archive);
+        duplicates.load(Path.of(EXPENSE_BLOOM_FILE), shards.getManifestFile(), loaded);
+    }
+
+    /**
+     * Reports the size of this expense ledger through the metrics registry.
+     */
+    public void registerMetrics() {
+        Metrics.gauge("ledger_rows", "ledger=\"expenses\"", "Number of rows in each ledger.", expenses::size);
     }
 
     /**
@@ -49,7 +118,10 @@ public class ExpenseManager {
                     break;
                 case 5:
                     backToMainMenu = true;
-                    saveExpenses();
+                    requestSave();
+                    break;
+                case 6:
+                    bulkEditExpenses();
                     break;
                 default:
                     CONSOLETEXT.printError("Invalid choice. Please try again.");
@@ -67,6 +139,7 @@ public class ExpenseManager {
         System.out.println("|                                                     💰  Expense Management Menu                                                    |");
         System.out.println("|                                                                                                                                    |");
         System.out.println("|    ➕ Add Expense (1)     ✏\uFE0F Edit Expense (2)     ❌ Delete Expense (3)     \uD83D\uDC41\uFE0F  View Expenses (4)     ⬅\uFE0F Back to Main Menu (5)    |");
+        System.out.println("|    \uD83D\uDDC2\uFE0F Bulk Edit (6)                                                                                                                |");
         System.out.println("*------------------------------------------------------------------------------------------------------------------------------------*");
     }
 
@@ -74,6 +147,7 @@ public class ExpenseManager {
      * Displays all expenses.
      */
     private void viewExpenses() {
+        List<Expense> expenses = getExpenses();
         if (expenses.isEmpty()) {
             CONSOLETEXT.printWarning("No Expenses to display.");
         } else {
@@ -85,44 +159,293 @@ public class ExpenseManager {
             }
             System.out.println("*------------------------------------------------------------------------------------------------------------------------------------*");
         }
+        if (archive.size() > 0) {
+            CONSOLETEXT.printWarning(archive.size() + " older expenses are archived and only shown in graphs and date range queries.");
+        }
     }
 
     /**
-     * Loads expenses from a file.
+     * Loads expenses from their shards straight into the store, parsing the shards and parts of them in parallel.
+     */
+    private void loadExpenses() {
+        LedgerLoadEvent event = new LedgerLoadEvent();
+        event.begin();
+        try {
+            LedgerLoader.load(shards.getFiles(), expenses, (reader, action) -> readExpenses(descriptions, reader, action));
+        } catch (IOException e) {
+            CONSOLETEXT.printError("Error loading expenses from file");
+        }
+        event.finish(EXPENSE_DIRECTORY, expenses.size());
+    }
+
+    /**
+     * Reads the expenses in the lines of an expense shard, skipping blank and malformed lines.
+     * Expenses in the base currency have no currency code, so files saved before currencies existed still load.
+     * Their descriptions are added to the given dictionary.
      *
-     * @return The list of loaded expenses.
+     * @param descriptions The dictionary of the ledger the expenses are read into.
+     * @param reader       The reader of the lines.
+     * @param action       The action to perform for each expense.
+     * @throws IOException If the lines cannot be read.
      */
-    private List<Expense> loadExpenses() {
-        List<Expense> expenses = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(EXPENSE_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 5) {
-                    int id = Integer.parseInt(parts[0]);
-                    String description = parts[1];
-                    double amount = Double.parseDouble(parts[2]);
-                    int categoryId = Integer.parseInt(parts[3]);
-                    LocalDate date = LocalDate.parse(parts[4]);
-                    Expense expense = new Expense(id, description, amount, categoryId, date);
-                    expenses.add(expense);
-                }
+    private static void readExpenses(DescriptionDictionary descriptions, BufferedReader reader, Consumer<Expense> action) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split(",");
+            if (parts.length == 5 || parts.length == 6) {
+                int id = Integer.parseInt(parts[0]);
+                DescriptionDictionary.Entry description = descriptions.intern(parts[1]);
+                double amount = Double.parseDouble(parts[2]);
+                int categoryId = Integer.parseInt(parts[3]);
+                LocalDate date = LocalDate.parse(parts[4]);
+                String currency = parts.length == 6 ? parts[5] : null;
+                action.accept(new Expense(id, description, amount, categoryId, date, currency));
             }
         }
-        catch (FileNotFoundException ignored) {
-        }catch (IOException e) {
-            CONSOLETEXT.printError("Error loading expenses from file");
-        }
-        return expenses;
     }
 
     /**
-     * Gets the list of expenses.
+     * Reads the saved expenses created within a date range without loading the ledger, opening only the shards
+     * whose year and manifest date bounds overlap the range. Changes a running process has not saved yet are not
+     * included.
+     *
+     * @param from The first date of the range (inclusive), or null for no lower bound.
+     * @param to   The last date of the range (inclusive), or null for no upper bound.
+     * @return The expenses of the shards that were read, which may include some outside the range.
+     * @throws IOException If a shard cannot be read.
+     */
+    public static TransactionSnapshot<Expense> readExpensesBetween(LocalDate from, LocalDate to) throws IOException {
+        DescriptionDictionary descriptions = new DescriptionDictionary();
+        TransactionStore<Expense> expenses = new TransactionStore<>(ChunkFormat.configured(Expense::new, descriptions));
+        LedgerLoader.load(LedgerShards.getFilesBetween(Path.of(EXPENSE_DIRECTORY), Path.of(EXPENSE_FILE), from, to),
+                expenses, (reader, action) -> readExpenses(descriptions, reader, action));
+        return expenses.snapshot();
+    }
+
+    /**
+     * Opens the archive of older expenses, reading only the headers of its segments.
+     *
+     * @return The archive.
+     */
+    public static TransactionArchive<Expense> openArchive() {
+        return new TransactionArchive<>(Path.of(EXPENSE_ARCHIVE_DIRECTORY), Expense::new);
+    }
+
+    /**
+     * Gets a consistent, read-only snapshot of the expenses.
+     * The snapshot does not change when expenses are later added, edited or deleted,
+     * so it can be read without locking while other threads keep editing.
      *
      * @return The list of expenses.
      */
-    public List<Expense> getExpenses() {
-        return expenses;
+    public TransactionSnapshot<Expense> getExpenses() {
+        return expenses.snapshot();
+    }
+
+    /**
+     * Saves the expenses in the background from now on, through the given autosave target.
+     *
+     * @param autosave The target registered for the expenses.
+     */
+    public void setAutosave(AutosaveScheduler.Target autosave) {
+        this.autosave = autosave;
+    }
+
+    /**
+     * Records the edits made to the expenses from now on in an undo and redo history.
+     *
+     * @param history The history shared with the other ledgers and the categories.
+     */
+    public void setHistory(EditHistory history) {
+        this.history = history.register(this, this::applyEdit);
+    }
+
+    /**
+     * Records an edit of an expense in the undo history, if there is one.
+     *
+     * @param before The expense before the edit, or null if it was added.
+     * @param after  The expense after the edit, or null if it was removed.
+     */
+    private void record(Expense before, Expense after) {
+        EditHistory.Target target = history;
+        if (target != null) {
+            target.record(before, after);
+        }
+    }
+
+    /**
+     * Undoes or redoes an edit from the undo history, finding the expense through the ID index.
+     *
+     * @param delta The recorded edit.
+     * @param undo  True to restore the values before the edit, false to restore those after it.
+     * @return True if the edit applied, false if the expense has changed in a way that no longer allows it.
+     */
+    private synchronized boolean applyEdit(EditHistory.Delta delta, boolean undo) {
+        int id = delta.getId();
+        Expense current = findExpense(id);
+        Expense restored;
+        if (!delta.exists(!undo)) {
+            if (current == null) {
+                return false;
+            }
+            restored = null;
+        } else if (delta.getType() == TransactionEvent.Type.UPDATED ? current != null : current == null) {
+            restored = delta.toTransaction(!undo, current, descriptions, Expense::new);
+        } else {
+            return false;
+        }
+        applyExternal(current, restored);
+        // Unlike a merged change, this one is not on disk yet
+        markChanged(current, restored);
+        unsaved.putIfAbsent(id, current);
+        changed();
+        return true;
+    }
+
+    /**
+     * Marks the shards, and the pages in them, that hold an expense before and after a change as changed.
+     *
+     * @param before The expense before the change, or null if it was added.
+     * @param after  The expense after the change, or null if it was removed.
+     */
+    private void markChanged(Expense before, Expense after) {
+        if (before != null) {
+            shards.markChanged(before);
+        }
+        if (after != null) {
+            shards.markChanged(after);
+        }
+    }
+
+    /**
+     * Reports a changed expense to the autosave scheduler, if the expenses are saved in the background.
+     */
+    private void changed() {
+        AutosaveScheduler.Target target = autosave;
+        if (target != null) {
+            target.changed(1);
+        }
+    }
+
+    /**
+     * Saves the expenses: in the background if autosave is on, otherwise right away.
+     */
+    private void requestSave() {
+        AutosaveScheduler.Target target = autosave;
+        if (target != null) {
+            target.flushSoon();
+        } else {
+            saveExpenses();
+        }
+    }
+
+    /**
+     * Merges the changes other processes save to the expense shards from now on, as the watcher reports them.
+     *
+     * @param watcher The watcher of the directory holding the expense shards.
+     */
+    public void watch(LedgerWatcher watcher) {
+        // The manifest is saved after the shards and their page tables, so a merge reads only the changed pages
+        watcher.watch(shards.getManifestFile().toString(), this::reloadExpenses);
+    }
+
+    /**
+     * Gets the archive holding the expenses older than the archive horizon.
+     *
+     * @return The expense archive.
+     */
+    public TransactionArchive<Expense> getArchive() {
+        return archive;
+    }
+
+    /**
+     * Gets the bus that publishes every change made to the expenses.
+     *
+     * @return The expense event bus.
+     */
+    public LedgerEventBus<Expense> getEvents() {
+        return events;
+    }
+
+    /**
+     * Gets the expenses whose created date falls within the given range, including archived ones.
+     *
+     * @param from The first date of the range (inclusive), or null for no lower bound.
+     * @param to   The last date of the range (inclusive), or null for no upper bound.
+     * @return A new list containing the matching expenses.
+     */
+    public List<Expense> getExpensesBetween(LocalDate from, LocalDate to) {
+        List<Expense> result = new ArrayList<>();
+        archive.forEach(from, to, null, result::add);
+        expenses.snapshot().forEachBetween(from, to, result::add);
+        return result;
+    }
+
+    /**
+     * Checks whether any expense uses the given category.
+     *
+     * @param categoryId The ID of the category.
+     * @return True if at least one expense belongs to the category, otherwise false.
+     */
+    public boolean usesCategory(int categoryId) {
+        for (Expense expense : expenses.snapshot()) {
+            if (expense.getCategoryId() == categoryId) {
+                return true;
+            }
+        }
+        return archive.usesCategory(categoryId);
+    }
+
+    /**
+     * Gets the entry of a description in the dictionary of this ledger, for matching expenses against it.
+     *
+     * @param description The description.
+     * @return The entry, which has no code if no loaded expense uses the description, or null for a missing one.
+     */
+    public DescriptionDictionary.Entry lookupDescription(String description) {
+        return descriptions.lookup(description);
+    }
+
+    /**
+     * Gets the total amount and number of expenses per description, including archived ones, with every amount
+     * converted into a reporting currency at the rate of its day.
+     * Rows are grouped by their description code, so the grouping itself never compares strings; only archived
+     * rows whose description no loaded expense uses are grouped by the string.
+     *
+     * @param conversion The conversion into the reporting currency.
+     * @return A map from description to its total amount and number of expenses, in that order.
+     */
+    public Map<String, double[]> getTotalsByDescription(FxRates.Conversion conversion) {
+        double[][] totals = {new double[descriptions.size() * 2]};
+        Map<String, double[]> result = new TreeMap<>();
+        Consumer<Expense> add = expense -> {
+            DescriptionDictionary.Entry description = expense.getDescriptionCode() >= 0
+                    ? expense.getDescriptionEntry() : descriptions.lookup(expense.getDescription());
+            if (description == null) {
+                return;
+            }
+            int slot = description.getCode() * 2;
+            if (slot < 0) {
+                double[] total = result.computeIfAbsent(description.getText(), text -> new double[2]);
+                total[0] += conversion.convert(expense);
+                total[1]++;
+                return;
+            }
+            if (slot >= totals[0].length) {
+                totals[0] = Arrays.copyOf(totals[0], Math.max(slot + 2, totals[0].length * 2));
+            }
+            totals[0][slot] += conversion.convert(expense);
+            totals[0][slot + 1]++;
+        };
+        archive.forEach(null, null, null, add);
+        expenses.snapshot().forEach(add);
+        for (int slot = 0; slot < totals[0].length; slot += 2) {
+            if (totals[0][slot + 1] > 0) {
+                result.merge(descriptions.get(slot / 2).getText(), new double[]{totals[0][slot], totals[0][slot + 1]},
+                        (archived, loaded) -> new double[]{archived[0] + loaded[0], archived[1] + loaded[1]});
+            }
+        }
+        return result;
     }
 
     /**
@@ -131,7 +454,6 @@ public class ExpenseManager {
      * @return True if the expense is successfully added, otherwise false.
      */
     private boolean addExpense() {
-        int nextId = expenses.isEmpty() ? 1 : expenses.getLast().getId() + 1;
         if (categoryManager.getCategories().isEmpty()) {
             CONSOLETEXT.printWarning("There are no categories available. Please add a category first.");
             return false;
@@ -139,15 +461,393 @@ public class ExpenseManager {
 
         String description = readDescription("Enter expense description: ", "");
         double amount = readAmount("Enter expense amount: ", 0.00);
+        String currency = readCurrency("Enter currency (press enter for " + Currencies.BASE + "): ", Currencies.BASE);
         LocalDate date = readDate("Enter expense date (eg 2024/04/12): ", null);
         int categoryId = readCategoryId("Enter category ID: ", 0);
 
-        Expense expense = new Expense(nextId, description, amount, categoryId, date);
-        expenses.add(expense);
+        if (isDuplicateExpense(description, amount, date, currency)) {
+            CONSOLETEXT.printWarning("An expense with the same date, amount, currency and description already exists.");
+            if (!confirm("Add it anyway? (Yes/No): ")) {
+                CONSOLETEXT.printWarning("Expense not added.");
+                return true;
+            }
+        }
+        addExpense(description, amount, categoryId, date, currency);
         CONSOLETEXT.printSuccess("Expense added successfully.");
         return true;
     }
 
+    /**
+     * Adds a new expense in the base currency without prompting the user.
+     *
+     * @param description The description of the expense.
+     * @param amount      The amount of the expense.
+     * @param categoryId  The category ID of the expense.
+     * @param date        The creation date of the expense.
+     * @return The added expense.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public Expense addExpense(String description, double amount, int categoryId, LocalDate date) {
+        return addExpense(description, amount, categoryId, date, null);
+    }
+
+    /**
+     * Adds a new expense without prompting the user.
+     *
+     * @param description The description of the expense.
+     * @param amount      The amount of the expense.
+     * @param categoryId  The category ID of the expense.
+     * @param date        The creation date of the expense.
+     * @param currency    The currency code of the amount, or null for the base currency.
+     * @return The added expense.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public synchronized Expense addExpense(String description, double amount, int categoryId, LocalDate date, String currency) {
+        long start = System.nanoTime();
+        validate(description, amount, categoryId, date, currency);
+        int nextId = ids.next();
+        Expense expense = new Expense(nextId, descriptions.intern(description), amount, categoryId, date, currency);
+        expenses.add(expense);
+        markChanged(null, expense);
+        unsaved.putIfAbsent(nextId, null);
+        changed();
+        if (expensesById != null) {
+            expensesById.put(nextId, expense);
+        }
+        duplicates.add(expense);
+        publish(TransactionEvent.Type.ADDED, null, expense);
+        record(null, expense);
+        ADD_LATENCY.recordSince(start);
+        return expense;
+    }
+
+    /**
+     * Adds a new expense unless one with the same date, amount, currency and normalized description already exists.
+     * The check and the add happen under the same lock, so two concurrent requests cannot both add it.
+     *
+     * @param description The description of the expense.
+     * @param amount      The amount of the expense.
+     * @param categoryId  The category ID of the expense.
+     * @param date        The creation date of the expense.
+     * @param currency    The currency code of the amount, or null for the base currency.
+     * @return The added expense, or null if it is a duplicate.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public synchronized Expense addExpenseUnlessDuplicate(String description, double amount, int categoryId, LocalDate date, String currency) {
+        validate(description, amount, categoryId, date, currency);
+        if (isDuplicateExpense(description, amount, date, currency)) {
+            return null;
+        }
+        return addExpense(description, amount, categoryId, date, currency);
+    }
+
+    /**
+     * Checks whether an expense with the same date, amount, currency and normalized description already exists.
+     *
+     * @param description The description of the expense.
+     * @param amount      The amount of the expense.
+     * @param date        The creation date of the expense.
+     * @param currency    The currency code of the amount, or null for the base currency.
+     * @return True if a matching expense exists, otherwise false.
+     */
+    public synchronized boolean isDuplicateExpense(String description, double amount, LocalDate date, String currency) {
+        return duplicates.contains(description, amount, date, currency, expenses.snapshot());
+    }
+
+    /**
+     * Prepares the duplicate index for a bulk append of the given number of rows.
+     *
+     * @param rows The number of rows about to be appended.
+     */
+    synchronized void reserveDuplicateCapacity(long rows) {
+        duplicates.ensureCapacity(expenses.size() + rows, expenses.snapshot());
+    }
+
+    /**
+     * Opens the expense shards for appending rows straight to them, bypassing the in-memory list.
+     *
+     * @param bufferSize The size of the write buffer of each shard.
+     * @return The appender, which updates the shard manifest when it is closed.
+     */
+    LedgerShards.Appender appendExpenses(int bufferSize) {
+        return LedgerShards.append(Path.of(EXPENSE_DIRECTORY), bufferSize);
+    }
+
+    /**
+     * Records an expense that was appended straight to the expense shards, bypassing the in-memory list.
+     *
+     * @param expense The appended expense.
+     */
+    synchronized void recordAppendedExpense(Expense expense) {
+        duplicates.add(expense);
+    }
+
+    /**
+     * Persists the duplicate index for the current contents of the expense shards.
+     *
+     * @param rows The number of rows in the expense shards.
+     */
+    void saveDuplicateIndex(int rows) {
+        synchronized (saveLock) {
+            DuplicateIndex.PendingSave bloom;
+            synchronized (this) {
+                bloom = duplicates.prepareSave();
+            }
+            writeDuplicateIndex(bloom, rows);
+        }
+    }
+
+    /**
+     * Writes a save of the duplicate index copied while the expenses were locked, without holding the lock.
+     *
+     * @param bloom The pending save.
+     * @param rows  The number of rows in the expense shards.
+     */
+    private void writeDuplicateIndex(DuplicateIndex.PendingSave bloom, int rows) {
+        boolean written = bloom.write(Path.of(EXPENSE_BLOOM_FILE), shards.getManifestFile(), rows);
+        synchronized (this) {
+            duplicates.finishSave(bloom, written);
+        }
+    }
+
+    /**
+     * Reserves a contiguous block of expense IDs for rows added outside this manager, such as a bulk import.
+     *
+     * @param count The number of IDs to reserve.
+     * @return The first reserved ID.
+     */
+    int reserveExpenseIds(int count) {
+        return ids.reserve(count);
+    }
+
+    /**
+     * Updates an existing expense without prompting the user, keeping its currency.
+     *
+     * @param id          The ID of the expense to update.
+     * @param description The new description of the expense.
+     * @param amount      The new amount of the expense.
+     * @param categoryId  The new category ID of the expense.
+     * @param date        The new creation date of the expense.
+     * @return The updated expense, or null if no expense has the given ID.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public Expense updateExpense(int id, String description, double amount, int categoryId, LocalDate date) {
+        return updateExpense(id, description, amount, categoryId, date, null);
+    }
+
+    /**
+     * Updates an existing expense without prompting the user.
+     *
+     * @param id          The ID of the expense to update.
+     * @param description The new description of the expense.
+     * @param amount      The new amount of the expense.
+     * @param categoryId  The new category ID of the expense.
+     * @param date        The new creation date of the expense.
+     * @param currency    The new currency code of the amount, or null to keep the existing one.
+     * @return The updated expense, or null if no expense has the given ID.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public synchronized Expense updateExpense(int id, String description, double amount, int categoryId, LocalDate date, String currency) {
+        long start = System.nanoTime();
+        Expense previous = getExpenseById(id);
+        if (previous == null) {
+            return null;
+        }
+        validate(description, amount, categoryId, date, currency);
+        // Replace rather than mutate, so snapshots taken earlier keep the old values
+        Expense expense = new Expense(id, descriptions.intern(description), amount, categoryId, date, currency == null ? previous.getCurrency() : currency);
+        expenses.replace(expense);
+        markChanged(previous, expense);
+        unsaved.putIfAbsent(id, previous);
+        changed();
+        if (expensesById != null) {
+            expensesById.put(id, expense);
+        }
+        duplicates.remove(previous);
+        duplicates.add(expense);
+        publish(TransactionEvent.Type.UPDATED, previous, expense);
+        record(previous, expense);
+        EDIT_LATENCY.recordSince(start);
+        return expense;
+    }
+
+    /**
+     * Removes an expense without prompting the user.
+     *
+     * @param id The ID of the expense to remove.
+     * @return True if the expense was removed, false if no expense has the given ID.
+     */
+    public synchronized boolean removeExpense(int id) {
+        long start = System.nanoTime();
+        Expense expense = findExpense(id);
+        if (expense == null) {
+            return false;
+        }
+        if (expensesById != null) {
+            expensesById.remove(id);
+        }
+        duplicates.remove(expense);
+        expenses.remove(id);
+        markChanged(expense, null);
+        unsaved.putIfAbsent(id, expense);
+        changed();
+        publish(TransactionEvent.Type.REMOVED, expense, null);
+        record(expense, null);
+        DELETE_LATENCY.recordSince(start);
+        return true;
+    }
+
+    /**
+     * Moves every matching expense to another category in one pass, without prompting the user.
+     *
+     * @param filter     Selects the expenses.
+     * @param categoryId The ID of the new category.
+     * @return The number of expenses moved.
+     * @throws IllegalArgumentException If the category ID is invalid.
+     */
+    public synchronized int recategorizeExpenses(TransactionFilter filter, int categoryId) {
+        if (!categoryManager.isValidCategory(categoryId)) {
+            throw new IllegalArgumentException("Invalid category ID. Please select a valid category ID.");
+        }
+        return bulkUpdate(filter, expense -> new Expense(expense.getId(), expense.getDescriptionEntry(), expense.getAmount(),
+                categoryId, expense.getCreatedDate(), expense.getCurrency()));
+    }
+
+    /**
+     * Multiplies the amount of every matching expense by a factor in one pass, rounding to whole cents and
+     * capping at {@link Transaction#MAX_AMOUNT}, without prompting the user.
+     *
+     * @param filter Selects the expenses.
+     * @param factor The factor to multiply the amounts by.
+     * @return The number of expenses changed.
+     * @throws IllegalArgumentException If the factor is not a positive number.
+     */
+    public synchronized int scaleExpenses(TransactionFilter filter, double factor) {
+        if (!(factor > 0) || Double.isInfinite(factor)) {
+            throw new IllegalArgumentException("Invalid factor. Please enter a valid positive number for the factor.");
+        }
+        return bulkUpdate(filter, expense -> new Expense(expense.getId(), expense.getDescriptionEntry(),
+                // Never rounds a positive amount down to zero or scales it past the limit, which validation would reject
+                Math.min(Transaction.MAX_AMOUNT, Math.max(0.01, Math.round(expense.getAmount() * factor * 100) / 100.0)),
+                expense.getCategoryId(), expense.getCreatedDate(), expense.getCurrency()));
+    }
+
+    /**
+     * Removes every matching expense in one pass, without prompting the user.
+     *
+     * @param filter Selects the expenses.
+     * @return The number of expenses removed.
+     */
+    public synchronized int removeExpenses(TransactionFilter filter) {
+        return bulkUpdate(filter, expense -> null);
+    }
+
+    /**
+     * Changes or removes every matching expense in a single pass over the store. The ID index, the changed pages
+     * and the duplicate index are updated as the pass goes. The change events are published in bulk batches after
+     * the pass, while the caller still holds the manager's lock; the bus never waits for a slow subscriber, which
+     * resynchronizes instead. The autosave scheduler hears about all changes at once, and the changes are recorded
+     * in the undo history as one group.
+     *
+     * @param filter Selects the expenses.
+     * @param change Gives the new version of an expense, or null to remove it.
+     * @return The number of expenses changed or removed.
+     */
+    private int bulkUpdate(TransactionFilter filter, UnaryOperator<Expense> change) {
+        long start = System.nanoTime();
+        List<TransactionEvent<Expense>> changes = new ArrayList<>();
+        boolean publishing = events.hasSubscribers();
+        EditHistory.Target recording = history;
+        if (recording != null) {
+            recording.beginGroup();
+        }
+        int count;
+        try {
+            count = expenses.update(filter, change, (before, after) -> {
+                markChanged(before, after);
+                duplicates.remove(before);
+                unsaved.putIfAbsent(before.getId(), before);
+                if (expensesById != null) {
+                    if (after != null) {
+                        expensesById.put(after.getId(), after);
+                    } else {
+                        expensesById.remove(before.getId());
+                    }
+                }
+                if (after != null) {
+                    duplicates.add(after);
+                }
+                if (recording != null) {
+                    recording.record(before, after);
+                }
+                if (publishing) {
+                    changes.add(new TransactionEvent<>(after == null ? TransactionEvent.Type.REMOVED : TransactionEvent.Type.UPDATED,
+                            before, after, expenses.getVersion()));
+                }
+            });
+        } finally {
+            if (recording != null) {
+                recording.endGroup();
+            }
+        }
+        events.beginBulk();
+        try {
+            for (TransactionEvent<Expense> event : changes) {
+                events.publish(event);
+            }
+        } finally {
+            events.endBulk();
+        }
+        AutosaveScheduler.Target target = autosave;
+        if (target != null && count > 0) {
+            target.changed(count);
+        }
+        BULK_LATENCY.recordSince(start);
+        return count;
+    }
+
+    /**
+     * Publishes a change to the expenses, if anyone is listening.
+     *
+     * @param type   The kind of change.
+     * @param before The expense before the change, or null if it was added.
+     * @param after  The expense after the change, or null if it was removed.
+     */
+    private void publish(TransactionEvent.Type type, Expense before, Expense after) {
+        if (events.hasSubscribers()) {
+            events.publish(new TransactionEvent<>(type, before, after, expenses.getVersion()));
+        }
+    }
+
+    /**
+     * Validates the values of an expense supplied without prompting.
+     *
+     * @param description The description of the expense.
+     * @param amount      The amount of the expense.
+     * @param categoryId  The category ID of the expense.
+     * @param date        The creation date of the expense.
+     * @param currency    The currency code of the amount, or null for the base or existing currency.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    private void validate(String description, double amount, int categoryId, LocalDate date, String currency) {
+        if (description == null || description.isEmpty() || description.contains(",")) {
+            throw new IllegalArgumentException("Invalid description. Please provide a description without commas.");
+        }
+        if (!Transaction.isValidAmount(amount)) {
+            throw new IllegalArgumentException("Invalid amount. Please enter a positive number no larger than "
+                    + (long) Transaction.MAX_AMOUNT + " for the amount.");
+        }
+        if (date == null || date.isAfter(LocalDate.now())) {
+            throw new IllegalArgumentException("Invalid date. Please don't enter future date.");
+        }
+        if (!categoryManager.isValidCategory(categoryId)) {
+            throw new IllegalArgumentException("Invalid category ID. Please select a valid category ID.");
+        }
+        if (currency != null && !Currencies.isValid(currency)) {
+            throw new IllegalArgumentException("Invalid currency. Please use a three-letter code such as " + Currencies.BASE + ".");
+        }
+    }
+
     /**
      * Edits an existing expense.
      */
@@ -159,20 +859,61 @@ public class ExpenseManager {
         if (expense != null) {
             String newDescription = readDescription("Enter new description (press enter to keep existing): ", expense.getDescription());
             double newAmount = readAmount("Enter new amount (press enter to keep existing): ", expense.getAmount());
+            String newCurrency = readCurrency("Enter new currency (press enter to keep existing): ", expense.getCurrency());
             LocalDate newDate = readDate("Enter new date (eg 2024/04/12) (press enter to keep existing): ", expense.getCreatedDate());
             int newCategoryId = readCategoryId("Enter new category ID (press enter to keep existing): ", expense.getCategoryId());
 
-            expense.setDescription(newDescription);
-            expense.setAmount(newAmount);
-            expense.setCreatedDate(newDate);
-            expense.setCategoryId(newCategoryId);
-
+            updateExpense(expenseId, newDescription, newAmount, newCategoryId, newDate, newCurrency);
             CONSOLETEXT.printSuccess("Expense updated successfully.");
         } else {
             CONSOLETEXT.printWarning("Expense not found.");
         }
     }
 
+    /**
+     * Changes or deletes all expenses matching a description pattern, date range and category at once.
+     */
+    private void bulkEditExpenses() {
+        System.out.print("Enter description pattern (press enter for any): ");
+        String pattern = scanner.nextLine();
+        LocalDate from = readOptionalDate("Enter start date (eg 2024/04/12) (press enter for none): ");
+        LocalDate to = readOptionalDate("Enter end date (eg 2024/04/12) (press enter for none): ");
+        int categoryId = readCategoryFilter("Enter category ID, including its subcategories (press enter for any): ");
+        TransactionFilter filter;
+        try {
+            filter = new TransactionFilter(pattern, from, to, categoryId == 0 ? null : categoryManager.getTree().subtree(categoryId));
+        } catch (IllegalArgumentException e) {
+            CONSOLETEXT.printError(e.getMessage());
+            return;
+        }
+        long matches = expenses.snapshot().stream().filter(filter).count();
+        if (matches == 0) {
+            CONSOLETEXT.printWarning("No expenses match.");
+            return;
+        }
+        System.out.println(matches + " expenses match.");
+        System.out.print("Recategorize (1), Scale amounts (2), Delete (3), Cancel (4): ");
+        String choice = scanner.nextLine();
+        int count;
+        switch (choice) {
+            case "1" -> count = recategorizeExpenses(filter, readCategoryId("Enter new category ID: ", 0));
+            case "2" -> count = scaleExpenses(filter, readAmount("Enter factor to multiply the amounts by (eg 1.1): ", 0.0));
+            case "3" -> {
+                if (!confirm("Delete " + matches + " expenses? (Yes/No): ")) {
+                    CONSOLETEXT.printWarning("No expenses deleted.");
+                    return;
+                }
+                count = removeExpenses(filter);
+            }
+            default -> {
+                CONSOLETEXT.printWarning("No expenses changed.");
+                return;
+            }
+        }
+        requestSave();
+        CONSOLETEXT.printSuccess(count + " expenses " + (choice.equals("3") ? "deleted" : "updated") + " successfully.");
+    }
+
     /**
      * Deletes an existing expense.
      */
@@ -180,15 +921,30 @@ public class ExpenseManager {
         System.out.print("Enter the ID of the expense to delete: ");
         int expenseId = scanner.nextInt();
         scanner.nextLine();
-        Expense expense = getExpenseById(expenseId);
-        if (expense != null) {
-            expenses.remove(expense);
+        if (removeExpense(expenseId)) {
             CONSOLETEXT.printSuccess("Expense deleted successfully.");
         } else {
             CONSOLETEXT.printWarning("Expense not found.");
         }
     }
 
+    /**
+     * Asks the user a Yes/No question.
+     *
+     * @param prompt The prompt message.
+     * @return True if the user answered Yes, false if No.
+     */
+    private boolean confirm(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+            if (input.equalsIgnoreCase("Yes") || input.equalsIgnoreCase("No")) {
+                return input.equalsIgnoreCase("Yes");
+            }
+            CONSOLETEXT.printError("Invalid choice, Please try again: ");
+        }
+    }
+
     /**
      * Reads expense description from user input.
      *
@@ -200,14 +956,15 @@ public class ExpenseManager {
         while (true) {
             System.out.print(prompt);
             String input = scanner.nextLine();
-            if (!defaultValue.isEmpty()) {
-                return input.isEmpty() ? defaultValue : input;
-            } else {
-                if (input.isEmpty()) {
-                    CONSOLETEXT.printError("Invalid description. Please provide a description for the expense.");
-                } else {
-                    return input;
+            if (input.isEmpty()) {
+                if (!defaultValue.isEmpty()) {
+                    return defaultValue;
                 }
+                CONSOLETEXT.printError("Invalid description. Please provide a description for the expense.");
+            } else if (input.contains(",")) {
+                CONSOLETEXT.printError("Invalid description. Please don't use commas in the description.");
+            } else {
+                return input;
             }
         }
     }
@@ -232,7 +989,7 @@ public class ExpenseManager {
             } else {
                 try {
                     double amount = Double.parseDouble(input);
-                    if (amount > 0) {
+                    if (Transaction.isValidAmount(amount)) {
                         return amount;
                     }
                     CONSOLETEXT.printError("Invalid amount. Please enter a valid positive number for the amount.");
@@ -275,6 +1032,73 @@ public class ExpenseManager {
         }
     }
 
+    /**
+     * Reads a currency code from user input.
+     *
+     * @param prompt       The prompt message.
+     * @param defaultValue The default value.
+     * @return The entered currency code.
+     */
+    private String readCurrency(String prompt, String defaultValue) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine().strip().toUpperCase();
+            if (input.isEmpty()) {
+                return defaultValue;
+            }
+            if (Currencies.isValid(input)) {
+                return input;
+            }
+            CONSOLETEXT.printError("Invalid currency. Please use a three-letter code such as " + Currencies.BASE + ".");
+        }
+    }
+
+    /**
+     * Reads an optional date from user input.
+     *
+     * @param prompt The prompt message.
+     * @return The entered date, or null if none was entered.
+     */
+    private LocalDate readOptionalDate(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+            if (input.isEmpty()) {
+                return null;
+            }
+            try {
+                return LocalDate.parse(input, DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+            } catch (Exception ex) {
+                CONSOLETEXT.printError("Invalid date. Please enter the date in the format YYYY/MM/DD.");
+            }
+        }
+    }
+
+    /**
+     * Reads an optional category ID to filter by from user input.
+     *
+     * @param prompt The prompt message.
+     * @return The entered category ID, or 0 for any category.
+     */
+    private int readCategoryFilter(String prompt) {
+        categoryManager.viewCategories();
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+            if (input.isEmpty()) {
+                return 0;
+            }
+            try {
+                int categoryId = Integer.parseInt(input);
+                if (categoryManager.isValidCategory(categoryId)) {
+                    return categoryId;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            CONSOLETEXT.printError("Invalid category ID. Please select a valid category ID from the table above.");
+        }
+    }
+
     /**
      * Reads category ID from user input.
      *
@@ -314,25 +1138,359 @@ public class ExpenseManager {
      * @param id The ID of the expense to retrieve.
      * @return The expense object if found, otherwise null.
      */
-    private Expense getExpenseById(int id) {
-        for (Expense expense : expenses) {
-            if (expense.getId() == id) {
-                return expense;
-            }
+    public synchronized Expense getExpenseById(int id) {
+        LOOKUPS.increment();
+        if (!LatencyHistogram.shouldSample()) {
+            return findExpense(id);
         }
-        return null;
+        long start = System.nanoTime();
+        Expense expense = findExpense(id);
+        LOOKUP_LATENCY.recordSince(start);
+        return expense;
     }
 
     /**
-     * Saves expenses to a file.
+     * Finds an expense by ID, through the index on the heap or the store itself when it lives off-heap.
+     *
+     * @param id The ID of the expense to find.
+     * @return The expense object if found, otherwise null.
      */
-    private void saveExpenses() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(EXPENSE_FILE))) {
-            for (Expense expense : expenses) {
-                writer.println(expense.getId() + "," + expense.getDescription() + "," + expense.getAmount() + "," + expense.getCategoryId() + "," + expense.getCreatedDate());
+    private Expense findExpense(int id) {
+        return expensesById != null ? expensesById.get(id) : expenses.find(id);
+    }
+
+    /**
+     * Moves the expenses older than the archive horizon out of memory into a new archive segment.
+     * The segment is written without locking the expenses, and before they are removed, so a failure never loses
+     * any of them; if one of them changed meanwhile, the segment is dropped and a later save tries again.
+     */
+    private void archiveExpenses() {
+        LocalDate cutoff = archive.getCutoff(LocalDate.now());
+        if (cutoff == null) {
+            return;
+        }
+        List<Expense> old = new ArrayList<>();
+        for (Expense expense : expenses.snapshot()) {
+            if (expense.getCreatedDate().isBefore(cutoff)) {
+                old.add(expense);
             }
+        }
+        if (old.isEmpty()) {
+            return;
+        }
+        List<ArchiveSegment<Expense>> written;
+        try {
+            written = archive.write(old);
         } catch (IOException e) {
-            CONSOLETEXT.printError("Error saving expenses to file");
+            CONSOLETEXT.printError("Error archiving expenses");
+            return;
+        }
+        synchronized (this) {
+            for (Expense expense : old) {
+                Expense current = findExpense(expense.getId());
+                if (current != expense && !sameRecord(current, expense)) {
+                    archive.discard(written);
+                    return;
+                }
+            }
+            archive.publish(written);
+            for (Expense expense : old) {
+                duplicates.remove(expense);
+                expenses.remove(expense.getId());
+                markChanged(expense, null);
+                unsaved.putIfAbsent(expense.getId(), expense);
+                if (expensesById != null) {
+                    expensesById.remove(expense.getId());
+                }
+                publish(TransactionEvent.Type.REMOVED, expense, null);
+            }
+        }
+    }
+
+    /**
+     * Merges the changes another process saved to the expense shards since this one last read or wrote them.
+     * Only the shards whose file changed are opened, and in them only the pages whose checksum changed and the
+     * tail of the file are parsed again, unless the shard is new or was rewritten with a different layout.
+     * Expenses changed here and not saved yet keep their changes; if the other process changed them too, the
+     * conflict is reported, and an expense it added under an ID also taken here keeps that ID while the one added
+     * here gets a new one.
+     */
+    void reloadExpenses() {
+        synchronized (saveLock) {
+            LedgerStamp version = shards.readVersion();
+            if (shards.isCurrent()) {
+                if (!shards.isValid()) {
+                    LedgerShards refreshed;
+                    synchronized (this) {
+                        refreshed = shards.copy();
+                    }
+                    refreshed.refreshPageTables();
+                    adoptPages(refreshed);
+                }
+                return;
+            }
+            // The shards are read and parsed without locking the expenses; only the merge locks them
+            List<LedgerShards.Change> changes;
+            List<List<LedgerPages.Region>> regions = new ArrayList<>();
+            List<List<List<Expense>>> parsed = new ArrayList<>();
+            try {
+                changes = shards.readChanges();
+                for (LedgerShards.Change change : changes) {
+                    List<LedgerPages.Region> changed = change.getRegions();
+                    List<List<Expense>> rows = changed == null ? null : parseRegions(changed);
+                    if (rows == null) {
+                        // The whole shard is merged instead
+                        changed = null;
+                        rows = List.of(readShard(change.getFile()));
+                    }
+                    regions.add(changed);
+                    parsed.add(rows);
+                }
+            } catch (IOException | RuntimeException e) {
+                CONSOLETEXT.printError("Error reloading expenses from file");
+                return;
+            }
+            archive.refresh();
+            LedgerShards reloaded;
+            synchronized (this) {
+                reloaded = shards.copy();
+            }
+            reloaded.reloaded(version, changes);
+            synchronized (this) {
+                for (int c = 0; c < changes.size(); c++) {
+                    int year = changes.get(c).getYear();
+                    if (regions.get(c) == null) {
+                        mergeExternal(parsed.get(c).get(0), Integer.MIN_VALUE, Integer.MAX_VALUE, year);
+                        continue;
+                    }
+                    for (int i = 0; i < regions.get(c).size(); i++) {
+                        LedgerPages.Region region = regions.get(c).get(i);
+                        mergeExternal(parsed.get(c).get(i), region.getFromId(), region.getToId(), year);
+                    }
+                }
+                ids.advancePast(archive.getMaxId());
+                adoptPages(reloaded);
+            }
+            RELOADS.increment();
+        }
+    }
+
+    /**
+     * Takes over the shards and page tables of a copy that saved or reloaded the expenses, and marks the expenses
+     * that are still not saved as changed again.
+     *
+     * @param copy The copy of the shards.
+     */
+    private synchronized void adoptPages(LedgerShards copy) {
+        shards.adopt(copy);
+        for (Map.Entry<Integer, Expense> entry : unsaved.entrySet()) {
+            markChanged(entry.getValue(), findExpense(entry.getKey()));
+        }
+    }
+
+    /**
+     * Reads every expense of a shard.
+     *
+     * @param file The shard file.
+     * @return The expenses, none if the shard was deleted.
+     * @throws IOException If the shard cannot be read.
+     */
+    private List<Expense> readShard(Path file) throws IOException {
+        List<Expense> external = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))) {
+            readExpenses(descriptions, reader, external::add);
+        } catch (FileNotFoundException ignored) {
+        }
+        return external;
+    }
+
+    /**
+     * Parses the changed regions of an expense shard.
+     *
+     * @param regions The changed regions.
+     * @return The expenses in each region, or null if a region holds an expense outside its range of IDs, so that
+     * the whole shard has to be merged instead.
+     * @throws IOException If a region cannot be read.
+     */
+    private List<List<Expense>> parseRegions(List<LedgerPages.Region> regions) throws IOException {
+        List<List<Expense>> parsed = new ArrayList<>();
+        for (LedgerPages.Region region : regions) {
+            List<Expense> external = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(region.getBytes()), StandardCharsets.UTF_8))) {
+                readExpenses(descriptions, reader, external::add);
+            }
+            for (Expense expense : external) {
+                if (expense.getId() < region.getFromId() || expense.getId() >= region.getToId()) {
+                    return null;
+                }
+            }
+            parsed.add(external);
+        }
+        return parsed;
+    }
+
+    /**
+     * Makes the expenses of one shard within a range of IDs match their version on disk, except for the ones
+     * changed here and not saved yet. An expense on disk in this shard that is held here in another year's shard
+     * moves to this one; one held here in this shard but no longer on disk in it is removed, as it was deleted or
+     * moved to another shard, which the merge of that shard then adds back.
+     *
+     * @param external The expenses on disk in the shard within the range.
+     * @param fromId   The first ID of the range (inclusive).
+     * @param toId     The last ID of the range (exclusive).
+     * @param year     The year of the shard.
+     */
+    private void mergeExternal(List<Expense> external, int fromId, int toId, int year) {
+        IntMap<Expense> onDisk = new IntMap<>(external.size());
+        for (Expense expense : external) {
+            onDisk.put(expense.getId(), expense);
+        }
+        List<Expense> local = expenses.snapshot();
+        int from = this.expenses.isSortedById() ? LedgerPages.lowerBound(local, fromId) : 0;
+        List<Expense> removed = new ArrayList<>();
+        for (int i = from; i < local.size(); i++) {
+            Expense expense = local.get(i);
+            if (expense.getId() >= toId && this.expenses.isSortedById()) {
+                break;
+            }
+            if (expense.getId() >= fromId && expense.getId() < toId && expense.getCreatedDate().getYear() == year
+                    && onDisk.get(expense.getId()) == null) {
+                removed.add(expense);
+            }
+        }
+        for (Expense expense : removed) {
+            int id = expense.getId();
+            if (!unsaved.containsKey(id)) {
+                applyExternal(expense, null);
+            } else if (unsaved.get(id) != null) {
+                CONSOLETEXT.printWarning("Expense " + id + " was deleted by another process; keeping the change made here.");
+                unsaved.put(id, null);
+            }
+        }
+        for (Expense expense : external) {
+            int id = expense.getId();
+            Expense current = findExpense(id);
+            if (!unsaved.containsKey(id)) {
+                if (!sameRecord(current, expense)) {
+                    applyExternal(current, expense);
+                }
+            } else if (sameRecord(current, expense)) {
+                unsaved.remove(id);
+            } else if (!sameRecord(unsaved.get(id), expense)) {
+                if (unsaved.get(id) == null && current != null) {
+                    renumber(current, expense);
+                } else {
+                    CONSOLETEXT.printWarning("Expense " + id + " was also changed by another process; keeping the change made here.");
+                    unsaved.put(id, expense);
+                }
+            }
+            ids.advancePast(id);
+        }
+    }
+
+    /**
+     * Gives an expense added here a new ID, because another process saved a different expense under its ID.
+     *
+     * @param added    The expense added here.
+     * @param external The expense the other process saved under the same ID.
+     */
+    private void renumber(Expense added, Expense external) {
+        applyExternal(added, external);
+        unsaved.remove(added.getId());
+        ids.advancePast(external.getId());
+        Expense moved = new Expense(ids.next(), added.getDescriptionEntry(), added.getAmount(), added.getCategoryId(), added.getCreatedDate(), added.getCurrency());
+        applyExternal(null, moved);
+        unsaved.put(moved.getId(), null);
+        CONSOLETEXT.printWarning("Expense " + added.getId() + " was also added by another process; the one added here is now expense " + moved.getId() + ".");
+    }
+
+    /**
+     * Applies a change to the expenses that is already on disk, so it neither marks a page as changed nor
+     * schedules a save.
+     *
+     * @param before The expense before the change, or null if it was added.
+     * @param after  The expense after the change, or null if it was removed.
+     */
+    private void applyExternal(Expense before, Expense after) {
+        if (before == null) {
+            expenses.insert(after);
+        } else if (after == null) {
+            expenses.remove(before.getId());
+        } else {
+            expenses.replace(after);
+        }
+        if (expensesById != null) {
+            if (after != null) {
+                expensesById.put(after.getId(), after);
+            } else {
+                expensesById.remove(before.getId());
+            }
+        }
+        if (before != null) {
+            duplicates.remove(before);
+        }
+        if (after != null) {
+            duplicates.add(after);
+        }
+        publish(before == null ? TransactionEvent.Type.ADDED : after == null ? TransactionEvent.Type.REMOVED : TransactionEvent.Type.UPDATED, before, after);
+    }
+
+    /**
+     * Checks whether two expenses, either of which may be missing, would be saved as the same line.
+     *
+     * @param a The first expense, or null.
+     * @param b The second expense, or null.
+     * @return True if both are missing or both have the same values.
+     */
+    private static boolean sameRecord(Expense a, Expense b) {
+        return a == null ? b == null : b != null && a.toRecord().equals(b.toRecord());
+    }
+
+    /**
+     * Saves expenses to their shards, first moving the ones older than the archive horizon into the archive.
+     * Only the shards holding changed expenses are written, and only their changed pages when possible. The
+     * expenses are only locked to take a snapshot and to record the outcome, so they can be changed while the
+     * files are written.
+     */
+    void saveExpenses() {
+        synchronized (saveLock) {
+            long start = System.nanoTime();
+            LedgerSaveEvent event = new LedgerSaveEvent();
+            event.begin();
+            if (!shards.isCurrent()) {
+                // Another process saved since this one last read the shards; merge its changes instead of overwriting them
+                reloadExpenses();
+            }
+            archiveExpenses();
+            TransactionSnapshot<Expense> snapshot;
+            boolean sortedById;
+            LedgerShards saving;
+            Map<Integer, Expense> saved;
+            DuplicateIndex.PendingSave bloom;
+            synchronized (this) {
+                snapshot = expenses.snapshot();
+                sortedById = expenses.isSortedById();
+                saving = shards.copy();
+                saved = new HashMap<>(unsaved);
+                unsaved.clear();
+                bloom = duplicates.prepareSave();
+            }
+            try {
+                saving.save(snapshot, sortedById);
+            } catch (IOException e) {
+                synchronized (this) {
+                    // The versions from before the snapshot are the ones still on disk
+                    unsaved.putAll(saved);
+                    duplicates.finishSave(bloom, false);
+                }
+                CONSOLETEXT.printError("Error saving expenses to file");
+                return;
+            }
+            adoptPages(saving);
+            event.finish(EXPENSE_DIRECTORY, snapshot.size());
+            writeDuplicateIndex(bloom, snapshot.size());
+            ids.checkpoint();
+            SAVE_LATENCY.recordSince(start);
         }
     }
 }
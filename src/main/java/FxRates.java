@@ -0,0 +1,243 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The exchange rates stored in the rates file, used to convert amounts into a reporting currency.
+ * <p>
+ * Each line of the file holds a date, a currency code and the value of one unit of that currency in the base
+ * currency on that day, e.g. {@code 2024-04-12,EUR,1.0712}. For every reporting currency, the rates are expanded
+ * once into a dense table with one factor per currency and day, carrying the last known rate forward over days
+ * without one, so that converting an amount is a single array read. The reporting currency of graphs is set with
+ * the {@code expensetracker.reporting.currency} system property and defaults to the base currency.
+ */
+public class FxRates {
+    static final String FX_FILE = "fxrates.txt";
+    private static volatile FxRates shared;
+
+    // Currency index to the rates by epoch day
+    private final Map<Integer, TreeMap<Long, Double>> rates;
+    private final long firstDay;
+    private final long lastDay;
+    private final Map<Integer, Conversion> conversions = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs FxRates.
+     *
+     * @param rates The rates of each currency by epoch day.
+     */
+    private FxRates(Map<Integer, TreeMap<Long, Double>> rates) {
+        this.rates = rates;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (TreeMap<Long, Double> byDay : rates.values()) {
+            first = Math.min(first, byDay.firstKey());
+            last = Math.max(last, byDay.lastKey());
+        }
+        firstDay = rates.isEmpty() ? 0 : first;
+        lastDay = rates.isEmpty() ? 0 : last;
+    }
+
+    /**
+     * Gets the rates of the rates file, loading them the first time.
+     *
+     * @return The exchange rates.
+     */
+    public static FxRates shared() {
+        FxRates rates = shared;
+        if (rates == null) {
+            synchronized (FxRates.class) {
+                if (shared == null) {
+                    shared = load();
+                }
+                rates = shared;
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * Loads the rates file again, for example after another process changed it.
+     */
+    public static void reload() {
+        shared = load();
+    }
+
+    /**
+     * Loads the rates file. A missing file means there are no rates; malformed lines are skipped.
+     *
+     * @return The exchange rates.
+     */
+    private static FxRates load() {
+        Map<Integer, TreeMap<Long, Double>> rates = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(FX_FILE))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length == 3 && Currencies.isValid(parts[1].strip())) {
+                    try {
+                        long day = LocalDate.parse(parts[0].strip()).toEpochDay();
+                        double rate = Double.parseDouble(parts[2].strip());
+                        if (rate > 0) {
+                            rates.computeIfAbsent(Currencies.indexOf(parts[1].strip()), index -> new TreeMap<>()).put(day, rate);
+                        }
+                    } catch (DateTimeParseException | NumberFormatException ignored) {
+                    }
+                }
+            }
+        } catch (FileNotFoundException ignored) {
+        } catch (IOException e) {
+            CONSOLETEXT.printError("Error loading exchange rates from file");
+        }
+        return new FxRates(rates);
+    }
+
+    /**
+     * Gets the conversion into the configured reporting currency.
+     *
+     * @return The conversion.
+     * @throws IllegalArgumentException If there are no rates for the reporting currency.
+     */
+    public Conversion toReportingCurrency() {
+        return conversionTo(System.getProperty("expensetracker.reporting.currency", Currencies.BASE));
+    }
+
+    /**
+     * Gets the conversion into a currency, building its table the first time and again once new currencies
+     * have appeared.
+     *
+     * @param currency The code of the reporting currency.
+     * @return The conversion.
+     * @throws IllegalArgumentException If the code is not well-formed or there are no rates for the currency.
+     */
+    public Conversion conversionTo(String currency) {
+        int target = Currencies.indexOf(currency);
+        Conversion conversion = conversions.get(target);
+        if (conversion == null || conversion.currencies < Currencies.size()) {
+            conversion = build(target);
+            conversions.put(target, conversion);
+        }
+        return conversion;
+    }
+
+    /**
+     * Builds the dense conversion table into a currency.
+     *
+     * @param target The index of the reporting currency.
+     * @return The conversion.
+     * @throws IllegalArgumentException If there are no rates for the reporting currency.
+     */
+    private Conversion build(int target) {
+        if (target != 0 && !rates.containsKey(target)) {
+            throw new IllegalArgumentException("No exchange rates for " + Currencies.codeOf(target) + " in " + FX_FILE + ".");
+        }
+        int currencies = Currencies.size();
+        int days = (int) (lastDay - firstDay + 1);
+        double[] toBase = new double[currencies * days];
+        List<String> missing = new ArrayList<>();
+        for (int currency = 0; currency < currencies; currency++) {
+            TreeMap<Long, Double> byDay = rates.get(currency);
+            if (currency != 0 && byDay == null) {
+                missing.add(Currencies.codeOf(currency));
+            }
+            for (int day = 0; day < days; day++) {
+                Map.Entry<Long, Double> rate = byDay == null ? null : byDay.floorEntry(firstDay + day);
+                if (rate == null && byDay != null) {
+                    rate = byDay.firstEntry();
+                }
+                toBase[currency * days + day] = rate == null ? 1 : rate.getValue();
+            }
+        }
+        double[] factors = new double[toBase.length];
+        for (int i = 0; i < factors.length; i++) {
+            factors[i] = toBase[i] / toBase[target * days + i % days];
+        }
+        return new Conversion(Currencies.codeOf(target), factors, currencies, days, firstDay, missing);
+    }
+
+    /**
+     * A dense table of the factors that convert amounts of every currency on every day into one currency.
+     */
+    public static final class Conversion {
+        private final String currency;
+        private final double[] factors;
+        private final int currencies;
+        private final int days;
+        private final long firstDay;
+        private final List<String> missing;
+
+        /**
+         * Constructs a Conversion.
+         *
+         * @param currency   The code of the reporting currency.
+         * @param factors    The factors, one row of days per currency.
+         * @param currencies The number of currencies in the table.
+         * @param days       The number of days in the table.
+         * @param firstDay   The epoch day of the first day in the table.
+         * @param missing    The codes of the currencies without any rates.
+         */
+        private Conversion(String currency, double[] factors, int currencies, int days, long firstDay, List<String> missing) {
+            this.currency = currency;
+            this.factors = factors;
+            this.currencies = currencies;
+            this.days = days;
+            this.firstDay = firstDay;
+            this.missing = Collections.unmodifiableList(missing);
+        }
+
+        /**
+         * Converts an amount into the reporting currency at the rate of a day. Days before or after the table use
+         * its first or last day; currencies without rates, or newer than the table, are not converted.
+         *
+         * @param amount   The amount.
+         * @param currency The index of the currency the amount is in.
+         * @param epochDay The day, as an epoch day.
+         * @return The amount in the reporting currency.
+         */
+        public double convert(double amount, int currency, long epochDay) {
+            if (currency >= currencies) {
+                return amount;
+            }
+            int day = (int) Math.min(Math.max(epochDay - firstDay, 0), days - 1);
+            return amount * factors[currency * days + day];
+        }
+
+        /**
+         * Converts the amount of a transaction into the reporting currency at the rate of the transaction's day.
+         *
+         * @param transaction The transaction.
+         * @return The amount in the reporting currency.
+         */
+        public double convert(Transaction transaction) {
+            return convert(transaction.getAmount(), transaction.getCurrencyIndex(), transaction.getCreatedDate().toEpochDay());
+        }
+
+        /**
+         * Gets the reporting currency.
+         *
+         * @return The currency code.
+         */
+        public String getCurrency() {
+            return currency;
+        }
+
+        /**
+         * Gets the currencies that have no rates, whose amounts are left unconverted.
+         *
+         * @return A read-only list of currency codes.
+         */
+        public List<String> getMissingCurrencies() {
+            return missing;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event emitted when a graph is generated, recording the filter and how much data it covered.
+ */
+@Name("expensetracker.Graph")
+@Label("Graph Generation")
+@Description("Aggregating and printing a graph of expenses and incomes")
+@Category({"Expense Tracker", "Graph"})
+@StackTrace(false)
+class GraphEvent extends Event {
+    @Label("Time Range")
+    String timeRange;
+
+    @Label("Filter By Category")
+    boolean filterByCategory;
+
+    @Label("Category ID")
+    int categoryId;
+
+    @Label("Expenses Scanned")
+    long expenses;
+
+    @Label("Incomes Scanned")
+    long incomes;
+
+    @Label("Days Shown")
+    long days;
+}
@@ -1,14 +1,29 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.text.DecimalFormatSymbols;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Handles user interface and graph generation.
  */
 public class GraphUI {
+    /**
+     * The number of blocks in the longest bar.
+     */
+    private static final int BAR_WIDTH = 30;
+    private static final String[] EXPENSE_BARS = bars("\uD83D\uDFE5");
+    private static final String[] INCOME_BARS = bars("\uD83D\uDFE9");
+
     private final Scanner scanner;
     private final ExpenseManager expenseManager;
     private final IncomeManager incomeManager;
     private final CategoryManager categoryManager;
+    private Locale separatorLocale;
+    private char decimalSeparator;
 
     /**
      * Constructs a new GraphUI object with the given managers.
@@ -18,7 +33,29 @@ public class GraphUI {
      * @param incomeManager   The income manager.
      */
     public GraphUI(CategoryManager categoryManager, ExpenseManager expenseManager, IncomeManager incomeManager) {
-        scanner = new Scanner(System.in);
+        this(categoryManager, expenseManager, incomeManager, new Scanner(System.in));
+    }
+
+    /**
+     * Constructs a new GraphUI object that only draws graphs of the saved ledgers, with
+     * {@link #generateSavedGraph}, without loading them. Its menu cannot be used.
+     *
+     * @param categoryManager The category manager.
+     */
+    public GraphUI(CategoryManager categoryManager) {
+        this(categoryManager, null, null, null);
+    }
+
+    /**
+     * Constructs a new GraphUI object with the given managers that reads user input from the given scanner.
+     *
+     * @param categoryManager The category manager.
+     * @param expenseManager  The expense manager.
+     * @param incomeManager   The income manager.
+     * @param scanner         The scanner shared with the rest of the console UI.
+     */
+    public GraphUI(CategoryManager categoryManager, ExpenseManager expenseManager, IncomeManager incomeManager, Scanner scanner) {
+        this.scanner = scanner;
         this.categoryManager = categoryManager;
         this.expenseManager = expenseManager;
         this.incomeManager = incomeManager;
@@ -28,7 +65,8 @@ public class GraphUI {
      * Displays the graph menu and handles user input.
      */
     public void menu() {
-        if(expenseManager.getExpenses().isEmpty() && incomeManager.getIncomes().isEmpty()){
+        if(expenseManager.getExpenses().isEmpty() && incomeManager.getIncomes().isEmpty()
+                && expenseManager.getArchive().size() == 0 && incomeManager.getArchive().size() == 0){
             CONSOLETEXT.printWarning("Couldn't find any income or expense yet.");
             return;
         }
@@ -50,6 +88,9 @@ public class GraphUI {
                 case 5:
                     backToMainMenu = true;
                     break;
+                case 6:
+                    exportReport();
+                    break;
                 default:
                     CONSOLETEXT.printError("Invalid choice. Please try again.");
                     return;
@@ -67,6 +108,7 @@ public class GraphUI {
         System.out.println("|                                                           📊  Graph Menu                                                           |");
         System.out.println("|                                                                                                                                    |");
         System.out.println("|   \uD83D\uDCC5 Daily Graph (1)     \uD83D\uDCC6 Weekly Graph (2)      \uD83D\uDDD3\uFE0F Monthly Graph (3)     \uD83D\uDCC5  All Time Graph (4)     ⬅\uFE0F Back to Main Menu (5)    |");
+        System.out.println("|   \uD83D\uDCBE Export Report (6)                                                                                                             |");
         System.out.println("*------------------------------------------------------------------------------------------------------------------------------------*");
     }
 
@@ -82,6 +124,69 @@ public class GraphUI {
         processGraphData(timeRange, filterByCategory, categoryId);
     }
 
+    /**
+     * Exports the transactions or graph totals of a time range to a CSV or JSON file.
+     */
+    private void exportReport() {
+        int reportChoice;
+        while (true) {
+            System.out.print("Export Expenses (1), Incomes (2) or Graph Totals (3): ");
+            reportChoice = scanner.nextInt();
+            scanner.nextLine();
+            if (reportChoice >= 1 && reportChoice <= 3) {
+                break;
+            }
+            CONSOLETEXT.printError("Invalid choice, Please try again: ");
+        }
+        ReportExporter.Format format;
+        while (true) {
+            System.out.print("Format (CSV/JSON): ");
+            try {
+                format = ReportExporter.Format.parse(scanner.nextLine().strip());
+                break;
+            } catch (IllegalArgumentException e) {
+                CONSOLETEXT.printError(e.getMessage());
+            }
+        }
+        int timeChoice;
+        while (true) {
+            System.out.print("Daily (1), Weekly (2), Monthly (3) or All Time (4): ");
+            timeChoice = scanner.nextInt();
+            scanner.nextLine();
+            if (timeChoice >= 1 && timeChoice <= 4) {
+                break;
+            }
+            CONSOLETEXT.printError("Invalid choice, Please try again: ");
+        }
+        String timeRange = getTimeRange(timeChoice);
+        boolean filterByCategory = promptFilterByCategory();
+        int categoryId = getCategoryID(filterByCategory);
+        String report = reportChoice == 1 ? "expenses" : reportChoice == 2 ? "incomes" : "graph";
+        String defaultName = report + "." + format.name().toLowerCase();
+        System.out.print("File name (" + defaultName + "): ");
+        String fileName = scanner.nextLine().strip();
+        Path file = Path.of(fileName.isEmpty() ? defaultName : fileName);
+
+        CategoryTree tree = categoryManager.getTree();
+        CategoryTree.Subtree categories = filterByCategory ? tree.subtree(categoryId) : null;
+        try {
+            long rows = switch (reportChoice) {
+                case 1 -> ReportExporter.exportTransactions(file, format, expenseManager.getExpenses(),
+                        expenseManager.getArchive(), timeRange, categories);
+                case 2 -> ReportExporter.exportTransactions(file, format, incomeManager.getIncomes(),
+                        incomeManager.getArchive(), timeRange, categories);
+                default -> ReportExporter.exportTotals(file, format, aggregate(expenseManager.getExpenses(),
+                        incomeManager.getIncomes(), expenseManager.getArchive(), incomeManager.getArchive(), timeRange,
+                        filterByCategory, categoryId, tree, FxRates.shared().toReportingCurrency()));
+            };
+            CONSOLETEXT.printSuccess("Exported " + rows + " rows to " + file + ".");
+        } catch (IllegalArgumentException e) {
+            CONSOLETEXT.printError(e.getMessage());
+        } catch (IOException e) {
+            CONSOLETEXT.printError("Error exporting report to " + file + ".");
+        }
+    }
+
     /**
      * Prompts the user to filter the graph by category.
      *
@@ -136,7 +241,8 @@ public class GraphUI {
         List<Income> incomes = incomeManager.getIncomes();
 
         // Generate and display the graph
-        generateGraph(expenses, incomes, timeRange, filterByCategory, categoryId);
+        generateGraph(expenses, incomes, expenseManager.getArchive(), incomeManager.getArchive(), timeRange,
+                filterByCategory, categoryId);
     }
 
     /**
@@ -144,72 +250,224 @@ public class GraphUI {
      *
      * @param expenses        The list of expenses.
      * @param incomes         The list of incomes.
+     * @param expenseArchive  The archived expenses, or null for none.
+     * @param incomeArchive   The archived incomes, or null for none.
      * @param timeRange       The selected time range.
      * @param filterByCategory True if filtering by category, false otherwise.
      * @param categoryId      The category ID if filtering by category.
      */
-    public void generateGraph(List<Expense> expenses, List<Income> incomes, String timeRange, boolean filterByCategory, int categoryId) {
+    public void generateGraph(List<Expense> expenses, List<Income> incomes,
+                              TransactionArchive<Expense> expenseArchive, TransactionArchive<Income> incomeArchive,
+                              String timeRange, boolean filterByCategory, int categoryId) {
+        long start = System.nanoTime();
+        GraphEvent event = new GraphEvent();
+        event.begin();
         System.out.println();
 
-        // Create a Set to store all unique dates from both expenses and incomes
-        Set<LocalDate> allDates = new HashSet<>();
-
-        // Create a HashMap to store both expenses and incomes by date
-        Map<LocalDate, Double> expenseMap = new LinkedHashMap<>();
-        Map<LocalDate, Double> incomeMap = new LinkedHashMap<>();
-
-        // Add expenses to the expense map
-        for (Expense expense : expenses) {
-            if (!filterByCategory || expense.getCategoryId() == categoryId) {
-                if (isInRange(expense.getCreatedDate(), timeRange)) {
-                    allDates.add(expense.getCreatedDate());
-                    expenseMap.merge(expense.getCreatedDate(), expense.getAmount(), Double::sum);
-                }
-            }
+        FxRates.Conversion conversion;
+        try {
+            conversion = FxRates.shared().toReportingCurrency();
+        } catch (IllegalArgumentException e) {
+            CONSOLETEXT.printError(e.getMessage());
+            return;
         }
-
-        // Add incomes to the income map
-        for (Income income : incomes) {
-            if (!filterByCategory || income.getCategoryId() == categoryId) {
-                if (isInRange(income.getCreatedDate(), timeRange)) {
-                    allDates.add(income.getCreatedDate());
-                    incomeMap.merge(income.getCreatedDate(), income.getAmount(), Double::sum);
-                }
-            }
+        if (!conversion.getMissingCurrencies().isEmpty()) {
+            CONSOLETEXT.printWarning("No exchange rates for " + String.join(", ", conversion.getMissingCurrencies())
+                    + "; those amounts are shown unconverted.");
         }
+        List<DailyTotal> totals = aggregate(expenses, incomes, expenseArchive, incomeArchive, timeRange,
+                filterByCategory, categoryId, categoryManager.getTree(), conversion);
 
-        // Determine maximum transaction amount
-        double maxExpense = expenseMap.values().stream().mapToDouble(Math::abs).max().orElse(0.0);
-        double maxIncome = incomeMap.values().stream().mapToDouble(Math::abs).max().orElse(0.0);
-        double maxTransaction = Math.max(maxExpense, maxIncome);
+        char separator = getDecimalSeparator();
 
-        // Sorting allDates:
-        List<LocalDate> sortedDates = new ArrayList<>(allDates);
-        Collections.sort(sortedDates);
+        // Determine maximum transaction amount
+        double maxTransaction = 0.0;
+        for (DailyTotal total : totals) {
+            maxTransaction = Math.max(maxTransaction, Math.max(Math.abs(total.getExpense()), Math.abs(total.getIncome())));
+        }
 
-        for (LocalDate date : sortedDates) {
-            double expenseAmount = expenseMap.getOrDefault(date, 0.0);
-            double incomeAmount = incomeMap.getOrDefault(date, 0.0);
+        for (DailyTotal total : totals) {
+            double expenseAmount = total.getExpense();
+            double incomeAmount = total.getIncome();
 
             // Print date
-            System.out.println(date + (filterByCategory ? categoryManager.getCategoryName(categoryId) : ""));
+            System.out.println(total.getDate() + (filterByCategory ? categoryManager.getCategoryName(categoryId) : ""));
 
             // Print expense and income bars (if applicable)
             if (maxTransaction > 0) {
-                int expenseBarLength = (int) (Math.abs(expenseAmount) / maxTransaction * 30);
-                int incomeBarLength = (int) (Math.abs(incomeAmount) / maxTransaction * 30);
+                int expenseBarLength = (int) (Math.abs(expenseAmount) / maxTransaction * BAR_WIDTH);
+                int incomeBarLength = (int) (Math.abs(incomeAmount) / maxTransaction * BAR_WIDTH);
                 if (expenseBarLength > 0) {
-                    String expenseBar = "\uD83D\uDFE5".repeat(expenseBarLength);
-                    System.out.printf("%-20s | %s%n", formatAmount("Expense : ", expenseAmount), expenseBar);
+                    printBar("Expense : ", expenseAmount, separator, EXPENSE_BARS[expenseBarLength]);
                 }
                 if (incomeBarLength > 0) {
-                    String incomeBar = "\uD83D\uDFE9".repeat(incomeBarLength);
-                    System.out.printf("%-20s | %s%n", formatAmount("Income : ", incomeAmount), incomeBar);
+                    printBar("Income : ", incomeAmount, separator, INCOME_BARS[incomeBarLength]);
                 }
             }
 
             System.out.println();
         }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.timeRange = timeRange;
+            event.filterByCategory = filterByCategory;
+            event.categoryId = categoryId;
+            event.expenses = expenses.size();
+            event.incomes = incomes.size();
+            event.days = totals.size();
+            event.commit();
+        }
+        Metrics.histogram("graph_seconds", "range=\"" + timeRange.toLowerCase() + "\"", "Latency of generating a graph.")
+                .recordSince(start);
+    }
+
+    /**
+     * Generates and displays the graph of the saved expenses and incomes without loading the ledgers. Only the
+     * shards whose dates overlap the time range are read, and only the archive segments that do are decompressed.
+     *
+     * @param timeRange       The selected time range.
+     * @param filterByCategory True if filtering by category, false otherwise.
+     * @param categoryId      The category ID if filtering by category.
+     * @throws IOException If a shard cannot be read.
+     */
+    public void generateSavedGraph(String timeRange, boolean filterByCategory, int categoryId) throws IOException {
+        LocalDate[] bounds = getBounds(timeRange, LocalDate.now());
+        if (bounds == null) {
+            return;
+        }
+        generateGraph(ExpenseManager.readExpensesBetween(bounds[0], bounds[1]),
+                IncomeManager.readIncomesBetween(bounds[0], bounds[1]), ExpenseManager.openArchive(),
+                IncomeManager.openArchive(), timeRange, filterByCategory, categoryId);
+    }
+
+    /**
+     * Aggregates expenses and incomes into per-day totals, sorted by date.
+     *
+     * @param expenses        The list of expenses.
+     * @param incomes         The list of incomes.
+     * @param timeRange       The selected time range.
+     * @param filterByCategory True if filtering by category, false otherwise.
+     * @param categoryId      The category ID if filtering by category.
+     * @return The daily totals of the days that have at least one matching transaction.
+     */
+    public static List<DailyTotal> aggregate(List<Expense> expenses, List<Income> incomes, String timeRange, boolean filterByCategory, int categoryId) {
+        return aggregate(expenses, incomes, null, null, timeRange, filterByCategory, categoryId);
+    }
+
+    /**
+     * Aggregates expenses and incomes, including the archived ones, into per-day totals in the reporting currency,
+     * sorted by date.
+     *
+     * @param expenses        The list of expenses.
+     * @param incomes         The list of incomes.
+     * @param expenseArchive  The archived expenses, or null for none.
+     * @param incomeArchive   The archived incomes, or null for none.
+     * @param timeRange       The selected time range.
+     * @param filterByCategory True if filtering by category, false otherwise.
+     * @param categoryId      The category ID if filtering by category.
+     * @return The daily totals of the days that have at least one matching transaction.
+     * @throws IllegalArgumentException If there are no exchange rates for the reporting currency.
+     */
+    public static List<DailyTotal> aggregate(List<Expense> expenses, List<Income> incomes,
+                                             TransactionArchive<Expense> expenseArchive, TransactionArchive<Income> incomeArchive,
+                                             String timeRange, boolean filterByCategory, int categoryId) {
+        return aggregate(expenses, incomes, expenseArchive, incomeArchive, timeRange, filterByCategory, categoryId, null,
+                FxRates.shared().toReportingCurrency());
+    }
+
+    /**
+     * Aggregates expenses and incomes, including the archived ones, into per-day totals, sorted by date.
+     * Filtering by a category includes its subcategories, checked with a range test on the category tree.
+     * Archive segments outside the time range or without the filtered categories are not decompressed.
+     * Every amount is converted with a single read from the conversion table.
+     *
+     * @param expenses        The list of expenses.
+     * @param incomes         The list of incomes.
+     * @param expenseArchive  The archived expenses, or null for none.
+     * @param incomeArchive   The archived incomes, or null for none.
+     * @param timeRange       The selected time range.
+     * @param filterByCategory True if filtering by category, false otherwise.
+     * @param categoryId      The category ID if filtering by category.
+     * @param categories      The category tree, or null to filter by the category alone.
+     * @param conversion      Converts the amounts into the reporting currency.
+     * @return The daily totals of the days that have at least one matching transaction.
+     */
+    public static List<DailyTotal> aggregate(List<Expense> expenses, List<Income> incomes,
+                                             TransactionArchive<Expense> expenseArchive, TransactionArchive<Income> incomeArchive,
+                                             String timeRange, boolean filterByCategory, int categoryId,
+                                             CategoryTree categories, FxRates.Conversion conversion) {
+        // Store both expenses and incomes by date, sorted by date
+        DailyTotals totals = new DailyTotals();
+        // The range is resolved once, as reading the clock for every row allocates
+        LocalDate[] bounds = getBounds(timeRange, LocalDate.now());
+        if (bounds == null) {
+            return new ArrayList<>();
+        }
+        LocalDate from = bounds[0];
+        LocalDate to = bounds[1];
+
+        CategoryTree.Subtree filter = !filterByCategory ? null
+                : categories != null ? categories.subtree(categoryId) : CategoryTree.Subtree.of(categoryId);
+
+        // Add archived transactions, decompressing only the segments that may match
+        if (expenseArchive != null) {
+            expenseArchive.forEach(from, to, filter,
+                    expense -> totals.get(expense.getCreatedDate()).addExpense(convert(conversion, expense)));
+        }
+        if (incomeArchive != null) {
+            incomeArchive.forEach(from, to, filter,
+                    income -> totals.get(income.getCreatedDate()).addIncome(convert(conversion, income)));
+        }
+
+        // Add expenses to the totals
+        forEachBetween(expenses, from, to, expense -> {
+            if (filter == null || filter.contains(expense.getCategoryId())) {
+                totals.get(expense.getCreatedDate()).addExpense(convert(conversion, expense));
+            }
+        });
+
+        // Add incomes to the totals
+        forEachBetween(incomes, from, to, income -> {
+            if (filter == null || filter.contains(income.getCategoryId())) {
+                totals.get(income.getCreatedDate()).addIncome(convert(conversion, income));
+            }
+        });
+
+        return new ArrayList<>(totals.byDate.values());
+    }
+
+    /**
+     * The daily totals of a graph being aggregated. Ledgers are mostly in date order, so the total of the
+     * previous row is reused while the date repeats, and the sorted map is only searched when the date changes.
+     */
+    private static final class DailyTotals {
+        private final Map<LocalDate, DailyTotal> byDate = new TreeMap<>();
+        private DailyTotal last;
+
+        /**
+         * Gets the total of a day, adding it if it is not there yet.
+         *
+         * @param date The date.
+         * @return The total of the day.
+         */
+        DailyTotal get(LocalDate date) {
+            if (last == null || !last.getDate().equals(date)) {
+                last = byDate.computeIfAbsent(date, DailyTotal::new);
+            }
+            return last;
+        }
+    }
+
+    /**
+     * Gets the amount of a transaction in the reporting currency.
+     *
+     * @param conversion  Converts the amount into the reporting currency.
+     * @param transaction The transaction.
+     * @return The converted amount.
+     */
+    private static double convert(FxRates.Conversion conversion, Transaction transaction) {
+        return conversion.convert(transaction.getAmount(), transaction.getCurrencyIndex(), transaction.getCreatedDate().toEpochDay());
     }
 
 
@@ -230,44 +488,151 @@ public class GraphUI {
     }
 
     /**
-     * Checks if a given date falls within the specified time range.
+     * Checks if a time range name is one understood by {@link #getBounds(String, LocalDate)}.
+     *
+     * @param timeRange The time range (daily, weekly, monthly, or total).
+     * @return True if the time range is known, false otherwise.
+     */
+    static boolean isValidTimeRange(String timeRange) {
+        return switch (timeRange.toLowerCase()) {
+            case "daily", "weekly", "monthly", "total" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Gets the first and last day of a time range.
      *
-     * @param date      The date to check.
      * @param timeRange The time range (daily, weekly, monthly, or total).
-     * @return True if the date falls within the time range, false otherwise.
+     * @param today     The current date.
+     * @return The first and last day, both null for the total range, or null if the time range is invalid.
      */
-    private static boolean isInRange(LocalDate date, String timeRange) {
-        LocalDate currentDate = LocalDate.now();
+    static LocalDate[] getBounds(String timeRange, LocalDate today) {
         switch (timeRange.toLowerCase()) {
             case "daily":
-                return date.equals(currentDate);
+                return new LocalDate[]{today, today};
             case "weekly":
-                LocalDate startOfWeek = currentDate.minusDays(currentDate.getDayOfWeek().getValue() - 1);
-                LocalDate endOfWeek = startOfWeek.plusDays(6);
-                return !date.isBefore(startOfWeek) && !date.isAfter(endOfWeek);
+                LocalDate startOfWeek = today.minusDays(today.getDayOfWeek().getValue() - 1);
+                return new LocalDate[]{startOfWeek, startOfWeek.plusDays(6)};
             case "monthly":
-                LocalDate startOfMonth = currentDate.withDayOfMonth(1);
-                LocalDate endOfMonth = startOfMonth.plusMonths(1).minusDays(1);
-                return !date.isBefore(startOfMonth) && !date.isAfter(endOfMonth);
+                LocalDate startOfMonth = today.withDayOfMonth(1);
+                return new LocalDate[]{startOfMonth, startOfMonth.plusMonths(1).minusDays(1)};
             case "total":
                 // All dates are within the total time range
-                return true;
+                return new LocalDate[]{null, null};
             default:
                 // Invalid time range
-                return false;
+                return null;
+        }
+    }
+
+    /**
+     * Performs an action for each transaction created between two days. For a snapshot, only the chunks whose
+     * dates overlap the range are read.
+     *
+     * @param transactions The transactions.
+     * @param from         The first day, or null for no bounds.
+     * @param to           The last day, or null for no bounds.
+     * @param action       The action to perform.
+     * @param <T>          The type of transaction.
+     */
+    static <T extends Transaction> void forEachBetween(List<T> transactions, LocalDate from, LocalDate to, Consumer<? super T> action) {
+        if (transactions instanceof TransactionSnapshot<T> snapshot) {
+            snapshot.forEachBetween(from, to, action);
+            return;
+        }
+        for (T transaction : transactions) {
+            if (isBetween(transaction.getCreatedDate(), from, to)) {
+                action.accept(transaction);
+            }
+        }
+    }
+
+    /**
+     * Checks if a date falls between two days, inclusive.
+     *
+     * @param date The date to check.
+     * @param from The first day, or null for no bounds.
+     * @param to   The last day, or null for no bounds.
+     * @return True if the date falls between the two days, false otherwise.
+     */
+    private static boolean isBetween(LocalDate date, LocalDate from, LocalDate to) {
+        return from == null || (!date.isBefore(from) && !date.isAfter(to));
+    }
+
+
+    /**
+     * Builds the bars of every length up to the full width out of a character block.
+     *
+     * @param block The character block the bars are drawn with.
+     * @return The bars, indexed by their number of blocks.
+     */
+    private static String[] bars(String block) {
+        String[] bars = new String[BAR_WIDTH + 1];
+        for (int length = 0; length <= BAR_WIDTH; length++) {
+            bars[length] = block.repeat(length);
         }
+        return bars;
     }
 
+    /**
+     * Gets the decimal separator of the default locale, looking it up again only when the locale changes,
+     * where {@code String.format} would look it up for every amount.
+     *
+     * @return The decimal separator.
+     */
+    private char getDecimalSeparator() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        if (!locale.equals(separatorLocale)) {
+            decimalSeparator = DecimalFormatSymbols.getInstance(locale).getDecimalSeparator();
+            separatorLocale = locale;
+        }
+        return decimalSeparator;
+    }
 
     /**
-     * Formats the amount with the given label.
+     * Prints one bar of the graph after its label and amount, padded like {@code %-20s}. The label is printed
+     * apart from the bar, so it is not widened to two bytes per character by the blocks.
      *
-     * @param label  The label for the amount.
-     * @param amount The amount to be formatted.
-     * @return The formatted amount with the label.
+     * @param label     The label of the bar.
+     * @param amount    The amount of the bar.
+     * @param separator The decimal separator of the default locale.
+     * @param bar       The bar.
      */
-    private String formatAmount(String label, double amount) {
-        return label + String.format("%.2f", amount);
+    private static void printBar(String label, double amount, char separator, String bar) {
+        StringBuilder line = new StringBuilder(40).append(label);
+        appendAmount(line, amount, separator);
+        while (line.length() < 20) {
+            line.append(' ');
+        }
+        System.out.print(line.append(" | "));
+        System.out.println(bar);
+    }
+
+    /**
+     * Appends an amount rounded to two decimals, the same as {@code %.2f}. Unless the amount is negative, very
+     * large, or close to halfway between two cents, the rounded cents decide the digits without a
+     * {@link BigDecimal}, as the shortest decimal that {@code %.2f} rounds is then on the same side of the half.
+     *
+     * @param line      The line to append to.
+     * @param amount    The amount.
+     * @param separator The decimal separator of the default locale.
+     */
+    private static void appendAmount(StringBuilder line, double amount, char separator) {
+        if (!Double.isFinite(amount)) {
+            line.append(amount);
+            return;
+        }
+        double cents = amount * 100;
+        if (amount >= 0 && amount < 1e9 && Math.abs(cents - Math.floor(cents) - 0.5) > 1e-3) {
+            long rounded = Math.round(cents);
+            long fraction = rounded % 100;
+            line.append(rounded / 100).append(separator).append(fraction < 10 ? "0" : "").append(fraction);
+            return;
+        }
+        int start = line.length();
+        line.append(BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).toPlainString());
+        line.setCharAt(line.indexOf(".", start), separator);
     }
 
 }
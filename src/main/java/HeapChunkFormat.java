@@ -0,0 +1,46 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the transactions of each chunk as objects in an array on the Java heap.
+ *
+ * @param <T> The type of transaction.
+ */
+public class HeapChunkFormat<T extends Transaction> implements ChunkFormat<T> {
+    @Override
+    public Object newChunk(int capacity) {
+        return new Object[capacity];
+    }
+
+    @Override
+    public Object copyChunk(Object chunk, int capacity) {
+        return Arrays.copyOf((Object[]) chunk, capacity);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(Object chunk, int index) {
+        return (T) ((Object[]) chunk)[index];
+    }
+
+    @Override
+    public int getId(Object chunk, int index) {
+        return ((Transaction) ((Object[]) chunk)[index]).getId();
+    }
+
+    @Override
+    public void set(Object chunk, int index, T transaction) {
+        ((Object[]) chunk)[index] = transaction;
+    }
+
+    @Override
+    public void delete(Object chunk, int index, int size) {
+        Object[] transactions = (Object[]) chunk;
+        System.arraycopy(transactions, index + 1, transactions, index, size - index - 1);
+        transactions[size - 1] = null;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return false;
+    }
+}
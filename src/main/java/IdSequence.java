@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out monotonically increasing IDs for a ledger, safely across threads and sessions.
+ * <p>
+ * IDs are taken from an atomic counter without locking. The counter may only run up to a reserved high-water
+ * mark, which is persisted to a small sequence file before any ID below it is handed out, and is extended a
+ * whole block at a time. The counter and the mark are packed into one atomic word, so a thread taking IDs and a
+ * thread moving the mark always agree on both. IDs are therefore never reused, even after the last row is deleted or the process
+ * crashes; at worst the rest of a reserved block is skipped. Saving checkpoints the exact next ID.
+ * <p>
+ * Processes working on the same ledger share the sequence file. Before reserving a new block, a process reads the
+ * high-water mark and continues after any IDs another process reserved in the meantime, and it only gives back the
+ * unused rest of its block while no other process has reserved after it. The file is not locked, so two processes
+ * reserving at the same instant can still take the same IDs; merging the ledger file renumbers such rows.
+ */
+public class IdSequence {
+    private static final int DEFAULT_BLOCK_SIZE = 1000;
+    private static final int TAIL_BYTES = 4096;
+
+    private final Path sequenceFile;
+    private final int blockSize;
+    // The next ID in the upper 32 bits and the exclusive high-water mark in the lower 32 bits
+    private final AtomicLong state;
+
+    /**
+     * Constructs an IdSequence that starts after the given high-water mark.
+     *
+     * @param sequenceFile The file the high-water mark is persisted to.
+     * @param start        The first ID to hand out.
+     * @param blockSize    How many IDs to reserve at a time.
+     */
+    private IdSequence(Path sequenceFile, long start, int blockSize) {
+        this.sequenceFile = sequenceFile;
+        this.blockSize = blockSize;
+        state = new AtomicLong(pack(start, start));
+    }
+
+    /**
+     * Opens the sequence of a ledger. The high-water mark is read from the sequence file; if that is missing or
+     * behind the ledger, it is recovered from the last row of the ledger file without reading the rest of it.
+     *
+     * @param sequenceFile The file the high-water mark is persisted to.
+     * @param ledgerFile   The ledger file whose rows start with their ID.
+     * @return The sequence.
+     */
+    public static IdSequence open(Path sequenceFile, Path ledgerFile) {
+        return open(sequenceFile, readLastId(ledgerFile));
+    }
+
+    /**
+     * Opens the sequence of a ledger whose highest ID is known, for example from the manifest of its shards. The
+     * high-water mark is read from the sequence file; if that is missing or behind the ledger, it continues after
+     * the highest ID.
+     *
+     * @param sequenceFile The file the high-water mark is persisted to.
+     * @param lastId       The highest ID in the ledger, or 0 if it is empty.
+     * @return The sequence.
+     */
+    public static IdSequence open(Path sequenceFile, int lastId) {
+        long start = Math.max(readHighWaterMark(sequenceFile), lastId + 1L);
+        return new IdSequence(sequenceFile, Math.max(start, 1), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Takes the next ID.
+     *
+     * @return The ID.
+     */
+    public int next() {
+        return reserve(1);
+    }
+
+    /**
+     * Reserves a contiguous range of IDs, for example for a bulk import.
+     *
+     * @param count The number of IDs to reserve.
+     * @return The first ID of the range.
+     */
+    public int reserve(int count) {
+        while (true) {
+            long current = state.get();
+            long first = next(current);
+            long end = first + count;
+            if (end > limit(current)) {
+                extendTo(end, count);
+            } else if (state.compareAndSet(current, pack(end, limit(current)))) {
+                return Math.toIntExact(first);
+            }
+        }
+    }
+
+    /**
+     * Makes sure no ID below the given one is handed out again, for example after rows were loaded from a
+     * ledger file that was edited elsewhere.
+     *
+     * @param id The highest ID known to be in use.
+     */
+    public void advancePast(int id) {
+        state.getAndUpdate(current -> next(current) > id ? current : pack(id + 1L, limit(current)));
+    }
+
+    /**
+     * Persists the exact next ID, giving back the unused part of the reserved block, so that the next session
+     * continues without a gap. Threads may keep taking IDs meanwhile: the mark is lowered to the next ID in the same
+     * atomic step that reads it, so any ID taken afterwards first extends the mark again.
+     */
+    public synchronized void checkpoint() {
+        long current = state.get();
+        // Only this method and extendTo move the mark, and both hold the lock, so it cannot change in the loop
+        if (readHighWaterMark(sequenceFile) != limit(current)) {
+            return;
+        }
+        while (next(current) < limit(current)) {
+            if (state.compareAndSet(current, pack(next(current), next(current)))) {
+                persist(next(current));
+                return;
+            }
+            current = state.get();
+        }
+    }
+
+    /**
+     * Persists a new high-water mark covering the given end of range plus a block of spare IDs.
+     *
+     * @param end   The exclusive end of the range about to be handed out.
+     * @param count The number of IDs in the range.
+     */
+    private synchronized void extendTo(long end, int count) {
+        long current = state.get();
+        if (end <= limit(current)) {
+            return;
+        }
+        long shared = readHighWaterMark(sequenceFile);
+        // If another process reserved the IDs up to its mark, continue after them
+        long floor = shared > limit(current) ? shared : 0;
+        if (floor > 0) {
+            end = Math.max(end, Math.max(next(current), floor) + count);
+        }
+        long newLimit = end + blockSize;
+        persist(newLimit);
+        while (!state.compareAndSet(current, pack(Math.max(next(current), floor), newLimit))) {
+            current = state.get();
+        }
+    }
+
+    /**
+     * Packs the next ID and the high-water mark into one word.
+     *
+     * @param next  The next ID.
+     * @param limit The high-water mark.
+     * @return The packed state.
+     */
+    private static long pack(long next, long limit) {
+        return next << 32 | limit;
+    }
+
+    /**
+     * Gets the next ID of a packed state.
+     *
+     * @param state The packed state.
+     * @return The next ID.
+     */
+    private static long next(long state) {
+        return state >>> 32;
+    }
+
+    /**
+     * Gets the high-water mark of a packed state.
+     *
+     * @param state The packed state.
+     * @return The high-water mark.
+     */
+    private static long limit(long state) {
+        return state & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Atomically replaces the sequence file with a new high-water mark.
+     *
+     * @param highWaterMark The first ID that has not been handed out.
+     */
+    private void persist(long highWaterMark) {
+        try {
+            Path temp = sequenceFile.resolveSibling(sequenceFile.getFileName() + ".tmp");
+            Files.writeString(temp, Long.toString(highWaterMark), StandardCharsets.UTF_8);
+            Files.move(temp, sequenceFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            CONSOLETEXT.printError("Error saving ID sequence to file");
+        }
+    }
+
+    /**
+     * Reads the persisted high-water mark.
+     *
+     * @param sequenceFile The sequence file.
+     * @return The high-water mark, or 0 if there is none.
+     */
+    private static long readHighWaterMark(Path sequenceFile) {
+        try {
+            return Long.parseLong(Files.readString(sequenceFile, StandardCharsets.UTF_8).strip());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the ID of the last row of a ledger file by looking only at the end of the file.
+     *
+     * @param ledgerFile The ledger file.
+     * @return The last ID, or 0 if the file is missing, empty or its last row has no ID.
+     */
+    static int readLastId(Path ledgerFile) {
+        try (RandomAccessFile file = new RandomAccessFile(ledgerFile.toFile(), "r")) {
+            long length = file.length();
+            int size = (int) Math.min(length, TAIL_BYTES);
+            byte[] tail = new byte[size];
+            file.seek(length - size);
+            file.readFully(tail);
+            int end = size;
+            while (end > 0 && (tail[end - 1] == '\n' || tail[end - 1] == '\r')) {
+                end--;
+            }
+            int start = end;
+            while (start > 0 && tail[start - 1] != '\n') {
+                start--;
+            }
+            int id = 0;
+            for (int i = start; i < end && tail[i] != ','; i++) {
+                if (tail[i] < '0' || tail[i] > '9') {
+                    return 0;
+                }
+                id = id * 10 + (tail[i] - '0');
+            }
+            return id;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
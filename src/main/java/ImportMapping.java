@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Describes how the columns of a bank statement map to incomes and expenses.
+ * <p>
+ * A mapping is read from a properties file with the following keys:
+ * <pre>
+ * delimiter=,                  field delimiter (default ,)
+ * header=true                  whether the first line is a header (default true)
+ * date.column=0                zero-based column of the date (required)
+ * date.format=yyyy-MM-dd       pattern of the date (default yyyy-MM-dd)
+ * description.column=1         column of the description (required)
+ * amount.column=2              column of the amount (required)
+ * category.column=3            column of the category ID (optional)
+ * category.default=1           category ID used when there is no category column or it is empty
+ * type.column=4                column telling incomes from expenses (optional)
+ * type.income=CR               value of the type column that marks an income (default CR)
+ * currency.column=5            column of the currency code (optional)
+ * currency.default=EUR         currency used when there is no currency column or it is empty (default: base currency)
+ * </pre>
+ * Without a type column, negative amounts are imported as expenses and positive amounts as incomes.
+ */
+public class ImportMapping {
+    private char delimiter = ',';
+    private boolean header = true;
+    private int dateColumn = -1;
+    private DateTimeFormatter dateFormat = DateTimeFormatter.ISO_LOCAL_DATE;
+    private int descriptionColumn = -1;
+    private int amountColumn = -1;
+    private int categoryColumn = -1;
+    private int defaultCategoryId;
+    private int typeColumn = -1;
+    private String incomeType = "CR";
+    private int currencyColumn = -1;
+    private String defaultCurrency;
+
+    /**
+     * Loads a mapping from a properties file.
+     *
+     * @param file The properties file.
+     * @return The loaded mapping.
+     * @throws IOException              If the file cannot be read.
+     * @throws IllegalArgumentException If a required key is missing or a value is invalid.
+     */
+    public static ImportMapping load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        ImportMapping mapping = new ImportMapping();
+        String delimiter = properties.getProperty("delimiter", ",");
+        if (delimiter.equals("\\t") || delimiter.equals("tab")) {
+            delimiter = "\t";
+        }
+        if (delimiter.length() != 1) {
+            throw new IllegalArgumentException("The delimiter must be a single character.");
+        }
+        mapping.delimiter = delimiter.charAt(0);
+        mapping.header = Boolean.parseBoolean(properties.getProperty("header", "true"));
+        mapping.dateColumn = requiredColumn(properties, "date.column");
+        mapping.dateFormat = DateTimeFormatter.ofPattern(properties.getProperty("date.format", "yyyy-MM-dd"));
+        mapping.descriptionColumn = requiredColumn(properties, "description.column");
+        mapping.amountColumn = requiredColumn(properties, "amount.column");
+        mapping.categoryColumn = Integer.parseInt(properties.getProperty("category.column", "-1").strip());
+        mapping.defaultCategoryId = Integer.parseInt(properties.getProperty("category.default", "0").strip());
+        mapping.typeColumn = Integer.parseInt(properties.getProperty("type.column", "-1").strip());
+        mapping.incomeType = properties.getProperty("type.income", "CR").strip();
+        mapping.currencyColumn = Integer.parseInt(properties.getProperty("currency.column", "-1").strip());
+        String defaultCurrency = properties.getProperty("currency.default", "").strip().toUpperCase(Locale.ROOT);
+        if (!defaultCurrency.isEmpty() && !Currencies.isValid(defaultCurrency)) {
+            throw new IllegalArgumentException("Invalid currency.default: " + defaultCurrency + ".");
+        }
+        mapping.defaultCurrency = defaultCurrency.isEmpty() ? null : defaultCurrency;
+        if (mapping.categoryColumn < 0 && mapping.defaultCategoryId == 0) {
+            throw new IllegalArgumentException("Either category.column or category.default must be set.");
+        }
+        return mapping;
+    }
+
+    /**
+     * Reads a required, non-negative column index.
+     *
+     * @param properties The mapping properties.
+     * @param key        The key of the column.
+     * @return The column index.
+     */
+    private static int requiredColumn(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + key + " in the import mapping.");
+        }
+        int column = Integer.parseInt(value.strip());
+        if (column < 0) {
+            throw new IllegalArgumentException(key + " must not be negative.");
+        }
+        return column;
+    }
+
+    /**
+     * Gets the field delimiter.
+     *
+     * @return The field delimiter.
+     */
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * Checks whether the first line of the statement is a header.
+     *
+     * @return True if the first line is a header, otherwise false.
+     */
+    public boolean hasHeader() {
+        return header;
+    }
+
+    /**
+     * Gets the column of the date.
+     *
+     * @return The zero-based column index.
+     */
+    public int getDateColumn() {
+        return dateColumn;
+    }
+
+    /**
+     * Gets the format of the date column.
+     *
+     * @return The date formatter.
+     */
+    public DateTimeFormatter getDateFormat() {
+        return dateFormat;
+    }
+
+    /**
+     * Gets the column of the description.
+     *
+     * @return The zero-based column index.
+     */
+    public int getDescriptionColumn() {
+        return descriptionColumn;
+    }
+
+    /**
+     * Gets the column of the amount.
+     *
+     * @return The zero-based column index.
+     */
+    public int getAmountColumn() {
+        return amountColumn;
+    }
+
+    /**
+     * Gets the column of the category ID.
+     *
+     * @return The zero-based column index, or -1 if there is none.
+     */
+    public int getCategoryColumn() {
+        return categoryColumn;
+    }
+
+    /**
+     * Gets the category ID used when a row has no category.
+     *
+     * @return The default category ID, or 0 if there is none.
+     */
+    public int getDefaultCategoryId() {
+        return defaultCategoryId;
+    }
+
+    /**
+     * Gets the column telling incomes from expenses.
+     *
+     * @return The zero-based column index, or -1 if the sign of the amount decides.
+     */
+    public int getTypeColumn() {
+        return typeColumn;
+    }
+
+    /**
+     * Gets the value of the type column that marks an income.
+     *
+     * @return The income type value.
+     */
+    public String getIncomeType() {
+        return incomeType;
+    }
+
+    /**
+     * Gets the column of the currency code.
+     *
+     * @return The zero-based column index, or -1 if there is none.
+     */
+    public int getCurrencyColumn() {
+        return currencyColumn;
+    }
+
+    /**
+     * Gets the currency used when a row has no currency.
+     *
+     * @return The currency code, or null for the base currency.
+     */
+    public String getDefaultCurrency() {
+        return defaultCurrency;
+    }
+}
@@ -17,4 +17,34 @@ public class Income extends Transaction {
     public Income(int id, String description, double amount, int categoryId, LocalDate createdDate) {
         super(id, description, amount, categoryId, createdDate);
     }
+
+    /**
+     * Constructs an Income object with the specified parameters.
+     *
+     * @param id           The ID of the income.
+     * @param description  The description of the income.
+     * @param amount       The amount of the income.
+     * @param categoryId   The category ID of the income.
+     * @param createdDate  The creation date of the income.
+     * @param currency     The code of the currency of the amount, or null for the base currency.
+     * @throws IllegalArgumentException If the currency code is not well-formed.
+     */
+    public Income(int id, String description, double amount, int categoryId, LocalDate createdDate, String currency) {
+        super(id, description, amount, categoryId, createdDate, currency);
+    }
+
+    /**
+     * Constructs an Income object whose description is an entry of a ledger's {@link DescriptionDictionary}.
+     *
+     * @param id           The ID of the income.
+     * @param description  The entry of the description of the income.
+     * @param amount       The amount of the income.
+     * @param categoryId   The category ID of the income.
+     * @param createdDate  The creation date of the income.
+     * @param currency     The code of the currency of the amount, or null for the base currency.
+     * @throws IllegalArgumentException If the currency code is not well-formed.
+     */
+    public Income(int id, DescriptionDictionary.Entry description, double amount, int categoryId, LocalDate createdDate, String currency) {
+        super(id, description, amount, categoryId, createdDate, currency);
+    }
 }
@@ -1,16 +1,50 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * Manages income-related operations such as adding, editing, and deleting incomes.
  */
 public class IncomeManager {
     private final Scanner scanner;
-    private final List<Income> incomes;
+    private final TransactionStore<Income> incomes;
+    private final IntMap<Income> incomesById;
+    private final DuplicateIndex duplicates;
+    private final IdSequence ids;
+    private final TransactionArchive<Income> archive;
+    private final LedgerShards shards;
+    // Built again on every load, so it only holds descriptions of incomes loaded or entered since
+    private final DescriptionDictionary descriptions = new DescriptionDictionary();
+    // The incomes changed since the last save, each with its version on disk, or null if it is not on disk yet
+    private final Map<Integer, Income> unsaved = new HashMap<>();
+    // Serializes saves and reloads, which read and write the files without holding this manager's lock
+    private final Object saveLock = new Object();
+    private volatile AutosaveScheduler.Target autosave;
+    private volatile EditHistory.Target history;
+    private final LedgerEventBus<Income> events = new LedgerEventBus<>();
     private final CategoryManager categoryManager;
-    private static final String EXPENSE_FILE = "incomes.txt";
+    static final String INCOME_DIRECTORY = "incomes";
+    private static final String INCOME_BLOOM_FILE = "incomes.bloom";
+    private static final String INCOME_SEQUENCE_FILE = "incomes.seq";
+    private static final String INCOME_ARCHIVE_DIRECTORY = "incomes.archive";
+    // The single file, and its page table, that the incomes were saved to before they were split into shards
+    private static final String INCOME_FILE = "incomes.txt";
+    private static final String INCOME_PAGES_FILE = "incomes.pages";
+    private static final LatencyHistogram ADD_LATENCY = Metrics.operation("incomes", "add");
+    private static final LatencyHistogram EDIT_LATENCY = Metrics.operation("incomes", "edit");
+    private static final LatencyHistogram DELETE_LATENCY = Metrics.operation("incomes", "delete");
+    private static final LatencyHistogram BULK_LATENCY = Metrics.operation("incomes", "bulk");
+    private static final LatencyHistogram LOOKUP_LATENCY = Metrics.operation("incomes", "lookup");
+    private static final LongAdder LOOKUPS = Metrics.lookups("incomes");
+    private static final LatencyHistogram SAVE_LATENCY = Metrics.operation("incomes", "save");
+    private static final LongAdder RELOADS = Metrics.counter("ledger_reloads_total", "ledger=\"incomes\"",
+            "Number of times changes saved by another process were merged.");
 
     /**
      * Constructs an IncomeManager object.
@@ -18,9 +52,44 @@ public class IncomeManager {
      * @param categoryManager The CategoryManager instance to manage categories.
      */
     public IncomeManager(CategoryManager categoryManager) {
-        scanner = new Scanner(System.in);
+        this(categoryManager, new Scanner(System.in));
+    }
+
+    /**
+     * Constructs an IncomeManager object that reads user input from the given scanner.
+     *
+     * @param categoryManager The CategoryManager instance to manage categories.
+     * @param scanner         The scanner shared with the rest of the console UI.
+     */
+    public IncomeManager(CategoryManager categoryManager, Scanner scanner) {
+        this.scanner = scanner;
         this.categoryManager = categoryManager;
-        incomes = loadIncomes();
+        ChunkFormat<Income> format = ChunkFormat.configured(Income::new, descriptions);
+        incomes = new TransactionStore<>(format);
+        // Taken before loading, so that a save by another process while loading is merged later
+        shards = new LedgerShards(Path.of(INCOME_DIRECTORY), Path.of(INCOME_FILE), Path.of(INCOME_PAGES_FILE));
+        loadIncomes();
+        TransactionSnapshot<Income> loaded = incomes.snapshot();
+        // Off-heap, the store's binary search over IDs replaces the index so that the heap does not grow with the ledger
+        incomesById = format.isOffHeap() ? null : new IntMap<>(loaded.size());
+        ids = IdSequence.open(Path.of(INCOME_SEQUENCE_FILE), shards.getMaxId());
+        for (Income income : loaded) {
+            if (incomesById != null) {
+                incomesById.put(income.getId(), income);
+            }
+            ids.advancePast(income.getId());
+        }
+        archive = openArchive();
+        ids.advancePast(archive.getMaxId());
+        duplicates = new DuplicateIndex(this::findIncome, archive);
+        duplicates.load(Path.of(INCOME_BLOOM_FILE), shards.getManifestFile(), loaded);
+    }
+
+    /**
+     * Reports the size of this income ledger through the metrics registry.
+     */
+    public void registerMetrics() {
+        Metrics.gauge("ledger_rows", "ledger=\"incomes\"", "Number of rows in each ledger.", incomes::size);
     }
 
     /**
@@ -49,7 +118,10 @@ public class IncomeManager {
                     break;
                 case 5:
                     backToMainMenu = true;
-                    saveIncomes();
+                    requestSave();
+                    break;
+                case 6:
+                    bulkEditIncomes();
                     break;
                 default:
                     CONSOLETEXT.printError("Invalid choice. Please try again.");
@@ -67,6 +139,7 @@ public class IncomeManager {
         System.out.println("|                                                     💰  Income Management Menu                                                    |");
         System.out.println("|                                                                                                                                    |");
         System.out.println("|    ➕ Add Income (1)     ✏\uFE0F Edit Income (2)     ❌ Delete Income (3)     \uD83D\uDC41\uFE0F  View Incomes (4)     ⬅\uFE0F Back to Main Menu (5)    |");
+        System.out.println("|    \uD83D\uDDC2\uFE0F Bulk Edit (6)                                                                                                                |");
         System.out.println("*------------------------------------------------------------------------------------------------------------------------------------*");
     }
 
@@ -74,6 +147,7 @@ public class IncomeManager {
      * Displays all incomes.
      */
     private void viewIncomes() {
+        List<Income> incomes = getIncomes();
         if (incomes.isEmpty()) {
             CONSOLETEXT.printWarning("No Incomes to display.");
         } else {
@@ -85,43 +159,293 @@ public class IncomeManager {
             }
             System.out.println("*------------------------------------------------------------------------------------------------------------------------------------*");
         }
+        if (archive.size() > 0) {
+            CONSOLETEXT.printWarning(archive.size() + " older incomes are archived and only shown in graphs and date range queries.");
+        }
     }
 
     /**
-     * Loads incomes from a file.
-     *
-     * @return The list of loaded incomes.
+     * Loads incomes from their shards straight into the store, parsing the shards and parts of them in parallel.
      */
-    private List<Income> loadIncomes() {
-        List<Income> incomes = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(EXPENSE_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 5) {
-                    int id = Integer.parseInt(parts[0]);
-                    String description = parts[1];
-                    double amount = Double.parseDouble(parts[2]);
-                    int categoryId = Integer.parseInt(parts[3]);
-                    LocalDate date = LocalDate.parse(parts[4]);
-                    Income income = new Income(id, description, amount, categoryId, date);
-                    incomes.add(income);
-                }
-            }
-        }catch (FileNotFoundException ignored) {
+    private void loadIncomes() {
+        LedgerLoadEvent event = new LedgerLoadEvent();
+        event.begin();
+        try {
+            LedgerLoader.load(shards.getFiles(), incomes, (reader, action) -> readIncomes(descriptions, reader, action));
         } catch (IOException e) {
             CONSOLETEXT.printError("Error loading incomes from file");
         }
-        return incomes;
+        event.finish(INCOME_DIRECTORY, incomes.size());
+    }
+
+    /**
+     * Reads the incomes in the lines of an income shard, skipping blank and malformed lines.
+     * Incomes in the base currency have no currency code, so files saved before currencies existed still load.
+     * Their descriptions are added to the given dictionary.
+     *
+     * @param descriptions The dictionary of the ledger the incomes are read into.
+     * @param reader       The reader of the lines.
+     * @param action       The action to perform for each income.
+     * @throws IOException If the lines cannot be read.
+     */
+    private static void readIncomes(DescriptionDictionary descriptions, BufferedReader reader, Consumer<Income> action) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split(",");
+            if (parts.length == 5 || parts.length == 6) {
+                int id = Integer.parseInt(parts[0]);
+                DescriptionDictionary.Entry description = descriptions.intern(parts[1]);
+                double amount = Double.parseDouble(parts[2]);
+                int categoryId = Integer.parseInt(parts[3]);
+                LocalDate date = LocalDate.parse(parts[4]);
+                String currency = parts.length == 6 ? parts[5] : null;
+                action.accept(new Income(id, description, amount, categoryId, date, currency));
+            }
+        }
+    }
+
+    /**
+     * Reads the saved incomes created within a date range without loading the ledger, opening only the shards
+     * whose year and manifest date bounds overlap the range. Changes a running process has not saved yet are not
+     * included.
+     *
+     * @param from The first date of the range (inclusive), or null for no lower bound.
+     * @param to   The last date of the range (inclusive), or null for no upper bound.
+     * @return The incomes of the shards that were read, which may include some outside the range.
+     * @throws IOException If a shard cannot be read.
+     */
+    public static TransactionSnapshot<Income> readIncomesBetween(LocalDate from, LocalDate to) throws IOException {
+        DescriptionDictionary descriptions = new DescriptionDictionary();
+        TransactionStore<Income> incomes = new TransactionStore<>(ChunkFormat.configured(Income::new, descriptions));
+        LedgerLoader.load(LedgerShards.getFilesBetween(Path.of(INCOME_DIRECTORY), Path.of(INCOME_FILE), from, to),
+                incomes, (reader, action) -> readIncomes(descriptions, reader, action));
+        return incomes.snapshot();
     }
 
     /**
-     * Gets the list of incomes.
+     * Opens the archive of older incomes, reading only the headers of its segments.
+     *
+     * @return The archive.
+     */
+    public static TransactionArchive<Income> openArchive() {
+        return new TransactionArchive<>(Path.of(INCOME_ARCHIVE_DIRECTORY), Income::new);
+    }
+
+    /**
+     * Gets a consistent, read-only snapshot of the incomes.
+     * The snapshot does not change when incomes are later added, edited or deleted,
+     * so it can be read without locking while other threads keep editing.
      *
      * @return The list of incomes.
      */
-    public List<Income> getIncomes() {
-        return incomes;
+    public TransactionSnapshot<Income> getIncomes() {
+        return incomes.snapshot();
+    }
+
+    /**
+     * Saves the incomes in the background from now on, through the given autosave target.
+     *
+     * @param autosave The target registered for the incomes.
+     */
+    public void setAutosave(AutosaveScheduler.Target autosave) {
+        this.autosave = autosave;
+    }
+
+    /**
+     * Records the edits made to the incomes from now on in an undo and redo history.
+     *
+     * @param history The history shared with the other ledgers and the categories.
+     */
+    public void setHistory(EditHistory history) {
+        this.history = history.register(this, this::applyEdit);
+    }
+
+    /**
+     * Records an edit of an income in the undo history, if there is one.
+     *
+     * @param before The income before the edit, or null if it was added.
+     * @param after  The income after the edit, or null if it was removed.
+     */
+    private void record(Income before, Income after) {
+        EditHistory.Target target = history;
+        if (target != null) {
+            target.record(before, after);
+        }
+    }
+
+    /**
+     * Undoes or redoes an edit from the undo history, finding the income through the ID index.
+     *
+     * @param delta The recorded edit.
+     * @param undo  True to restore the values before the edit, false to restore those after it.
+     * @return True if the edit applied, false if the income has changed in a way that no longer allows it.
+     */
+    private synchronized boolean applyEdit(EditHistory.Delta delta, boolean undo) {
+        int id = delta.getId();
+        Income current = findIncome(id);
+        Income restored;
+        if (!delta.exists(!undo)) {
+            if (current == null) {
+                return false;
+            }
+            restored = null;
+        } else if (delta.getType() == TransactionEvent.Type.UPDATED ? current != null : current == null) {
+            restored = delta.toTransaction(!undo, current, descriptions, Income::new);
+        } else {
+            return false;
+        }
+        applyExternal(current, restored);
+        // Unlike a merged change, this one is not on disk yet
+        markChanged(current, restored);
+        unsaved.putIfAbsent(id, current);
+        changed();
+        return true;
+    }
+
+    /**
+     * Marks the shards, and the pages in them, that hold an income before and after a change as changed.
+     *
+     * @param before The income before the change, or null if it was added.
+     * @param after  The income after the change, or null if it was removed.
+     */
+    private void markChanged(Income before, Income after) {
+        if (before != null) {
+            shards.markChanged(before);
+        }
+        if (after != null) {
+            shards.markChanged(after);
+        }
+    }
+
+    /**
+     * Reports a changed income to the autosave scheduler, if the incomes are saved in the background.
+     */
+    private void changed() {
+        AutosaveScheduler.Target target = autosave;
+        if (target != null) {
+            target.changed(1);
+        }
+    }
+
+    /**
+     * Saves the incomes: in the background if autosave is on, otherwise right away.
+     */
+    private void requestSave() {
+        AutosaveScheduler.Target target = autosave;
+        if (target != null) {
+            target.flushSoon();
+        } else {
+            saveIncomes();
+        }
+    }
+
+    /**
+     * Merges the changes other processes save to the income shards from now on, as the watcher reports them.
+     *
+     * @param watcher The watcher of the directory holding the income shards.
+     */
+    public void watch(LedgerWatcher watcher) {
+        // The manifest is saved after the shards and their page tables, so a merge reads only the changed pages
+        watcher.watch(shards.getManifestFile().toString(), this::reloadIncomes);
+    }
+
+    /**
+     * Gets the archive holding the incomes older than the archive horizon.
+     *
+     * @return The income archive.
+     */
+    public TransactionArchive<Income> getArchive() {
+        return archive;
+    }
+
+    /**
+     * Gets the bus that publishes every change made to the incomes.
+     *
+     * @return The income event bus.
+     */
+    public LedgerEventBus<Income> getEvents() {
+        return events;
+    }
+
+    /**
+     * Gets the incomes whose created date falls within the given range, including archived ones.
+     *
+     * @param from The first date of the range (inclusive), or null for no lower bound.
+     * @param to   The last date of the range (inclusive), or null for no upper bound.
+     * @return A new list containing the matching incomes.
+     */
+    public List<Income> getIncomesBetween(LocalDate from, LocalDate to) {
+        List<Income> result = new ArrayList<>();
+        archive.forEach(from, to, null, result::add);
+        incomes.snapshot().forEachBetween(from, to, result::add);
+        return result;
+    }
+
+    /**
+     * Checks whether any income uses the given category.
+     *
+     * @param categoryId The ID of the category.
+     * @return True if at least one income belongs to the category, otherwise false.
+     */
+    public boolean usesCategory(int categoryId) {
+        for (Income income : incomes.snapshot()) {
+            if (income.getCategoryId() == categoryId) {
+                return true;
+            }
+        }
+        return archive.usesCategory(categoryId);
+    }
+
+    /**
+     * Gets the entry of a description in the dictionary of this ledger, for matching incomes against it.
+     *
+     * @param description The description.
+     * @return The entry, which has no code if no loaded income uses the description, or null for a missing one.
+     */
+    public DescriptionDictionary.Entry lookupDescription(String description) {
+        return descriptions.lookup(description);
+    }
+
+    /**
+     * Gets the total amount and number of incomes per description, including archived ones, with every amount
+     * converted into a reporting currency at the rate of its day.
+     * Rows are grouped by their description code, so the grouping itself never compares strings; only archived
+     * rows whose description no loaded income uses are grouped by the string.
+     *
+     * @param conversion The conversion into the reporting currency.
+     * @return A map from description to its total amount and number of incomes, in that order.
+     */
+    public Map<String, double[]> getTotalsByDescription(FxRates.Conversion conversion) {
+        double[][] totals = {new double[descriptions.size() * 2]};
+        Map<String, double[]> result = new TreeMap<>();
+        Consumer<Income> add = income -> {
+            DescriptionDictionary.Entry description = income.getDescriptionCode() >= 0
+                    ? income.getDescriptionEntry() : descriptions.lookup(income.getDescription());
+            if (description == null) {
+                return;
+            }
+            int slot = description.getCode() * 2;
+            if (slot < 0) {
+                double[] total = result.computeIfAbsent(description.getText(), text -> new double[2]);
+                total[0] += conversion.convert(income);
+                total[1]++;
+                return;
+            }
+            if (slot >= totals[0].length) {
+                totals[0] = Arrays.copyOf(totals[0], Math.max(slot + 2, totals[0].length * 2));
+            }
+            totals[0][slot] += conversion.convert(income);
+            totals[0][slot + 1]++;
+        };
+        archive.forEach(null, null, null, add);
+        incomes.snapshot().forEach(add);
+        for (int slot = 0; slot < totals[0].length; slot += 2) {
+            if (totals[0][slot + 1] > 0) {
+                result.merge(descriptions.get(slot / 2).getText(), new double[]{totals[0][slot], totals[0][slot + 1]},
+                        (archived, loaded) -> new double[]{archived[0] + loaded[0], archived[1] + loaded[1]});
+            }
+        }
+        return result;
     }
 
     /**
@@ -130,7 +454,6 @@ public class IncomeManager {
      * @return True if the income is successfully added, otherwise false.
      */
     private boolean addIncome() {
-        int nextId = incomes.isEmpty() ? 1 : incomes.getLast().getId() + 1;
         if (categoryManager.getCategories().isEmpty()) {
             CONSOLETEXT.printWarning("There are no categories available. Please add a category first.");
             return false;
@@ -138,15 +461,393 @@ public class IncomeManager {
 
         String description = readDescription("Enter income description: ", "");
         double amount = readAmount("Enter income amount: ", 0.00);
+        String currency = readCurrency("Enter currency (press enter for " + Currencies.BASE + "): ", Currencies.BASE);
         LocalDate date = readDate("Enter income date (eg 2024/04/12): ", null);
         int categoryId = readCategoryId("Enter category ID: ", 0);
 
-        Income income = new Income(nextId, description, amount, categoryId, date);
-        incomes.add(income);
+        if (isDuplicateIncome(description, amount, date, currency)) {
+            CONSOLETEXT.printWarning("An income with the same date, amount, currency and description already exists.");
+            if (!confirm("Add it anyway? (Yes/No): ")) {
+                CONSOLETEXT.printWarning("Income not added.");
+                return true;
+            }
+        }
+        addIncome(description, amount, categoryId, date, currency);
         CONSOLETEXT.printSuccess("Income added successfully.");
         return true;
     }
 
+    /**
+     * Adds a new income in the base currency without prompting the user.
+     *
+     * @param description The description of the income.
+     * @param amount      The amount of the income.
+     * @param categoryId  The category ID of the income.
+     * @param date        The creation date of the income.
+     * @return The added income.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public Income addIncome(String description, double amount, int categoryId, LocalDate date) {
+        return addIncome(description, amount, categoryId, date, null);
+    }
+
+    /**
+     * Adds a new income without prompting the user.
+     *
+     * @param description The description of the income.
+     * @param amount      The amount of the income.
+     * @param categoryId  The category ID of the income.
+     * @param date        The creation date of the income.
+     * @param currency    The currency code of the amount, or null for the base currency.
+     * @return The added income.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public synchronized Income addIncome(String description, double amount, int categoryId, LocalDate date, String currency) {
+        long start = System.nanoTime();
+        validate(description, amount, categoryId, date, currency);
+        int nextId = ids.next();
+        Income income = new Income(nextId, descriptions.intern(description), amount, categoryId, date, currency);
+        incomes.add(income);
+        markChanged(null, income);
+        unsaved.putIfAbsent(nextId, null);
+        changed();
+        if (incomesById != null) {
+            incomesById.put(nextId, income);
+        }
+        duplicates.add(income);
+        publish(TransactionEvent.Type.ADDED, null, income);
+        record(null, income);
+        ADD_LATENCY.recordSince(start);
+        return income;
+    }
+
+    /**
+     * Adds a new income unless one with the same date, amount, currency and normalized description already exists.
+     * The check and the add happen under the same lock, so two concurrent requests cannot both add it.
+     *
+     * @param description The description of the income.
+     * @param amount      The amount of the income.
+     * @param categoryId  The category ID of the income.
+     * @param date        The creation date of the income.
+     * @param currency    The currency code of the amount, or null for the base currency.
+     * @return The added income, or null if it is a duplicate.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public synchronized Income addIncomeUnlessDuplicate(String description, double amount, int categoryId, LocalDate date, String currency) {
+        validate(description, amount, categoryId, date, currency);
+        if (isDuplicateIncome(description, amount, date, currency)) {
+            return null;
+        }
+        return addIncome(description, amount, categoryId, date, currency);
+    }
+
+    /**
+     * Checks whether an income with the same date, amount, currency and normalized description already exists.
+     *
+     * @param description The description of the income.
+     * @param amount      The amount of the income.
+     * @param date        The creation date of the income.
+     * @param currency    The currency code of the amount, or null for the base currency.
+     * @return True if a matching income exists, otherwise false.
+     */
+    public synchronized boolean isDuplicateIncome(String description, double amount, LocalDate date, String currency) {
+        return duplicates.contains(description, amount, date, currency, incomes.snapshot());
+    }
+
+    /**
+     * Prepares the duplicate index for a bulk append of the given number of rows.
+     *
+     * @param rows The number of rows about to be appended.
+     */
+    synchronized void reserveDuplicateCapacity(long rows) {
+        duplicates.ensureCapacity(incomes.size() + rows, incomes.snapshot());
+    }
+
+    /**
+     * Opens the income shards for appending rows straight to them, bypassing the in-memory list.
+     *
+     * @param bufferSize The size of the write buffer of each shard.
+     * @return The appender, which updates the shard manifest when it is closed.
+     */
+    LedgerShards.Appender appendIncomes(int bufferSize) {
+        return LedgerShards.append(Path.of(INCOME_DIRECTORY), bufferSize);
+    }
+
+    /**
+     * Records an income that was appended straight to the income shards, bypassing the in-memory list.
+     *
+     * @param income The appended income.
+     */
+    synchronized void recordAppendedIncome(Income income) {
+        duplicates.add(income);
+    }
+
+    /**
+     * Persists the duplicate index for the current contents of the income shards.
+     *
+     * @param rows The number of rows in the income shards.
+     */
+    void saveDuplicateIndex(int rows) {
+        synchronized (saveLock) {
+            DuplicateIndex.PendingSave bloom;
+            synchronized (this) {
+                bloom = duplicates.prepareSave();
+            }
+            writeDuplicateIndex(bloom, rows);
+        }
+    }
+
+    /**
+     * Writes a save of the duplicate index copied while the incomes were locked, without holding the lock.
+     *
+     * @param bloom The pending save.
+     * @param rows  The number of rows in the income shards.
+     */
+    private void writeDuplicateIndex(DuplicateIndex.PendingSave bloom, int rows) {
+        boolean written = bloom.write(Path.of(INCOME_BLOOM_FILE), shards.getManifestFile(), rows);
+        synchronized (this) {
+            duplicates.finishSave(bloom, written);
+        }
+    }
+
+    /**
+     * Reserves a contiguous block of income IDs for rows added outside this manager, such as a bulk import.
+     *
+     * @param count The number of IDs to reserve.
+     * @return The first reserved ID.
+     */
+    int reserveIncomeIds(int count) {
+        return ids.reserve(count);
+    }
+
+    /**
+     * Updates an existing income without prompting the user, keeping its currency.
+     *
+     * @param id          The ID of the income to update.
+     * @param description The new description of the income.
+     * @param amount      The new amount of the income.
+     * @param categoryId  The new category ID of the income.
+     * @param date        The new creation date of the income.
+     * @return The updated income, or null if no income has the given ID.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public Income updateIncome(int id, String description, double amount, int categoryId, LocalDate date) {
+        return updateIncome(id, description, amount, categoryId, date, null);
+    }
+
+    /**
+     * Updates an existing income without prompting the user.
+     *
+     * @param id          The ID of the income to update.
+     * @param description The new description of the income.
+     * @param amount      The new amount of the income.
+     * @param categoryId  The new category ID of the income.
+     * @param date        The new creation date of the income.
+     * @param currency    The new currency code of the amount, or null to keep the existing one.
+     * @return The updated income, or null if no income has the given ID.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    public synchronized Income updateIncome(int id, String description, double amount, int categoryId, LocalDate date, String currency) {
+        long start = System.nanoTime();
+        Income previous = getIncomeById(id);
+        if (previous == null) {
+            return null;
+        }
+        validate(description, amount, categoryId, date, currency);
+        // Replace rather than mutate, so snapshots taken earlier keep the old values
+        Income income = new Income(id, descriptions.intern(description), amount, categoryId, date, currency == null ? previous.getCurrency() : currency);
+        incomes.replace(income);
+        markChanged(previous, income);
+        unsaved.putIfAbsent(id, previous);
+        changed();
+        if (incomesById != null) {
+            incomesById.put(id, income);
+        }
+        duplicates.remove(previous);
+        duplicates.add(income);
+        publish(TransactionEvent.Type.UPDATED, previous, income);
+        record(previous, income);
+        EDIT_LATENCY.recordSince(start);
+        return income;
+    }
+
+    /**
+     * Removes an income without prompting the user.
+     *
+     * @param id The ID of the income to remove.
+     * @return True if the income was removed, false if no income has the given ID.
+     */
+    public synchronized boolean removeIncome(int id) {
+        long start = System.nanoTime();
+        Income income = findIncome(id);
+        if (income == null) {
+            return false;
+        }
+        if (incomesById != null) {
+            incomesById.remove(id);
+        }
+        duplicates.remove(income);
+        incomes.remove(id);
+        markChanged(income, null);
+        unsaved.putIfAbsent(id, income);
+        changed();
+        publish(TransactionEvent.Type.REMOVED, income, null);
+        record(income, null);
+        DELETE_LATENCY.recordSince(start);
+        return true;
+    }
+
+    /**
+     * Moves every matching income to another category in one pass, without prompting the user.
+     *
+     * @param filter     Selects the incomes.
+     * @param categoryId The ID of the new category.
+     * @return The number of incomes moved.
+     * @throws IllegalArgumentException If the category ID is invalid.
+     */
+    public synchronized int recategorizeIncomes(TransactionFilter filter, int categoryId) {
+        if (!categoryManager.isValidCategory(categoryId)) {
+            throw new IllegalArgumentException("Invalid category ID. Please select a valid category ID.");
+        }
+        return bulkUpdate(filter, income -> new Income(income.getId(), income.getDescriptionEntry(), income.getAmount(),
+                categoryId, income.getCreatedDate(), income.getCurrency()));
+    }
+
+    /**
+     * Multiplies the amount of every matching income by a factor in one pass, rounding to whole cents and
+     * capping at {@link Transaction#MAX_AMOUNT}, without prompting the user.
+     *
+     * @param filter Selects the incomes.
+     * @param factor The factor to multiply the amounts by.
+     * @return The number of incomes changed.
+     * @throws IllegalArgumentException If the factor is not a positive number.
+     */
+    public synchronized int scaleIncomes(TransactionFilter filter, double factor) {
+        if (!(factor > 0) || Double.isInfinite(factor)) {
+            throw new IllegalArgumentException("Invalid factor. Please enter a valid positive number for the factor.");
+        }
+        return bulkUpdate(filter, income -> new Income(income.getId(), income.getDescriptionEntry(),
+                // Never rounds a positive amount down to zero or scales it past the limit, which validation would reject
+                Math.min(Transaction.MAX_AMOUNT, Math.max(0.01, Math.round(income.getAmount() * factor * 100) / 100.0)),
+                income.getCategoryId(), income.getCreatedDate(), income.getCurrency()));
+    }
+
+    /**
+     * Removes every matching income in one pass, without prompting the user.
+     *
+     * @param filter Selects the incomes.
+     * @return The number of incomes removed.
+     */
+    public synchronized int removeIncomes(TransactionFilter filter) {
+        return bulkUpdate(filter, income -> null);
+    }
+
+    /**
+     * Changes or removes every matching income in a single pass over the store. The ID index, the changed pages
+     * and the duplicate index are updated as the pass goes. The change events are published in bulk batches after
+     * the pass, while the caller still holds the manager's lock; the bus never waits for a slow subscriber, which
+     * resynchronizes instead. The autosave scheduler hears about all changes at once, and the changes are recorded
+     * in the undo history as one group.
+     *
+     * @param filter Selects the incomes.
+     * @param change Gives the new version of an income, or null to remove it.
+     * @return The number of incomes changed or removed.
+     */
+    private int bulkUpdate(TransactionFilter filter, UnaryOperator<Income> change) {
+        long start = System.nanoTime();
+        List<TransactionEvent<Income>> changes = new ArrayList<>();
+        boolean publishing = events.hasSubscribers();
+        EditHistory.Target recording = history;
+        if (recording != null) {
+            recording.beginGroup();
+        }
+        int count;
+        try {
+            count = incomes.update(filter, change, (before, after) -> {
+                markChanged(before, after);
+                duplicates.remove(before);
+                unsaved.putIfAbsent(before.getId(), before);
+                if (incomesById != null) {
+                    if (after != null) {
+                        incomesById.put(after.getId(), after);
+                    } else {
+                        incomesById.remove(before.getId());
+                    }
+                }
+                if (after != null) {
+                    duplicates.add(after);
+                }
+                if (recording != null) {
+                    recording.record(before, after);
+                }
+                if (publishing) {
+                    changes.add(new TransactionEvent<>(after == null ? TransactionEvent.Type.REMOVED : TransactionEvent.Type.UPDATED,
+                            before, after, incomes.getVersion()));
+                }
+            });
+        } finally {
+            if (recording != null) {
+                recording.endGroup();
+            }
+        }
+        events.beginBulk();
+        try {
+            for (TransactionEvent<Income> event : changes) {
+                events.publish(event);
+            }
+        } finally {
+            events.endBulk();
+        }
+        AutosaveScheduler.Target target = autosave;
+        if (target != null && count > 0) {
+            target.changed(count);
+        }
+        BULK_LATENCY.recordSince(start);
+        return count;
+    }
+
+    /**
+     * Publishes a change to the incomes, if anyone is listening.
+     *
+     * @param type   The kind of change.
+     * @param before The income before the change, or null if it was added.
+     * @param after  The income after the change, or null if it was removed.
+     */
+    private void publish(TransactionEvent.Type type, Income before, Income after) {
+        if (events.hasSubscribers()) {
+            events.publish(new TransactionEvent<>(type, before, after, incomes.getVersion()));
+        }
+    }
+
+    /**
+     * Validates the values of an income supplied without prompting.
+     *
+     * @param description The description of the income.
+     * @param amount      The amount of the income.
+     * @param categoryId  The category ID of the income.
+     * @param date        The creation date of the income.
+     * @param currency    The currency code of the amount, or null for the base or existing currency.
+     * @throws IllegalArgumentException If any of the values is invalid.
+     */
+    private void validate(String description, double amount, int categoryId, LocalDate date, String currency) {
+        if (description == null || description.isEmpty() || description.contains(",")) {
+            throw new IllegalArgumentException("Invalid description. Please provide a description without commas.");
+        }
+        if (!Transaction.isValidAmount(amount)) {
+            throw new IllegalArgumentException("Invalid amount. Please enter a positive number no larger than "
+                    + (long) Transaction.MAX_AMOUNT + " for the amount.");
+        }
+        if (date == null || date.isAfter(LocalDate.now())) {
+            throw new IllegalArgumentException("Invalid date. Please don't enter future date.");
+        }
+        if (!categoryManager.isValidCategory(categoryId)) {
+            throw new IllegalArgumentException("Invalid category ID. Please select a valid category ID.");
+        }
+        if (currency != null && !Currencies.isValid(currency)) {
+            throw new IllegalArgumentException("Invalid currency. Please use a three-letter code such as " + Currencies.BASE + ".");
+        }
+    }
+
     /**
      * Edits an existing income.
      */
@@ -158,20 +859,61 @@ public class IncomeManager {
         if (income != null) {
             String newDescription = readDescription("Enter new description (press enter to keep existing): ", income.getDescription());
             double newAmount = readAmount("Enter new amount (press enter to keep existing): ", income.getAmount());
+            String newCurrency = readCurrency("Enter new currency (press enter to keep existing): ", income.getCurrency());
             LocalDate newDate = readDate("Enter new date (eg 2024/04/12) (press enter to keep existing): ", income.getCreatedDate());
             int newCategoryId = readCategoryId("Enter new category ID (press enter to keep existing): ", income.getCategoryId());
 
-            income.setDescription(newDescription);
-            income.setAmount(newAmount);
-            income.setCreatedDate(newDate);
-            income.setCategoryId(newCategoryId);
-
+            updateIncome(incomeId, newDescription, newAmount, newCategoryId, newDate, newCurrency);
             CONSOLETEXT.printSuccess("Income updated successfully.");
         } else {
             CONSOLETEXT.printWarning("Income not found.");
         }
     }
 
+    /**
+     * Changes or deletes all incomes matching a description pattern, date range and category at once.
+     */
+    private void bulkEditIncomes() {
+        System.out.print("Enter description pattern (press enter for any): ");
+        String pattern = scanner.nextLine();
+        LocalDate from = readOptionalDate("Enter start date (eg 2024/04/12) (press enter for none): ");
+        LocalDate to = readOptionalDate("Enter end date (eg 2024/04/12) (press enter for none): ");
+        int categoryId = readCategoryFilter("Enter category ID, including its subcategories (press enter for any): ");
+        TransactionFilter filter;
+        try {
+            filter = new TransactionFilter(pattern, from, to, categoryId == 0 ? null : categoryManager.getTree().subtree(categoryId));
+        } catch (IllegalArgumentException e) {
+            CONSOLETEXT.printError(e.getMessage());
+            return;
+        }
+        long matches = incomes.snapshot().stream().filter(filter).count();
+        if (matches == 0) {
+            CONSOLETEXT.printWarning("No incomes match.");
+            return;
+        }
+        System.out.println(matches + " incomes match.");
+        System.out.print("Recategorize (1), Scale amounts (2), Delete (3), Cancel (4): ");
+        String choice = scanner.nextLine();
+        int count;
+        switch (choice) {
+            case "1" -> count = recategorizeIncomes(filter, readCategoryId("Enter new category ID: ", 0));
+            case "2" -> count = scaleIncomes(filter, readAmount("Enter factor to multiply the amounts by (eg 1.1): ", 0.0));
+            case "3" -> {
+                if (!confirm("Delete " + matches + " incomes? (Yes/No): ")) {
+                    CONSOLETEXT.printWarning("No incomes deleted.");
+                    return;
+                }
+                count = removeIncomes(filter);
+            }
+            default -> {
+                CONSOLETEXT.printWarning("No incomes changed.");
+                return;
+            }
+        }
+        requestSave();
+        CONSOLETEXT.printSuccess(count + " incomes " + (choice.equals("3") ? "deleted" : "updated") + " successfully.");
+    }
+
     /**
      * Deletes an existing income.
      */
@@ -179,15 +921,30 @@ public class IncomeManager {
         System.out.print("Enter the ID of the income to delete: ");
         int incomeId = scanner.nextInt();
         scanner.nextLine();
-        Income income = getIncomeById(incomeId);
-        if (income != null) {
-            incomes.remove(income);
+        if (removeIncome(incomeId)) {
             CONSOLETEXT.printSuccess("Income deleted successfully.");
         } else {
             CONSOLETEXT.printWarning("Income not found.");
         }
     }
 
+    /**
+     * Asks the user a Yes/No question.
+     *
+     * @param prompt The prompt message.
+     * @return True if the user answered Yes, false if No.
+     */
+    private boolean confirm(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+            if (input.equalsIgnoreCase("Yes") || input.equalsIgnoreCase("No")) {
+                return input.equalsIgnoreCase("Yes");
+            }
+            CONSOLETEXT.printError("Invalid choice, Please try again: ");
+        }
+    }
+
     /**
      * Reads income description from user input.
      *
@@ -199,14 +956,15 @@ public class IncomeManager {
         while (true) {
             System.out.print(prompt);
             String input = scanner.nextLine();
-            if (!defaultValue.isEmpty()) {
-                return input.isEmpty() ? defaultValue : input;
-            } else {
-                if (input.isEmpty()) {
-                    CONSOLETEXT.printError("Invalid description. Please provide a description for the income.");
-                } else {
-                    return input;
+            if (input.isEmpty()) {
+                if (!defaultValue.isEmpty()) {
+                    return defaultValue;
                 }
+                CONSOLETEXT.printError("Invalid description. Please provide a description for the income.");
+            } else if (input.contains(",")) {
+                CONSOLETEXT.printError("Invalid description. Please don't use commas in the description.");
+            } else {
+                return input;
             }
         }
     }
@@ -231,7 +989,7 @@ public class IncomeManager {
             } else {
                 try {
                     double amount = Double.parseDouble(input);
-                    if (amount > 0) {
+                    if (Transaction.isValidAmount(amount)) {
                         return amount;
                     }
                     CONSOLETEXT.printError("Invalid amount. Please enter a valid positive number for the amount.");
@@ -274,6 +1032,73 @@ public class IncomeManager {
         }
     }
 
+    /**
+     * Reads a currency code from user input.
+     *
+     * @param prompt       The prompt message.
+     * @param defaultValue The default value.
+     * @return The entered currency code.
+     */
+    private String readCurrency(String prompt, String defaultValue) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine().strip().toUpperCase();
+            if (input.isEmpty()) {
+                return defaultValue;
+            }
+            if (Currencies.isValid(input)) {
+                return input;
+            }
+            CONSOLETEXT.printError("Invalid currency. Please use a three-letter code such as " + Currencies.BASE + ".");
+        }
+    }
+
+    /**
+     * Reads an optional date from user input.
+     *
+     * @param prompt The prompt message.
+     * @return The entered date, or null if none was entered.
+     */
+    private LocalDate readOptionalDate(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+            if (input.isEmpty()) {
+                return null;
+            }
+            try {
+                return LocalDate.parse(input, DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+            } catch (Exception ex) {
+                CONSOLETEXT.printError("Invalid date. Please enter the date in the format YYYY/MM/DD.");
+            }
+        }
+    }
+
+    /**
+     * Reads an optional category ID to filter by from user input.
+     *
+     * @param prompt The prompt message.
+     * @return The entered category ID, or 0 for any category.
+     */
+    private int readCategoryFilter(String prompt) {
+        categoryManager.viewCategories();
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+            if (input.isEmpty()) {
+                return 0;
+            }
+            try {
+                int categoryId = Integer.parseInt(input);
+                if (categoryManager.isValidCategory(categoryId)) {
+                    return categoryId;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            CONSOLETEXT.printError("Invalid category ID. Please select a valid category ID from the table above.");
+        }
+    }
+
     /**
      * Reads category ID from user input.
      *
@@ -313,25 +1138,359 @@ public class IncomeManager {
      * @param id The ID of the income to retrieve.
      * @return The income object if found, otherwise null.
      */
-    private Income getIncomeById(int id) {
-        for (Income income : incomes) {
-            if (income.getId() == id) {
-                return income;
-            }
+    public synchronized Income getIncomeById(int id) {
+        LOOKUPS.increment();
+        if (!LatencyHistogram.shouldSample()) {
+            return findIncome(id);
         }
-        return null;
+        long start = System.nanoTime();
+        Income income = findIncome(id);
+        LOOKUP_LATENCY.recordSince(start);
+        return income;
     }
 
     /**
-     * Saves incomes to a file.
+     * Finds an income by ID, through the index on the heap or the store itself when it lives off-heap.
+     *
+     * @param id The ID of the income to find.
+     * @return The income object if found, otherwise null.
      */
-    private void saveIncomes() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(EXPENSE_FILE))) {
-            for (Income income : incomes) {
-                writer.println(income.getId() + "," + income.getDescription() + "," + income.getAmount() + "," + income.getCategoryId() + "," + income.getCreatedDate());
+    private Income findIncome(int id) {
+        return incomesById != null ? incomesById.get(id) : incomes.find(id);
+    }
+
+    /**
+     * Moves the incomes older than the archive horizon out of memory into a new archive segment.
+     * The segment is written without locking the incomes, and before they are removed, so a failure never loses
+     * any of them; if one of them changed meanwhile, the segment is dropped and a later save tries again.
+     */
+    private void archiveIncomes() {
+        LocalDate cutoff = archive.getCutoff(LocalDate.now());
+        if (cutoff == null) {
+            return;
+        }
+        List<Income> old = new ArrayList<>();
+        for (Income income : incomes.snapshot()) {
+            if (income.getCreatedDate().isBefore(cutoff)) {
+                old.add(income);
             }
+        }
+        if (old.isEmpty()) {
+            return;
+        }
+        List<ArchiveSegment<Income>> written;
+        try {
+            written = archive.write(old);
         } catch (IOException e) {
-            CONSOLETEXT.printError("Error saving incomes to file");
+            CONSOLETEXT.printError("Error archiving incomes");
+            return;
+        }
+        synchronized (this) {
+            for (Income income : old) {
+                Income current = findIncome(income.getId());
+                if (current != income && !sameRecord(current, income)) {
+                    archive.discard(written);
+                    return;
+                }
+            }
+            archive.publish(written);
+            for (Income income : old) {
+                duplicates.remove(income);
+                incomes.remove(income.getId());
+                markChanged(income, null);
+                unsaved.putIfAbsent(income.getId(), income);
+                if (incomesById != null) {
+                    incomesById.remove(income.getId());
+                }
+                publish(TransactionEvent.Type.REMOVED, income, null);
+            }
+        }
+    }
+
+    /**
+     * Merges the changes another process saved to the income shards since this one last read or wrote them.
+     * Only the shards whose file changed are opened, and in them only the pages whose checksum changed and the
+     * tail of the file are parsed again, unless the shard is new or was rewritten with a different layout.
+     * Incomes changed here and not saved yet keep their changes; if the other process changed them too, the
+     * conflict is reported, and an income it added under an ID also taken here keeps that ID while the one added
+     * here gets a new one.
+     */
+    void reloadIncomes() {
+        synchronized (saveLock) {
+            LedgerStamp version = shards.readVersion();
+            if (shards.isCurrent()) {
+                if (!shards.isValid()) {
+                    LedgerShards refreshed;
+                    synchronized (this) {
+                        refreshed = shards.copy();
+                    }
+                    refreshed.refreshPageTables();
+                    adoptPages(refreshed);
+                }
+                return;
+            }
+            // The shards are read and parsed without locking the incomes; only the merge locks them
+            List<LedgerShards.Change> changes;
+            List<List<LedgerPages.Region>> regions = new ArrayList<>();
+            List<List<List<Income>>> parsed = new ArrayList<>();
+            try {
+                changes = shards.readChanges();
+                for (LedgerShards.Change change : changes) {
+                    List<LedgerPages.Region> changed = change.getRegions();
+                    List<List<Income>> rows = changed == null ? null : parseRegions(changed);
+                    if (rows == null) {
+                        // The whole shard is merged instead
+                        changed = null;
+                        rows = List.of(readShard(change.getFile()));
+                    }
+                    regions.add(changed);
+                    parsed.add(rows);
+                }
+            } catch (IOException | RuntimeException e) {
+                CONSOLETEXT.printError("Error reloading incomes from file");
+                return;
+            }
+            archive.refresh();
+            LedgerShards reloaded;
+            synchronized (this) {
+                reloaded = shards.copy();
+            }
+            reloaded.reloaded(version, changes);
+            synchronized (this) {
+                for (int c = 0; c < changes.size(); c++) {
+                    int year = changes.get(c).getYear();
+                    if (regions.get(c) == null) {
+                        mergeExternal(parsed.get(c).get(0), Integer.MIN_VALUE, Integer.MAX_VALUE, year);
+                        continue;
+                    }
+                    for (int i = 0; i < regions.get(c).size(); i++) {
+                        LedgerPages.Region region = regions.get(c).get(i);
+                        mergeExternal(parsed.get(c).get(i), region.getFromId(), region.getToId(), year);
+                    }
+                }
+                ids.advancePast(archive.getMaxId());
+                adoptPages(reloaded);
+            }
+            RELOADS.increment();
+        }
+    }
+
+    /**
+     * Takes over the shards and page tables of a copy that saved or reloaded the incomes, and marks the incomes
+     * that are still not saved as changed again.
+     *
+     * @param copy The copy of the shards.
+     */
+    private synchronized void adoptPages(LedgerShards copy) {
+        shards.adopt(copy);
+        for (Map.Entry<Integer, Income> entry : unsaved.entrySet()) {
+            markChanged(entry.getValue(), findIncome(entry.getKey()));
+        }
+    }
+
+    /**
+     * Reads every income of a shard.
+     *
+     * @param file The shard file.
+     * @return The incomes, none if the shard was deleted.
+     * @throws IOException If the shard cannot be read.
+     */
+    private List<Income> readShard(Path file) throws IOException {
+        List<Income> external = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))) {
+            readIncomes(descriptions, reader, external::add);
+        } catch (FileNotFoundException ignored) {
+        }
+        return external;
+    }
+
+    /**
+     * Parses the changed regions of an income shard.
+     *
+     * @param regions The changed regions.
+     * @return The incomes in each region, or null if a region holds an income outside its range of IDs, so that
+     * the whole shard has to be merged instead.
+     * @throws IOException If a region cannot be read.
+     */
+    private List<List<Income>> parseRegions(List<LedgerPages.Region> regions) throws IOException {
+        List<List<Income>> parsed = new ArrayList<>();
+        for (LedgerPages.Region region : regions) {
+            List<Income> external = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(region.getBytes()), StandardCharsets.UTF_8))) {
+                readIncomes(descriptions, reader, external::add);
+            }
+            for (Income income : external) {
+                if (income.getId() < region.getFromId() || income.getId() >= region.getToId()) {
+                    return null;
+                }
+            }
+            parsed.add(external);
+        }
+        return parsed;
+    }
+
+    /**
+     * Makes the incomes of one shard within a range of IDs match their version on disk, except for the ones
+     * changed here and not saved yet. An income on disk in this shard that is held here in another year's shard
+     * moves to this one; one held here in this shard but no longer on disk in it is removed, as it was deleted or
+     * moved to another shard, which the merge of that shard then adds back.
+     *
+     * @param external The incomes on disk in the shard within the range.
+     * @param fromId   The first ID of the range (inclusive).
+     * @param toId     The last ID of the range (exclusive).
+     * @param year     The year of the shard.
+     */
+    private void mergeExternal(List<Income> external, int fromId, int toId, int year) {
+        IntMap<Income> onDisk = new IntMap<>(external.size());
+        for (Income income : external) {
+            onDisk.put(income.getId(), income);
+        }
+        List<Income> local = incomes.snapshot();
+        int from = this.incomes.isSortedById() ? LedgerPages.lowerBound(local, fromId) : 0;
+        List<Income> removed = new ArrayList<>();
+        for (int i = from; i < local.size(); i++) {
+            Income income = local.get(i);
+            if (income.getId() >= toId && this.incomes.isSortedById()) {
+                break;
+            }
+            if (income.getId() >= fromId && income.getId() < toId && income.getCreatedDate().getYear() == year
+                    && onDisk.get(income.getId()) == null) {
+                removed.add(income);
+            }
+        }
+        for (Income income : removed) {
+            int id = income.getId();
+            if (!unsaved.containsKey(id)) {
+                applyExternal(income, null);
+            } else if (unsaved.get(id) != null) {
+                CONSOLETEXT.printWarning("Income " + id + " was deleted by another process; keeping the change made here.");
+                unsaved.put(id, null);
+            }
+        }
+        for (Income income : external) {
+            int id = income.getId();
+            Income current = findIncome(id);
+            if (!unsaved.containsKey(id)) {
+                if (!sameRecord(current, income)) {
+                    applyExternal(current, income);
+                }
+            } else if (sameRecord(current, income)) {
+                unsaved.remove(id);
+            } else if (!sameRecord(unsaved.get(id), income)) {
+                if (unsaved.get(id) == null && current != null) {
+                    renumber(current, income);
+                } else {
+                    CONSOLETEXT.printWarning("Income " + id + " was also changed by another process; keeping the change made here.");
+                    unsaved.put(id, income);
+                }
+            }
+            ids.advancePast(id);
+        }
+    }
+
+    /**
+     * Gives an income added here a new ID, because another process saved a different income under its ID.
+     *
+     * @param added    The income added here.
+     * @param external The income the other process saved under the same ID.
+     */
+    private void renumber(Income added, Income external) {
+        applyExternal(added, external);
+        unsaved.remove(added.getId());
+        ids.advancePast(external.getId());
+        Income moved = new Income(ids.next(), added.getDescriptionEntry(), added.getAmount(), added.getCategoryId(), added.getCreatedDate(), added.getCurrency());
+        applyExternal(null, moved);
+        unsaved.put(moved.getId(), null);
+        CONSOLETEXT.printWarning("Income " + added.getId() + " was also added by another process; the one added here is now income " + moved.getId() + ".");
+    }
+
+    /**
+     * Applies a change to the incomes that is already on disk, so it neither marks a page as changed nor
+     * schedules a save.
+     *
+     * @param before The income before the change, or null if it was added.
+     * @param after  The income after the change, or null if it was removed.
+     */
+    private void applyExternal(Income before, Income after) {
+        if (before == null) {
+            incomes.insert(after);
+        } else if (after == null) {
+            incomes.remove(before.getId());
+        } else {
+            incomes.replace(after);
+        }
+        if (incomesById != null) {
+            if (after != null) {
+                incomesById.put(after.getId(), after);
+            } else {
+                incomesById.remove(before.getId());
+            }
+        }
+        if (before != null) {
+            duplicates.remove(before);
+        }
+        if (after != null) {
+            duplicates.add(after);
+        }
+        publish(before == null ? TransactionEvent.Type.ADDED : after == null ? TransactionEvent.Type.REMOVED : TransactionEvent.Type.UPDATED, before, after);
+    }
+
+    /**
+     * Checks whether two incomes, either of which may be missing, would be saved as the same line.
+     *
+     * @param a The first income, or null.
+     * @param b The second income, or null.
+     * @return True if both are missing or both have the same values.
+     */
+    private static boolean sameRecord(Income a, Income b) {
+        return a == null ? b == null : b != null && a.toRecord().equals(b.toRecord());
+    }
+
+    /**
+     * Saves incomes to their shards, first moving the ones older than the archive horizon into the archive.
+     * Only the shards holding changed incomes are written, and only their changed pages when possible. The
+     * incomes are only locked to take a snapshot and to record the outcome, so they can be changed while the
+     * files are written.
+     */
+    void saveIncomes() {
+        synchronized (saveLock) {
+            long start = System.nanoTime();
+            LedgerSaveEvent event = new LedgerSaveEvent();
+            event.begin();
+            if (!shards.isCurrent()) {
+                // Another process saved since this one last read the shards; merge its changes instead of overwriting them
+                reloadIncomes();
+            }
+            archiveIncomes();
+            TransactionSnapshot<Income> snapshot;
+            boolean sortedById;
+            LedgerShards saving;
+            Map<Integer, Income> saved;
+            DuplicateIndex.PendingSave bloom;
+            synchronized (this) {
+                snapshot = incomes.snapshot();
+                sortedById = incomes.isSortedById();
+                saving = shards.copy();
+                saved = new HashMap<>(unsaved);
+                unsaved.clear();
+                bloom = duplicates.prepareSave();
+            }
+            try {
+                saving.save(snapshot, sortedById);
+            } catch (IOException e) {
+                synchronized (this) {
+                    // The versions from before the snapshot are the ones still on disk
+                    unsaved.putAll(saved);
+                    duplicates.finishSave(bloom, false);
+                }
+                CONSOLETEXT.printError("Error saving incomes to file");
+                return;
+            }
+            adoptPages(saving);
+            event.finish(INCOME_DIRECTORY, snapshot.size());
+            writeDuplicateIndex(bloom, snapshot.size());
+            ids.checkpoint();
+            SAVE_LATENCY.recordSince(start);
         }
     }
 }
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from int keys to objects that stores keys unboxed, so lookups allocate nothing.
+ * Uses open addressing with linear probing and removes entries by shifting later ones back, so no tombstones
+ * build up. Not thread-safe; callers synchronize as they would around a {@link java.util.HashMap}.
+ *
+ * @param <V> The type of value.
+ */
+public class IntMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int shift;
+
+    /**
+     * Constructs an empty map.
+     */
+    public IntMap() {
+        this(0);
+    }
+
+    /**
+     * Constructs an empty map sized for the given number of entries.
+     *
+     * @param expectedSize The number of entries the map should hold without growing.
+     */
+    public IntMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key The key.
+     * @return The value, or null if the key is absent.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        for (int slot = slotOf(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key   The key.
+     * @param value The value, which must not be null.
+     * @return The previous value, or null if the key was absent.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("IntMap does not hold null values.");
+        }
+        int slot = slotOf(key);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * 3 / 4) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key The key.
+     * @return The removed value, or null if the key was absent.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = slotOf(key);
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == null) {
+            return null;
+        }
+        V removed = (V) values[slot];
+        // Move back any later entry of the same probe run that would otherwise become unreachable
+        int gap = slot;
+        for (int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Gets the home slot of a key.
+     *
+     * @param key The key.
+     * @return The slot index.
+     */
+    private int slotOf(int key) {
+        // Fibonacci hashing spreads sequential IDs, which would otherwise fill one dense run of slots
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Moves every entry into a table of the given size.
+     *
+     * @param capacity The new table size, a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Allocates an empty table.
+     *
+     * @param capacity The table size, a power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    /**
+     * Gets the smallest power-of-two table size that holds the given number of entries under the load factor.
+     *
+     * @param expectedSize The number of entries.
+     * @return The table size.
+     */
+    private static int tableSizeFor(int expectedSize) {
+        long wanted = Math.max(MIN_CAPACITY, (long) expectedSize * 4 / 3 + 1);
+        return (int) Math.min(1 << 30, Long.highestOneBit(wanted - 1) << 1);
+    }
+}
@@ -0,0 +1,203 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Utility class for reading and writing the small, flat JSON documents used by the API server.
+ */
+public class Json {
+
+    /**
+     * Appends a JSON string literal, escaping characters as required.
+     *
+     * @param builder The builder to append to.
+     * @param value   The string value.
+     * @return The given builder.
+     */
+    public static StringBuilder appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        return builder.append('"');
+    }
+
+    /**
+     * Appends a transaction as a JSON object.
+     *
+     * @param builder     The builder to append to.
+     * @param transaction The transaction to append.
+     * @return The given builder.
+     */
+    public static StringBuilder appendTransaction(StringBuilder builder, Transaction transaction) {
+        builder.append("{\"id\":").append(transaction.getId()).append(",\"description\":");
+        appendString(builder, transaction.getDescription());
+        return builder.append(",\"amount\":").append(transaction.getAmount())
+                .append(",\"categoryId\":").append(transaction.getCategoryId())
+                .append(",\"currency\":\"").append(transaction.getCurrency())
+                .append("\",\"createdDate\":\"").append(transaction.getCreatedDate()).append("\"}");
+    }
+
+    /**
+     * Appends a category as a JSON object.
+     *
+     * @param builder  The builder to append to.
+     * @param category The category to append.
+     * @return The given builder.
+     */
+    public static StringBuilder appendCategory(StringBuilder builder, Category category) {
+        builder.append("{\"id\":").append(category.getId()).append(",\"name\":");
+        return appendString(builder, category.getName()).append(",\"parentId\":").append(category.getParentId()).append('}');
+    }
+
+    /**
+     * Parses a flat JSON object whose values are strings, numbers, booleans or null.
+     * Values are returned in their textual form; null values are omitted.
+     *
+     * @param text The JSON text.
+     * @return The members of the object, in document order.
+     * @throws IllegalArgumentException If the text is not a flat JSON object.
+     */
+    public static Map<String, String> parseObject(String text) {
+        Map<String, String> members = new LinkedHashMap<>();
+        int[] pos = {skipWhitespace(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+            return members;
+        }
+        while (true) {
+            pos[0] = skipWhitespace(text, pos[0]);
+            String key = readString(text, pos);
+            expect(text, pos, ':');
+            pos[0] = skipWhitespace(text, pos[0]);
+            String value = peek(text, pos) == '"' ? readString(text, pos) : readLiteral(text, pos);
+            if (value != null) {
+                members.put(key, value);
+            }
+            char next = peek(text, pos);
+            pos[0]++;
+            if (next == '}') {
+                return members;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("Invalid JSON: expected ',' or '}' at position " + (pos[0] - 1));
+            }
+        }
+    }
+
+    /**
+     * Reads a JSON string literal starting at the current position.
+     *
+     * @param text The JSON text.
+     * @param pos  The current position, advanced past the literal.
+     * @return The decoded string.
+     */
+    private static String readString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder builder = new StringBuilder();
+        int i = pos[0];
+        while (i < text.length()) {
+            char c = text.charAt(i++);
+            if (c == '"') {
+                pos[0] = i;
+                return builder.toString();
+            }
+            if (c == '\\' && i < text.length()) {
+                char escaped = text.charAt(i++);
+                switch (escaped) {
+                    case 'n' -> builder.append('\n');
+                    case 'r' -> builder.append('\r');
+                    case 't' -> builder.append('\t');
+                    case 'b' -> builder.append('\b');
+                    case 'f' -> builder.append('\f');
+                    case 'u' -> {
+                        if (i + 4 > text.length()) {
+                            throw new IllegalArgumentException("Invalid JSON: truncated unicode escape");
+                        }
+                        builder.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                        i += 4;
+                    }
+                    default -> builder.append(escaped);
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Invalid JSON: unterminated string");
+    }
+
+    /**
+     * Reads a number, boolean or null literal starting at the current position.
+     *
+     * @param text The JSON text.
+     * @param pos  The current position, advanced past the literal.
+     * @return The literal text, or null for a JSON null.
+     */
+    private static String readLiteral(String text, int[] pos) {
+        int start = pos[0];
+        int i = start;
+        while (i < text.length() && ",}] \t\r\n".indexOf(text.charAt(i)) < 0) {
+            i++;
+        }
+        if (i == start) {
+            throw new IllegalArgumentException("Invalid JSON: expected a value at position " + start);
+        }
+        pos[0] = i;
+        String literal = text.substring(start, i);
+        return literal.equals("null") ? null : literal;
+    }
+
+    /**
+     * Skips whitespace and requires the given character.
+     *
+     * @param text     The JSON text.
+     * @param pos      The current position, advanced past the character.
+     * @param expected The required character.
+     */
+    private static void expect(String text, int[] pos, char expected) {
+        if (peek(text, pos) != expected) {
+            throw new IllegalArgumentException("Invalid JSON: expected '" + expected + "' at position " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    /**
+     * Skips whitespace and returns the character at the current position.
+     *
+     * @param text The JSON text.
+     * @param pos  The current position, advanced past any whitespace.
+     * @return The current character, or 0 at the end of the text.
+     */
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipWhitespace(text, pos[0]);
+        return pos[0] < text.length() ? text.charAt(pos[0]) : 0;
+    }
+
+    /**
+     * Returns the first position at or after the given one that is not whitespace.
+     *
+     * @param text The JSON text.
+     * @param i    The position to start from.
+     * @return The first non-whitespace position.
+     */
+    private static int skipWhitespace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
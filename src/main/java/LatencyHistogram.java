@@ -0,0 +1,124 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies into log-linear buckets in the style of an HDR histogram: each power of two is split into
+ * 16 equal sub-buckets, so every recorded value is kept to within about 6% from a nanosecond up to a quarter of
+ * an hour, in under 5 KiB of memory. Recording is lock-free and allocation-free.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 39;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int SAMPLE_MASK = 63;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Decides whether to time the current call of a very hot operation. Reading the clock twice can cost more
+     * than a hash lookup, so such operations are counted on every call but only one call in 64 is timed.
+     *
+     * @return True if the call should be timed.
+     */
+    public static boolean shouldSample() {
+        return (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0;
+    }
+
+    /**
+     * Records the time elapsed since the given start.
+     *
+     * @param startNanos The start time, as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds; negative values count as zero and huge ones are capped.
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the sum of all recorded latencies.
+     *
+     * @return The sum in nanoseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Gets an upper bound of the latency below which the given fraction of recordings fall.
+     *
+     * @param quantile The quantile, between 0 and 1.
+     * @return The latency in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long getQuantile(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the bucket that holds a value.
+     *
+     * @param value The non-negative value.
+     * @return The bucket index.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the largest value that falls into a bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The largest value of the bucket.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
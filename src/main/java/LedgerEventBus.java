@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Publishes the changes made to a ledger, in batches, to asynchronous subscribers.
+ * <p>
+ * Outside a bulk operation every change is offered right away; inside one, changes are grouped into larger
+ * batches. Either way publishing never blocks, as writers publish while holding the ledger's lock: if a subscriber
+ * has fallen so far behind that its buffer is full, the batch is dropped for that subscriber and, if it is a
+ * {@link LedgerView}, it is told to resynchronize from a fresh snapshot.
+ *
+ * @param <T> The type of transaction.
+ */
+public class LedgerEventBus<T extends Transaction> {
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final int SUBSCRIBER_BUFFER = 256;
+
+    private final SubmissionPublisher<List<TransactionEvent<T>>> publisher;
+    private List<TransactionEvent<T>> pending = new ArrayList<>();
+    private int bulkDepth;
+
+    /**
+     * Constructs a LedgerEventBus that delivers to each subscriber on virtual threads.
+     */
+    public LedgerEventBus() {
+        publisher = new SubmissionPublisher<>(Executors.newVirtualThreadPerTaskExecutor(), SUBSCRIBER_BUFFER);
+    }
+
+    /**
+     * Adds a subscriber. It receives the changes published from now on.
+     *
+     * @param subscriber The subscriber.
+     */
+    public void subscribe(Flow.Subscriber<? super List<TransactionEvent<T>>> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Checks whether anyone is listening, so that callers can skip building events nobody will read.
+     *
+     * @return True if there is at least one subscriber.
+     */
+    public boolean hasSubscribers() {
+        return publisher.hasSubscribers();
+    }
+
+    /**
+     * Publishes a change. Outside a bulk operation the change is delivered immediately.
+     *
+     * @param event The change.
+     */
+    public synchronized void publish(TransactionEvent<T> event) {
+        if (!publisher.hasSubscribers()) {
+            return;
+        }
+        pending.add(event);
+        if (bulkDepth == 0 || pending.size() >= MAX_BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Starts a bulk operation; changes are batched until the matching {@link #endBulk()}.
+     */
+    public synchronized void beginBulk() {
+        bulkDepth++;
+    }
+
+    /**
+     * Ends a bulk operation, delivering any changes still pending when the outermost one ends.
+     */
+    public synchronized void endBulk() {
+        if (bulkDepth > 0 && --bulkDepth == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Stops delivering changes and lets subscribers complete.
+     */
+    public synchronized void close() {
+        flush();
+        publisher.close();
+    }
+
+    /**
+     * Offers the pending changes to the publisher as one batch, without waiting for any subscriber.
+     */
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<TransactionEvent<T>> batch = pending;
+        pending = new ArrayList<>();
+        publisher.offer(batch, (subscriber, dropped) -> {
+            Object target = subscriber;
+            if (target instanceof LedgerView<?> view) {
+                view.markStale();
+            }
+            return false;
+        });
+    }
+}
@@ -0,0 +1,56 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Base of the flight recorder events that time reading or writing a ledger file.
+ * Creating, beginning and finishing an event costs next to nothing when the event is not enabled in a recording.
+ */
+@Category({"Expense Tracker", "Ledger"})
+@StackTrace(false)
+abstract class LedgerFileEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Ends the event and commits it with the size of the file if the event is enabled. The size of a directory,
+     * such as one holding the shards of a ledger, is the total size of the files in it.
+     *
+     * @param file The ledger file or directory that was read or written.
+     * @param rows The number of rows read or written.
+     */
+    void finish(String file, long rows) {
+        end();
+        if (shouldCommit()) {
+            this.file = file;
+            this.rows = rows;
+            try {
+                Path path = Path.of(file);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> files = Files.list(path)) {
+                        bytes = files.mapToLong(child -> child.toFile().length()).sum();
+                    }
+                } else {
+                    bytes = Files.size(path);
+                }
+            } catch (IOException e) {
+                bytes = 0;
+            }
+            commit();
+        }
+    }
+}
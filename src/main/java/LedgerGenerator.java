@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic ledgers in the exact formats of the {@code categories.txt} file and the {@code expenses} and
+ * {@code incomes} shard directories, manifests included, for scale testing. The output only depends on the settings, so the same seed always produces the same
+ * files.
+ * <p>
+ * A generator is configured from properties with the following keys:
+ * <pre>
+ * seed=42                      seed of the random generator (default 42)
+ * expenses=1000000             number of expense rows (default 1000000)
+ * incomes=100000               number of income rows (default a tenth of the expenses)
+ * categories=20                number of categories (default 20)
+ * end=2024-12-31               date of the last rows (default today)
+ * days=1095                    number of days the rows are spread over, ending at the end date (default 1095)
+ * vocabulary=1000              number of distinct description words (default 1000)
+ * skew=1.1                     Zipf exponent used to pick categories and words (default 1.1)
+ * expense.median=25            median expense amount (default 25)
+ * income.median=1500           median income amount (default 1500)
+ * amount.sigma=1.2             spread of the log-normal amount distribution (default 1.2)
+ * </pre>
+ * Rows are written in date order with sequential IDs, the way a ledger grows when it is used day by day.
+ */
+public class LedgerGenerator {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAX_ROW_BYTES = 256;
+    private static final int MAX_WORDS_PER_DESCRIPTION = 3;
+    private static final String[] SYLLABLES = {"ba", "ko", "ri", "ta", "me", "lu", "sa", "no", "vi", "de", "ga", "pe",
+            "zu", "fo", "hi", "ra", "mo", "ke", "li", "su"};
+    private static final String[] CATEGORY_NAMES = {"Groceries", "Rent", "Salary", "Utilities", "Transport",
+            "Dining", "Health", "Insurance", "Entertainment", "Travel", "Clothing", "Education", "Gifts",
+            "Subscriptions", "Savings", "Pets", "Household", "Fuel", "Phone", "Taxes"};
+
+    private long seed = 42;
+    private long expenses = 1_000_000;
+    private long incomes = 100_000;
+    private int categories = 20;
+    private LocalDate end = LocalDate.now();
+    private int days = 3 * 365;
+    private int vocabulary = 1000;
+    private double skew = 1.1;
+    private double expenseMedian = 25;
+    private double incomeMedian = 1500;
+    private double amountSigma = 1.2;
+
+    private byte[][] words;
+    private Sampler wordSampler;
+    private Sampler categorySampler;
+    private byte[][] dates;
+    private LocalDate[] calendar;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    /**
+     * Creates a generator from properties, using the defaults for missing keys.
+     *
+     * @param properties The generator settings.
+     * @return The configured generator.
+     * @throws IllegalArgumentException If a value is invalid.
+     */
+    public static LedgerGenerator fromProperties(Properties properties) {
+        LedgerGenerator generator = new LedgerGenerator();
+        generator.seed = Long.parseLong(properties.getProperty("seed", "42").strip());
+        generator.expenses = Long.parseLong(properties.getProperty("expenses", "1000000").strip());
+        generator.incomes = Long.parseLong(properties.getProperty("incomes", Long.toString(Math.max(1, generator.expenses / 10))).strip());
+        generator.categories = Integer.parseInt(properties.getProperty("categories", "20").strip());
+        if (properties.containsKey("end")) {
+            generator.end = LocalDate.parse(properties.getProperty("end").strip());
+        }
+        generator.days = Integer.parseInt(properties.getProperty("days", "1095").strip());
+        generator.vocabulary = Integer.parseInt(properties.getProperty("vocabulary", "1000").strip());
+        generator.skew = Double.parseDouble(properties.getProperty("skew", "1.1").strip());
+        generator.expenseMedian = Double.parseDouble(properties.getProperty("expense.median", "25").strip());
+        generator.incomeMedian = Double.parseDouble(properties.getProperty("income.median", "1500").strip());
+        generator.amountSigma = Double.parseDouble(properties.getProperty("amount.sigma", "1.2").strip());
+        if (generator.expenses < 0 || generator.incomes < 0 || generator.expenses + generator.incomes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Row counts must be between 0 and " + Integer.MAX_VALUE + ".");
+        }
+        if (generator.categories < 1 || generator.days < 1 || generator.vocabulary < 1) {
+            throw new IllegalArgumentException("categories, days and vocabulary must be positive.");
+        }
+        if (generator.expenseMedian <= 0 || generator.incomeMedian <= 0 || generator.amountSigma < 0) {
+            throw new IllegalArgumentException("Amount medians must be positive and amount.sigma not negative.");
+        }
+        return generator;
+    }
+
+    /**
+     * Creates a generator from command-line arguments of the form {@code key=value}.
+     *
+     * @param arguments The settings, using the same keys as {@link #fromProperties(Properties)}.
+     * @return The configured generator.
+     * @throws IllegalArgumentException If an argument is malformed or a value is invalid.
+     */
+    public static LedgerGenerator fromArguments(String[] arguments) {
+        Properties properties = new Properties();
+        for (String argument : arguments) {
+            int separator = argument.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got: " + argument);
+            }
+            properties.setProperty(argument.substring(0, separator), argument.substring(separator + 1));
+        }
+        return fromProperties(properties);
+    }
+
+    /**
+     * Gets the number of expense rows that will be generated.
+     *
+     * @return The number of expense rows.
+     */
+    public long getExpenses() {
+        return expenses;
+    }
+
+    /**
+     * Gets the number of income rows that will be generated.
+     *
+     * @return The number of income rows.
+     */
+    public long getIncomes() {
+        return incomes;
+    }
+
+    /**
+     * Writes the category file and the expense and income shards into a directory, replacing any existing ledger.
+     *
+     * @param directory The directory to write to; it is created if it does not exist.
+     * @return The total number of bytes written.
+     * @throws IOException If a file cannot be written.
+     */
+    public long generate(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        SplittableRandom random = new SplittableRandom(seed);
+        prepare(random);
+        long bytes = writeCategories(directory.resolve(CategoryManager.CATEGORY_FILE));
+        bytes += writeTransactions(directory.resolve(ExpenseManager.EXPENSE_DIRECTORY), expenses, expenseMedian, random.split());
+        bytes += writeTransactions(directory.resolve(IncomeManager.INCOME_DIRECTORY), incomes, incomeMedian, random.split());
+        return bytes;
+    }
+
+    /**
+     * Builds the vocabulary, the Zipf weights and the encoded dates.
+     *
+     * @param random The random generator.
+     */
+    private void prepare(SplittableRandom random) {
+        words = new byte[vocabulary][];
+        for (int i = 0; i < vocabulary; i++) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 2 + random.nextInt(3);
+            for (int s = 0; s < syllables; s++) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+            words[i] = word.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+        wordSampler = new Sampler(zipf(vocabulary));
+        categorySampler = new Sampler(zipf(categories));
+        dates = new byte[days][];
+        calendar = new LocalDate[days];
+        LocalDate first = end.minusDays(days - 1);
+        for (int i = 0; i < days; i++) {
+            calendar[i] = first.plusDays(i);
+            dates[i] = calendar[i].toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Computes the Zipf weights of the given number of ranks.
+     *
+     * @param ranks The number of ranks.
+     * @return The unnormalized weight of each rank.
+     */
+    private double[] zipf(int ranks) {
+        double[] weights = new double[ranks];
+        for (int i = 0; i < ranks; i++) {
+            weights[i] = 1 / Math.pow(i + 1, skew);
+        }
+        return weights;
+    }
+
+    /**
+     * Draws ranks from a discrete distribution in constant time using Walker's alias method.
+     */
+    private static class Sampler {
+        private final double[] probability;
+        private final int[] alias;
+
+        /**
+         * Builds the alias table of a distribution.
+         *
+         * @param weights The unnormalized weight of each rank.
+         */
+        Sampler(double[] weights) {
+            int n = weights.length;
+            probability = new double[n];
+            alias = new int[n];
+            double sum = 0;
+            for (double weight : weights) {
+                sum += weight;
+            }
+            double[] scaled = new double[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = weights[i] * n / sum;
+                if (scaled[i] < 1) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                probability[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] += scaled[less] - 1;
+                if (scaled[more] < 1) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+            while (largeCount > 0) {
+                probability[large[--largeCount]] = 1;
+            }
+            while (smallCount > 0) {
+                probability[small[--smallCount]] = 1;
+            }
+        }
+
+        /**
+         * Draws a rank.
+         *
+         * @param random The random generator.
+         * @return The zero-based rank.
+         */
+        int next(SplittableRandom random) {
+            int rank = random.nextInt(probability.length);
+            return random.nextDouble() < probability[rank] ? rank : alias[rank];
+        }
+    }
+
+    /**
+     * Writes the category file.
+     *
+     * @param file The file to write.
+     * @return The number of bytes written.
+     * @throws IOException If the file cannot be written.
+     */
+    private long writeCategories(Path file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= categories; i++) {
+            String name = i <= CATEGORY_NAMES.length ? CATEGORY_NAMES[i - 1] : "Category " + i;
+            text.append(i).append(',').append(name).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(file, bytes);
+        return bytes.length;
+    }
+
+    /**
+     * Writes a ledger of transactions spread evenly over the date range into one shard per year, followed by the
+     * manifest of the shards.
+     *
+     * @param directory The shard directory to write.
+     * @param rows      The number of rows.
+     * @param median    The median amount.
+     * @param random    The random generator.
+     * @return The number of bytes written.
+     * @throws IOException If a file cannot be written.
+     */
+    private long writeTransactions(Path directory, long rows, double median, SplittableRandom random) throws IOException {
+        LedgerShards.clear(directory);
+        List<LedgerShards.Shard> shards = new ArrayList<>();
+        long written = 0;
+        position = 0;
+        LedgerShards.Shard shard = null;
+        FileChannel channel = null;
+        try {
+            for (long row = 0; row < rows; row++) {
+                int day = (int) (row * days / rows);
+                // Rows are in date order, so each shard is written in one go
+                if (shard == null || calendar[day].getYear() != shard.getYear()) {
+                    if (channel != null) {
+                        written += drain(channel);
+                        channel.close();
+                    }
+                    shard = new LedgerShards.Shard(calendar[day].getYear());
+                    shards.add(shard);
+                    channel = FileChannel.open(LedgerShards.shardFile(directory, calendar[day].getYear()),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                }
+                if (BUFFER_SIZE - position < MAX_ROW_BYTES) {
+                    written += drain(channel);
+                }
+                putNumber(row + 1);
+                buffer[position++] = ',';
+                int wordCount = 1 + random.nextInt(MAX_WORDS_PER_DESCRIPTION);
+                for (int w = 0; w < wordCount; w++) {
+                    if (w > 0) {
+                        buffer[position++] = ' ';
+                    }
+                    put(words[wordSampler.next(random)]);
+                }
+                buffer[position++] = ',';
+                // Log-normal amounts give many small transactions and a long tail of large ones
+                long cents = Math.max(1, Math.round(median * Math.exp(amountSigma * random.nextGaussian()) * 100));
+                putNumber(cents / 100);
+                buffer[position++] = '.';
+                buffer[position++] = (byte) ('0' + cents % 100 / 10);
+                buffer[position++] = (byte) ('0' + cents % 10);
+                buffer[position++] = ',';
+                putNumber(categorySampler.next(random) + 1);
+                buffer[position++] = ',';
+                put(dates[day]);
+                buffer[position++] = '\n';
+                shard.add(Math.toIntExact(row + 1), calendar[day]);
+            }
+            if (channel != null) {
+                written += drain(channel);
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        LedgerShards.writeManifest(directory, shards);
+        return written;
+    }
+
+    /**
+     * Appends bytes to the write buffer.
+     *
+     * @param bytes The bytes to append.
+     */
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    /**
+     * Appends a non-negative number in decimal to the write buffer.
+     *
+     * @param value The number.
+     */
+    private void putNumber(long value) {
+        int length = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            length++;
+        }
+        position += length;
+        int digit = position;
+        do {
+            buffer[--digit] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+    }
+
+    /**
+     * Writes the buffered bytes to the channel and empties the buffer.
+     *
+     * @param channel The channel to write to.
+     * @return The number of bytes written.
+     * @throws IOException If the bytes cannot be written.
+     */
+    private long drain(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, position);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        int written = position;
+        position = 0;
+        return written;
+    }
+}
@@ -0,0 +1,12 @@
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event emitted when the category file or the expense or income shards are parsed.
+ */
+@Name("expensetracker.LedgerLoad")
+@Label("Ledger Load")
+@Description("Reading and parsing a ledger file")
+class LedgerLoadEvent extends LedgerFileEvent {
+}
@@ -0,0 +1,287 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Loads the shards of a ledger with all cores.
+ * <p>
+ * Every shard file is split at line breaks into one part per core, each at least {@value #MIN_PART_BYTES} bytes,
+ * and the parts of all shards are parsed side by side, each on its own thread into a private
+ * {@link TransactionStore}, so that small shards load in parallel and large ones are split. The parts of a shard are
+ * joined in file order without copying their chunks. Shards whose ranges of IDs do not overlap, which is the usual
+ * case as IDs grow with time, are joined the same way; otherwise they are merged into ID order, and a row found in
+ * two shards, as an interrupted save can leave it, is kept once. The number of threads is set with the
+ * {@code expensetracker.load.threads} system property and defaults to the number of available processors.
+ */
+public class LedgerLoader {
+    private static final long MIN_PART_BYTES = 4 << 20;
+
+    /**
+     * Parses the lines read from a reader into transactions.
+     *
+     * @param <T> The type of transaction.
+     */
+    @FunctionalInterface
+    public interface LineParser<T> {
+        /**
+         * Reads all lines and passes the transactions they hold, in order, to an action.
+         *
+         * @param reader The reader of the lines.
+         * @param action The action to perform for each transaction.
+         * @throws IOException If the lines cannot be read.
+         */
+        void parse(BufferedReader reader, Consumer<T> action) throws IOException;
+    }
+
+    /**
+     * Prevents instantiation; the loader only has static methods.
+     */
+    private LedgerLoader() {
+    }
+
+    /**
+     * Loads the shard files of a ledger into a store.
+     *
+     * @param files  The shard files; files that do not exist are skipped.
+     * @param store  The store to append the transactions to.
+     * @param parser Parses the lines of the files.
+     * @param <T>    The type of transaction.
+     * @throws IOException If a file cannot be read.
+     */
+    public static <T extends Transaction> void load(List<Path> files, TransactionStore<T> store, LineParser<T> parser) throws IOException {
+        int threads = Integer.getInteger("expensetracker.load.threads", Runtime.getRuntime().availableProcessors());
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            List<long[]> bounds = new ArrayList<>();
+            for (Path file : files) {
+                FileChannel channel;
+                try {
+                    channel = FileChannel.open(file, StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                channels.add(channel);
+                bounds.add(split(channel, threads));
+            }
+            int[] fileOfPart = new int[bounds.stream().mapToInt(fileBounds -> fileBounds.length - 1).sum()];
+            int[] indexOfPart = new int[fileOfPart.length];
+            for (int f = 0, p = 0; f < bounds.size(); f++) {
+                for (int i = 0; i < bounds.get(f).length - 1; i++, p++) {
+                    fileOfPart[p] = f;
+                    indexOfPart[p] = i;
+                }
+            }
+            List<TransactionStore<T>> loaded;
+            try {
+                loaded = IntStream.range(0, fileOfPart.length).parallel()
+                        .mapToObj(p -> loadPart(channels.get(fileOfPart[p]), bounds.get(fileOfPart[p])[indexOfPart[p]],
+                                bounds.get(fileOfPart[p])[indexOfPart[p] + 1], store.getFormat(), parser))
+                        .toList();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            List<TransactionStore<T>> shards = new ArrayList<>();
+            for (int p = 0; p < loaded.size(); p++) {
+                if (indexOfPart[p] == 0) {
+                    shards.add(new TransactionStore<>(store.getFormat()));
+                }
+                shards.get(shards.size() - 1).append(loaded.get(p));
+            }
+            join(shards, store);
+        } finally {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Splits a file at line breaks into one part per thread, with at least {@value #MIN_PART_BYTES} bytes per part.
+     *
+     * @param channel The channel of the file.
+     * @param threads The number of threads.
+     * @return The start of every part followed by the size of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private static long[] split(FileChannel channel, int threads) throws IOException {
+        long size = channel.size();
+        int parts = (int) Math.max(1, Math.min(threads, size / MIN_PART_BYTES));
+        long[] bounds = new long[parts + 1];
+        bounds[parts] = size;
+        for (int i = 1; i < parts; i++) {
+            bounds[i] = nextLineStart(channel, Math.max(bounds[i - 1], size * i / parts));
+        }
+        return bounds;
+    }
+
+    /**
+     * Joins the loaded shards into a store: by taking over their chunks if their ranges of IDs follow each other,
+     * otherwise by merging their rows into ID order.
+     *
+     * @param shards The loaded shards, each in file order.
+     * @param store  The store to append the transactions to.
+     * @param <T>    The type of transaction.
+     */
+    private static <T extends Transaction> void join(List<TransactionStore<T>> shards, TransactionStore<T> store) {
+        shards.removeIf(TransactionStore::isEmpty);
+        shards.sort(Comparator.comparingInt(shard -> shard.first().getId()));
+        boolean disjoint = true;
+        for (int i = 1; i < shards.size(); i++) {
+            disjoint = disjoint && shards.get(i - 1).isSortedById() && shards.get(i - 1).last().getId() < shards.get(i).first().getId();
+        }
+        if (disjoint) {
+            for (TransactionStore<T> shard : shards) {
+                store.append(shard);
+            }
+            return;
+        }
+        List<Iterator<T>> iterators = new ArrayList<>();
+        List<T> heads = new ArrayList<>();
+        for (TransactionStore<T> shard : shards) {
+            Iterator<T> iterator = shard.snapshot().iterator();
+            iterators.add(iterator);
+            heads.add(iterator.next());
+        }
+        T previous = null;
+        while (true) {
+            // There are only a few shards, so the smallest head is found by looking at each
+            int smallest = -1;
+            for (int i = 0; i < heads.size(); i++) {
+                if (heads.get(i) != null && (smallest < 0 || heads.get(i).getId() < heads.get(smallest).getId())) {
+                    smallest = i;
+                }
+            }
+            if (smallest < 0) {
+                return;
+            }
+            T next = heads.get(smallest);
+            if (previous == null || next.getId() != previous.getId()) {
+                store.add(next);
+                previous = next;
+            }
+            heads.set(smallest, iterators.get(smallest).hasNext() ? iterators.get(smallest).next() : null);
+        }
+    }
+
+    /**
+     * Parses one part of a shard file into a new store.
+     *
+     * @param channel The channel of the shard file.
+     * @param start   The position of the first line of the part.
+     * @param end     The position after the last line of the part.
+     * @param format  The chunk format of the store.
+     * @param parser  Parses the lines of the part.
+     * @param <T>     The type of transaction.
+     * @return The store holding the transactions of the part.
+     */
+    private static <T extends Transaction> TransactionStore<T> loadPart(FileChannel channel, long start, long end,
+                                                                        ChunkFormat<T> format, LineParser<T> parser) {
+        TransactionStore<T> part = new TransactionStore<>(format);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new RangeInputStream(channel, start, end), StandardCharsets.UTF_8), 1 << 16)) {
+            parser.parse(reader, part::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return part;
+    }
+
+    /**
+     * Finds the start of the first line that begins at or after a position.
+     *
+     * @param channel  The channel of the file.
+     * @param position The position.
+     * @return The position just past the next line break, or the size of the file if there is none.
+     * @throws IOException If the file cannot be read.
+     */
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        // The line break just before the position counts, so that a part never starts in the middle of a line
+        position--;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Reads a range of a file through positional reads, so that several parts can be read at once.
+     */
+    private static final class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        /**
+         * Constructs a RangeInputStream.
+         *
+         * @param channel The channel of the file.
+         * @param start   The position of the first byte to read.
+         * @param end     The position after the last byte to read.
+         */
+        private RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Reads one byte.
+         *
+         * @return The byte, or -1 at the end of the range.
+         * @throws IOException If the file cannot be read.
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        /**
+         * Reads bytes into an array.
+         *
+         * @param bytes  The array.
+         * @param offset The position in the array to start at.
+         * @param length The maximum number of bytes to read.
+         * @return The number of bytes read, or -1 at the end of the range.
+         * @throws IOException If the file cannot be read.
+         */
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+            if (read < 0) {
+                return -1;
+            }
+            position += read;
+            return read;
+        }
+    }
+}
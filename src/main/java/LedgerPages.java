@@ -0,0 +1,567 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Tracks which pages of a ledger file changed since it was last saved, so that a save rewrites only those.
+ * <p>
+ * The file is split into pages of about {@value #ROWS_PER_PAGE} rows, each covering a range of IDs and a region
+ * of bytes. A changed page is written back in place when it still fits its region, padded with empty lines that
+ * the loader skips; full pages are written with a few empty lines of slack, so that most edits fit. New rows are written over the last page and past the end of the file. The whole file is
+ * written to a temporary file and atomically renamed instead when a page outgrows its region, when the rows are
+ * not sorted by ID, when someone else changed the file, or when a quarter of it has become padding.
+ * The page table is kept next to the ledger file and stamped like the Bloom filter, so incremental saves also
+ * work right after a restart.
+ * <p>
+ * Every page also records a checksum of its region. When another process has saved the ledger, the regions are
+ * checked against them, so that only the pages that changed and the tail of the file have to be parsed again.
+ */
+public final class LedgerPages {
+    static final int ROWS_PER_PAGE = 1024;
+    private static final int MAGIC = 0x50414745;
+    private static final int VERSION = 3;
+    private static final int PAGE_SLACK = 64;
+
+    private final Path ledgerFile;
+    private final Path pageFile;
+    private final BitSet dirty = new BitSet();
+    private int[] firstIds = new int[16];
+    private long[] starts = new long[16];
+    private int[] lengths = new int[16];
+    private int[] used = new int[16];
+    private int[] checksums = new int[16];
+    private int pageCount;
+    // The version of the ledger file this process last read or wrote, which the page table describes while valid
+    private LedgerStamp stamp;
+    private boolean valid;
+
+    /**
+     * Constructs the LedgerPages of a ledger file, loading its page table if it is up to date.
+     *
+     * @param ledgerFile The ledger file.
+     * @param pageFile   The file holding the persisted page table.
+     */
+    public LedgerPages(Path ledgerFile, Path pageFile) {
+        this.ledgerFile = ledgerFile;
+        this.pageFile = pageFile;
+        stamp = readVersion();
+        loadPageTable();
+    }
+
+    /**
+     * Constructs a copy of another LedgerPages, with its own page table and changed pages.
+     *
+     * @param other The LedgerPages to copy.
+     */
+    private LedgerPages(LedgerPages other) {
+        ledgerFile = other.ledgerFile;
+        pageFile = other.pageFile;
+        dirty.or(other.dirty);
+        firstIds = other.firstIds.clone();
+        starts = other.starts.clone();
+        lengths = other.lengths.clone();
+        used = other.used.clone();
+        checksums = other.checksums.clone();
+        pageCount = other.pageCount;
+        stamp = other.stamp;
+        valid = other.valid;
+    }
+
+    /**
+     * Copies the page table and the changed pages, so that a save or reload can work on the copy without
+     * locking out the changes recorded meanwhile, and then {@linkplain #adopt(LedgerPages) hand it back}.
+     *
+     * @return The copy.
+     */
+    public LedgerPages copy() {
+        return new LedgerPages(this);
+    }
+
+    /**
+     * Takes over the page table and file version of a copy that saved or reloaded the ledger. Pages marked as
+     * changed are forgotten, as they refer to the old table; changes made since the copy was taken must be marked
+     * again.
+     *
+     * @param copy The copy.
+     */
+    public void adopt(LedgerPages copy) {
+        dirty.clear();
+        firstIds = copy.firstIds;
+        starts = copy.starts;
+        lengths = copy.lengths;
+        used = copy.used;
+        checksums = copy.checksums;
+        pageCount = copy.pageCount;
+        stamp = copy.stamp;
+        valid = copy.valid;
+    }
+
+    /**
+     * Loads the persisted page table, which is only used if it describes the version of the ledger file this
+     * process knows.
+     */
+    private void loadPageTable() {
+        valid = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(pageFile)))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION && LedgerStamp.read(in).equals(stamp)) {
+                int count = in.readInt();
+                ensureCapacity(count);
+                for (int i = 0; i < count; i++) {
+                    firstIds[i] = in.readInt();
+                    starts[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    used[i] = in.readInt();
+                    checksums[i] = in.readInt();
+                }
+                pageCount = count;
+                valid = true;
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Gets the version of the ledger file as it is on disk now.
+     *
+     * @return The version, or {@link LedgerStamp#MISSING} if the file does not exist or cannot be read.
+     */
+    public LedgerStamp readVersion() {
+        try {
+            return LedgerStamp.of(ledgerFile);
+        } catch (IOException e) {
+            return LedgerStamp.MISSING;
+        }
+    }
+
+    /**
+     * Gets the version of the ledger file this process last read or wrote.
+     *
+     * @return The version, or {@link LedgerStamp#MISSING} if the file did not exist.
+     */
+    public LedgerStamp getVersion() {
+        return stamp;
+    }
+
+    /**
+     * Checks whether the ledger file is still the version this process last read or wrote, i.e. no other process
+     * has saved it since.
+     *
+     * @return True if the file is unchanged.
+     */
+    public boolean isCurrent() {
+        return readVersion().equals(stamp);
+    }
+
+    /**
+     * Checks whether the page table describes the ledger file, so that changes can be read page by page.
+     *
+     * @return True if the page table is up to date.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Reads the regions of the ledger file that changed since this process last read or wrote it: every page
+     * whose checksum no longer matches, and the last page through to the end of the file.
+     *
+     * @return The changed regions, or null if the whole file has to be read again because the page table is out of
+     * date, the file was rewritten with a different layout or most of its pages changed.
+     * @throws IOException If the file cannot be read.
+     */
+    public List<Region> readChanges() throws IOException {
+        if (!valid || pageCount == 0) {
+            return null;
+        }
+        List<Region> regions = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(ledgerFile, StandardOpenOption.READ)) {
+            int last = pageCount - 1;
+            long size = channel.size();
+            if (size < starts[last] || size - starts[last] > Integer.MAX_VALUE - 8 || !isLineStart(channel, starts[last])) {
+                return null;
+            }
+            CRC32C crc = new CRC32C();
+            for (int page = 0; page < last; page++) {
+                ByteBuffer region = ByteBuffer.allocate(lengths[page]);
+                readFully(channel, region, starts[page]);
+                crc.reset();
+                crc.update(region.array());
+                if ((int) crc.getValue() != checksums[page]) {
+                    if (!isLineStart(channel, starts[page]) || region.get(lengths[page] - 1) != '\n') {
+                        return null;
+                    }
+                    regions.add(new Region(region.array(), page == 0 ? Integer.MIN_VALUE : firstIds[page], firstIds[page + 1]));
+                }
+            }
+            if (regions.size() * 2 > pageCount) {
+                return null;
+            }
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - starts[last]));
+            readFully(channel, tail, starts[last]);
+            regions.add(new Region(tail.array(), last == 0 ? Integer.MIN_VALUE : firstIds[last], Integer.MAX_VALUE));
+        }
+        return regions;
+    }
+
+    /**
+     * Records that this process has merged the given version of the ledger file, and takes over the page table
+     * that the process which wrote it persisted. Until a matching page table is found, changes are read by
+     * parsing the whole file and saves rewrite it.
+     *
+     * @param version The version of the ledger file that was read.
+     */
+    public void reloaded(LedgerStamp version) {
+        stamp = version;
+        dirty.clear();
+        loadPageTable();
+    }
+
+    /**
+     * Takes over the page table persisted for the current version of the ledger file, if the one held is out of
+     * date, for example because the process that wrote the file had not yet saved its table when it was read.
+     */
+    public void refreshPageTable() {
+        if (!valid) {
+            loadPageTable();
+        }
+    }
+
+    /**
+     * Records that the transaction with the given ID was added, changed or removed.
+     *
+     * @param id The ID of the transaction.
+     */
+    public void markChanged(int id) {
+        if (valid && pageCount > 0) {
+            dirty.set(pageOf(id));
+        }
+    }
+
+    /**
+     * Saves a ledger, writing back only the changed pages when possible.
+     *
+     * @param transactions The transactions of the ledger, in file order.
+     * @param sortedById   True if the transactions are in ascending ID order.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(List<? extends Transaction> transactions, boolean sortedById) throws IOException {
+        if (!valid || !sortedById || pageCount == 0 || !LedgerStamp.of(ledgerFile).equals(stamp)
+                || !writeChangedPages(transactions)) {
+            writeAll(transactions, sortedById);
+        }
+        dirty.clear();
+        stamp = readVersion();
+        savePageTable();
+    }
+
+    /**
+     * Writes the changed pages in place and the rows of the last page onwards to the end of the file.
+     *
+     * @param transactions The transactions of the ledger, in ID order.
+     * @return True if done, false if a page outgrew its region or the file holds too much padding.
+     * @throws IOException If the file cannot be written.
+     */
+    private boolean writeChangedPages(List<? extends Transaction> transactions) throws IOException {
+        try (FileChannel channel = FileChannel.open(ledgerFile, StandardOpenOption.WRITE)) {
+            int last = pageCount - 1;
+            for (int page = dirty.nextSetBit(0); page >= 0 && page < last; page = dirty.nextSetBit(page + 1)) {
+                int from = page == 0 ? 0 : lowerBound(transactions, firstIds[page]);
+                byte[] bytes = encode(transactions, from, lowerBound(transactions, firstIds[page + 1]), 0);
+                if (bytes.length > lengths[page]) {
+                    return false;
+                }
+                ByteBuffer region = ByteBuffer.allocate(lengths[page]).put(bytes);
+                while (region.hasRemaining()) {
+                    region.put((byte) '\n');
+                }
+                writeFully(channel, region.flip(), starts[page]);
+                used[page] = bytes.length;
+                checksums[page] = checksum(region.array());
+            }
+            if (dirty.get(last)) {
+                // The last page may have grown past a page's worth of rows; split it as it is written
+                int from = last == 0 ? 0 : lowerBound(transactions, firstIds[last]);
+                long position = starts[last];
+                int page = last;
+                do {
+                    int to = Math.min(from + ROWS_PER_PAGE, transactions.size());
+                    byte[] bytes = encode(transactions, from, to, to < transactions.size() ? PAGE_SLACK : 0);
+                    ensureCapacity(page + 1);
+                    if (page > last) {
+                        firstIds[page] = transactions.get(from).getId();
+                    }
+                    starts[page] = position;
+                    lengths[page] = bytes.length;
+                    used[page] = bytes.length - (to < transactions.size() ? PAGE_SLACK : 0);
+                    checksums[page] = checksum(bytes);
+                    writeFully(channel, ByteBuffer.wrap(bytes), position);
+                    position += bytes.length;
+                    from = to;
+                    page++;
+                } while (from < transactions.size());
+                pageCount = page;
+                channel.truncate(position);
+            }
+        }
+        long size = 0;
+        long padding = 0;
+        for (int page = 0; page < pageCount; page++) {
+            size += lengths[page];
+            padding += lengths[page] - used[page];
+        }
+        return padding * 4 <= size;
+    }
+
+    /**
+     * Writes the whole ledger to a temporary file, atomically replaces the ledger file with it and rebuilds the
+     * page table.
+     *
+     * @param transactions The transactions of the ledger, in file order.
+     * @param sortedById   True if the transactions are in ascending ID order, which pages require.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeAll(List<? extends Transaction> transactions, boolean sortedById) throws IOException {
+        Path temp = ledgerFile.resolveSibling(ledgerFile.getFileName() + ".tmp");
+        pageCount = 0;
+        long position = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+            for (int from = 0; from < transactions.size(); from += ROWS_PER_PAGE) {
+                int to = Math.min(from + ROWS_PER_PAGE, transactions.size());
+                int slack = to < transactions.size() ? PAGE_SLACK : 0;
+                byte[] bytes = encode(transactions, from, to, slack);
+                ensureCapacity(pageCount + 1);
+                firstIds[pageCount] = transactions.get(from).getId();
+                starts[pageCount] = position;
+                lengths[pageCount] = bytes.length;
+                used[pageCount] = bytes.length - slack;
+                checksums[pageCount] = checksum(bytes);
+                pageCount++;
+                out.write(bytes);
+                position += bytes.length;
+            }
+        }
+        Files.move(temp, ledgerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        valid = sortedById;
+    }
+
+    /**
+     * Persists the page table, stamped with the current ledger file.
+     */
+    private void savePageTable() {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pageFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            (valid ? stamp : LedgerStamp.MISSING).write(out);
+            out.writeInt(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                out.writeInt(firstIds[i]);
+                out.writeLong(starts[i]);
+                out.writeInt(lengths[i]);
+                out.writeInt(used[i]);
+                out.writeInt(checksums[i]);
+            }
+        } catch (IOException e) {
+            CONSOLETEXT.printError("Error saving page table to file");
+        }
+    }
+
+    /**
+     * Finds the page covering an ID: the last page whose first ID is not above it.
+     *
+     * @param id The ID.
+     * @return The index of the page.
+     */
+    private int pageOf(int id) {
+        int low = 0;
+        int high = pageCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstIds[mid] <= id) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the position of the first transaction whose ID is not below the given one.
+     *
+     * @param transactions The transactions, in ID order.
+     * @param id           The ID.
+     * @return The position, or the size of the list if all IDs are below it.
+     */
+    static int lowerBound(List<? extends Transaction> transactions, int id) {
+        int low = 0;
+        int high = transactions.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (transactions.get(mid).getId() < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Encodes a range of transactions as lines of the ledger file.
+     *
+     * @param transactions The transactions.
+     * @param from         The position of the first transaction (inclusive).
+     * @param to           The position of the last transaction (exclusive).
+     * @param slack        The number of empty lines to add after the transactions.
+     * @return The encoded lines.
+     */
+    private static byte[] encode(List<? extends Transaction> transactions, int from, int to, int slack) {
+        StringBuilder lines = new StringBuilder(Math.max(0, to - from) * 48 + slack);
+        for (int i = from; i < to; i++) {
+            lines.append(transactions.get(i).toRecord()).append(System.lineSeparator());
+        }
+        lines.repeat('\n', slack);
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Computes the checksum of a page region.
+     *
+     * @param bytes The bytes of the region.
+     * @return The checksum.
+     */
+    private static int checksum(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks whether a position of a file is at the start of a line.
+     *
+     * @param channel  The file channel.
+     * @param position The position in the file.
+     * @return True if the position is at the start of the file or follows a line break.
+     * @throws IOException If the file cannot be read.
+     */
+    private static boolean isLineStart(FileChannel channel, long position) throws IOException {
+        if (position == 0) {
+            return true;
+        }
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        readFully(channel, previous, position - 1);
+        return previous.get(0) == '\n';
+    }
+
+    /**
+     * Fills a buffer from a position of a file.
+     *
+     * @param channel  The file channel.
+     * @param buffer   The buffer to fill.
+     * @param position The position in the file.
+     * @throws IOException If the file ends before the buffer is full.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + channel);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Writes a buffer at a position of a file, retrying until every byte is written.
+     *
+     * @param channel  The file channel.
+     * @param buffer   The bytes to write.
+     * @param position The position in the file.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Makes sure the page table can hold the given number of pages.
+     *
+     * @param capacity The number of pages.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > firstIds.length) {
+            int length = Math.max(capacity, firstIds.length * 2);
+            firstIds = Arrays.copyOf(firstIds, length);
+            starts = Arrays.copyOf(starts, length);
+            lengths = Arrays.copyOf(lengths, length);
+            used = Arrays.copyOf(used, length);
+            checksums = Arrays.copyOf(checksums, length);
+        }
+    }
+
+    /**
+     * A region of the ledger file that changed, with the range of IDs its rows belong to.
+     */
+    public static final class Region {
+        private final byte[] bytes;
+        private final int fromId;
+        private final int toId;
+
+        /**
+         * Constructs a Region.
+         *
+         * @param bytes  The contents of the region, whole lines only.
+         * @param fromId The first ID the region covers (inclusive).
+         * @param toId   The last ID the region covers (exclusive).
+         */
+        private Region(byte[] bytes, int fromId, int toId) {
+            this.bytes = bytes;
+            this.fromId = fromId;
+            this.toId = toId;
+        }
+
+        /**
+         * Gets the contents of the region.
+         *
+         * @return The bytes of the region, whole lines only.
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Gets the first ID the region covers.
+         *
+         * @return The first ID (inclusive).
+         */
+        public int getFromId() {
+            return fromId;
+        }
+
+        /**
+         * Gets the ID after the last one the region covers.
+         *
+         * @return The last ID (exclusive).
+         */
+        public int getToId() {
+            return toId;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event emitted when the category file or the expense or income shards are written.
+ */
+@Name("expensetracker.LedgerSave")
+@Label("Ledger Save")
+@Description("Writing a ledger file")
+class LedgerSaveEvent extends LedgerFileEvent {
+}
@@ -0,0 +1,795 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Splits a ledger into one file per year of creation date, kept in a directory together with a manifest.
+ * <p>
+ * Every shard is a ledger file of its own, named after its year, with its own {@link LedgerPages} page table, so a
+ * save rewrites only the shards holding changed transactions, and only their changed pages, and reading the changes
+ * another process saved only opens the shards whose files changed. The manifest lists every shard with its number
+ * of rows, its first and last creation date and its lowest and highest ID. It is written last on every save, so it
+ * also stamps the ledger as a whole: the Bloom filter is stamped with it, and other processes watch it to learn
+ * that the ledger changed. Shard files the manifest does not list, for example because a save was interrupted
+ * before the manifest was written, are found by their names.
+ * <p>
+ * A ledger saved as a single file before shards existed is split into shards when it is first opened.
+ */
+public final class LedgerShards {
+    static final String MANIFEST_FILE = "manifest";
+    private static final String SHARD_SUFFIX = ".txt";
+    private static final String PAGES_SUFFIX = ".pages";
+    private static final String MANIFEST_HEADER = "# year,rows,first date,last date,lowest ID,highest ID";
+    private static final int SPLIT_BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final Set<Integer> changedYears = new TreeSet<>();
+    private TreeMap<Integer, LedgerPages> pages = new TreeMap<>();
+    // The manifest entry of every shard, or null for a shard found by its name whose rows have not been counted
+    private TreeMap<Integer, Shard> manifest;
+    // The version of the manifest this process last read or wrote
+    private LedgerStamp stamp;
+
+    /**
+     * Constructs the LedgerShards of a ledger, opening the page table of every shard. A ledger that only exists as
+     * a single file is split into shards first, after which the file and its page table are deleted.
+     *
+     * @param directory      The directory holding the shards; it is created if it does not exist.
+     * @param legacyFile     The file the ledger was saved to before it was split into shards.
+     * @param legacyPageFile The page table of that file.
+     */
+    public LedgerShards(Path directory, Path legacyFile, Path legacyPageFile) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            if (!Files.exists(getManifestFile()) && Files.exists(legacyFile)) {
+                split(legacyFile, directory);
+                Files.delete(legacyFile);
+                Files.deleteIfExists(legacyPageFile);
+            }
+        } catch (IOException e) {
+            CONSOLETEXT.printError("Error splitting " + legacyFile + " into shards");
+        }
+        stamp = readVersion();
+        manifest = readManifest(directory);
+        for (int year : manifest.keySet()) {
+            pages.put(year, openShard(year));
+        }
+    }
+
+    /**
+     * Constructs a copy of another LedgerShards, with its own page tables and changed shards.
+     *
+     * @param other The LedgerShards to copy.
+     */
+    private LedgerShards(LedgerShards other) {
+        directory = other.directory;
+        changedYears.addAll(other.changedYears);
+        other.pages.forEach((year, shard) -> pages.put(year, shard.copy()));
+        manifest = new TreeMap<>(other.manifest);
+        stamp = other.stamp;
+    }
+
+    /**
+     * Copies the page tables, the manifest and the changed shards, so that a save or reload can work on the copy
+     * without locking out the changes recorded meanwhile, and then {@linkplain #adopt(LedgerShards) hand it back}.
+     *
+     * @return The copy.
+     */
+    public LedgerShards copy() {
+        return new LedgerShards(this);
+    }
+
+    /**
+     * Takes over the shards, page tables and manifest version of a copy that saved or reloaded the ledger. Shards
+     * marked as changed are forgotten; changes made since the copy was taken must be marked again.
+     *
+     * @param copy The copy.
+     */
+    public void adopt(LedgerShards copy) {
+        changedYears.clear();
+        pages = copy.pages;
+        manifest = copy.manifest;
+        stamp = copy.stamp;
+    }
+
+    /**
+     * Gets the manifest file, relative to the working directory.
+     *
+     * @return The manifest file.
+     */
+    public Path getManifestFile() {
+        return directory.resolve(MANIFEST_FILE);
+    }
+
+    /**
+     * Gets the shard files, in year order.
+     *
+     * @return The shard files; some may no longer exist.
+     */
+    public List<Path> getFiles() {
+        List<Path> files = new ArrayList<>();
+        for (int year : pages.keySet()) {
+            files.add(shardFile(directory, year));
+        }
+        return files;
+    }
+
+    /**
+     * Gets the files of the shards of a ledger that may hold transactions created within a date range, without
+     * opening any shard: a shard is left out when its year, or the date bounds the manifest records for it, lie
+     * outside the range. A ledger that is still a single file, not yet split into shards, is read whole.
+     *
+     * @param directory  The directory holding the shards.
+     * @param legacyFile The file the ledger was saved to before it was split into shards.
+     * @param from       The first date of the range (inclusive), or null for no lower bound.
+     * @param to         The last date of the range (inclusive), or null for no upper bound.
+     * @return The shard files, in year order; some may no longer exist.
+     */
+    public static List<Path> getFilesBetween(Path directory, Path legacyFile, LocalDate from, LocalDate to) {
+        if (!Files.exists(directory.resolve(MANIFEST_FILE)) && Files.exists(legacyFile)) {
+            return List.of(legacyFile);
+        }
+        List<Path> files = new ArrayList<>();
+        readManifest(directory).forEach((year, shard) -> {
+            if ((from != null && year < from.getYear()) || (to != null && year > to.getYear())) {
+                return;
+            }
+            // Shards found by their name have no bounds yet, so only their year can rule them out
+            if (shard != null && (shard.getRows() == 0 || (from != null && shard.getLastDate().isBefore(from))
+                    || (to != null && shard.getFirstDate().isAfter(to)))) {
+                return;
+            }
+            files.add(shardFile(directory, year));
+        });
+        return files;
+    }
+
+    /**
+     * Gets the highest ID the manifest records, so that an ID sequence can recover without reading the shards.
+     *
+     * @return The highest ID, or 0 if the ledger is empty.
+     */
+    public int getMaxId() {
+        int maxId = 0;
+        for (Shard shard : manifest.values()) {
+            if (shard != null) {
+                maxId = Math.max(maxId, shard.getMaxId());
+            }
+        }
+        return maxId;
+    }
+
+    /**
+     * Gets the version of the manifest as it is on disk now.
+     *
+     * @return The version, or {@link LedgerStamp#MISSING} if the manifest does not exist or cannot be read.
+     */
+    public LedgerStamp readVersion() {
+        try {
+            return LedgerStamp.of(getManifestFile());
+        } catch (IOException e) {
+            return LedgerStamp.MISSING;
+        }
+    }
+
+    /**
+     * Checks whether the manifest and every shard are still the versions this process last read or wrote, i.e.
+     * no other process has saved the ledger since.
+     *
+     * @return True if nothing changed.
+     */
+    public boolean isCurrent() {
+        if (!readVersion().equals(stamp)) {
+            return false;
+        }
+        for (LedgerPages shard : pages.values()) {
+            if (!shard.isCurrent()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the page table of every shard describes its file.
+     *
+     * @return True if all page tables are up to date.
+     */
+    public boolean isValid() {
+        for (LedgerPages shard : pages.values()) {
+            if (!shard.isValid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes over the page tables persisted for the current versions of the shards whose tables are out of date.
+     */
+    public void refreshPageTables() {
+        for (LedgerPages shard : pages.values()) {
+            shard.refreshPageTable();
+        }
+    }
+
+    /**
+     * Records that a transaction was added, changed or removed in the shard of its creation date. A transaction
+     * whose date changed must be marked in its old and its new version.
+     *
+     * @param transaction The transaction.
+     */
+    public void markChanged(Transaction transaction) {
+        int year = transaction.getCreatedDate().getYear();
+        changedYears.add(year);
+        LedgerPages shard = pages.get(year);
+        if (shard != null) {
+            shard.markChanged(transaction.getId());
+        }
+    }
+
+    /**
+     * Reads the changes that were saved to the shards since this process last read or wrote them: the changed
+     * regions of every shard whose file changed, or the whole file of a new or rewritten shard.
+     *
+     * @return The changes, one per changed shard.
+     * @throws IOException If a shard cannot be read.
+     */
+    public List<Change> readChanges() throws IOException {
+        Set<Integer> years = new TreeSet<>(pages.keySet());
+        years.addAll(readManifest(directory).keySet());
+        List<Change> changes = new ArrayList<>();
+        for (int year : years) {
+            Path file = shardFile(directory, year);
+            LedgerPages shard = pages.get(year);
+            LedgerStamp version = shard == null ? LedgerStamp.of(file) : shard.readVersion();
+            if (shard == null) {
+                changes.add(new Change(year, file, version, null));
+            } else if (!version.equals(shard.getVersion())) {
+                changes.add(new Change(year, file, version, version.equals(LedgerStamp.MISSING) ? null : shard.readChanges()));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Records that this process has merged the given changes and version of the manifest, and takes over the page
+     * tables that the process which wrote the shards persisted.
+     *
+     * @param version The version of the manifest, read before the changes.
+     * @param changes The changes that were merged.
+     */
+    public void reloaded(LedgerStamp version, List<Change> changes) {
+        for (Change change : changes) {
+            if (change.getVersion().equals(LedgerStamp.MISSING)) {
+                pages.remove(change.getYear());
+                manifest.remove(change.getYear());
+            } else {
+                pages.computeIfAbsent(change.getYear(), this::openShard).reloaded(change.getVersion());
+            }
+        }
+        TreeMap<Integer, Shard> listed = readManifest(directory);
+        for (int year : pages.keySet()) {
+            if (listed.get(year) != null || !manifest.containsKey(year)) {
+                manifest.put(year, listed.get(year));
+            }
+        }
+        stamp = version;
+    }
+
+    /**
+     * Saves the changed shards, writing back only their changed pages when possible, deletes the changed shards
+     * left empty and then writes the manifest.
+     *
+     * @param snapshot   The transactions of the ledger, in file order.
+     * @param sortedById True if the transactions are in ascending ID order.
+     * @param <T>        The type of transaction.
+     * @throws IOException If a shard or the manifest cannot be written.
+     */
+    public <T extends Transaction> void save(TransactionSnapshot<T> snapshot, boolean sortedById) throws IOException {
+        Set<Integer> years = new TreeSet<>(changedYears);
+        // Shards found by their name are counted now, so that the manifest lists them again
+        manifest.forEach((year, shard) -> {
+            if (shard == null) {
+                years.add(year);
+            }
+        });
+        for (int year : years) {
+            List<T> rows = new ArrayList<>();
+            snapshot.forEachBetween(LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31), rows::add);
+            if (rows.isEmpty()) {
+                if (!changedYears.contains(year)) {
+                    continue;
+                }
+                Files.deleteIfExists(shardFile(directory, year));
+                Files.deleteIfExists(pageFile(directory, year));
+                pages.remove(year);
+                manifest.remove(year);
+                continue;
+            }
+            if (changedYears.contains(year)) {
+                pages.computeIfAbsent(year, this::openShard).save(rows, sortedById);
+            }
+            Shard shard = new Shard(year);
+            for (T row : rows) {
+                shard.add(row.getId(), row.getCreatedDate());
+            }
+            manifest.put(year, shard);
+        }
+        changedYears.clear();
+        writeManifest(directory, manifest.values());
+        stamp = readVersion();
+    }
+
+    /**
+     * Opens the page table of a shard.
+     *
+     * @param year The year of the shard.
+     * @return The pages of the shard.
+     */
+    private LedgerPages openShard(int year) {
+        return new LedgerPages(shardFile(directory, year), pageFile(directory, year));
+    }
+
+    /**
+     * Gets the file of a shard.
+     *
+     * @param directory The directory holding the shards.
+     * @param year      The year of the shard.
+     * @return The shard file.
+     */
+    static Path shardFile(Path directory, int year) {
+        return directory.resolve(year + SHARD_SUFFIX);
+    }
+
+    /**
+     * Gets the page table file of a shard.
+     *
+     * @param directory The directory holding the shards.
+     * @param year      The year of the shard.
+     * @return The page table file.
+     */
+    private static Path pageFile(Path directory, int year) {
+        return directory.resolve(year + PAGES_SUFFIX);
+    }
+
+    /**
+     * Reads the manifest of a shard directory, adding the shard files it does not list.
+     *
+     * @param directory The directory holding the shards.
+     * @return The manifest entry of every shard by year, or null for the shards the manifest does not list.
+     */
+    static TreeMap<Integer, Shard> readManifest(Path directory) {
+        TreeMap<Integer, Shard> shards = new TreeMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(directory.resolve(MANIFEST_FILE).toFile()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Shard shard = Shard.parse(line);
+                if (shard != null) {
+                    shards.put(shard.getYear(), shard);
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SHARD_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    shards.putIfAbsent(Integer.parseInt(name.substring(0, name.length() - SHARD_SUFFIX.length())), null);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return shards;
+    }
+
+    /**
+     * Atomically replaces the manifest of a shard directory.
+     *
+     * @param directory The directory holding the shards.
+     * @param shards    The manifest entries; null entries are left out.
+     * @throws IOException If the manifest cannot be written.
+     */
+    static void writeManifest(Path directory, Collection<Shard> shards) throws IOException {
+        StringBuilder text = new StringBuilder(MANIFEST_HEADER).append(System.lineSeparator());
+        for (Shard shard : shards) {
+            if (shard != null) {
+                text.append(shard.toLine()).append(System.lineSeparator());
+            }
+        }
+        Path temp = directory.resolve(MANIFEST_FILE + ".tmp");
+        Files.writeString(temp, text, StandardCharsets.UTF_8);
+        Files.move(temp, directory.resolve(MANIFEST_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes every shard, page table and the manifest of a shard directory, creating the directory if needed.
+     *
+     * @param directory The directory holding the shards.
+     * @throws IOException If a file cannot be deleted.
+     */
+    static void clear(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (int year : readManifest(directory).keySet()) {
+            Files.deleteIfExists(shardFile(directory, year));
+            Files.deleteIfExists(pageFile(directory, year));
+        }
+        Files.deleteIfExists(directory.resolve(MANIFEST_FILE));
+    }
+
+    /**
+     * Opens a shard directory for appending rows straight to its shards, for example during a bulk import.
+     *
+     * @param directory  The directory holding the shards.
+     * @param bufferSize The size of the write buffer of each shard.
+     * @return The appender, which writes the manifest when it is closed.
+     */
+    static Appender append(Path directory, int bufferSize) {
+        return new Appender(directory, bufferSize);
+    }
+
+    /**
+     * Splits a ledger file into shards, keeping the order of its rows. Blank and malformed lines, which the loader
+     * skips anyway, are dropped.
+     *
+     * @param ledgerFile The ledger file.
+     * @param directory  The directory to write the shards and the manifest to.
+     * @throws IOException If the file cannot be read or a shard cannot be written.
+     */
+    private static void split(Path ledgerFile, Path directory) throws IOException {
+        Map<Integer, Shard> shards = new TreeMap<>();
+        Map<Integer, Writer> writers = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(ledgerFile.toFile()), SPLIT_BUFFER_SIZE)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length != 5 && parts.length != 6) {
+                    continue;
+                }
+                int id;
+                LocalDate date;
+                try {
+                    id = Integer.parseInt(parts[0]);
+                    date = LocalDate.parse(parts[4]);
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    continue;
+                }
+                Writer writer = writers.get(date.getYear());
+                if (writer == null) {
+                    writer = new BufferedWriter(new FileWriter(shardFile(directory, date.getYear()).toFile()), SPLIT_BUFFER_SIZE);
+                    writers.put(date.getYear(), writer);
+                }
+                writer.write(line);
+                writer.write(System.lineSeparator());
+                shards.computeIfAbsent(date.getYear(), Shard::new).add(id, date);
+            }
+        } finally {
+            closeAll(writers.values());
+        }
+        writeManifest(directory, shards.values());
+    }
+
+    /**
+     * Closes every writer, even if closing one of them fails.
+     *
+     * @param writers The writers.
+     * @throws IOException The first failure to close a writer.
+     */
+    private static void closeAll(Collection<Writer> writers) throws IOException {
+        IOException failure = null;
+        for (Writer writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Makes sure appended rows start on a new line, even if the file was edited by hand.
+     *
+     * @param file The file rows will be appended to.
+     * @throws IOException If the file cannot be read or written.
+     */
+    private static void ensureTrailingNewline(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0) {
+                return;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n') {
+                channel.write(ByteBuffer.wrap(System.lineSeparator().getBytes(StandardCharsets.UTF_8)), size);
+            }
+        } catch (NoSuchFileException ignored) {
+        }
+    }
+
+    /**
+     * The manifest entry of one shard: its year, its number of rows, and the range of its creation dates and IDs.
+     */
+    public static final class Shard {
+        private final int year;
+        private int rows;
+        private LocalDate firstDate;
+        private LocalDate lastDate;
+        private int minId;
+        private int maxId;
+
+        /**
+         * Constructs the entry of an empty shard.
+         *
+         * @param year The year of the shard.
+         */
+        public Shard(int year) {
+            this.year = year;
+        }
+
+        /**
+         * Counts a row of the shard.
+         *
+         * @param id   The ID of the row.
+         * @param date The creation date of the row.
+         */
+        void add(int id, LocalDate date) {
+            if (rows == 0) {
+                firstDate = date;
+                lastDate = date;
+                minId = id;
+                maxId = id;
+            } else {
+                firstDate = date.isBefore(firstDate) ? date : firstDate;
+                lastDate = date.isAfter(lastDate) ? date : lastDate;
+                minId = Math.min(minId, id);
+                maxId = Math.max(maxId, id);
+            }
+            rows++;
+        }
+
+        /**
+         * Gets the year of the shard.
+         *
+         * @return The year.
+         */
+        public int getYear() {
+            return year;
+        }
+
+        /**
+         * Gets the number of rows in the shard.
+         *
+         * @return The number of rows.
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * Gets the earliest creation date in the shard.
+         *
+         * @return The first date, or null if the shard is empty.
+         */
+        public LocalDate getFirstDate() {
+            return firstDate;
+        }
+
+        /**
+         * Gets the latest creation date in the shard.
+         *
+         * @return The last date, or null if the shard is empty.
+         */
+        public LocalDate getLastDate() {
+            return lastDate;
+        }
+
+        /**
+         * Gets the lowest ID in the shard.
+         *
+         * @return The lowest ID, or 0 if the shard is empty.
+         */
+        public int getMinId() {
+            return minId;
+        }
+
+        /**
+         * Gets the highest ID in the shard.
+         *
+         * @return The highest ID, or 0 if the shard is empty.
+         */
+        public int getMaxId() {
+            return maxId;
+        }
+
+        /**
+         * Formats the entry as a line of the manifest.
+         *
+         * @return The line, without a line break.
+         */
+        String toLine() {
+            return year + "," + rows + "," + firstDate + "," + lastDate + "," + minId + "," + maxId;
+        }
+
+        /**
+         * Parses a line of the manifest.
+         *
+         * @param line The line.
+         * @return The entry, or null if the line is a comment, blank or malformed.
+         */
+        static Shard parse(String line) {
+            String[] parts = line.split(",");
+            if (line.startsWith("#") || parts.length != 6) {
+                return null;
+            }
+            try {
+                Shard shard = new Shard(Integer.parseInt(parts[0]));
+                shard.rows = Integer.parseInt(parts[1]);
+                if (shard.rows > 0) {
+                    shard.firstDate = LocalDate.parse(parts[2]);
+                    shard.lastDate = LocalDate.parse(parts[3]);
+                }
+                shard.minId = Integer.parseInt(parts[4]);
+                shard.maxId = Integer.parseInt(parts[5]);
+                return shard;
+            } catch (NumberFormatException | DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The changes saved to one shard by another process.
+     */
+    public static final class Change {
+        private final int year;
+        private final Path file;
+        private final LedgerStamp version;
+        private final List<LedgerPages.Region> regions;
+
+        /**
+         * Constructs a Change.
+         *
+         * @param year    The year of the shard.
+         * @param file    The shard file.
+         * @param version The version of the shard file that was read.
+         * @param regions The changed regions, or null if the whole file has to be read.
+         */
+        private Change(int year, Path file, LedgerStamp version, List<LedgerPages.Region> regions) {
+            this.year = year;
+            this.file = file;
+            this.version = version;
+            this.regions = regions;
+        }
+
+        /**
+         * Gets the year of the shard.
+         *
+         * @return The year.
+         */
+        public int getYear() {
+            return year;
+        }
+
+        /**
+         * Gets the shard file.
+         *
+         * @return The file, which no longer exists if the shard was deleted.
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Gets the version of the shard file that was read.
+         *
+         * @return The version, or {@link LedgerStamp#MISSING} if the shard was deleted.
+         */
+        LedgerStamp getVersion() {
+            return version;
+        }
+
+        /**
+         * Gets the changed regions of the shard file.
+         *
+         * @return The regions, or null if the whole file has to be read.
+         */
+        public List<LedgerPages.Region> getRegions() {
+            return regions;
+        }
+    }
+
+    /**
+     * Appends rows straight to the shards of a ledger, bypassing the ledger in memory, and updates the manifest
+     * when it is closed. Nothing else may save the ledger while an appender is open.
+     */
+    public static final class Appender implements Closeable {
+        private final Path directory;
+        private final int bufferSize;
+        private final TreeMap<Integer, Shard> manifest;
+        private final Map<Integer, Writer> writers = new HashMap<>();
+
+        /**
+         * Constructs an Appender.
+         *
+         * @param directory  The directory holding the shards.
+         * @param bufferSize The size of the write buffer of each shard.
+         */
+        private Appender(Path directory, int bufferSize) {
+            this.directory = directory;
+            this.bufferSize = bufferSize;
+            manifest = readManifest(directory);
+        }
+
+        /**
+         * Appends a transaction to the shard of its creation date.
+         *
+         * @param transaction The transaction.
+         * @throws IOException If the shard cannot be written.
+         */
+        public void append(Transaction transaction) throws IOException {
+            int year = transaction.getCreatedDate().getYear();
+            Writer writer = writers.get(year);
+            if (writer == null) {
+                Files.createDirectories(directory);
+                Path file = shardFile(directory, year);
+                ensureTrailingNewline(file);
+                writer = new BufferedWriter(new FileWriter(file.toFile(), true), bufferSize);
+                writers.put(year, writer);
+                // A shard the manifest does not list keeps no entry, as its other rows have not been counted
+                if (!manifest.containsKey(year)) {
+                    manifest.put(year, new Shard(year));
+                }
+            }
+            writer.write(transaction.toRecord());
+            writer.write(System.lineSeparator());
+            Shard shard = manifest.get(year);
+            if (shard != null) {
+                shard.add(transaction.getId(), transaction.getCreatedDate());
+            }
+        }
+
+        /**
+         * Flushes the shards and writes the manifest.
+         *
+         * @throws IOException If a shard or the manifest cannot be written.
+         */
+        @Override
+        public void close() throws IOException {
+            closeAll(writers.values());
+            if (!writers.isEmpty()) {
+                writeManifest(directory, manifest.values());
+            }
+        }
+    }
+}
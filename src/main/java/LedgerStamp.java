@@ -0,0 +1,135 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+/**
+ * Identifies a version of a ledger file, so that the files derived from it can tell whether they still match it.
+ * <p>
+ * A stamp holds the size of the file, its modification time to the nanosecond as the file system reports it,
+ * and a hash of the file's identity, such as its inode, which changes when the file is replaced by renaming
+ * another one over it. Two stamps are equal only if all of these are.
+ */
+public final class LedgerStamp {
+    /**
+     * The number of bytes a stamp takes when written.
+     */
+    static final int BYTES = 3 * Long.BYTES;
+
+    /**
+     * The stamp of a file that does not exist.
+     */
+    static final LedgerStamp MISSING = new LedgerStamp(-1, 0, 0, 0);
+
+    private final long size;
+    private final long modifiedSeconds;
+    private final int modifiedNanos;
+    private final int identity;
+
+    /**
+     * Constructs a LedgerStamp.
+     *
+     * @param size            The size of the file in bytes.
+     * @param modifiedSeconds The modification time, in seconds since the epoch.
+     * @param modifiedNanos   The nanoseconds of the modification time.
+     * @param identity        A hash of the file's identity.
+     */
+    private LedgerStamp(long size, long modifiedSeconds, int modifiedNanos, int identity) {
+        this.size = size;
+        this.modifiedSeconds = modifiedSeconds;
+        this.modifiedNanos = modifiedNanos;
+        this.identity = identity;
+    }
+
+    /**
+     * Gets the stamp of a file as it is on disk now.
+     *
+     * @param file The file.
+     * @return The stamp, or {@link #MISSING} if the file does not exist.
+     * @throws IOException If the attributes of the file cannot be read.
+     */
+    static LedgerStamp of(Path file) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return MISSING;
+        }
+        FileTime modified = attributes.lastModifiedTime();
+        Instant instant = modified.toInstant();
+        Object key = attributes.fileKey();
+        return new LedgerStamp(attributes.size(), instant.getEpochSecond(), instant.getNano(), key == null ? 0 : key.hashCode());
+    }
+
+    /**
+     * Reads a stamp written by {@link #write(DataOutput)}.
+     *
+     * @param in The input to read from.
+     * @return The stamp.
+     * @throws IOException If the input cannot be read.
+     */
+    static LedgerStamp read(DataInput in) throws IOException {
+        return new LedgerStamp(in.readLong(), in.readLong(), in.readInt(), in.readInt());
+    }
+
+    /**
+     * Writes the stamp in {@value #BYTES} bytes.
+     *
+     * @param out The output to write to.
+     * @throws IOException If the output cannot be written.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(modifiedSeconds);
+        out.writeInt(modifiedNanos);
+        out.writeInt(identity);
+    }
+
+    /**
+     * Puts the stamp into a buffer in the same layout as {@link #write(DataOutput)}.
+     *
+     * @param buffer The buffer to put the stamp into.
+     * @return The buffer.
+     */
+    ByteBuffer put(ByteBuffer buffer) {
+        return buffer.putLong(size).putLong(modifiedSeconds).putInt(modifiedNanos).putInt(identity);
+    }
+
+    /**
+     * Checks whether another object is a stamp of the same version of a file.
+     *
+     * @param other The object to compare with.
+     * @return True if the size, modification time and identity all match.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LedgerStamp stamp && size == stamp.size && modifiedSeconds == stamp.modifiedSeconds
+                && modifiedNanos == stamp.modifiedNanos && identity == stamp.identity;
+    }
+
+    /**
+     * Gets a hash code consistent with {@link #equals(Object)}.
+     *
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(size) * 31 + Long.hashCode(modifiedSeconds * 1_000_000_000L + modifiedNanos) * 17 + identity;
+    }
+
+    /**
+     * Gets a readable form of the stamp.
+     *
+     * @return The size, modification time and identity hash.
+     */
+    @Override
+    public String toString() {
+        return size + " bytes, modified " + Instant.ofEpochSecond(modifiedSeconds, modifiedNanos) + ", file " + Integer.toHexString(identity);
+    }
+}
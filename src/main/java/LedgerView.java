@@ -0,0 +1,96 @@
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+
+/**
+ * Base class for structures derived from a ledger that are kept up to date from its change events
+ * instead of being recomputed from scratch.
+ * <p>
+ * A view starts out stale and builds itself from a snapshot of the ledger the first time it is used. Afterwards
+ * it applies each change as it arrives. If the bus had to drop changes for it, it rebuilds from a fresh snapshot
+ * and ignores the changes that snapshot already contains.
+ *
+ * @param <T> The type of transaction.
+ */
+public abstract class LedgerView<T extends Transaction> implements Flow.Subscriber<List<TransactionEvent<T>>> {
+    private final Supplier<TransactionSnapshot<T>> source;
+    private Flow.Subscription subscription;
+    private long appliedVersion = -1;
+    private volatile boolean stale = true;
+
+    /**
+     * Constructs a LedgerView. It receives no changes until it is subscribed to the ledger's bus, which is left
+     * to the caller so that the view is fully constructed before the first change can reach it.
+     *
+     * @param source Supplies snapshots of the ledger for (re)building the view.
+     */
+    protected LedgerView(Supplier<TransactionSnapshot<T>> source) {
+        this.source = source;
+    }
+
+    /**
+     * Clears the view before it is rebuilt.
+     */
+    protected abstract void reset();
+
+    /**
+     * Applies a single change to the view.
+     *
+     * @param type   The kind of change.
+     * @param before The transaction before the change, or null if it was added.
+     * @param after  The transaction after the change, or null if it was removed.
+     */
+    protected abstract void apply(TransactionEvent.Type type, T before, T after);
+
+    /**
+     * Marks the view as having missed changes, so that it rebuilds before it is next used.
+     */
+    void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Rebuilds the view if it is stale. Subclasses call this at the start of every query.
+     */
+    protected synchronized void refresh() {
+        if (stale) {
+            stale = false;
+            reset();
+            TransactionSnapshot<T> snapshot = source.get();
+            for (T transaction : snapshot) {
+                apply(TransactionEvent.Type.ADDED, null, transaction);
+            }
+            appliedVersion = snapshot.getVersion();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<TransactionEvent<T>> batch) {
+        synchronized (this) {
+            refresh();
+            for (TransactionEvent<T> event : batch) {
+                // Changes already contained in the snapshot the view was built from are skipped
+                if (event.getVersion() > appliedVersion) {
+                    apply(event.getType(), event.getBefore(), event.getAfter());
+                    appliedVersion = event.getVersion();
+                }
+            }
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        markStale();
+    }
+
+    @Override
+    public void onComplete() {
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the directory holding the ledger files, and the subdirectories of the files watched in them, and tells the
+ * owning managers when another process changed one, so that several terminals can work on the same ledgers without
+ * overwriting each other.
+ * <p>
+ * Events are handled on a single virtual thread. The events of one save arrive in a burst, so the watcher waits
+ * until the directory has been quiet for {@value #SETTLE_MILLIS} ms and then calls each affected listener once.
+ * Listeners also hear about the saves of their own process and are expected to ignore those cheaply.
+ */
+public class LedgerWatcher implements AutoCloseable {
+    private static final long SETTLE_MILLIS = 50;
+
+    private final Path directory;
+    private final WatchService service;
+    private final Map<Path, Runnable> listeners = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a LedgerWatcher and starts watching a directory.
+     *
+     * @param directory The directory holding the ledger files.
+     * @throws IOException If the directory cannot be watched.
+     */
+    public LedgerWatcher(Path directory) throws IOException {
+        this.directory = directory;
+        service = directory.getFileSystem().newWatchService();
+        register(directory);
+        Thread.ofVirtual().name("ledger-watcher").start(this::run);
+    }
+
+    /**
+     * Calls a listener whenever a file in the watched directory is created, replaced or changed.
+     *
+     * @param fileName The name of the file, relative to the watched directory.
+     * @param listener The listener, called on the watcher thread.
+     * @throws IllegalArgumentException If the directory holding the file cannot be watched.
+     */
+    public void watch(String fileName, Runnable listener) {
+        Path file = Path.of(fileName).normalize();
+        Path parent = directory.resolve(file).getParent();
+        try {
+            register(parent);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot watch " + parent, e);
+        }
+        listeners.put(file, listener);
+    }
+
+    /**
+     * Starts watching a directory for created, replaced and changed files, unless it is watched already.
+     *
+     * @param watched The directory.
+     * @throws IOException If the directory cannot be watched.
+     */
+    private void register(Path watched) throws IOException {
+        if (watchedDirectories.add(watched)) {
+            watched.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+
+    /**
+     * Waits for events and calls the listeners of the changed files until the watcher is closed.
+     */
+    private void run() {
+        try {
+            while (true) {
+                Set<Runnable> changed = new LinkedHashSet<>();
+                WatchKey key = service.take();
+                while (key != null) {
+                    Path watched = directory.relativize((Path) key.watchable());
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changed.addAll(listeners.values());
+                        } else if (listeners.get(watched.resolve((Path) event.context())) != null) {
+                            changed.add(listeners.get(watched.resolve((Path) event.context())));
+                        }
+                    }
+                    key.reset();
+                    key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                for (Runnable listener : changed) {
+                    try {
+                        listener.run();
+                    } catch (RuntimeException e) {
+                        CONSOLETEXT.printError("Error reloading a ledger changed by another process");
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    /**
+     * Stops watching.
+     */
+    @Override
+    public void close() {
+        try {
+            service.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
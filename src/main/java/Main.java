@@ -1,11 +1,70 @@
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * The main class of the Expense Tracker application.
- * Initializes the application and starts the user interface.
+ * Initializes the application and starts the user interface,
+ * the local HTTP API when started as {@code java Main serve [port]},
+ * a bank statement import when started as {@code java Main import <statement.csv> <mapping.properties>},
+ * a synthetic ledger when started as {@code java Main generate <directory> [key=value ...]},
+ * a graph of the saved ledgers, reading only the shards it needs, when started as
+ * {@code java Main graph daily|weekly|monthly|total [categoryId]},
+ * or a non-interactive command run when started as {@code java Main batch < commands.txt}.
  */
 public class Main {
-    public static void main(String[] args) {
+    private static final int DEFAULT_PORT = 8080;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("serve")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            new ApiServer(port).start();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("batch")) {
+            boolean success = new BatchRunner(System.in).run();
+            System.exit(success ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("import")) {
+            if (args.length != 3) {
+                CONSOLETEXT.printError("Usage: java Main import <statement.csv> <mapping.properties>");
+                System.exit(2);
+            }
+            CategoryManager categoryManager = new CategoryManager();
+            StatementImporter importer = new StatementImporter(categoryManager, new ExpenseManager(categoryManager),
+                    new IncomeManager(categoryManager), ImportMapping.load(Path.of(args[2])));
+            importer.importStatement(Path.of(args[1]));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("generate")) {
+            if (args.length < 2) {
+                CONSOLETEXT.printError("Usage: java Main generate <directory> [key=value ...]");
+                System.exit(2);
+            }
+            LedgerGenerator generator = LedgerGenerator.fromArguments(Arrays.copyOfRange(args, 2, args.length));
+            long start = System.nanoTime();
+            long bytes = generator.generate(Path.of(args[1]));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            CONSOLETEXT.printSuccess(String.format("Generated %d expenses and %d incomes (%.1f MB) in %.1f s (%.0f MB/s).",
+                    generator.getExpenses(), generator.getIncomes(), bytes / 1e6, seconds, bytes / 1e6 / seconds));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("graph")) {
+            if (args.length < 2 || args.length > 3 || !GraphUI.isValidTimeRange(args[1])) {
+                CONSOLETEXT.printError("Usage: java Main graph daily|weekly|monthly|total [categoryId]");
+                System.exit(2);
+            }
+            CategoryManager categoryManager = new CategoryManager();
+            boolean filterByCategory = args.length == 3;
+            int categoryId = filterByCategory ? Integer.parseInt(args[2]) : 0;
+            if (filterByCategory && !categoryManager.isValidCategory(categoryId)) {
+                CONSOLETEXT.printError("Category not found.");
+                System.exit(2);
+            }
+            new GraphUI(categoryManager).generateSavedGraph(args[1], filterByCategory, categoryId);
+            return;
+        }
+
         System.out.println("*------------------------------------------------------------------------------------------------------------------------------------*");
         System.out.println("|                                                       Welcome To Expense Tracker                                                   |");
         System.out.println("|                                              Track your expenses anywhere, everywhere                                              |");
@@ -0,0 +1,213 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The process-wide registry of operational metrics: counters, gauges and latency histograms.
+ * Metrics are looked up once, typically into static fields, and then updated without locking.
+ * The registry can be printed as a table on the console or exported in the Prometheus text format.
+ */
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    // Keyed by metric name, then by label set, so that the export groups each metric family together
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    /**
+     * A metric name with its help text, type and one metric per label set.
+     */
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        /**
+         * Constructs an empty family.
+         *
+         * @param help The help text.
+         * @param type The Prometheus metric type.
+         */
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Gets or registers a counter.
+     *
+     * @param name   The metric name.
+     * @param labels The labels, such as {@code ledger="expenses"}, or an empty string.
+     * @param help   The help text of the metric.
+     * @return The counter.
+     */
+    public static LongAdder counter(String name, String labels, String help) {
+        return (LongAdder) register(name, labels, help, "counter", LongAdder::new);
+    }
+
+    /**
+     * Gets or registers the counter of lookups by ID in a ledger, whose latency is only sampled.
+     *
+     * @param ledger The ledger, such as {@code expenses}.
+     * @return The counter.
+     */
+    public static LongAdder lookups(String ledger) {
+        return counter("ledger_lookups_total", "ledger=\"" + ledger + "\"", "Lookups of rows by ID, of which one in 64 is timed.");
+    }
+
+    /**
+     * Gets or registers the counter of hits or misses of an in-memory cache.
+     *
+     * @param cache  The cache, such as {@code snapshot}.
+     * @param result Either {@code hit} or {@code miss}.
+     * @return The counter.
+     */
+    public static LongAdder cache(String cache, String result) {
+        return counter("cache_requests_total", "cache=\"" + cache + "\",result=\"" + result + "\"",
+                "Lookups in the in-memory caches, by result.");
+    }
+
+    /**
+     * Gets or registers a latency histogram, exported as a summary in seconds.
+     *
+     * @param name   The metric name.
+     * @param labels The labels, such as {@code operation="add"}, or an empty string.
+     * @param help   The help text of the metric.
+     * @return The histogram.
+     */
+    public static LatencyHistogram histogram(String name, String labels, String help) {
+        return (LatencyHistogram) register(name, labels, help, "summary", LatencyHistogram::new);
+    }
+
+    /**
+     * Gets or registers the latency histogram of an operation on a ledger.
+     *
+     * @param ledger    The ledger, such as {@code expenses}.
+     * @param operation The operation, such as {@code add}.
+     * @return The histogram.
+     */
+    public static LatencyHistogram operation(String ledger, String operation) {
+        return histogram("ledger_operation_seconds", "ledger=\"" + ledger + "\",operation=\"" + operation + "\"",
+                "Latency of ledger operations.");
+    }
+
+    /**
+     * Registers a gauge whose value is read when the metrics are exported, replacing any gauge registered
+     * earlier with the same name and labels.
+     *
+     * @param name   The metric name.
+     * @param labels The labels, or an empty string.
+     * @param help   The help text of the metric.
+     * @param value  Supplies the current value.
+     */
+    public static void gauge(String name, String labels, String help, DoubleSupplier value) {
+        register(name, labels, help, "gauge", () -> value);
+        FAMILIES.get(name).metrics.put(labels, value);
+    }
+
+    /**
+     * Gets or registers a metric.
+     *
+     * @param name   The metric name.
+     * @param labels The labels.
+     * @param help   The help text.
+     * @param type   The Prometheus metric type.
+     * @param metric Creates the metric if none is registered yet.
+     * @return The registered metric.
+     */
+    private static Object register(String name, String labels, String help, String type, Supplier<Object> metric) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type + ".");
+        }
+        return family.metrics.computeIfAbsent(labels, key -> metric.get());
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format.
+     *
+     * @param out The destination.
+     */
+    public static void writePrometheus(StringBuilder out) {
+        for (Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof LatencyHistogram histogram) {
+                    for (double quantile : QUANTILES) {
+                        String quantileLabel = "quantile=\"" + quantile + "\"";
+                        sample(out, name, labels.isEmpty() ? quantileLabel : labels + "," + quantileLabel,
+                                histogram.getQuantile(quantile) / 1e9);
+                    }
+                    sample(out, name + "_sum", labels, histogram.getSum() / 1e9);
+                    sample(out, name + "_count", labels, histogram.getCount());
+                } else {
+                    sample(out, name, labels, valueOf(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints every metric as a table, with latencies in milliseconds.
+     */
+    public static void print() {
+        System.out.printf("%-70s %12s %10s %10s %10s%n", "Metric", "Value/Count", "p50 ms", "p99 ms", "Mean ms");
+        for (Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+            for (Map.Entry<String, Object> metric : entry.getValue().metrics.entrySet()) {
+                String name = metric.getKey().isEmpty() ? entry.getKey() : entry.getKey() + "{" + metric.getKey() + "}";
+                if (metric.getValue() instanceof LatencyHistogram histogram) {
+                    long count = histogram.getCount();
+                    System.out.printf("%-70s %12d %10.3f %10.3f %10.3f%n", name, count, histogram.getQuantile(0.5) / 1e6,
+                            histogram.getQuantile(0.99) / 1e6, count == 0 ? 0.0 : histogram.getSum() / 1e6 / count);
+                } else {
+                    System.out.printf("%-70s %12s%n", name, format(valueOf(metric.getValue())));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the current value of a counter or gauge.
+     *
+     * @param metric The counter or gauge.
+     * @return The value.
+     */
+    private static double valueOf(Object metric) {
+        if (metric instanceof LongAdder counter) {
+            return counter.sum();
+        }
+        return ((DoubleSupplier) metric).getAsDouble();
+    }
+
+    /**
+     * Appends one sample line.
+     *
+     * @param out    The destination.
+     * @param name   The sample name.
+     * @param labels The labels, or an empty string.
+     * @param value  The sample value.
+     */
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * Formats a value, dropping the fraction of whole numbers.
+     *
+     * @param value The value.
+     * @return The formatted value.
+     */
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+}
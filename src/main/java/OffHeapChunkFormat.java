@@ -0,0 +1,140 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the transactions of each chunk as fixed-layout records in native memory, outside the Java heap.
+ * <p>
+ * Every record takes {@value #RECORD_SIZE} bytes: the ID, the category ID, the amount, the creation date as an
+ * epoch day, the code of the description in the ledger's {@link DescriptionDictionary} and the index of the currency
+ * in {@link Currencies}, padded so that every amount stays aligned. Fields are read and written
+ * through VarHandle views of direct buffers, and a transaction object is only created when a record is read, so
+ * it dies young instead of living as long as the ledger. Only the distinct descriptions stay on the heap.
+ * <p>
+ * Direct buffers count against the JVM's direct memory limit, set with {@code -XX:MaxDirectMemorySize} and by
+ * default as large as the maximum heap. A chunk of {@value #CHUNK_BYTES} bytes holds 1024 records, so a
+ * million transactions take about 32 MB, plus the chunks that snapshots still being read keep alive. Direct
+ * buffers are only freed by the garbage collector, so chunks the store gives back through {@link #release(Object)}
+ * are kept in a pool of up to {@value #MAX_POOLED} and reused for new chunks and copy-on-write copies instead of
+ * allocating more native memory.
+ *
+ * @param <T> The type of transaction.
+ */
+public class OffHeapChunkFormat<T extends Transaction> implements ChunkFormat<T> {
+    static final int RECORD_SIZE = 32;
+    private static final int CHUNK_BYTES = 1024 * RECORD_SIZE;
+    private static final int MAX_POOLED = 64;
+    private static final int ID = 0;
+    private static final int CATEGORY_ID = 4;
+    private static final int AMOUNT = 8;
+    private static final int DESCRIPTION = 16;
+    private static final int EPOCH_DAY = 20;
+    private static final int CURRENCY = 24;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle DOUBLE = MethodHandles.byteBufferViewVarHandle(double[].class, ByteOrder.nativeOrder());
+
+    private final TransactionFactory<T> factory;
+    private final DescriptionDictionary descriptions;
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+
+    /**
+     * Constructs an OffHeapChunkFormat.
+     *
+     * @param factory      Creates transactions from the records as they are read.
+     * @param descriptions The dictionary of the ledger whose transactions the chunks hold.
+     */
+    public OffHeapChunkFormat(TransactionFactory<T> factory, DescriptionDictionary descriptions) {
+        this.factory = factory;
+        this.descriptions = descriptions;
+    }
+
+    @Override
+    public Object newChunk(int capacity) {
+        return allocate(capacity * RECORD_SIZE);
+    }
+
+    @Override
+    public Object copyChunk(Object chunk, int capacity) {
+        ByteBuffer copy = allocate(capacity * RECORD_SIZE);
+        copy.put(0, (ByteBuffer) chunk, 0, capacity * RECORD_SIZE);
+        return copy;
+    }
+
+    @Override
+    public void release(Object chunk) {
+        ByteBuffer buffer = (ByteBuffer) chunk;
+        if (buffer.capacity() == CHUNK_BYTES) {
+            synchronized (pool) {
+                if (pool.size() < MAX_POOLED) {
+                    pool.push(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a direct buffer for a chunk, reusing a released one of the same size if there is one.
+     * A reused buffer still holds old records, which is harmless as only records below a chunk's size are read.
+     *
+     * @param bytes The size of the buffer.
+     * @return The buffer.
+     */
+    private ByteBuffer allocate(int bytes) {
+        if (bytes == CHUNK_BYTES) {
+            synchronized (pool) {
+                ByteBuffer buffer = pool.poll();
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return ByteBuffer.allocateDirect(bytes);
+    }
+
+    @Override
+    public T get(Object chunk, int index) {
+        ByteBuffer records = (ByteBuffer) chunk;
+        int record = index * RECORD_SIZE;
+        DescriptionDictionary.Entry description = descriptions.get((int) INT.get(records, record + DESCRIPTION));
+        return factory.create((int) INT.get(records, record + ID), description,
+                (double) DOUBLE.get(records, record + AMOUNT), (int) INT.get(records, record + CATEGORY_ID),
+                LocalDate.ofEpochDay((int) INT.get(records, record + EPOCH_DAY)),
+                Currencies.codeOf((int) INT.get(records, record + CURRENCY)));
+    }
+
+    @Override
+    public int getId(Object chunk, int index) {
+        return (int) INT.get((ByteBuffer) chunk, index * RECORD_SIZE + ID);
+    }
+
+    @Override
+    public void set(Object chunk, int index, T transaction) {
+        ByteBuffer records = (ByteBuffer) chunk;
+        int record = index * RECORD_SIZE;
+        INT.set(records, record + ID, transaction.getId());
+        INT.set(records, record + CATEGORY_ID, transaction.getCategoryId());
+        DOUBLE.set(records, record + AMOUNT, transaction.getAmount());
+        DescriptionDictionary.Entry description = descriptions.intern(transaction);
+        INT.set(records, record + DESCRIPTION, description == null ? -1 : description.getCode());
+        INT.set(records, record + EPOCH_DAY, (int) transaction.getCreatedDate().toEpochDay());
+        INT.set(records, record + CURRENCY, transaction.getCurrencyIndex());
+    }
+
+    @Override
+    public void delete(Object chunk, int index, int size) {
+        ByteBuffer records = (ByteBuffer) chunk;
+        // Moving records down one by one from the front never overwrites a record that is still to be moved
+        for (int from = (index + 1) * RECORD_SIZE, end = size * RECORD_SIZE; from < end; from += Long.BYTES) {
+            LONG.set(records, from - RECORD_SIZE, (long) LONG.get(records, from));
+        }
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+}
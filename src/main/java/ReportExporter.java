@@ -0,0 +1,482 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Exports reports — transaction listings and graph totals — as CSV or JSON.
+ * <p>
+ * Rows are streamed straight from the ledger to the channel: each field is encoded into a direct buffer that is
+ * written to the channel whenever it fills up, so no list of rows or string per row is ever built and memory use
+ * stays the same whatever the size of the export. Direct buffers are pooled and reused across exports. Listings
+ * take the same filters as graphs: a time range and a category with its subcategories.
+ */
+public class ReportExporter {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final ConcurrentLinkedQueue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The file formats reports can be exported in.
+     */
+    public enum Format {
+        CSV, JSON;
+
+        /**
+         * Gets a format by name, ignoring case.
+         *
+         * @param name The name of the format.
+         * @return The format.
+         * @throws IllegalArgumentException If there is no format with that name.
+         */
+        public static Format parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new IllegalArgumentException("Invalid format. Please use csv or json.");
+            }
+        }
+    }
+
+    /**
+     * Prevents instantiation; the exporter only has static methods.
+     */
+    private ReportExporter() {
+    }
+
+    /**
+     * Exports the transactions of a ledger within a time range to a file, archived ones first.
+     *
+     * @param file         The file to create or overwrite.
+     * @param format       The file format.
+     * @param transactions The transactions in memory.
+     * @param archive      The archived transactions, or null for none.
+     * @param timeRange    The time range (daily, weekly, monthly or total).
+     * @param categories   The category and subcategories to restrict to, or null for all categories.
+     * @param <T>          The type of transaction.
+     * @return The number of transactions exported.
+     * @throws IllegalArgumentException If the time range is invalid.
+     * @throws IOException If the file cannot be written.
+     */
+    public static <T extends Transaction> long exportTransactions(Path file, Format format, List<T> transactions,
+                                                                  TransactionArchive<T> archive, String timeRange,
+                                                                  CategoryTree.Subtree categories) throws IOException {
+        try (FileChannel channel = open(file)) {
+            return exportTransactions(channel, format, transactions, archive, timeRange, categories);
+        }
+    }
+
+    /**
+     * Exports the transactions of a ledger within a time range to a channel, archived ones first.
+     *
+     * @param channel      The channel to write to; it is left open.
+     * @param format       The file format.
+     * @param transactions The transactions in memory; for a snapshot, only the chunks within the range are read.
+     * @param archive      The archived transactions, or null for none.
+     * @param timeRange    The time range (daily, weekly, monthly or total).
+     * @param categories   The category and subcategories to restrict to, or null for all categories.
+     * @param <T>          The type of transaction.
+     * @return The number of transactions exported.
+     * @throws IllegalArgumentException If the time range is invalid.
+     * @throws IOException If the channel cannot be written.
+     */
+    public static <T extends Transaction> long exportTransactions(WritableByteChannel channel, Format format,
+                                                                  List<T> transactions, TransactionArchive<T> archive,
+                                                                  String timeRange, CategoryTree.Subtree categories) throws IOException {
+        LocalDate[] bounds = GraphUI.getBounds(timeRange, LocalDate.now());
+        if (bounds == null) {
+            throw new IllegalArgumentException("Invalid range. Please use daily, weekly, monthly or total.");
+        }
+        try (Output out = new Output(channel)) {
+            long[] rows = {0};
+            Consumer<T> row = format == Format.CSV
+                    ? transaction -> {
+                        out.writeLong(transaction.getId()).write(',');
+                        out.writeCsv(transaction.getDescription()).write(',');
+                        out.writeAmount(transaction.getAmount()).write(',');
+                        out.writeLong(transaction.getCategoryId()).write(',');
+                        out.writeAscii(transaction.getCurrency()).write(',');
+                        out.writeDate(transaction.getCreatedDate()).write('\n');
+                        rows[0]++;
+                    }
+                    : transaction -> {
+                        out.writeAscii(rows[0] == 0 ? "\n{\"id\":" : ",\n{\"id\":").writeLong(transaction.getId());
+                        out.writeAscii(",\"description\":").writeJson(transaction.getDescription());
+                        out.writeAscii(",\"amount\":").writeAmount(transaction.getAmount());
+                        out.writeAscii(",\"categoryId\":").writeLong(transaction.getCategoryId());
+                        out.writeAscii(",\"currency\":\"").writeAscii(transaction.getCurrency());
+                        out.writeAscii("\",\"createdDate\":\"").writeDate(transaction.getCreatedDate()).writeAscii("\"}");
+                        rows[0]++;
+                    };
+            Consumer<T> filtered = categories == null ? row : transaction -> {
+                if (categories.contains(transaction.getCategoryId())) {
+                    row.accept(transaction);
+                }
+            };
+            out.writeAscii(format == Format.CSV ? "id,description,amount,categoryId,currency,createdDate\n" : "[");
+            if (archive != null) {
+                archive.forEach(bounds[0], bounds[1], categories, row);
+            }
+            GraphUI.forEachBetween(transactions, bounds[0], bounds[1], filtered);
+            out.writeAscii(format == Format.CSV ? "" : rows[0] == 0 ? "]\n" : "\n]\n");
+            return rows[0];
+        } catch (Output.Failure e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Exports the daily totals of a graph to a file.
+     *
+     * @param file   The file to create or overwrite.
+     * @param format The file format.
+     * @param totals The daily totals, as computed by {@link GraphUI#aggregate}.
+     * @return The number of days exported.
+     * @throws IOException If the file cannot be written.
+     */
+    public static long exportTotals(Path file, Format format, List<DailyTotal> totals) throws IOException {
+        try (FileChannel channel = open(file)) {
+            return exportTotals(channel, format, totals);
+        }
+    }
+
+    /**
+     * Exports the daily totals of a graph to a channel.
+     *
+     * @param channel The channel to write to; it is left open.
+     * @param format  The file format.
+     * @param totals  The daily totals, as computed by {@link GraphUI#aggregate}.
+     * @return The number of days exported.
+     * @throws IOException If the channel cannot be written.
+     */
+    public static long exportTotals(WritableByteChannel channel, Format format, List<DailyTotal> totals) throws IOException {
+        try (Output out = new Output(channel)) {
+            out.writeAscii(format == Format.CSV ? "date,expense,income\n" : "[");
+            for (int i = 0; i < totals.size(); i++) {
+                DailyTotal total = totals.get(i);
+                if (format == Format.CSV) {
+                    out.writeDate(total.getDate()).write(',').writeAmount(total.getExpense()).write(',')
+                            .writeAmount(total.getIncome()).write('\n');
+                } else {
+                    out.writeAscii(i == 0 ? "\n{\"date\":\"" : ",\n{\"date\":\"").writeDate(total.getDate())
+                            .writeAscii("\",\"expense\":").writeAmount(total.getExpense())
+                            .writeAscii(",\"income\":").writeAmount(total.getIncome()).write('}');
+                }
+            }
+            out.writeAscii(format == Format.CSV ? "" : totals.isEmpty() ? "]\n" : "\n]\n");
+            return totals.size();
+        } catch (Output.Failure e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Opens a file for an export, replacing any earlier contents.
+     *
+     * @param file The file.
+     * @return The channel of the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Encodes report fields into a pooled direct buffer and writes it to a channel whenever it fills up.
+     * Write failures are thrown as {@link Failure}, so that the writing methods can be called from consumers.
+     */
+    private static final class Output implements AutoCloseable {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructs an Output, taking a buffer from the pool.
+         *
+         * @param channel The channel to write to.
+         */
+        private Output(WritableByteChannel channel) {
+            this.channel = channel;
+            ByteBuffer pooled = BUFFERS.poll();
+            buffer = pooled != null ? pooled : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        /**
+         * Makes room in the buffer, writing it out if fewer than the given number of bytes are left.
+         *
+         * @param bytes The number of bytes about to be put.
+         */
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        /**
+         * Writes the whole buffer to the channel and empties it.
+         */
+        private void drain() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new Failure(e);
+            } finally {
+                buffer.clear();
+            }
+        }
+
+        /**
+         * Writes an ASCII character.
+         *
+         * @param c The character.
+         * @return This output.
+         */
+        private Output write(char c) {
+            ensure(1);
+            buffer.put((byte) c);
+            return this;
+        }
+
+        /**
+         * Writes text that only holds ASCII characters, such as field names and currency codes.
+         *
+         * @param text The text.
+         * @return This output.
+         */
+        private Output writeAscii(String text) {
+            int length = text.length();
+            if (length > buffer.capacity()) {
+                for (int i = 0; i < length; i++) {
+                    write(text.charAt(i));
+                }
+                return this;
+            }
+            ensure(length);
+            int position = buffer.position();
+            for (int i = 0; i < length; i++) {
+                buffer.put(position++, (byte) text.charAt(i));
+            }
+            buffer.position(position);
+            return this;
+        }
+
+        /**
+         * Writes the run of characters of text that need neither escaping nor multi-byte encoding, stopping early
+         * if the buffer fills up. The characters are put at absolute positions, moving the buffer's position once.
+         *
+         * @param text  The text.
+         * @param start The index of the first character.
+         * @param json  True to also stop at backslashes and control characters, which JSON escapes.
+         * @return The index of the first character not written.
+         */
+        private int writePlain(String text, int start, boolean json) {
+            int length = text.length();
+            ensure(Math.min(length - start, buffer.capacity()));
+            int position = buffer.position();
+            int limit = buffer.limit();
+            int i = start;
+            for (; i < length && position < limit; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80 || c == '"' || (json && (c < 0x20 || c == '\\'))) {
+                    break;
+                }
+                buffer.put(position++, (byte) c);
+            }
+            buffer.position(position);
+            return i;
+        }
+
+        /**
+         * Writes a character of text encoded as UTF-8.
+         *
+         * @param text The text.
+         * @param i    The index of the character; a surrogate pair is written as one code point.
+         * @return The index of the last character written.
+         */
+        private int writeUtf8(String text, int i) {
+            char c = text.charAt(i);
+            ensure(4);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18))).put((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+                        .put((byte) (0x80 | ((codePoint >> 6) & 0x3F))).put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+            }
+            return i;
+        }
+
+        /**
+         * Writes a CSV field, quoted only if it holds a quote or a line break.
+         *
+         * @param text The field.
+         * @return This output.
+         */
+        private Output writeCsv(String text) {
+            boolean quoted = text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0;
+            if (quoted) {
+                write('"');
+            }
+            for (int i = writePlain(text, 0, false); i < text.length(); i = writePlain(text, i, false)) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    write('"').write('"');
+                    i++;
+                } else if (c >= 0x80) {
+                    i = writeUtf8(text, i) + 1;
+                }
+                // Otherwise the buffer filled up, and the next run starts by writing it out
+            }
+            return quoted ? write('"') : this;
+        }
+
+        /**
+         * Writes a JSON string, escaped like {@link Json#appendString(StringBuilder, String)}.
+         *
+         * @param text The string.
+         * @return This output.
+         */
+        private Output writeJson(String text) {
+            write('"');
+            for (int i = writePlain(text, 0, true); i < text.length(); i = writePlain(text, i, true)) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '"' -> write('\\').write('"');
+                    case '\\' -> write('\\').write('\\');
+                    case '\n' -> write('\\').write('n');
+                    case '\r' -> write('\\').write('r');
+                    case '\t' -> write('\\').write('t');
+                    default -> {
+                        if (c < 0x20) {
+                            writeAscii("\\u00").write(Character.forDigit(c >> 4, 16)).write(Character.forDigit(c & 0xF, 16));
+                        } else if (c >= 0x80) {
+                            i = writeUtf8(text, i);
+                        } else {
+                            // The buffer filled up, and the next run starts by writing it out
+                            continue;
+                        }
+                    }
+                }
+                i++;
+            }
+            return write('"');
+        }
+
+        /**
+         * Writes an integer in decimal.
+         *
+         * @param value The integer.
+         * @return This output.
+         */
+        private Output writeLong(long value) {
+            ensure(20);
+            if (value < 0) {
+                if (value == Long.MIN_VALUE) {
+                    return writeAscii(Long.toString(value));
+                }
+                buffer.put((byte) '-');
+                value = -value;
+            }
+            // Digits are put from the last one back, so that each takes one division instead of a power of ten
+            int digits = 1;
+            for (long bound = 10; digits < 19 && value >= bound; bound *= 10) {
+                digits++;
+            }
+            int end = buffer.position() + digits;
+            for (int i = end - 1; i >= end - digits; i--) {
+                buffer.put(i, (byte) ('0' + value % 10));
+                value /= 10;
+            }
+            buffer.position(end);
+            return this;
+        }
+
+        /**
+         * Writes an amount the way {@link Double#toString(double)} would. Amounts in whole cents, which are nearly
+         * all of them, are written digit by digit; any other amount falls back to {@link Double#toString(double)}.
+         *
+         * @param amount The amount.
+         * @return This output.
+         */
+        private Output writeAmount(double amount) {
+            long cents = Math.round(amount * 100);
+            if (Math.abs(amount) >= 1e7 || cents / 100.0 != amount) {
+                return writeAscii(Double.toString(amount));
+            }
+            if (cents < 0) {
+                write('-');
+                cents = -cents;
+            }
+            writeLong(cents / 100).write('.').write((char) ('0' + cents / 10 % 10));
+            return cents % 10 == 0 ? this : write((char) ('0' + cents % 10));
+        }
+
+        /**
+         * Writes a date in ISO-8601 form, such as 2024-04-12.
+         *
+         * @param date The date.
+         * @return This output.
+         */
+        private Output writeDate(LocalDate date) {
+            int year = date.getYear();
+            if (year < 1000 || year > 9999) {
+                return writeAscii(date.toString());
+            }
+            ensure(10);
+            int month = date.getMonthValue();
+            int day = date.getDayOfMonth();
+            buffer.put((byte) ('0' + year / 1000)).put((byte) ('0' + year / 100 % 10))
+                    .put((byte) ('0' + year / 10 % 10)).put((byte) ('0' + year % 10)).put((byte) '-')
+                    .put((byte) ('0' + month / 10)).put((byte) ('0' + month % 10)).put((byte) '-')
+                    .put((byte) ('0' + day / 10)).put((byte) ('0' + day % 10));
+            return this;
+        }
+
+        /**
+         * Writes out whatever is left in the buffer and returns the buffer to the pool.
+         */
+        @Override
+        public void close() {
+            try {
+                drain();
+            } finally {
+                BUFFERS.offer(buffer);
+            }
+        }
+
+        /**
+         * A write to the channel failed.
+         */
+        private static final class Failure extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * Constructs a Failure.
+             *
+             * @param cause The failed write.
+             */
+            private Failure(IOException cause) {
+                super(cause);
+            }
+
+            @Override
+            public synchronized IOException getCause() {
+                return (IOException) super.getCause();
+            }
+        }
+    }
+}
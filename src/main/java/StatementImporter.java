@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams a bank statement into the income and expense shards.
+ * <p>
+ * The statement is read in fixed-size chunks and every accepted row is appended straight to the shard of its year,
+ * so memory use does not depend on the size of the statement. Rows that duplicate a transaction already in the
+ * ledger before the import started are skipped; identical rows within one statement are all kept.
+ */
+public class StatementImporter {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final long PROGRESS_INTERVAL_NANOS = 1_000_000_000L;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final int ESTIMATED_BYTES_PER_ROW = 32;
+    private static final int ID_BLOCK_SIZE = 4096;
+
+    private final CategoryManager categoryManager;
+    private final ExpenseManager expenseManager;
+    private final IncomeManager incomeManager;
+    private final ImportMapping mapping;
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private long rowNumber;
+    private long imported;
+    private long rejected;
+    private long duplicates;
+    private int importedExpenses;
+    private int importedIncomes;
+    private int nextExpenseId;
+    private int expenseIdLimit;
+    private int nextIncomeId;
+    private int incomeIdLimit;
+
+    /**
+     * Constructs a StatementImporter.
+     *
+     * @param categoryManager The category manager used to validate category IDs.
+     * @param expenseManager  The expense manager whose shards receive the expenses.
+     * @param incomeManager   The income manager whose shards receive the incomes.
+     * @param mapping         The mapping from statement columns to transaction fields.
+     */
+    public StatementImporter(CategoryManager categoryManager, ExpenseManager expenseManager, IncomeManager incomeManager, ImportMapping mapping) {
+        this.categoryManager = categoryManager;
+        this.expenseManager = expenseManager;
+        this.incomeManager = incomeManager;
+        this.mapping = mapping;
+    }
+
+    /**
+     * Imports every row of a statement, reporting progress on the console while it runs.
+     *
+     * @param statement The statement file.
+     * @return The number of imported rows.
+     * @throws IOException If the statement cannot be read or the shards cannot be written.
+     */
+    public long importStatement(Path statement) throws IOException {
+        long start = System.nanoTime();
+        long lastProgress = start;
+        long estimatedRows = Files.size(statement) / ESTIMATED_BYTES_PER_ROW;
+        expenseManager.reserveDuplicateCapacity(estimatedRows);
+        incomeManager.reserveDuplicateCapacity(estimatedRows);
+
+        try (FileChannel channel = FileChannel.open(statement, StandardOpenOption.READ);
+             LedgerShards.Appender expenseWriter = expenseManager.appendExpenses(WRITE_BUFFER_SIZE);
+             LedgerShards.Appender incomeWriter = incomeManager.appendIncomes(WRITE_BUFFER_SIZE)) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            while (channel.read(chunk) != -1) {
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    byte b = chunk.get();
+                    if (b == '\n') {
+                        processLine(expenseWriter, incomeWriter);
+                    } else {
+                        appendToLine(b);
+                    }
+                }
+                chunk.clear();
+
+                long now = System.nanoTime();
+                if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    printProgress(now - start);
+                    lastProgress = now;
+                }
+            }
+            if (lineLength > 0) {
+                processLine(expenseWriter, incomeWriter);
+            }
+        }
+        expenseManager.saveDuplicateIndex(expenseManager.getExpenses().size() + importedExpenses);
+        incomeManager.saveDuplicateIndex(incomeManager.getIncomes().size() + importedIncomes);
+
+        printProgress(System.nanoTime() - start);
+        System.out.println();
+        String summary = String.format("Imported %d rows, skipped %d duplicates, rejected %d rows.", imported, duplicates, rejected);
+        if (rejected == 0) {
+            CONSOLETEXT.printSuccess(summary);
+        } else {
+            CONSOLETEXT.printWarning(summary);
+        }
+        return imported;
+    }
+
+    /**
+     * Appends a byte to the current line, growing the line buffer if needed.
+     *
+     * @param b The byte to append.
+     */
+    private void appendToLine(byte b) {
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = b;
+    }
+
+    /**
+     * Maps the current line to an income or expense and appends it to the matching shard.
+     *
+     * @param expenseWriter The appender of the expense shards.
+     * @param incomeWriter  The appender of the income shards.
+     */
+    private void processLine(LedgerShards.Appender expenseWriter, LedgerShards.Appender incomeWriter) throws IOException {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        lineLength = 0;
+        rowNumber++;
+        if (length == 0 || (rowNumber == 1 && mapping.hasHeader())) {
+            return;
+        }
+
+        try {
+            splitFields(new String(line, 0, length, StandardCharsets.UTF_8));
+            String description = column(mapping.getDescriptionColumn()).replace(',', ' ').strip();
+            double amount = Double.parseDouble(column(mapping.getAmountColumn()).strip());
+            LocalDate date = LocalDate.parse(column(mapping.getDateColumn()).strip(), mapping.getDateFormat());
+            int categoryId = mapping.getDefaultCategoryId();
+            if (mapping.getCategoryColumn() >= 0 && !column(mapping.getCategoryColumn()).isBlank()) {
+                categoryId = Integer.parseInt(column(mapping.getCategoryColumn()).strip());
+            }
+            String currency = mapping.getDefaultCurrency();
+            if (mapping.getCurrencyColumn() >= 0 && !column(mapping.getCurrencyColumn()).isBlank()) {
+                currency = column(mapping.getCurrencyColumn()).strip().toUpperCase(Locale.ROOT);
+            }
+            boolean income = mapping.getTypeColumn() >= 0
+                    ? column(mapping.getTypeColumn()).strip().equalsIgnoreCase(mapping.getIncomeType())
+                    : amount > 0;
+
+            if (description.isEmpty()) {
+                throw new IllegalArgumentException("Missing description.");
+            }
+            if (!Transaction.isValidAmount(Math.abs(amount))) {
+                throw new IllegalArgumentException("Invalid amount.");
+            }
+            if (date.isAfter(LocalDate.now())) {
+                throw new IllegalArgumentException("Future date.");
+            }
+            if (!categoryManager.isValidCategory(categoryId)) {
+                throw new IllegalArgumentException("Unknown category ID " + categoryId + ".");
+            }
+            if (currency != null && !Currencies.isValid(currency)) {
+                throw new IllegalArgumentException("Invalid currency " + currency + ".");
+            }
+
+            amount = Math.abs(amount);
+            if (income) {
+                if (incomeManager.isDuplicateIncome(description, amount, date, currency)) {
+                    duplicates++;
+                    return;
+                }
+                if (nextIncomeId == incomeIdLimit) {
+                    // IDs are reserved in blocks so that other writers are not held up row by row
+                    nextIncomeId = incomeManager.reserveIncomeIds(ID_BLOCK_SIZE);
+                    incomeIdLimit = nextIncomeId + ID_BLOCK_SIZE;
+                }
+                Income row = new Income(nextIncomeId++, description, amount, categoryId, date, currency);
+                incomeWriter.append(row);
+                incomeManager.recordAppendedIncome(row);
+                importedIncomes++;
+            } else {
+                if (expenseManager.isDuplicateExpense(description, amount, date, currency)) {
+                    duplicates++;
+                    return;
+                }
+                if (nextExpenseId == expenseIdLimit) {
+                    nextExpenseId = expenseManager.reserveExpenseIds(ID_BLOCK_SIZE);
+                    expenseIdLimit = nextExpenseId + ID_BLOCK_SIZE;
+                }
+                Expense row = new Expense(nextExpenseId++, description, amount, categoryId, date, currency);
+                expenseWriter.append(row);
+                expenseManager.recordAppendedExpense(row);
+                importedExpenses++;
+            }
+            imported++;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            reject(e instanceof NumberFormatException ? "Invalid number." : e.getMessage());
+        }
+    }
+
+    /**
+     * Splits a line into fields, honouring double-quoted fields that contain the delimiter.
+     *
+     * @param text The line to split.
+     */
+    private void splitFields(String text) {
+        fields.clear();
+        field.setLength(0);
+        char delimiter = mapping.getDelimiter();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == delimiter && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+    }
+
+    /**
+     * Gets a field of the current row.
+     *
+     * @param index The zero-based column index.
+     * @return The field value.
+     */
+    private String column(int index) {
+        if (index >= fields.size()) {
+            throw new IllegalArgumentException("Missing column " + index + ".");
+        }
+        return fields.get(index);
+    }
+
+    /**
+     * Counts a rejected row, reporting the first few on the console.
+     *
+     * @param reason Why the row was rejected.
+     */
+    private void reject(String reason) {
+        rejected++;
+        if (rejected <= MAX_REPORTED_ERRORS) {
+            System.out.println();
+            CONSOLETEXT.printError("Row " + rowNumber + " rejected: " + reason);
+        }
+    }
+
+    /**
+     * Prints the number of processed rows and the import rate on a single, updating console line.
+     *
+     * @param elapsedNanos The time spent importing so far.
+     */
+    private void printProgress(long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+        System.out.printf("\rProcessed %,d rows, imported %,d, skipped %,d duplicates (%,.0f rows/s)", rowNumber, imported, duplicates, rowNumber / seconds);
+    }
+}
@@ -4,14 +4,21 @@ import java.time.LocalDate;
  * Represents a transaction entity with its properties and methods.
  */
 public class Transaction {
+    /**
+     * The largest amount a transaction may have. Larger amounts are input errors, and the limit keeps every total
+     * of a ledger finite.
+     */
+    public static final double MAX_AMOUNT = 1_000_000_000_000.0;
+
     private int id;
-    private String description;
+    private DescriptionDictionary.Entry description;
     private double amount;
     private int categoryId;
     private LocalDate createdDate;
+    private int currency;
 
     /**
-     * Constructs a Transaction object with the specified parameters.
+     * Constructs a Transaction object in the base currency with the specified parameters.
      *
      * @param id           The ID of the transaction.
      * @param description  The description of the transaction.
@@ -20,11 +27,42 @@ public class Transaction {
      * @param createdDate  The creation date of the transaction.
      */
     public Transaction(int id, String description, double amount, int categoryId, LocalDate createdDate) {
+        this(id, description, amount, categoryId, createdDate, null);
+    }
+
+    /**
+     * Constructs a Transaction object with the specified parameters.
+     *
+     * @param id           The ID of the transaction.
+     * @param description  The description of the transaction.
+     * @param amount       The amount of the transaction.
+     * @param categoryId   The category ID of the transaction.
+     * @param createdDate  The creation date of the transaction.
+     * @param currency     The code of the currency of the amount, or null for the base currency.
+     * @throws IllegalArgumentException If the currency code is not well-formed.
+     */
+    public Transaction(int id, String description, double amount, int categoryId, LocalDate createdDate, String currency) {
+        this(id, DescriptionDictionary.Entry.of(description), amount, categoryId, createdDate, currency);
+    }
+
+    /**
+     * Constructs a Transaction object whose description is an entry of a ledger's {@link DescriptionDictionary}.
+     *
+     * @param id           The ID of the transaction.
+     * @param description  The entry of the description of the transaction.
+     * @param amount       The amount of the transaction.
+     * @param categoryId   The category ID of the transaction.
+     * @param createdDate  The creation date of the transaction.
+     * @param currency     The code of the currency of the amount, or null for the base currency.
+     * @throws IllegalArgumentException If the currency code is not well-formed.
+     */
+    public Transaction(int id, DescriptionDictionary.Entry description, double amount, int categoryId, LocalDate createdDate, String currency) {
         this.id = id;
         this.description = description;
         this.amount = amount;
         this.categoryId = categoryId;
         this.createdDate = createdDate;
+        this.currency = Currencies.indexOf(currency);
     }
 
     /**
@@ -51,16 +89,35 @@ public class Transaction {
      * @return The description of the transaction.
      */
     public String getDescription() {
+        return description == null ? null : description.getText();
+    }
+
+    /**
+     * Gets the entry of the description, shared with the other transactions of the ledger holding this one.
+     *
+     * @return The description entry, or null if the transaction has no description.
+     */
+    public DescriptionDictionary.Entry getDescriptionEntry() {
         return description;
     }
 
+    /**
+     * Gets the code of the description in the {@link DescriptionDictionary} of the ledger holding the transaction.
+     * Two transactions of the same ledger have equal descriptions exactly when their codes are equal.
+     *
+     * @return The description code, or -1 if the transaction has no description or is in no ledger.
+     */
+    public int getDescriptionCode() {
+        return description == null ? -1 : description.getCode();
+    }
+
     /**
      * Sets the description of the transaction.
      *
      * @param description The description of the transaction to set.
      */
     public void setDescription(String description) {
-        this.description = description;
+        this.description = DescriptionDictionary.Entry.of(description);
     }
 
     /**
@@ -117,6 +174,46 @@ public class Transaction {
         this.createdDate = createdDate;
     }
 
+    /**
+     * Gets the currency of the amount.
+     *
+     * @return The currency code.
+     */
+    public String getCurrency() {
+        return Currencies.codeOf(currency);
+    }
+
+    /**
+     * Gets the index of the currency of the amount in {@link Currencies}, 0 for the base currency.
+     *
+     * @return The currency index.
+     */
+    public int getCurrencyIndex() {
+        return currency;
+    }
+
+    /**
+     * Sets the currency of the amount.
+     *
+     * @param currency The code of the currency, or null for the base currency.
+     * @throws IllegalArgumentException If the currency code is not well-formed.
+     */
+    public void setCurrency(String currency) {
+        this.currency = Currencies.indexOf(currency);
+    }
+
+    /**
+     * Returns the line that represents this transaction in a save file.
+     * Amounts in the base currency are saved without a currency code, as they were before currencies existed.
+     *
+     * @return The comma-separated ID, description, amount, category ID, creation date and, unless it is the base
+     * currency, currency code.
+     */
+    public String toRecord() {
+        String record = id + "," + getDescription() + "," + amount + "," + categoryId + "," + createdDate;
+        return currency == 0 ? record : record + "," + getCurrency();
+    }
+
     /**
      * Returns a string representation of the Transaction object.
      *
@@ -124,6 +221,47 @@ public class Transaction {
      */
     @Override
     public String toString() {
-        return String.format("|    %-5s |   %-54s |    %-9s |    %-14s |    %-22s |", id, description, amount, categoryId, createdDate.toString());
+        // Built by hand rather than with String.format, which parses the pattern on every call
+        StringBuilder row = new StringBuilder(140).append("|    ");
+        int start = row.length();
+        pad(row.append(id), start, 5).append(" |   ");
+        start = row.length();
+        pad(row.append(getDescription()), start, 54).append(" |    ");
+        start = row.length();
+        row.append(amount);
+        if (currency != 0) {
+            row.append(' ').append(getCurrency());
+        }
+        pad(row, start, 9).append(" |    ");
+        start = row.length();
+        pad(row.append(categoryId), start, 14).append(" |    ");
+        start = row.length();
+        pad(row.append(createdDate), start, 22).append(" |");
+        return row.toString();
+    }
+
+    /**
+     * Pads a column of a table row with spaces, like {@code %-Ns} in a format pattern.
+     *
+     * @param row   The row, ending with the column's text.
+     * @param start The position in the row where the column starts.
+     * @param width The minimum width of the column.
+     * @return The row.
+     */
+    private static StringBuilder pad(StringBuilder row, int start, int width) {
+        for (int length = row.length() - start; length < width; length++) {
+            row.append(' ');
+        }
+        return row;
+    }
+
+    /**
+     * Checks whether an amount is valid for a transaction.
+     *
+     * @param amount The amount.
+     * @return True if the amount is a positive number no larger than {@link #MAX_AMOUNT}; false for NaN or infinity.
+     */
+    public static boolean isValidAmount(double amount) {
+        return amount > 0 && amount <= MAX_AMOUNT;
     }
 }
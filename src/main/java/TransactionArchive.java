@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * The cold tier of a ledger: transactions older than a horizon, moved out of memory into {@link ArchiveSegment}s.
+ * <p>
+ * The archive keeps only the segment headers. Queries skip the segments whose date range or categories cannot
+ * match and decompress the rest on demand. Archived transactions are read-only; the horizon in days is set with
+ * the {@code expensetracker.archive.horizon} system property, and archiving is off while it is unset.
+ *
+ * @param <T> The type of transaction.
+ */
+public class TransactionArchive<T extends Transaction> {
+    private final Path directory;
+    private final TransactionFactory<T> factory;
+    private final int horizonDays;
+    // Replaced, never changed, so readers can query without locking while a save adds a segment
+    private volatile List<ArchiveSegment<T>> segments;
+
+    /**
+     * Constructs a TransactionArchive over the segments in a directory, reading only their headers.
+     *
+     * @param directory The directory holding the segment files; it is created when the first segment is written.
+     * @param factory   Creates transactions from the decompressed rows.
+     */
+    public TransactionArchive(Path directory, TransactionFactory<T> factory) {
+        this.directory = directory;
+        this.factory = factory;
+        this.horizonDays = Integer.getInteger("expensetracker.archive.horizon", 0);
+        List<ArchiveSegment<T>> opened = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+                for (Path file : files) {
+                    opened.add(ArchiveSegment.open(file, factory));
+                }
+            } catch (IOException e) {
+                CONSOLETEXT.printError("Error loading archive from " + directory);
+            }
+        }
+        opened.sort(Comparator.comparing(ArchiveSegment::getMinDate));
+        segments = List.copyOf(opened);
+    }
+
+    /**
+     * Opens the segments that another process added to the archive directory since this one last looked.
+     */
+    public synchronized void refresh() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<ArchiveSegment<T>> grown = new ArrayList<>(segments);
+        Set<Path> known = new HashSet<>();
+        for (ArchiveSegment<T> segment : segments) {
+            known.add(segment.getFile().getFileName());
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path file : files) {
+                if (!known.contains(file.getFileName())) {
+                    grown.add(ArchiveSegment.open(file, factory));
+                }
+            }
+        } catch (IOException e) {
+            CONSOLETEXT.printError("Error loading archive from " + directory);
+            return;
+        }
+        if (grown.size() > segments.size()) {
+            grown.sort(Comparator.comparing(ArchiveSegment::getMinDate));
+            segments = List.copyOf(grown);
+        }
+    }
+
+    /**
+     * Gets the date before which transactions belong in the archive.
+     *
+     * @param today The current date.
+     * @return The first date kept in memory, or null if archiving is off.
+     */
+    public LocalDate getCutoff(LocalDate today) {
+        return horizonDays > 0 ? today.minusDays(horizonDays) : null;
+    }
+
+    /**
+     * Writes transactions into new segments, one per calendar month, so that date range queries can skip
+     * whole months. The segments are not queried until they are {@linkplain #publish(List) published}, so that
+     * the caller can first make sure the transactions did not change while they were written; otherwise it
+     * {@linkplain #discard(List) discards} them. Only one set of segments may be pending at a time.
+     *
+     * @param transactions The transactions to archive.
+     * @return The new segments.
+     * @throws IOException If a segment cannot be written; the segments already written are deleted.
+     */
+    public synchronized List<ArchiveSegment<T>> write(List<T> transactions) throws IOException {
+        Map<YearMonth, List<T>> months = new TreeMap<>();
+        for (T transaction : transactions) {
+            months.computeIfAbsent(YearMonth.from(transaction.getCreatedDate()), month -> new ArrayList<>()).add(transaction);
+        }
+        List<ArchiveSegment<T>> written = new ArrayList<>();
+        if (months.isEmpty()) {
+            return written;
+        }
+        Files.createDirectories(directory);
+        int number = nextSegmentNumber();
+        try {
+            for (List<T> month : months.values()) {
+                Path file = directory.resolve(String.format("segment-%06d.seg", number++));
+                written.add(ArchiveSegment.write(file, month, factory));
+            }
+        } catch (IOException e) {
+            discard(written);
+            throw e;
+        }
+        return written;
+    }
+
+    /**
+     * Adds written segments to the ones queried.
+     *
+     * @param written The segments returned by {@link #write(List)}.
+     */
+    public synchronized void publish(List<ArchiveSegment<T>> written) {
+        if (written.isEmpty()) {
+            return;
+        }
+        List<ArchiveSegment<T>> grown = new ArrayList<>(segments);
+        grown.addAll(written);
+        grown.sort(Comparator.comparing(ArchiveSegment::getMinDate));
+        segments = List.copyOf(grown);
+    }
+
+    /**
+     * Deletes written segments that are not to be published.
+     *
+     * @param written The segments returned by {@link #write(List)}.
+     */
+    public synchronized void discard(List<ArchiveSegment<T>> written) {
+        for (ArchiveSegment<T> segment : written) {
+            try {
+                Files.deleteIfExists(segment.getFile());
+            } catch (IOException e) {
+                CONSOLETEXT.printError("Error deleting archive segment " + segment.getFile());
+            }
+        }
+    }
+
+    /**
+     * Gets a number for a new segment file, one past the highest in use.
+     *
+     * @return The segment number.
+     */
+    private int nextSegmentNumber() {
+        int number = 0;
+        for (ArchiveSegment<T> segment : segments) {
+            String name = segment.getFile().getFileName().toString();
+            number = Math.max(number, Integer.parseInt(name.substring("segment-".length(), name.indexOf(".seg"))));
+        }
+        return number + 1;
+    }
+
+    /**
+     * Passes the archived transactions within a date range, oldest segment first, to an action.
+     * Only the segments whose summary says they may hold matching transactions are decompressed.
+     *
+     * @param from       The first date of the range (inclusive), or null for no lower bound.
+     * @param to         The last date of the range (inclusive), or null for no upper bound.
+     * @param categories The categories to restrict to, or null for all categories.
+     * @param action     The action to perform for each matching transaction.
+     */
+    public void forEach(LocalDate from, LocalDate to, CategoryTree.Subtree categories, Consumer<? super T> action) {
+        for (ArchiveSegment<T> segment : segments) {
+            if (!segment.overlaps(from, to) || (categories != null && !containsAny(segment, categories))) {
+                continue;
+            }
+            try {
+                segment.forEach(transaction -> {
+                    LocalDate date = transaction.getCreatedDate();
+                    if ((from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to))
+                            && (categories == null || categories.contains(transaction.getCategoryId()))) {
+                        action.accept(transaction);
+                    }
+                });
+            } catch (IOException e) {
+                CONSOLETEXT.printError("Error reading archive segment " + segment);
+            }
+        }
+    }
+
+    /**
+     * Checks whether an archived transaction on the given date has the given duplicate-detection fingerprint.
+     * Only the segments whose date range covers the date are consulted.
+     *
+     * @param fingerprint The fingerprint, as computed by {@link DuplicateIndex#fingerprint}.
+     * @param date        The date of the transaction.
+     * @return True if a matching archived transaction exists.
+     */
+    public boolean containsFingerprint(long fingerprint, LocalDate date) {
+        for (ArchiveSegment<T> segment : segments) {
+            if (!segment.overlaps(date, date)) {
+                continue;
+            }
+            try {
+                if (segment.containsFingerprint(fingerprint)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                CONSOLETEXT.printError("Error reading archive segment " + segment);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a segment holds transactions in any of the given categories, from its summary alone.
+     *
+     * @param segment    The segment.
+     * @param categories The categories.
+     * @return True if at least one transaction of the segment belongs to one of the categories.
+     */
+    private static boolean containsAny(ArchiveSegment<?> segment, CategoryTree.Subtree categories) {
+        for (int categoryId : segment.getCategoryTotals().keySet()) {
+            if (categories.contains(categoryId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether any archived transaction uses a category, from the segment summaries alone.
+     *
+     * @param categoryId The ID of the category.
+     * @return True if at least one archived transaction belongs to the category.
+     */
+    public boolean usesCategory(int categoryId) {
+        for (ArchiveSegment<T> segment : segments) {
+            if (segment.containsCategory(categoryId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the archived totals per category, converted into a reporting currency, to the given totals.
+     * Segments whose amounts are all in the reporting currency are answered from their summaries alone; the
+     * others are decompressed, so that every amount is converted at the rate of its own day.
+     *
+     * @param totals     A map from category ID to its total amount and number of transactions, in that order.
+     * @param conversion The conversion into the reporting currency.
+     */
+    public void addCategoryTotals(Map<Integer, double[]> totals, FxRates.Conversion conversion) {
+        for (ArchiveSegment<T> segment : segments) {
+            try {
+                if (segment.getCurrencies().equals(List.of(conversion.getCurrency()))) {
+                    segment.getCategoryTotals().forEach((categoryId, entry) -> {
+                        double[] total = totals.computeIfAbsent(categoryId, id -> new double[2]);
+                        total[0] += entry[0];
+                        total[1] += entry[1];
+                    });
+                } else {
+                    segment.forEach(transaction -> {
+                        double[] total = totals.computeIfAbsent(transaction.getCategoryId(), id -> new double[2]);
+                        total[0] += conversion.convert(transaction);
+                        total[1]++;
+                    });
+                }
+            } catch (IOException e) {
+                CONSOLETEXT.printError("Error reading archive segment " + segment);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of archived transactions.
+     *
+     * @return The number of transactions.
+     */
+    public long size() {
+        long size = 0;
+        for (ArchiveSegment<T> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the highest archived transaction ID.
+     *
+     * @return The highest ID, or 0 if the archive is empty.
+     */
+    public int getMaxId() {
+        int maxId = 0;
+        for (ArchiveSegment<T> segment : segments) {
+            maxId = Math.max(maxId, segment.getMaxId());
+        }
+        return maxId;
+    }
+
+    /**
+     * Gets the segments of the archive, oldest first.
+     *
+     * @return A read-only list of the segments.
+     */
+    public List<ArchiveSegment<T>> getSegments() {
+        return segments;
+    }
+}
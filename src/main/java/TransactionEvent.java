@@ -0,0 +1,70 @@
+/**
+ * Describes a single change to the transactions of a ledger.
+ *
+ * @param <T> The type of transaction.
+ */
+public class TransactionEvent<T extends Transaction> {
+
+    /**
+     * The kinds of change a ledger can undergo.
+     */
+    public enum Type {
+        ADDED, UPDATED, REMOVED
+    }
+
+    private final Type type;
+    private final T before;
+    private final T after;
+    private final long version;
+
+    /**
+     * Constructs a TransactionEvent.
+     *
+     * @param type    The kind of change.
+     * @param before  The transaction before the change, or null if it was added.
+     * @param after   The transaction after the change, or null if it was removed.
+     * @param version The version of the ledger store right after the change.
+     */
+    public TransactionEvent(Type type, T before, T after, long version) {
+        this.type = type;
+        this.before = before;
+        this.after = after;
+        this.version = version;
+    }
+
+    /**
+     * Gets the kind of change.
+     *
+     * @return The kind of change.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the transaction before the change.
+     *
+     * @return The previous transaction, or null if it was added.
+     */
+    public T getBefore() {
+        return before;
+    }
+
+    /**
+     * Gets the transaction after the change.
+     *
+     * @return The new transaction, or null if it was removed.
+     */
+    public T getAfter() {
+        return after;
+    }
+
+    /**
+     * Gets the version of the ledger store right after the change.
+     *
+     * @return The version number.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
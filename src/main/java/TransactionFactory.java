@@ -0,0 +1,21 @@
+import java.time.LocalDate;
+
+/**
+ * Creates transactions of a concrete type from their field values, such as {@code Expense::new}.
+ *
+ * @param <T> The type of transaction.
+ */
+public interface TransactionFactory<T extends Transaction> {
+    /**
+     * Creates a transaction.
+     *
+     * @param id          The ID of the transaction.
+     * @param description The entry of the description of the transaction.
+     * @param amount      The amount of the transaction.
+     * @param categoryId  The category ID of the transaction.
+     * @param createdDate The creation date of the transaction.
+     * @param currency    The code of the currency of the amount, or null for the base currency.
+     * @return The transaction.
+     */
+    T create(int id, DescriptionDictionary.Entry description, double amount, int categoryId, LocalDate createdDate, String currency);
+}
@@ -0,0 +1,54 @@
+import java.time.LocalDate;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the transactions a bulk operation applies to, by description, date range and category.
+ * Every criterion is optional; a filter without any matches every transaction.
+ */
+public class TransactionFilter implements Predicate<Transaction> {
+    private final Pattern description;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final CategoryTree.Subtree categories;
+
+    /**
+     * Constructs a TransactionFilter.
+     *
+     * @param description A regular expression found anywhere in the description, ignoring case, or null for any.
+     * @param from        The first date (inclusive), or null for no lower bound.
+     * @param to          The last date (inclusive), or null for no upper bound.
+     * @param categories  The category and subcategories to restrict to, or null for all categories.
+     * @throws IllegalArgumentException If the description pattern is not a valid regular expression or the range
+     *                                  ends before it starts.
+     */
+    public TransactionFilter(String description, LocalDate from, LocalDate to, CategoryTree.Subtree categories) {
+        if (from != null && to != null && to.isBefore(from)) {
+            throw new IllegalArgumentException("Invalid date range. The end date is before the start date.");
+        }
+        this.description = description == null || description.isEmpty() ? null
+                : Pattern.compile(description, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        this.from = from;
+        this.to = to;
+        this.categories = categories;
+    }
+
+    /**
+     * Checks whether a transaction matches every criterion of the filter.
+     *
+     * @param transaction The transaction.
+     * @return True if the transaction matches.
+     */
+    @Override
+    public boolean test(Transaction transaction) {
+        // Cheapest checks first, so that the description is only matched for rows that pass the others
+        if (categories != null && !categories.contains(transaction.getCategoryId())) {
+            return false;
+        }
+        LocalDate date = transaction.getCreatedDate();
+        if ((from != null && date.isBefore(from)) || (to != null && date.isAfter(to))) {
+            return false;
+        }
+        return description == null || description.matcher(transaction.getDescription()).find();
+    }
+}
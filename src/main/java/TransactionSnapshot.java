@@ -0,0 +1,180 @@
+import java.lang.ref.Reference;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * An immutable, point-in-time view of the transactions held by a {@link TransactionStore}.
+ * <p>
+ * A snapshot shares its chunks with the store and with other snapshots, so taking one is cheap.
+ * Readers can iterate it without any lock while writers keep changing the store; the chunks of a version are
+ * reclaimed once no snapshot refers to them any more. Depending on the store's {@link ChunkFormat}, transactions
+ * are either held as objects or materialized from off-heap records as they are read. Off-heap chunks may be
+ * reused once their snapshots are collected, so every read keeps its snapshot reachable until it is done.
+ *
+ * @param <T> The type of transaction.
+ */
+public class TransactionSnapshot<T extends Transaction> extends AbstractList<T> implements RandomAccess {
+    private final ChunkFormat<T> format;
+    private final Object[] chunks;
+    private final int[] chunkSizes;
+    private final int[] chunkMinDays;
+    private final int[] chunkMaxDays;
+    private final int[] chunkStarts;
+    private final int chunkCount;
+    private final int size;
+    private final long version;
+
+    /**
+     * Constructs a TransactionSnapshot over frozen chunks.
+     *
+     * @param format     The format of the chunks.
+     * @param chunks     The chunk directory; neither it nor the chunks may change afterwards.
+     * @param chunkSizes The number of transactions in each chunk; it may not change afterwards.
+     * @param chunkMinDays The earliest creation date in each chunk, as an epoch day; it may not change afterwards.
+     * @param chunkMaxDays The latest creation date in each chunk, as an epoch day; it may not change afterwards.
+     * @param chunkCount The number of chunks in use.
+     * @param size       The total number of transactions.
+     * @param version    The version of the store this snapshot was taken at.
+     */
+    TransactionSnapshot(ChunkFormat<T> format, Object[] chunks, int[] chunkSizes, int[] chunkMinDays, int[] chunkMaxDays,
+                        int chunkCount, int size, long version) {
+        this.format = format;
+        this.chunks = chunks;
+        this.chunkSizes = chunkSizes;
+        this.chunkMinDays = chunkMinDays;
+        this.chunkMaxDays = chunkMaxDays;
+        this.chunkCount = chunkCount;
+        this.size = size;
+        this.version = version;
+        chunkStarts = new int[chunkCount];
+        int start = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            chunkStarts[i] = start;
+            start += chunkSizes[i];
+        }
+    }
+
+    /**
+     * Gets the version of the store this snapshot was taken at.
+     *
+     * @return The version number.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the transaction at the given position.
+     *
+     * @param index The position of the transaction.
+     * @return The transaction.
+     */
+    @Override
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (chunkStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        T transaction = format.get(chunks[low], index - chunkStarts[low]);
+        Reference.reachabilityFence(this);
+        return transaction;
+    }
+
+    /**
+     * Gets the number of transactions in the snapshot.
+     *
+     * @return The number of transactions.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Performs the given action for each transaction, in order.
+     *
+     * @param action The action to perform.
+     */
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        for (int c = 0; c < chunkCount; c++) {
+            Object chunk = chunks[c];
+            for (int i = 0, n = chunkSizes[c]; i < n; i++) {
+                action.accept(format.get(chunk, i));
+            }
+        }
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Performs the given action for each transaction created within a date range, in order. Chunks whose range
+     * of dates lies outside it are skipped without reading them.
+     *
+     * @param from   The first date of the range (inclusive), or null for no lower bound.
+     * @param to     The last date of the range (inclusive), or null for no upper bound.
+     * @param action The action to perform.
+     */
+    public void forEachBetween(LocalDate from, LocalDate to, Consumer<? super T> action) {
+        long fromDay = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long toDay = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        for (int c = 0; c < chunkCount; c++) {
+            if (chunkMaxDays[c] < fromDay || chunkMinDays[c] > toDay) {
+                continue;
+            }
+            Object chunk = chunks[c];
+            boolean whole = chunkMinDays[c] >= fromDay && chunkMaxDays[c] <= toDay;
+            for (int i = 0, n = chunkSizes[c]; i < n; i++) {
+                T transaction = format.get(chunk, i);
+                if (whole || (transaction.getCreatedDate().toEpochDay() >= fromDay && transaction.getCreatedDate().toEpochDay() <= toDay)) {
+                    action.accept(transaction);
+                }
+            }
+        }
+        Reference.reachabilityFence(this);
+    }
+
+    /**
+     * Returns an iterator that walks the chunks directly.
+     *
+     * @return An iterator over the transactions, in order.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private int chunk;
+            private int offset;
+
+            @Override
+            public boolean hasNext() {
+                while (chunk < chunkCount && offset == chunkSizes[chunk]) {
+                    chunk++;
+                    offset = 0;
+                }
+                return chunk < chunkCount;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T transaction = format.get(chunks[chunk], offset++);
+                Reference.reachabilityFence(TransactionSnapshot.this);
+                return transaction;
+            }
+        };
+    }
+}
@@ -0,0 +1,604 @@
+import java.lang.ref.Cleaner;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds the transactions of a ledger in fixed-size, copy-on-write chunks.
+ * <p>
+ * Writers change chunks in place until a {@link TransactionSnapshot} is taken. From then on, the first write
+ * to a chunk (and to the chunk directory) copies it, so every snapshot keeps seeing exactly the version it was
+ * taken at while unchanged chunks stay shared. Writers are serialized by the store's lock; readers only take
+ * it briefly to publish a new snapshot and never while iterating.
+ * <p>
+ * The directory also keeps the range of creation dates in every chunk, so that date-filtered readers can skip
+ * whole chunks. The range only widens as transactions change; removing one leaves it as it was.
+ * <p>
+ * When the format {@linkplain ChunkFormat#release(Object) reuses} chunk memory, the store gives back every chunk it
+ * replaces or drops: at once if no snapshot can refer to it, otherwise once every snapshot taken before it was
+ * replaced has been garbage collected.
+ *
+ * @param <T> The type of transaction.
+ */
+public final class TransactionStore<T extends Transaction> {
+    private static final int CHUNK_SIZE = 1024;
+    private static final LongAdder SNAPSHOT_HITS = Metrics.cache("snapshot", "hit");
+    private static final LongAdder SNAPSHOT_MISSES = Metrics.cache("snapshot", "miss");
+    private static final Cleaner SNAPSHOT_CLEANER = Cleaner.create();
+
+    private final ChunkFormat<T> format;
+    private Object[] chunks = new Object[8];
+    private int[] chunkSizes = new int[8];
+    // A chunk may be changed in place only while its epoch equals the current one, i.e. no snapshot holds it
+    private long[] chunkEpochs = new long[8];
+    private int[] chunkMinDays = new int[8];
+    private int[] chunkMaxDays = new int[8];
+    private boolean directoryShared;
+    private int chunkCount;
+    private int size;
+    private long epoch;
+    private long version;
+    private boolean sortedById = true;
+    private volatile TransactionSnapshot<T> published;
+    // Only tracked off-heap: the epochs of the snapshots not yet collected, those the cleaner has reported as
+    // collected since, and the replaced chunks still in a snapshot with the epochs they were changed and replaced in
+    private final TreeSet<Long> liveSnapshots = new TreeSet<>();
+    private final ConcurrentLinkedQueue<Long> collectedSnapshots = new ConcurrentLinkedQueue<>();
+    private Object[] retiredChunks = new Object[8];
+    private long[] retiredSince = new long[8];
+    private long[] retiredUntil = new long[8];
+    private int retiredCount;
+
+    /**
+     * Constructs an empty TransactionStore keeping its transactions on the heap.
+     */
+    public TransactionStore() {
+        this(new HeapChunkFormat<>());
+    }
+
+    /**
+     * Constructs an empty TransactionStore laying out its chunks in the given format.
+     *
+     * @param format The format of the chunks.
+     */
+    public TransactionStore(ChunkFormat<T> format) {
+        this.format = format;
+    }
+
+    /**
+     * Constructs a TransactionStore holding the given transactions, in order.
+     *
+     * @param transactions The initial transactions.
+     */
+    public TransactionStore(List<T> transactions) {
+        this();
+        for (T transaction : transactions) {
+            add(transaction);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the current version of the store.
+     * Taking repeated snapshots without writes in between returns the same instance.
+     *
+     * @return An immutable view of the transactions.
+     */
+    public TransactionSnapshot<T> snapshot() {
+        TransactionSnapshot<T> snapshot = published;
+        if (snapshot != null) {
+            SNAPSHOT_HITS.increment();
+            return snapshot;
+        }
+        synchronized (this) {
+            if (published == null) {
+                SNAPSHOT_MISSES.increment();
+                published = new TransactionSnapshot<>(format, chunks, chunkSizes, chunkMinDays, chunkMaxDays, chunkCount, size, version);
+                if (format.isOffHeap()) {
+                    track(published);
+                }
+                // Everything reachable from the snapshot is now frozen
+                directoryShared = true;
+                epoch++;
+            }
+            return published;
+        }
+    }
+
+    /**
+     * Gets the format the chunks of the store are laid out in.
+     *
+     * @return The chunk format.
+     */
+    public ChunkFormat<T> getFormat() {
+        return format;
+    }
+
+    /**
+     * Gets the number of transactions in the store.
+     *
+     * @return The number of transactions.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the current version of the store, which grows by one with every write.
+     *
+     * @return The version number.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks whether the transactions are in ascending ID order, which is how the application assigns IDs.
+     *
+     * @return True if every transaction has a higher ID than the one before it.
+     */
+    public synchronized boolean isSortedById() {
+        return sortedById;
+    }
+
+    /**
+     * Checks whether the store is empty.
+     *
+     * @return True if the store holds no transactions.
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the first transaction in the store.
+     *
+     * @return The first transaction, or null if the store is empty.
+     */
+    public synchronized T first() {
+        return size == 0 ? null : format.get(chunks[0], 0);
+    }
+
+    /**
+     * Gets the last transaction in the store.
+     *
+     * @return The last transaction, or null if the store is empty.
+     */
+    public synchronized T last() {
+        return size == 0 ? null : format.get(chunks[chunkCount - 1], chunkSizes[chunkCount - 1] - 1);
+    }
+
+    /**
+     * Finds the transaction with the given ID.
+     *
+     * @param id The ID of the transaction.
+     * @return The transaction, or null if none was found.
+     */
+    public synchronized T find(int id) {
+        long position = locate(id);
+        return position < 0 ? null : format.get(chunks[(int) (position >>> 32)], (int) position);
+    }
+
+    /**
+     * Appends a transaction.
+     *
+     * @param transaction The transaction to append.
+     */
+    public synchronized void add(T transaction) {
+        if (size > 0 && transaction.getId() <= format.getId(chunks[chunkCount - 1], chunkSizes[chunkCount - 1] - 1)) {
+            sortedById = false;
+        }
+        boolean newChunk = chunkCount == 0 || chunkSizes[chunkCount - 1] == CHUNK_SIZE;
+        ownDirectory(newChunk ? chunkCount + 1 : chunkCount);
+        if (newChunk) {
+            releaseRetired();
+            chunks[chunkCount] = format.newChunk(CHUNK_SIZE);
+            chunkSizes[chunkCount] = 0;
+            chunkEpochs[chunkCount] = epoch;
+            chunkMinDays[chunkCount] = Integer.MAX_VALUE;
+            chunkMaxDays[chunkCount] = Integer.MIN_VALUE;
+            chunkCount++;
+        }
+        int c = chunkCount - 1;
+        format.set(ownChunk(c), chunkSizes[c], transaction);
+        chunkSizes[c]++;
+        widen(c, transaction);
+        size++;
+        changed();
+    }
+
+    /**
+     * Moves all transactions of another store to the end of this one, taking over its chunks without copying them.
+     * Used to join the parts of a ledger that were loaded in parallel.
+     *
+     * @param part The store to take the transactions from, laid out in the same format; no snapshot of it may
+     *             have been taken, and it must not be used afterwards.
+     */
+    public synchronized void append(TransactionStore<T> part) {
+        synchronized (part) {
+            if (part.size == 0) {
+                return;
+            }
+            int firstId = format.getId(part.chunks[0], 0);
+            sortedById = sortedById && part.sortedById
+                    && (size == 0 || firstId > format.getId(chunks[chunkCount - 1], chunkSizes[chunkCount - 1] - 1));
+            ownDirectory(chunkCount + part.chunkCount);
+            System.arraycopy(part.chunks, 0, chunks, chunkCount, part.chunkCount);
+            System.arraycopy(part.chunkSizes, 0, chunkSizes, chunkCount, part.chunkCount);
+            System.arraycopy(part.chunkMinDays, 0, chunkMinDays, chunkCount, part.chunkCount);
+            System.arraycopy(part.chunkMaxDays, 0, chunkMaxDays, chunkCount, part.chunkCount);
+            Arrays.fill(chunkEpochs, chunkCount, chunkCount + part.chunkCount, epoch);
+            chunkCount += part.chunkCount;
+            size += part.size;
+            changed();
+        }
+    }
+
+    /**
+     * Inserts a transaction at its place in ID order, for example one that another process added to the ledger
+     * file. A full chunk is split in two to make room. Appends it instead while the store is not in ID order.
+     *
+     * @param transaction The transaction to insert; no transaction in the store may have its ID.
+     */
+    public synchronized void insert(T transaction) {
+        int id = transaction.getId();
+        if (!sortedById || size == 0 || id > format.getId(chunks[chunkCount - 1], chunkSizes[chunkCount - 1] - 1)) {
+            add(transaction);
+            return;
+        }
+        int c = 0;
+        int high = chunkCount - 1;
+        while (c < high) {
+            int mid = (c + high + 1) >>> 1;
+            if (format.getId(chunks[mid], 0) <= id) {
+                c = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        ownDirectory(chunkCount + 1);
+        if (chunkSizes[c] == CHUNK_SIZE) {
+            int half = CHUNK_SIZE / 2;
+            Object upper = format.newChunk(CHUNK_SIZE);
+            System.arraycopy(chunks, c + 1, chunks, c + 2, chunkCount - c - 1);
+            System.arraycopy(chunkSizes, c + 1, chunkSizes, c + 2, chunkCount - c - 1);
+            System.arraycopy(chunkEpochs, c + 1, chunkEpochs, c + 2, chunkCount - c - 1);
+            System.arraycopy(chunkMinDays, c + 1, chunkMinDays, c + 2, chunkCount - c - 1);
+            System.arraycopy(chunkMaxDays, c + 1, chunkMaxDays, c + 2, chunkCount - c - 1);
+            chunkMinDays[c + 1] = Integer.MAX_VALUE;
+            chunkMaxDays[c + 1] = Integer.MIN_VALUE;
+            for (int i = half; i < CHUNK_SIZE; i++) {
+                T moved = format.get(chunks[c], i);
+                format.set(upper, i - half, moved);
+                widen(c + 1, moved);
+            }
+            chunks[c + 1] = upper;
+            chunkSizes[c + 1] = CHUNK_SIZE - half;
+            chunkEpochs[c + 1] = epoch;
+            chunkSizes[c] = half;
+            chunkCount++;
+            if (id > format.getId(upper, 0)) {
+                c++;
+            }
+        }
+        Object chunk = ownChunk(c);
+        int position = chunkSizes[c];
+        while (position > 0 && format.getId(chunk, position - 1) > id) {
+            format.set(chunk, position, format.get(chunk, position - 1));
+            position--;
+        }
+        format.set(chunk, position, transaction);
+        chunkSizes[c]++;
+        widen(c, transaction);
+        size++;
+        changed();
+    }
+
+    /**
+     * Replaces a transaction with a new version carrying the same ID.
+     *
+     * @param transaction The new version of the transaction.
+     * @return True if a transaction with that ID was replaced, false if none was found.
+     */
+    public synchronized boolean replace(T transaction) {
+        long position = locate(transaction.getId());
+        if (position < 0) {
+            return false;
+        }
+        int c = (int) (position >>> 32);
+        ownDirectory(chunkCount);
+        format.set(ownChunk(c), (int) position, transaction);
+        widen(c, transaction);
+        changed();
+        return true;
+    }
+
+    /**
+     * Removes the transaction with the given ID.
+     *
+     * @param id The ID of the transaction.
+     * @return True if the transaction was removed, false if none was found.
+     */
+    public synchronized boolean remove(int id) {
+        long position = locate(id);
+        if (position < 0) {
+            return false;
+        }
+        int c = (int) (position >>> 32);
+        int offset = (int) position;
+        ownDirectory(chunkCount);
+        if (chunkSizes[c] == 1) {
+            // Drop the emptied chunk from the directory
+            retire(chunks[c], chunkEpochs[c]);
+            System.arraycopy(chunks, c + 1, chunks, c, chunkCount - c - 1);
+            System.arraycopy(chunkSizes, c + 1, chunkSizes, c, chunkCount - c - 1);
+            System.arraycopy(chunkEpochs, c + 1, chunkEpochs, c, chunkCount - c - 1);
+            System.arraycopy(chunkMinDays, c + 1, chunkMinDays, c, chunkCount - c - 1);
+            System.arraycopy(chunkMaxDays, c + 1, chunkMaxDays, c, chunkCount - c - 1);
+            chunkCount--;
+            chunks[chunkCount] = null;
+        } else {
+            format.delete(ownChunk(c), offset, chunkSizes[c]);
+            chunkSizes[c]--;
+        }
+        size--;
+        changed();
+        return true;
+    }
+
+    /**
+     * Changes or removes every matching transaction in a single pass over the store. Each chunk is copied at most
+     * once, removed transactions are squeezed out as the pass goes, and chunks left empty are dropped from the
+     * directory. Every change counts as its own version, so that change events can be told apart.
+     *
+     * @param match    Selects the transactions to change.
+     * @param change   Gives the new version of a matching transaction, which must keep its ID and creation date,
+     *                 or null to remove it.
+     * @param listener Told about every change, with the transaction before and after it (null if removed), while
+     *                 the store is still locked.
+     * @return The number of transactions changed or removed.
+     */
+    public synchronized int update(Predicate<? super T> match, UnaryOperator<T> change, BiConsumer<T, T> listener) {
+        int changedRows = 0;
+        int kept = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            Object chunk = chunks[c];
+            int rows = chunkSizes[c];
+            int write = 0;
+            boolean owned = false;
+            for (int i = 0; i < rows; i++) {
+                T before = format.get(chunk, i);
+                T after = before;
+                if (match.test(before)) {
+                    after = change.apply(before);
+                    if (!owned) {
+                        ownDirectory(chunkCount);
+                        chunk = ownChunk(c);
+                        owned = true;
+                    }
+                    size -= after == null ? 1 : 0;
+                    changed();
+                    changedRows++;
+                    listener.accept(before, after);
+                }
+                if (after != null) {
+                    if (owned && (write != i || after != before)) {
+                        format.set(chunk, write, after);
+                    }
+                    write++;
+                }
+            }
+            if (owned) {
+                // Clear the slots left behind by removed transactions, last one first so that nothing moves
+                for (int n = rows; n > write; n--) {
+                    format.delete(chunk, n - 1, n);
+                }
+            }
+            if (write == 0) {
+                retire(chunk, chunkEpochs[c]);
+                continue;
+            }
+            // The directory is already owned whenever an entry moves or shrinks
+            if (kept != c) {
+                chunks[kept] = chunk;
+                chunkEpochs[kept] = chunkEpochs[c];
+                chunkMinDays[kept] = chunkMinDays[c];
+                chunkMaxDays[kept] = chunkMaxDays[c];
+            }
+            if (kept != c || write != rows) {
+                chunkSizes[kept] = write;
+            }
+            kept++;
+        }
+        if (kept != chunkCount) {
+            Arrays.fill(chunks, kept, chunkCount, null);
+            chunkCount = kept;
+        }
+        return changedRows;
+    }
+
+    /**
+     * Finds the chunk and offset of the transaction with the given ID.
+     * Uses binary search while IDs are ascending, which is how the application assigns them.
+     *
+     * @param id The ID of the transaction.
+     * @return The chunk index in the upper and the offset in the lower 32 bits, or -1 if not found.
+     */
+    private long locate(int id) {
+        if (sortedById) {
+            int low = 0;
+            int high = chunkCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (format.getId(chunks[mid], 0) <= id) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (chunkCount > 0) {
+                Object chunk = chunks[low];
+                int from = 0;
+                int to = chunkSizes[low] - 1;
+                while (from <= to) {
+                    int mid = (from + to) >>> 1;
+                    int midId = format.getId(chunk, mid);
+                    if (midId < id) {
+                        from = mid + 1;
+                    } else if (midId > id) {
+                        to = mid - 1;
+                    } else {
+                        return ((long) low << 32) | mid;
+                    }
+                }
+            }
+            return -1;
+        }
+        for (int c = 0; c < chunkCount; c++) {
+            Object chunk = chunks[c];
+            for (int i = 0; i < chunkSizes[c]; i++) {
+                if (format.getId(chunk, i) == id) {
+                    return ((long) c << 32) | i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes the chunk directory private to the writer, copying it if a snapshot shares it,
+     * and makes sure it can hold the given number of chunks.
+     *
+     * @param capacity The number of chunks the directory must be able to hold.
+     */
+    private void ownDirectory(int capacity) {
+        if (directoryShared || capacity > chunks.length) {
+            int length = capacity > chunks.length ? Math.max(capacity, chunks.length + (chunks.length >> 1)) : chunks.length;
+            chunks = Arrays.copyOf(chunks, length);
+            chunkSizes = Arrays.copyOf(chunkSizes, length);
+            chunkEpochs = Arrays.copyOf(chunkEpochs, length);
+            chunkMinDays = Arrays.copyOf(chunkMinDays, length);
+            chunkMaxDays = Arrays.copyOf(chunkMaxDays, length);
+            directoryShared = false;
+        }
+    }
+
+    /**
+     * Makes a chunk private to the writer, copying it if a snapshot shares it.
+     * The directory must already be owned.
+     *
+     * @param c The index of the chunk.
+     * @return The chunk, safe to change in place.
+     */
+    private Object ownChunk(int c) {
+        if (chunkEpochs[c] != epoch) {
+            releaseRetired();
+            Object frozen = chunks[c];
+            chunks[c] = format.copyChunk(frozen, CHUNK_SIZE);
+            retire(frozen, chunkEpochs[c]);
+            chunkEpochs[c] = epoch;
+        }
+        return chunks[c];
+    }
+
+    /**
+     * Registers a new snapshot, so that the chunks it refers to are not given back while it can still be read.
+     * The epoch has not been advanced for it yet.
+     *
+     * @param snapshot The snapshot.
+     */
+    private void track(TransactionSnapshot<T> snapshot) {
+        long snapshotEpoch = epoch;
+        ConcurrentLinkedQueue<Long> collected = collectedSnapshots;
+        liveSnapshots.add(snapshotEpoch);
+        SNAPSHOT_CLEANER.register(snapshot, () -> collected.add(snapshotEpoch));
+    }
+
+    /**
+     * Gives back a chunk the store no longer refers to, or keeps it until no snapshot can refer to it either.
+     *
+     * @param chunk      The chunk.
+     * @param chunkEpoch The epoch the chunk was last changed in; only snapshots taken from then on refer to it.
+     */
+    private void retire(Object chunk, long chunkEpoch) {
+        if (!format.isOffHeap()) {
+            return;
+        }
+        if (!inLiveSnapshot(chunkEpoch, epoch)) {
+            format.release(chunk);
+            return;
+        }
+        if (retiredCount == retiredChunks.length) {
+            retiredChunks = Arrays.copyOf(retiredChunks, retiredCount * 2);
+            retiredSince = Arrays.copyOf(retiredSince, retiredCount * 2);
+            retiredUntil = Arrays.copyOf(retiredUntil, retiredCount * 2);
+        }
+        retiredChunks[retiredCount] = chunk;
+        retiredSince[retiredCount] = chunkEpoch;
+        retiredUntil[retiredCount] = epoch;
+        retiredCount++;
+    }
+
+    /**
+     * Gives back the replaced chunks whose snapshots have all been collected since the last call.
+     */
+    private void releaseRetired() {
+        boolean collected = false;
+        for (Long snapshotEpoch; (snapshotEpoch = collectedSnapshots.poll()) != null; ) {
+            liveSnapshots.remove(snapshotEpoch);
+            collected = true;
+        }
+        if (!collected) {
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < retiredCount; i++) {
+            if (!inLiveSnapshot(retiredSince[i], retiredUntil[i])) {
+                format.release(retiredChunks[i]);
+            } else {
+                retiredChunks[kept] = retiredChunks[i];
+                retiredSince[kept] = retiredSince[i];
+                retiredUntil[kept] = retiredUntil[i];
+                kept++;
+            }
+        }
+        Arrays.fill(retiredChunks, kept, retiredCount, null);
+        retiredCount = kept;
+    }
+
+    /**
+     * Checks whether a snapshot that is not yet collected was taken within a range of epochs.
+     *
+     * @param from The first epoch of the range (inclusive).
+     * @param to   The last epoch of the range (exclusive).
+     * @return True if such a snapshot may still be read.
+     */
+    private boolean inLiveSnapshot(long from, long to) {
+        Long live = liveSnapshots.ceiling(from);
+        return live != null && live < to;
+    }
+
+    /**
+     * Widens the date range of a chunk to cover a transaction.
+     *
+     * @param c           The index of the chunk.
+     * @param transaction The transaction stored in the chunk.
+     */
+    private void widen(int c, T transaction) {
+        int day = (int) transaction.getCreatedDate().toEpochDay();
+        chunkMinDays[c] = Math.min(chunkMinDays[c], day);
+        chunkMaxDays[c] = Math.max(chunkMaxDays[c], day);
+    }
+
+    /**
+     * Records a write, invalidating the published snapshot.
+     */
+    private void changed() {
+        version++;
+        published = null;
+    }
+}